@@ -84,7 +84,10 @@ def get_tools(args: AutoCoderArgs, llm: byzerllm.ByzerLLM):
         sources = pp.sources
 
         index_manager = IndexManager(llm=llm, sources=sources, args=args)
-        target_files = index_manager.get_target_files_by_query(query)
+        try:
+            target_files = index_manager.get_target_files_by_query(query)
+        finally:
+            index_manager.close()
         file_list = target_files.file_list
         return ",".join([file.file_path for file in file_list])
 
@@ -293,7 +293,10 @@ def get_tools(args: AutoCoderArgs, llm: byzerllm.ByzerLLM):
         sources = pp.sources
 
         index_manager = IndexManager(llm=llm, sources=sources, args=args)
-        target_files = index_manager.get_target_files_by_query(query)
+        try:
+            target_files = index_manager.get_target_files_by_query(query)
+        finally:
+            index_manager.close()
         file_list = target_files.file_list
         return ",".join([file.file_path for file in file_list])
 
@@ -315,7 +318,10 @@ def get_tools(args: AutoCoderArgs, llm: byzerllm.ByzerLLM):
         sources = pp.sources
 
         index_manager = IndexManager(llm=llm, sources=sources, args=args)
-        s = index_manager.read_index_as_str()
+        try:
+            s = index_manager.read_index_as_str()
+        finally:
+            index_manager.close()
         index_data = json.loads(s)
 
         final_result = []
@@ -247,6 +247,102 @@ def main(input_args: Optional[List[str]] = None):
         help="The number of workers to build the RAG index",
     )
 
+    build_index_parser.add_argument(
+        "--rag_duckdb_ann_index",
+        type=str,
+        default="none",
+        choices=["none", "ivf"],
+        help="Approximate nearest neighbour index for DuckDB vector search, none or ivf",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_ann_nprobe",
+        type=int,
+        default=16,
+        help="The number of IVF clusters scanned per query. Higher values improve recall at the cost of latency",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_lexical_index",
+        type=str,
+        default="none",
+        choices=["none", "bm25"],
+        help="Lexical index kept alongside DuckDB vectors. bm25 enables hybrid lexical + vector retrieval",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_lexical_top_k",
+        type=int,
+        default=100,
+        help="The maximum number of chunks returned by BM25 retrieval",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_hybrid_merge_strategy",
+        type=str,
+        default="weighted_rank",
+        choices=["simple_extend", "frequency_rank", "weighted_rank", "interleave", "deduplicate", "query_weighted"],
+        help="How BM25 and vector results are fused",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_insert_batch_size",
+        type=int,
+        default=100,
+        help="The number of chunks embedded and written to DuckDB per batch",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_build_queue_size",
+        type=int,
+        default=64,
+        help="The maximum number of files buffered between the parse, chunk and write stages when building the index",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_build_checkpoint_interval",
+        type=int,
+        default=30,
+        help="Seconds between build checkpoints. An interrupted build resumes from the last checkpoint",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_projection",
+        type=str,
+        default="random",
+        choices=["random", "pca"],
+        help="How embeddings are reduced to rag_duckdb_vector_dim dimensions, random projection or PCA fitted on the corpus",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_duckdb_vector_type",
+        type=str,
+        default="float32",
+        choices=["float32", "int8"],
+        help="Storage type of the DuckDB vector column. Only applies when the table is created",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_emb_batch_size",
+        type=int,
+        default=32,
+        help="The maximum number of texts per embedding request. The actual batch size adapts to request latency",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_emb_batch_max_chars",
+        type=int,
+        default=60000,
+        help="The maximum number of characters per embedding request",
+    )
+
+    build_index_parser.add_argument(
+        "--rag_emb_target_latency",
+        type=float,
+        default=5.0,
+        help="Target latency in seconds for one embedding request. Slower requests shrink the batch size",
+    )
+
     build_index_parser.add_argument(
         "--quick", action="store_true", help="Skip system initialization"
     )
@@ -327,6 +423,41 @@ def main(input_args: Optional[List[str]] = None):
     serve_parser.add_argument(
         "--rag_doc_filter_relevance", type=int, default=5, help=""
     )
+    serve_parser.add_argument(
+        "--disable_rag_relevance_cache",
+        action="store_true",
+        help="Do not cache document relevance judgements between queries",
+    )
+    serve_parser.add_argument(
+        "--rag_relevance_cache_ttl",
+        type=int,
+        default=604800,
+        help="Seconds a cached relevance judgement stays valid, 0 keeps it forever",
+    )
+    serve_parser.add_argument(
+        "--rag_relevance_emb_reject_threshold",
+        type=float,
+        default=0.0,
+        help="Documents whose embedding similarity to the question is below this are rejected without an LLM call (0 disables)",
+    )
+    serve_parser.add_argument(
+        "--rag_relevance_emb_accept_threshold",
+        type=float,
+        default=0.0,
+        help="Documents whose embedding similarity to the question is above this are accepted without an LLM call (0 disables)",
+    )
+    serve_parser.add_argument(
+        "--rag_relevance_small_model_low",
+        type=int,
+        default=2,
+        help="recall_small_model scores at or below this are final",
+    )
+    serve_parser.add_argument(
+        "--rag_relevance_small_model_high",
+        type=int,
+        default=8,
+        help="recall_small_model scores at or above this are final, scores in between go to the recall model",
+    )
     serve_parser.add_argument("--source_dir", default=".", help="")
     serve_parser.add_argument("--host", default="", help="")
     serve_parser.add_argument("--port", type=int, default=8000, help="")
@@ -375,6 +506,30 @@ def main(input_args: Optional[List[str]] = None):
         action="store_true",
         help="Enable Nginx X-Accel-Redirect for static file serving when behind Nginx"
     )
+    serve_parser.add_argument(
+        "--max_concurrent_requests",
+        type=int,
+        default=0,
+        help="Maximum number of chat/completion requests processed at the same time, 0 means unlimited"
+    )
+    serve_parser.add_argument(
+        "--max_queued_requests",
+        type=int,
+        default=64,
+        help="Maximum number of requests waiting for a free slot before new ones are rejected with 429"
+    )
+    serve_parser.add_argument(
+        "--admission_timeout",
+        type=float,
+        default=30.0,
+        help="Seconds a request may wait for a free slot before it is rejected with 429"
+    )
+    serve_parser.add_argument(
+        "--rag_filter_max_concurrency",
+        type=int,
+        default=32,
+        help="Maximum number of document relevance checks running at once across all requests"
+    )
     serve_parser.add_argument(
         "--disable_auto_window",
         action="store_true",
@@ -421,6 +576,116 @@ def main(input_args: Optional[List[str]] = None):
         help="The storage type of the RAG, duckdb or byzer-storage",
     )    
 
+    serve_parser.add_argument(
+        "--rag_duckdb_ann_index",
+        type=str,
+        default="none",
+        choices=["none", "ivf"],
+        help="Approximate nearest neighbour index for DuckDB vector search, none or ivf",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_ann_nprobe",
+        type=int,
+        default=16,
+        help="The number of IVF clusters scanned per query. Higher values improve recall at the cost of latency",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_lexical_index",
+        type=str,
+        default="none",
+        choices=["none", "bm25"],
+        help="Lexical index kept alongside DuckDB vectors. bm25 enables hybrid lexical + vector retrieval",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_lexical_top_k",
+        type=int,
+        default=100,
+        help="The maximum number of chunks returned by BM25 retrieval",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_hybrid_merge_strategy",
+        type=str,
+        default="weighted_rank",
+        choices=["simple_extend", "frequency_rank", "weighted_rank", "interleave", "deduplicate", "query_weighted"],
+        help="How BM25 and vector results are fused",
+    )
+
+    serve_parser.add_argument(
+        "--rag_query_embedding_cache_size",
+        type=int,
+        default=1024,
+        help="The number of query embeddings kept in memory, 0 disables the cache",
+    )
+
+    serve_parser.add_argument(
+        "--rag_search_result_cache_size",
+        type=int,
+        default=256,
+        help="The number of per-query search results kept in memory until the index changes, 0 disables the cache",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_insert_batch_size",
+        type=int,
+        default=100,
+        help="The number of chunks embedded and written to DuckDB per batch",
+    )
+
+    serve_parser.add_argument(
+        "--rag_build_queue_size",
+        type=int,
+        default=64,
+        help="The maximum number of files buffered between the parse, chunk and write stages when building the index",
+    )
+
+    serve_parser.add_argument(
+        "--rag_build_checkpoint_interval",
+        type=int,
+        default=30,
+        help="Seconds between build checkpoints. An interrupted build resumes from the last checkpoint",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_projection",
+        type=str,
+        default="random",
+        choices=["random", "pca"],
+        help="How embeddings are reduced to rag_duckdb_vector_dim dimensions, random projection or PCA fitted on the corpus",
+    )
+
+    serve_parser.add_argument(
+        "--rag_duckdb_vector_type",
+        type=str,
+        default="float32",
+        choices=["float32", "int8"],
+        help="Storage type of the DuckDB vector column. Only applies when the table is created",
+    )
+
+    serve_parser.add_argument(
+        "--rag_emb_batch_size",
+        type=int,
+        default=32,
+        help="The maximum number of texts per embedding request. The actual batch size adapts to request latency",
+    )
+
+    serve_parser.add_argument(
+        "--rag_emb_batch_max_chars",
+        type=int,
+        default=60000,
+        help="The maximum number of characters per embedding request",
+    )
+
+    serve_parser.add_argument(
+        "--rag_emb_target_latency",
+        type=float,
+        default=5.0,
+        help="Target latency in seconds for one embedding request. Slower requests shrink the batch size",
+    )
+
     serve_parser.add_argument(
         "--hybrid_index_max_output_tokens",
         type=int,
@@ -463,6 +728,12 @@ def main(input_args: Optional[List[str]] = None):
         help="The model used for recall documents",
     )
 
+    serve_parser.add_argument(
+        "--recall_small_model",
+        default="",
+        help="A cheaper model that judges document relevance before the recall model",
+    )
+
     serve_parser.add_argument(
         "--chunk_model",
         default="",
@@ -694,6 +965,12 @@ def main(input_args: Optional[List[str]] = None):
                 recall_model.skip_nontext_check = True
                 llm.setup_sub_client("recall_model", recall_model)
 
+            if args.recall_small_model:
+                recall_small_model = byzerllm.ByzerLLM()
+                recall_small_model.setup_default_model_name(args.recall_small_model)
+                recall_small_model.skip_nontext_check = True
+                llm.setup_sub_client("recall_small_model", recall_small_model)
+
             if args.chunk_model:
                 chunk_model = byzerllm.ByzerLLM()
                 chunk_model.setup_default_model_name(args.chunk_model)
@@ -776,6 +1053,23 @@ def main(input_args: Optional[List[str]] = None):
                 )
                 llm.setup_sub_client("recall_model", recall_model)
 
+            if args.recall_small_model:
+                model_info = get_model_info_dict(args.recall_small_model)
+                recall_small_model = byzerllm.SimpleByzerLLM(default_model_name=args.recall_small_model)
+                recall_small_model.deploy(
+                    model_path="",
+                    pretrained_model_type=model_info["model_type"],
+                    udf_name=args.recall_small_model,
+                    infer_params={
+                        "saas.base_url": model_info["base_url"],
+                        "saas.api_key": model_info["api_key"],
+                        "saas.model": model_info["model_name"],
+                        "saas.is_reasoning": model_info["is_reasoning"],
+                        "saas.max_output_tokens": model_info.get("max_output_tokens", 8096)
+                    }
+                )
+                llm.setup_sub_client("recall_small_model", recall_small_model)
+
             if args.chunk_model:
                 model_info = get_model_info_dict(args.chunk_model)
                 chunk_model = byzerllm.SimpleByzerLLM(default_model_name=args.chunk_model)
@@ -343,7 +343,10 @@ class AutoCommandTools:
 
         index_manager = IndexManager(
             llm=self.llm, sources=sources, args=self.args)
-        target_files = index_manager.get_target_files_by_query(query)
+        try:
+            target_files = index_manager.get_target_files_by_query(query)
+        finally:
+            index_manager.close()
         file_list = target_files.file_list
         v = ",".join([file.file_path for file in file_list])
         self.result_manager.append(content=v, meta={
@@ -384,7 +387,10 @@ class AutoCommandTools:
         """
         try:
             index_manager = self._get_index()
-            s = index_manager.read_index_as_str()
+            try:
+                s = index_manager.read_index_as_str()
+            finally:
+                index_manager.close()
             index_data = json.loads(s)
         except Exception as e:
             v = f"Error: {str(e)}\n\n完整异常堆栈信息:\n{traceback.format_exc()}"
@@ -636,7 +642,10 @@ class AutoCommandTools:
         """
         index_manager = self._get_index()
         result = []
-        index_items = index_manager.read_index()
+        try:
+            index_items = index_manager.read_index()
+        finally:
+            index_manager.close()
 
         for item in index_items:
             symbols = extract_symbols(item.symbols)
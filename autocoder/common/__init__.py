@@ -305,13 +305,36 @@ class AutoCoderArgs(pydantic.BaseModel):
     rag_storage_type: str = "duckdb"  # 向量化存储类型 byzer-storage | duckdb
     rag_params_max_tokens: int = 500000 
     rag_doc_filter_relevance: int = 2
+    disable_rag_relevance_cache: bool = False  # 不缓存文档相关性判断结果, 缓存键为 (文档哈希, 归一化对话哈希, 模型)
+    rag_relevance_cache_ttl: int = 604800  # 相关性判断结果的有效期(秒), 小于等于 0 表示永不过期
+    rag_relevance_emb_reject_threshold: float = 0.0  # 文档与问题 embedding 相似度低于该值时直接判为不相关, 0 表示不启用
+    rag_relevance_emb_accept_threshold: float = 0.0  # 文档与问题 embedding 相似度高于该值时直接判为相关, 0 表示不启用
+    rag_relevance_small_model_low: int = 2  # recall_small_model 打分不高于该值时直接采用
+    rag_relevance_small_model_high: int = 8  # recall_small_model 打分不低于该值时直接采用, 中间分数交给召回模型
+    rag_filter_max_concurrency: int = 32  # 异步服务路径下所有请求共享的文档过滤并发数
     rag_context_window_limit: int = 120000
     rag_duckdb_vector_dim: int = 1024  # DuckDB 向量化存储的维度
     rag_duckdb_query_similarity: float = 0.1  # DuckDB 向量化检索 相似度 阈值
     rag_duckdb_query_top_k: int = 10000  # DuckDB 向量化检索 返回 TopK个结果(且大于相似度)
+    rag_duckdb_ann_index: str = "none"  # DuckDB 向量检索的近似索引类型 none | ivf
+    rag_duckdb_ann_nlist: int = 0  # IVF 索引的聚类数, 0 表示按数据量自动确定
+    rag_duckdb_ann_nprobe: int = 16  # IVF 索引查询时扫描的聚类数, 越大召回率越高、速度越慢
+    rag_duckdb_lexical_index: str = "none"  # DuckDB 检索使用的词法索引 none | bm25, 启用后向量与 BM25 混合检索
+    rag_duckdb_lexical_top_k: int = 100  # BM25 检索返回的最大 chunk 数
+    rag_duckdb_hybrid_merge_strategy: str = "weighted_rank"  # 向量与 BM25 结果的合并策略, 见 MergeStrategy
+    rag_query_embedding_cache_size: int = 1024  # 进程内缓存的查询 embedding 条数, 0 表示不缓存
+    rag_search_result_cache_size: int = 256  # 进程内缓存的单条查询检索结果数, 数据表变化后自动失效, 0 表示不缓存
+    rag_duckdb_insert_batch_size: int = 100  # DuckDB 批量写入时每批计算 embedding 并写入的 chunk 数
+    rag_duckdb_projection: str = "random"  # 向量降维方式 random | pca, 投影矩阵保存在数据库文件旁边
+    rag_duckdb_vector_type: str = "float32"  # DuckDB 向量列的存储类型 float32 | int8, 只在建表时生效
     rag_index_build_workers: int = 10
+    rag_build_queue_size: int = 64  # 构建索引时解析、切分、写入各阶段之间最多缓存的文件数
+    rag_build_checkpoint_interval: int = 30  # 构建索引时记录检查点的间隔(秒), 中断后从检查点继续
     rag_emb_dim: int = 1024
     rag_emb_text_size: int = 1024
+    rag_emb_batch_size: int = 32  # 单次 embedding 请求最多包含的文本数, 实际批大小按请求耗时自适应调整
+    rag_emb_batch_max_chars: int = 60000  # 单次 embedding 请求的字符预算
+    rag_emb_target_latency: float = 5.0  # embedding 请求的目标耗时(秒), 超过时缩小批大小
     # rag 本地图床地址
     local_image_host: str = ""
     rag_recall_max_queries: int = 5
@@ -470,6 +493,9 @@ class AutoCoderArgs(pydantic.BaseModel):
     # Timeout (in seconds) for calling subagents via RunNamedSubagentsToolResolver
     # Default to 30 minutes
     call_subagent_timeout: float = 30 * 60
+    # Number of pre-warmed subagent processes kept ready for background
+    # RunNamedSubagentsTool runs; 0 disables the warm pool
+    subagent_warm_pool_size: int = 1
 
     class Config:
         protected_namespaces = ()
@@ -5,7 +5,7 @@ import time
 import subprocess
 import tempfile
 from pathlib import Path
-from typing import Optional, Callable, TYPE_CHECKING
+from typing import List, Optional, Callable, TYPE_CHECKING
 
 # 仅用于类型提示，避免循环导入
 if TYPE_CHECKING:
@@ -18,23 +18,32 @@ class QueueExecutor:
 
     def __init__(self, queue_manager: Optional['QueueManager'] = None,
                  max_concurrent_tasks: int = 1,
-                 execution_callback: Optional[Callable] = None):
+                 execution_callback: Optional[Callable] = None,
+                 idle_poll_interval: float = 5.0):
         """
         初始化队列执行器
 
+        执行器启动 max_concurrent_tasks 个常驻执行线程，每个线程预先准备自己的 worktree，
+        任务入队或完成时由 QueueManager 的变更通知唤醒，不再按固定间隔轮询。
+
         Args:
             queue_manager: 队列管理器实例，如果为None则创建新实例
             max_concurrent_tasks: 最大并发任务数
             execution_callback: 任务执行回调函数
+            idle_poll_interval: 空闲时检查其他进程写入的新任务的间隔秒数
         """
         # 延迟导入以避免循环依赖
         from autocoder.common.agent_query_queue.queue_manager import QueueManager
         self.queue_manager = queue_manager or QueueManager()
         self.max_concurrent_tasks = max_concurrent_tasks
         self.execution_callback = execution_callback
+        self.idle_poll_interval = idle_poll_interval
         self._running = False
-        self._thread = None
-        self._current_tasks = {}  # task_id -> thread
+        self._threads: List[threading.Thread] = []
+        self._current_tasks = {}  # task_id -> 执行线程序号
+        self._tasks_lock = threading.Lock()
+        self._worktree_infos = {}  # worktree 名称 -> worktree 信息
+        self._worktree_lock = threading.Lock()
 
         # 初始化 worktree 管理器
         self._init_worktree_manager()
@@ -91,9 +100,13 @@ class QueueExecutor:
             return
 
         self._running = True
-        self._thread = threading.Thread(target=self._run_loop, daemon=True)
-        self._thread.start()
-        global_logger.info("Queue executor started")
+        self._threads = []
+        for slot in range(max(1, self.max_concurrent_tasks)):
+            thread = threading.Thread(target=self._worker_loop, args=(slot,),
+                                      name=f"queue-executor-{slot}", daemon=True)
+            self._threads.append(thread)
+            thread.start()
+        global_logger.info(f"Queue executor started with {len(self._threads)} workers")
 
     def stop(self) -> None:
         """停止队列执行器"""
@@ -101,51 +114,48 @@ class QueueExecutor:
             return
 
         self._running = False
-        if self._thread:
-            self._thread.join(timeout=5)
+        # 唤醒等待新任务的执行线程，正在执行任务的线程在任务结束后退出
+        self.queue_manager.notify_change()
+        for thread in self._threads:
+            thread.join(timeout=5)
+        self._threads = []
         global_logger.info("Queue executor stopped")
 
-    def _run_loop(self) -> None:
-        """主执行循环"""
-        while self._running:
-            try:
-                # 清理已完成的任务线程
-                self._cleanup_completed_tasks()
+    def _slot_worktree_name(self, slot: int) -> str:
+        """执行线程默认使用的 worktree，并发执行时每个线程使用各自的 worktree"""
+        return self.worktree_name if slot == 0 else f"{self.worktree_name}_{slot}"
 
-                # 检查是否可以启动新任务
-                if len(self._current_tasks) < self.max_concurrent_tasks:
-                    next_task = self.queue_manager.get_next_pending_task()
-                    if next_task:
-                        self._start_task_execution(next_task)
+    def _worker_loop(self, slot: int) -> None:
+        """执行线程：取出任务并执行，没有任务时等待队列变更"""
+        default_worktree = self._slot_worktree_name(slot)
+        try:
+            # 预先准备 worktree，任务到达时无需再创建
+            self._ensure_worktree(default_worktree)
+        except Exception as e:
+            global_logger.warning(f"Failed to prepare worktree {default_worktree}: {e}")
 
-                # 短暂休眠避免过度占用CPU
-                time.sleep(1)
+        while self._running:
+            try:
+                version = self.queue_manager.change_version
+                task = self.queue_manager.claim_next_pending_task(default_worktree)
+                if task is None:
+                    # 同进程内的入队/完成会立即唤醒，其他进程写入的任务在超时后检查
+                    self.queue_manager.wait_for_change(version, self.idle_poll_interval)
+                    continue
+
+                with self._tasks_lock:
+                    self._current_tasks[task.task_id] = slot
+                global_logger.info(f"Started execution of task {task.task_id}")
+                try:
+                    self._execute_task(task)
+                finally:
+                    with self._tasks_lock:
+                        self._current_tasks.pop(task.task_id, None)
 
             except Exception as e:
                 global_logger.error(f"Error in queue executor loop: {e}")
                 time.sleep(5)  # 出错时等待更长时间
 
-    def _cleanup_completed_tasks(self) -> None:
-        """清理已完成的任务线程"""
-        completed_task_ids = []
-        for task_id, thread in self._current_tasks.items():
-            if not thread.is_alive():
-                completed_task_ids.append(task_id)
-
-        for task_id in completed_task_ids:
-            del self._current_tasks[task_id]
-
-    def _start_task_execution(self, task) -> None:
-        """启动任务执行"""
-        thread = threading.Thread(
-            target=self._execute_task,
-            args=(task,),
-            daemon=True
-        )
-        self._current_tasks[task.task_id] = thread
-        thread.start()
-        global_logger.info(f"Started execution of task {task.task_id}")
-
     def _execute_task(self, task) -> None:
         """在 worktree 中执行单个任务"""
         task_id = task.task_id
@@ -157,10 +167,7 @@ class QueueExecutor:
         task.worktree_name = task_worktree_name
 
         try:
-            # 更新任务状态为运行中，并设置 worktree_name
-            from autocoder.common.agent_query_queue.queue_manager import QueueTaskStatus
-            self.queue_manager.update_task_status(task_id, QueueTaskStatus.RUNNING)
-
+            # 任务已由 claim_next_pending_task 标记为运行中
             global_logger.info(f"Executing task {task_id} in worktree {task_worktree_name}")
 
             # 调用执行回调（如果有）
@@ -183,14 +190,7 @@ class QueueExecutor:
                 cmd = f"cat {tmp_file_path} | auto-coder.run --model {model} --verbose --continue"
 
                 # 在 worktree 中执行命令
-                result = subprocess.run(
-                    cmd,
-                    shell=True,
-                    cwd=worktree_info.path,
-                    capture_output=True,
-                    text=True,
-                    timeout=1800  # 30分钟超时
-                )
+                result = self._run_query(cmd, worktree_info.path)
 
                 if result.returncode == 0:
                     # 执行成功
@@ -271,27 +271,48 @@ class QueueExecutor:
                 except Exception as e:
                     global_logger.error(f"Error in execution callback: {e}")
 
+    def _run_query(self, cmd: str, cwd: str) -> subprocess.CompletedProcess:
+        """在 worktree 中执行任务命令"""
+        return subprocess.run(
+            cmd,
+            shell=True,
+            cwd=cwd,
+            capture_output=True,
+            text=True,
+            timeout=1800  # 30分钟超时
+        )
+
     def _ensure_worktree(self, worktree_name: str = None):
         """确保 worktree 存在"""
         # 使用传入的 worktree_name 或默认的 worktree_name
         name_to_use = worktree_name or self.worktree_name
 
-        # 检查 worktree 是否已存在
-        if self.worktree_manager.worktree_exists(name_to_use):
-            global_logger.info(f"Reusing existing worktree: {name_to_use}")
-            return self.worktree_manager.get_worktree_info(name_to_use)
-
-        # 创建新的 worktree
-        global_logger.info(f"Creating new worktree: {name_to_use}")
-        return self.worktree_manager.create_worktree(
-            name=name_to_use,
-            user_query="Queue job worktree",
-            model="auto"
-        )
+        with self._worktree_lock:
+            # 已准备好的 worktree 直接复用，目录被删除时重新准备
+            cached = self._worktree_infos.get(name_to_use)
+            if cached is not None and os.path.isdir(cached.path):
+                return cached
+
+            # 检查 worktree 是否已存在
+            if self.worktree_manager.worktree_exists(name_to_use):
+                global_logger.info(f"Reusing existing worktree: {name_to_use}")
+                info = self.worktree_manager.get_worktree_info(name_to_use)
+            else:
+                # 创建新的 worktree
+                global_logger.info(f"Creating new worktree: {name_to_use}")
+                info = self.worktree_manager.create_worktree(
+                    name=name_to_use,
+                    user_query="Queue job worktree",
+                    model="auto"
+                )
+            if info is not None:
+                self._worktree_infos[name_to_use] = info
+            return info
 
     def get_running_tasks_count(self) -> int:
         """获取当前运行的任务数量"""
-        return len(self._current_tasks)
+        with self._tasks_lock:
+            return len(self._current_tasks)
 
     def is_running(self) -> bool:
         """检查执行器是否正在运行"""
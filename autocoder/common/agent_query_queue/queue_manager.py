@@ -1,9 +1,21 @@
 
+"""
+Agent 查询队列
+
+任务保存在队列目录下的 SQLite 数据库 (queue.db，WAL 模式) 中，待执行任务按 (优先级, 创建时间) 建有索引，
+添加任务、更新状态和取下一个任务都只读写相关的行，不再每次整体读写、排序 tasks.json。
+旧版本的 tasks.json 在首次打开时导入。
+
+同一进程内访问同一个数据库的 QueueManager 共享变更通知 (wait_for_change)，
+QueueExecutor 据此在任务入队或完成时立即调度，而不是定时轮询。
+"""
+
 import os
 import json
+import sqlite3
 import uuid
 import threading
-from typing import Dict, List, Optional, Any
+from typing import Dict, List, Optional, Any, Tuple
 from datetime import datetime
 from pathlib import Path
 from dataclasses import dataclass, asdict
@@ -71,6 +83,44 @@ class QueueTask:
         return cls(**filtered_data)
 
 
+class _ChangeSignal:
+    """同一进程内共享同一数据库文件的 QueueManager 之间的变更通知"""
+
+    def __init__(self):
+        self._cond = threading.Condition()
+        self.version = 0
+
+    def notify(self) -> None:
+        with self._cond:
+            self.version += 1
+            self._cond.notify_all()
+
+    def wait(self, version: int, timeout: Optional[float]) -> int:
+        with self._cond:
+            if self.version == version:
+                self._cond.wait(timeout)
+            return self.version
+
+
+_signals: Dict[str, _ChangeSignal] = {}
+_signals_lock = threading.Lock()
+
+
+def _get_change_signal(db_file: str) -> _ChangeSignal:
+    with _signals_lock:
+        signal = _signals.get(db_file)
+        if signal is None:
+            signal = _signals[db_file] = _ChangeSignal()
+        return signal
+
+
+_TASK_COLUMNS = ('task_id', 'user_query', 'model', 'status', 'created_at', 'started_at',
+                 'completed_at', 'result', 'error_message', 'priority', 'worktree_name', 'command')
+_FINISHED_STATUSES = (QueueTaskStatus.COMPLETED.value, QueueTaskStatus.FAILED.value, QueueTaskStatus.CANCELLED.value)
+# 与旧版本 tasks.json 中的排列顺序一致：优先级高的在前，同优先级按创建时间 (及入队顺序) 排序
+_QUEUE_ORDER = "priority DESC, created_at, seq"
+
+
 class QueueManager:
     """队列管理器"""
     
@@ -87,32 +137,134 @@ class QueueManager:
             self.queue_dir = Path(queue_dir)
         
         self.queue_dir.mkdir(parents=True, exist_ok=True)
+        self.db_file = self.queue_dir / "queue.db"
+        # 旧版本的任务文件，首次打开时导入数据库
         self.queue_file = self.queue_dir / "tasks.json"
-        self._lock = threading.Lock()
+        self._lock = threading.RLock()
         
-        # 初始化队列文件
+        # 自动提交模式，需要原子性的操作显式使用 BEGIN IMMEDIATE
+        self._conn = sqlite3.connect(str(self.db_file), check_same_thread=False, timeout=30, isolation_level=None)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        self._init_db()
+        self._migrate_json()
+        self._changes = _get_change_signal(str(self.db_file.resolve()))
+    
+    def _init_db(self) -> None:
+        """初始化数据库"""
+        with self._lock:
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS tasks (
+                    seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                    task_id TEXT NOT NULL UNIQUE,
+                    user_query TEXT,
+                    model TEXT,
+                    status TEXT NOT NULL,
+                    created_at TEXT,
+                    started_at TEXT,
+                    completed_at TEXT,
+                    result TEXT,
+                    error_message TEXT,
+                    priority INTEGER NOT NULL DEFAULT 0,
+                    worktree_name TEXT,
+                    command TEXT
+                )
+                """
+            )
+            # 只索引待执行任务，取下一个任务是一次索引查找
+            self._conn.execute(
+                f"CREATE INDEX IF NOT EXISTS idx_tasks_pending ON tasks ({_QUEUE_ORDER}) WHERE status = 'pending'"
+            )
+            self._conn.execute("CREATE INDEX IF NOT EXISTS idx_tasks_status ON tasks (status)")
+    
+    def _migrate_json(self) -> None:
+        """
+        导入旧版本的 tasks.json，导入后重命名为 tasks.json.migrated
+
+        多个进程可能同时打开队列，文件检查、导入和重命名都在同一个写事务中完成，
+        拿到写锁时文件已不存在 (或重命名时已被移走) 说明其他进程已完成迁移
+        """
         if not self.queue_file.exists():
-            self._save_tasks([])
+            return
+        with self._lock:
+            self._conn.execute("BEGIN IMMEDIATE")
+            try:
+                tasks = self._load_json_tasks()
+                if tasks is None:
+                    self._conn.execute("ROLLBACK")
+                    return
+                tasks.sort(key=lambda t: (-t.priority, t.created_at or datetime.min))
+                self._conn.executemany(
+                    f"INSERT OR IGNORE INTO tasks ({', '.join(_TASK_COLUMNS)}) VALUES ({', '.join('?' * len(_TASK_COLUMNS))})",
+                    [self._task_row(task) for task in tasks]
+                )
+                try:
+                    os.replace(self.queue_file, self.queue_file.with_name(self.queue_file.name + ".migrated"))
+                except FileNotFoundError:
+                    # 其他进程已完成迁移，INSERT OR IGNORE 不会产生重复任务
+                    self._conn.execute("COMMIT")
+                    return
+                self._conn.execute("COMMIT")
+            except Exception:
+                self._conn.execute("ROLLBACK")
+                raise
+        global_logger.info(f"Imported {len(tasks)} tasks from {self.queue_file}")
     
-    def _load_tasks(self) -> List[QueueTask]:
-        """加载所有任务"""
+    def _load_json_tasks(self) -> Optional[List[QueueTask]]:
+        """读取旧版本的 tasks.json，文件不存在或无法解析时返回 None"""
         try:
             with open(self.queue_file, 'r', encoding='utf-8') as f:
-                tasks_data = json.load(f)
-                return [QueueTask.from_dict(task_data) for task_data in tasks_data]
-        except (FileNotFoundError, json.JSONDecodeError) as e:
+                return [QueueTask.from_dict(task_data) for task_data in json.load(f)]
+        except FileNotFoundError:
+            return None
+        except (OSError, ValueError, TypeError, KeyError) as e:
             global_logger.warning(f"Failed to load tasks: {e}")
-            return []
+            return None
     
-    def _save_tasks(self, tasks: List[QueueTask]) -> None:
-        """保存所有任务"""
-        try:
-            tasks_data = [task.to_dict() for task in tasks]
-            with open(self.queue_file, 'w', encoding='utf-8') as f:
-                json.dump(tasks_data, f, indent=2, ensure_ascii=False)
-        except Exception as e:
-            global_logger.error(f"Failed to save tasks: {e}")
-            raise
+    @staticmethod
+    def _task_row(task: QueueTask) -> Tuple[Any, ...]:
+        data = task.to_dict()
+        return tuple(data[column] for column in _TASK_COLUMNS)
+    
+    @staticmethod
+    def _row_to_task(row: Tuple[Any, ...]) -> QueueTask:
+        return QueueTask.from_dict(dict(zip(_TASK_COLUMNS, row)))
+    
+    def _select(self, where: str = "", params: Tuple[Any, ...] = (), limit: Optional[int] = None) -> List[QueueTask]:
+        sql = f"SELECT {', '.join(_TASK_COLUMNS)} FROM tasks"
+        if where:
+            sql += f" WHERE {where}"
+        sql += f" ORDER BY {_QUEUE_ORDER}"
+        if limit is not None:
+            sql += f" LIMIT {int(limit)}"
+        with self._lock:
+            rows = self._conn.execute(sql, params).fetchall()
+        return [self._row_to_task(row) for row in rows]
+    
+    @property
+    def change_version(self) -> int:
+        """当前的变更版本号，配合 wait_for_change 使用"""
+        return self._changes.version
+    
+    def wait_for_change(self, version: int, timeout: Optional[float] = None) -> int:
+        """
+        等待队列发生变更 (任务入队、状态更新、移除)
+        
+        只能感知本进程内的变更，其他进程写入的任务由调用方通过 timeout 定期检查
+        
+        Args:
+            version: 调用方上次看到的 change_version
+            timeout: 最长等待秒数
+            
+        Returns:
+            int: 新的变更版本号
+        """
+        return self._changes.wait(version, timeout)
+    
+    def notify_change(self) -> None:
+        """唤醒所有等待队列变更的线程"""
+        self._changes.notify()
     
     def add_task(self, user_query: str = None, model: str = "auto", priority: int = 0, command: str = None, worktree_name: str = None) -> str:
         """
@@ -128,33 +280,36 @@ class QueueManager:
         Returns:
             str: 任务ID
         """
+        # 兼容旧版本
+        if command and not user_query:
+            user_query = command
+        
         with self._lock:
-            task_id = str(uuid.uuid4())[:8]  # 使用8位UUID作为任务ID
-            
-            # 兼容旧版本
-            if command and not user_query:
-                user_query = command
-            
-            task = QueueTask(
-                task_id=task_id,
-                user_query=user_query,
-                model=model,
-                status=QueueTaskStatus.PENDING,
-                created_at=datetime.now(),
-                priority=priority,
-                worktree_name=worktree_name,
-                command=command  # 兼容字段
-            )
-            
-            tasks = self._load_tasks()
-            tasks.append(task)
-            
-            # 按优先级和创建时间排序（优先级高的在前，同优先级按创建时间排序）
-            tasks.sort(key=lambda t: (-t.priority, t.created_at))
-            
-            self._save_tasks(tasks)
-            global_logger.info(f"Added task {task_id}: {user_query[:100]}..." if len(user_query) > 100 else f"Added task {task_id}: {user_query}")
-            return task_id
+            while True:
+                task = QueueTask(
+                    task_id=str(uuid.uuid4())[:8],  # 使用8位UUID作为任务ID
+                    user_query=user_query,
+                    model=model,
+                    status=QueueTaskStatus.PENDING,
+                    created_at=datetime.now(),
+                    priority=priority,
+                    worktree_name=worktree_name,
+                    command=command  # 兼容字段
+                )
+                try:
+                    self._conn.execute(
+                        f"INSERT INTO tasks ({', '.join(_TASK_COLUMNS)}) VALUES ({', '.join('?' * len(_TASK_COLUMNS))})",
+                        self._task_row(task)
+                    )
+                    break
+                except sqlite3.IntegrityError:
+                    # 8 位任务ID重复，重新生成
+                    continue
+        
+        self._changes.notify()
+        task_id = task.task_id
+        global_logger.info(f"Added task {task_id}: {user_query[:100]}..." if len(user_query) > 100 else f"Added task {task_id}: {user_query}")
+        return task_id
     
     def get_task(self, task_id: str) -> Optional[QueueTask]:
         """
@@ -166,11 +321,8 @@ class QueueManager:
         Returns:
             QueueTask: 任务对象，如果不存在返回None
         """
-        tasks = self._load_tasks()
-        for task in tasks:
-            if task.task_id == task_id:
-                return task
-        return None
+        tasks = self._select("task_id = ?", (task_id,))
+        return tasks[0] if tasks else None
     
     def list_tasks(self, status_filter: Optional[QueueTaskStatus] = None) -> List[QueueTask]:
         """
@@ -182,10 +334,9 @@ class QueueManager:
         Returns:
             List[QueueTask]: 任务列表
         """
-        tasks = self._load_tasks()
         if status_filter:
-            tasks = [task for task in tasks if task.status == status_filter]
-        return tasks
+            return self._select("status = ?", (status_filter.value,))
+        return self._select()
     
     def remove_task(self, task_id: str) -> bool:
         """
@@ -197,22 +348,19 @@ class QueueManager:
         Returns:
             bool: 是否成功移除
         """
+        # 只允许移除非运行状态的任务
         with self._lock:
-            tasks = self._load_tasks()
-            original_count = len(tasks)
-            
-            # 只允许移除非运行状态的任务
-            tasks = [task for task in tasks if not (
-                task.task_id == task_id and task.status != QueueTaskStatus.RUNNING
-            )]
-            
-            if len(tasks) < original_count:
-                self._save_tasks(tasks)
-                global_logger.info(f"Removed task {task_id}")
-                return True
-            else:
-                global_logger.warning(f"Task {task_id} not found or is running")
-                return False
+            removed = self._conn.execute(
+                "DELETE FROM tasks WHERE task_id = ? AND status != ?",
+                (task_id, QueueTaskStatus.RUNNING.value)
+            ).rowcount
+        
+        if removed:
+            self._changes.notify()
+            global_logger.info(f"Removed task {task_id}")
+            return True
+        global_logger.warning(f"Task {task_id} not found or is running")
+        return False
     
     def update_task_status(self, task_id: str, status: QueueTaskStatus, 
                           result: Optional[str] = None, 
@@ -220,6 +368,9 @@ class QueueManager:
         """
         更新任务状态
         
+        result 和 error_message 按本次传入的值写入，未传入时清空，
+        重新执行的任务不会留下上一次的结果或错误。重新排队时同时清空开始和完成时间。
+        
         Args:
             task_id: 任务ID
             status: 新状态
@@ -229,28 +380,35 @@ class QueueManager:
         Returns:
             bool: 是否更新成功
         """
+        now = datetime.now().isoformat()
+        completed_at = now if status.value in _FINISHED_STATUSES else None
         with self._lock:
-            tasks = self._load_tasks()
-            for task in tasks:
-                if task.task_id == task_id:
-                    task.status = status
-                    
-                    if status == QueueTaskStatus.RUNNING and task.started_at is None:
-                        task.started_at = datetime.now()
-                    elif status in [QueueTaskStatus.COMPLETED, QueueTaskStatus.FAILED, QueueTaskStatus.CANCELLED]:
-                        task.completed_at = datetime.now()
-                    
-                    if result is not None:
-                        task.result = result
-                    if error_message is not None:
-                        task.error_message = error_message
-                    
-                    self._save_tasks(tasks)
-                    global_logger.info(f"Updated task {task_id} status to {status.value}")
-                    return True
-            
-            global_logger.warning(f"Task {task_id} not found")
-            return False
+            updated = self._conn.execute(
+                """
+                UPDATE tasks SET
+                    status = :status,
+                    started_at = CASE
+                        WHEN :status = 'pending' THEN NULL
+                        WHEN :status = 'running' AND (status != 'running' OR started_at IS NULL) THEN :now
+                        ELSE started_at
+                    END,
+                    completed_at = :completed_at,
+                    result = :result,
+                    error_message = :error_message
+                WHERE task_id = :task_id
+                """,
+                {
+                    "status": status.value, "now": now, "completed_at": completed_at,
+                    "result": result, "error_message": error_message, "task_id": task_id,
+                }
+            ).rowcount
+        
+        if updated:
+            self._changes.notify()
+            global_logger.info(f"Updated task {task_id} status to {status.value}")
+            return True
+        global_logger.warning(f"Task {task_id} not found")
+        return False
     
     def get_next_pending_task(self) -> Optional[QueueTask]:
         """
@@ -259,14 +417,45 @@ class QueueManager:
         Returns:
             QueueTask: 下一个待执行的任务，如果没有返回None
         """
-        tasks = self._load_tasks()
-        pending_tasks = [task for task in tasks if task.status == QueueTaskStatus.PENDING]
+        tasks = self._select("status = ?", (QueueTaskStatus.PENDING.value,), limit=1)
+        return tasks[0] if tasks else None
+    
+    def claim_next_pending_task(self, worktree_name: Optional[str] = None) -> Optional[QueueTask]:
+        """
+        原子地取出下一个待执行的任务并标记为运行中，多个执行线程 (或进程) 不会取到同一个任务
         
-        if not pending_tasks:
-            return None
+        Args:
+            worktree_name: 任务未指定 worktree 时使用的 worktree 名称
+            
+        Returns:
+            QueueTask: 已标记为运行中的任务，如果没有待执行任务返回None
+        """
+        with self._lock:
+            self._conn.execute("BEGIN IMMEDIATE")
+            try:
+                row = self._conn.execute(
+                    f"SELECT task_id FROM tasks WHERE status = ? ORDER BY {_QUEUE_ORDER} LIMIT 1",
+                    (QueueTaskStatus.PENDING.value,)
+                ).fetchone()
+                if row is None:
+                    self._conn.execute("COMMIT")
+                    return None
+                self._conn.execute(
+                    """
+                    UPDATE tasks SET status = ?, started_at = ?, completed_at = NULL, result = NULL,
+                        error_message = NULL, worktree_name = COALESCE(worktree_name, ?)
+                    WHERE task_id = ?
+                    """,
+                    (QueueTaskStatus.RUNNING.value, datetime.now().isoformat(), worktree_name, row[0])
+                )
+                self._conn.execute("COMMIT")
+            except Exception:
+                self._conn.execute("ROLLBACK")
+                raise
         
-        # 返回优先级最高的任务（已经按优先级排序）
-        return pending_tasks[0]
+        self._changes.notify()
+        global_logger.info(f"Updated task {row[0]} status to {QueueTaskStatus.RUNNING.value}")
+        return self.get_task(row[0])
     
     def get_running_tasks(self) -> List[QueueTask]:
         """
@@ -285,22 +474,16 @@ class QueueManager:
             int: 清理的任务数量
         """
         with self._lock:
-            tasks = self._load_tasks()
-            original_count = len(tasks)
-            
-            # 保留未完成的任务
-            tasks = [task for task in tasks if task.status not in [
-                QueueTaskStatus.COMPLETED, 
-                QueueTaskStatus.FAILED, 
-                QueueTaskStatus.CANCELLED
-            ]]
-            
-            removed_count = original_count - len(tasks)
-            if removed_count > 0:
-                self._save_tasks(tasks)
-                global_logger.info(f"Cleared {removed_count} completed tasks")
-            
-            return removed_count
+            removed_count = self._conn.execute(
+                f"DELETE FROM tasks WHERE status IN ({', '.join('?' * len(_FINISHED_STATUSES))})",
+                _FINISHED_STATUSES
+            ).rowcount
+        
+        if removed_count > 0:
+            self._changes.notify()
+            global_logger.info(f"Cleared {removed_count} completed tasks")
+        
+        return removed_count
     
     def get_queue_statistics(self) -> Dict[str, int]:
         """
@@ -309,9 +492,8 @@ class QueueManager:
         Returns:
             Dict[str, int]: 统计信息
         """
-        tasks = self._load_tasks()
         stats = {
-            'total': len(tasks),
+            'total': 0,
             'pending': 0,
             'running': 0,
             'completed': 0,
@@ -319,7 +501,14 @@ class QueueManager:
             'cancelled': 0
         }
         
-        for task in tasks:
-            stats[task.status.value] += 1
+        with self._lock:
+            rows = self._conn.execute("SELECT status, COUNT(*) FROM tasks GROUP BY status").fetchall()
+        for status, count in rows:
+            stats[status] = stats.get(status, 0) + count
+            stats['total'] += count
         
         return stats
+    
+    def close(self) -> None:
+        with self._lock:
+            self._conn.close()
@@ -0,0 +1,315 @@
+import json
+import os
+import subprocess
+import threading
+import time
+from types import SimpleNamespace
+
+import pytest
+
+from autocoder.common.agent_query_queue.queue_executor import QueueExecutor
+from autocoder.common.agent_query_queue.queue_manager import QueueManager, QueueTaskStatus
+
+
+@pytest.fixture
+def manager(tmp_path):
+    manager = QueueManager(str(tmp_path / "queue"))
+    yield manager
+    manager.close()
+
+
+class FakeExecutor(QueueExecutor):
+    """不创建 git worktree、不启动 auto-coder.run 的执行器"""
+
+    def __init__(self, queue_manager, max_concurrent_tasks=1, run=None, **kwargs):
+        self.prepared = []
+        self.run = run or (lambda cmd, cwd: subprocess.CompletedProcess(cmd, 0, stdout="done", stderr=""))
+        super().__init__(queue_manager, max_concurrent_tasks=max_concurrent_tasks, **kwargs)
+
+    def _init_worktree_manager(self):
+        self.project_name = "project"
+        self.worktree_name = "project"
+
+    def _ensure_worktree(self, worktree_name=None):
+        name = worktree_name or self.worktree_name
+        self.prepared.append(name)
+        return SimpleNamespace(path=os.getcwd(), name=name)
+
+    def _run_query(self, cmd, cwd):
+        return self.run(cmd, cwd)
+
+
+def _wait_until(predicate, timeout=10.0):
+    deadline = time.monotonic() + timeout
+    while time.monotonic() < deadline:
+        if predicate():
+            return True
+        time.sleep(0.01)
+    return False
+
+
+class TestQueueManager:
+    """SQLite 队列的排序、原子领取和旧数据导入"""
+
+    def test_tasks_are_ordered_by_priority_then_creation(self, manager):
+        low = manager.add_task("low", priority=0)
+        high = manager.add_task("high", priority=5)
+        low2 = manager.add_task("low2", priority=0)
+
+        assert [t.task_id for t in manager.list_tasks()] == [high, low, low2]
+        assert manager.get_next_pending_task().task_id == high
+
+    def test_claim_marks_task_running_with_default_worktree(self, manager):
+        first = manager.add_task("first")
+        second = manager.add_task("second", worktree_name="custom")
+
+        claimed = manager.claim_next_pending_task("slot_1")
+        assert claimed.task_id == first
+        assert claimed.status == QueueTaskStatus.RUNNING
+        assert claimed.started_at is not None
+        assert claimed.worktree_name == "slot_1"
+
+        # 任务自己指定的 worktree 不被覆盖
+        assert manager.claim_next_pending_task("slot_1").worktree_name == "custom"
+        assert manager.claim_next_pending_task("slot_1") is None
+        assert {t.task_id for t in manager.get_running_tasks()} == {first, second}
+
+    def test_concurrent_claims_never_hand_out_a_task_twice(self, tmp_path):
+        managers = [QueueManager(str(tmp_path / "queue")) for _ in range(4)]
+        task_ids = [managers[0].add_task(f"task {i}") for i in range(200)]
+        claimed = [[] for _ in managers]
+
+        def claim(index):
+            while True:
+                task = managers[index].claim_next_pending_task()
+                if task is None:
+                    return
+                claimed[index].append(task.task_id)
+
+        threads = [threading.Thread(target=claim, args=(i,)) for i in range(len(managers))]
+        for thread in threads:
+            thread.start()
+        for thread in threads:
+            thread.join()
+
+        all_claimed = [task_id for ids in claimed for task_id in ids]
+        assert sorted(all_claimed) == sorted(task_ids)
+        for m in managers:
+            m.close()
+
+    def test_update_remove_clear_and_statistics(self, manager):
+        done = manager.add_task("done")
+        failed = manager.add_task("failed")
+        running = manager.add_task("running")
+        pending = manager.add_task("pending")
+
+        assert manager.update_task_status(done, QueueTaskStatus.COMPLETED, result="ok")
+        assert manager.update_task_status(failed, QueueTaskStatus.FAILED, error_message="boom")
+        assert manager.update_task_status(running, QueueTaskStatus.RUNNING)
+        assert not manager.update_task_status("missing", QueueTaskStatus.RUNNING)
+
+        task = manager.get_task(done)
+        assert task.result == "ok" and task.completed_at is not None
+        assert manager.get_task(failed).error_message == "boom"
+        assert manager.get_queue_statistics() == {
+            'total': 4, 'pending': 1, 'running': 1, 'completed': 1, 'failed': 1, 'cancelled': 0
+        }
+
+        assert not manager.remove_task(running)
+        assert manager.remove_task(pending)
+        assert manager.clear_completed_tasks() == 2
+        assert [t.task_id for t in manager.list_tasks()] == [running]
+
+    def test_retried_task_drops_previous_result_and_error(self, manager):
+        task_id = manager.add_task("retry me")
+        manager.update_task_status(task_id, QueueTaskStatus.FAILED, error_message="boom")
+
+        assert manager.update_task_status(task_id, QueueTaskStatus.PENDING)
+        task = manager.get_task(task_id)
+        assert task.error_message is None
+        assert task.started_at is None and task.completed_at is None
+
+        manager.claim_next_pending_task()
+        manager.update_task_status(task_id, QueueTaskStatus.COMPLETED, result="ok")
+        task = manager.get_task(task_id)
+        assert task.result == "ok" and task.error_message is None
+        assert task.started_at is not None and task.completed_at is not None
+
+    def test_tasks_survive_reopen(self, tmp_path):
+        first = QueueManager(str(tmp_path / "queue"))
+        task_id = first.add_task("persist me", model="m1", priority=2)
+        first.close()
+
+        reopened = QueueManager(str(tmp_path / "queue"))
+        task = reopened.get_task(task_id)
+        assert task.user_query == "persist me"
+        assert task.model == "m1"
+        assert task.priority == 2
+        reopened.close()
+
+    def test_legacy_json_is_imported_once(self, tmp_path):
+        queue_dir = tmp_path / "queue"
+        queue_dir.mkdir()
+        legacy = [
+            {"task_id": "old1", "command": "legacy command", "status": "pending",
+             "created_at": "2024-01-01T00:00:00", "priority": 0},
+            {"task_id": "old2", "user_query": "urgent", "model": "m1", "status": "pending",
+             "created_at": "2024-01-02T00:00:00", "priority": 3},
+            {"task_id": "old3", "user_query": "finished", "model": "auto", "status": "completed",
+             "created_at": "2023-12-31T00:00:00", "completed_at": "2024-01-01T00:00:00", "result": "ok"},
+        ]
+        (queue_dir / "tasks.json").write_text(json.dumps(legacy))
+
+        manager = QueueManager(str(queue_dir))
+        assert [t.task_id for t in manager.list_tasks(QueueTaskStatus.PENDING)] == ["old2", "old1"]
+        assert manager.get_task("old1").user_query == "legacy command"
+        assert manager.get_task("old3").result == "ok"
+        assert not (queue_dir / "tasks.json").exists()
+        assert (queue_dir / "tasks.json.migrated").exists()
+        manager.close()
+
+        assert QueueManager(str(queue_dir)).get_queue_statistics()['total'] == 3
+
+    def test_concurrent_legacy_import(self, tmp_path):
+        queue_dir = tmp_path / "queue"
+        queue_dir.mkdir()
+        legacy = [
+            {"task_id": f"old{i}", "user_query": f"q{i}", "model": "auto", "status": "pending",
+             "created_at": f"2024-01-0{i + 1}T00:00:00", "priority": 0}
+            for i in range(5)
+        ]
+        (queue_dir / "tasks.json").write_text(json.dumps(legacy))
+
+        managers, errors = [], []
+
+        def open_queue():
+            try:
+                managers.append(QueueManager(str(queue_dir)))
+            except Exception as e:
+                errors.append(e)
+
+        threads = [threading.Thread(target=open_queue) for _ in range(4)]
+        for thread in threads:
+            thread.start()
+        for thread in threads:
+            thread.join()
+
+        assert errors == []
+        assert (queue_dir / "tasks.json.migrated").exists()
+        assert managers[0].get_queue_statistics()['total'] == 5
+        for manager in managers:
+            manager.close()
+
+    def test_wait_for_change_is_shared_between_instances(self, tmp_path):
+        waiter = QueueManager(str(tmp_path / "queue"))
+        writer = QueueManager(str(tmp_path / "queue"))
+        version = waiter.change_version
+
+        threading.Timer(0.05, writer.add_task, args=("wake up",)).start()
+        start = time.perf_counter()
+        assert waiter.wait_for_change(version, timeout=5) > version
+        assert time.perf_counter() - start < 2
+
+
+class TestQueueExecutor:
+    """执行器由变更通知唤醒，并发执行时每个执行线程使用各自的 worktree"""
+
+    def test_enqueued_task_runs_without_polling_delay(self, manager):
+        events = []
+        executor = FakeExecutor(manager, execution_callback=lambda task, event, *args: events.append(event),
+                                idle_poll_interval=60)
+        executor.start()
+        try:
+            assert _wait_until(lambda: executor.prepared == ["project"])
+            task_id = manager.add_task("do something")
+            assert _wait_until(lambda: manager.get_task(task_id).status == QueueTaskStatus.COMPLETED, timeout=2)
+        finally:
+            executor.stop()
+
+        task = manager.get_task(task_id)
+        assert task.result == "done"
+        assert task.worktree_name == "project"
+        assert events == ["started", "completed"]
+        assert not executor.is_running()
+
+    def test_workers_prepare_their_worktrees_and_run_concurrently(self, manager):
+        release = threading.Event()
+        active = []
+        peak = []
+
+        def run(cmd, cwd):
+            active.append(cmd)
+            peak.append(len(active))
+            release.wait(5)
+            active.remove(cmd)
+            return subprocess.CompletedProcess(cmd, 1, stdout="", stderr="bad query")
+
+        executor = FakeExecutor(manager, max_concurrent_tasks=3, run=run, idle_poll_interval=60)
+        task_ids = [manager.add_task(f"task {i}") for i in range(5)]
+        executor.start()
+        try:
+            assert _wait_until(lambda: executor.get_running_tasks_count() == 3)
+            assert sorted(set(executor.prepared)) == ["project", "project_1", "project_2"]
+            release.set()
+            assert _wait_until(lambda: all(manager.get_task(t).status == QueueTaskStatus.FAILED for t in task_ids))
+        finally:
+            release.set()
+            executor.stop()
+
+        assert max(peak) == 3
+        assert manager.get_task(task_ids[0]).error_message == "bad query"
+        assert {manager.get_task(t).worktree_name for t in task_ids} <= {"project", "project_1", "project_2"}
+
+
+def _bench_sizes():
+    return [int(n) for n in os.environ.get("QUEUE_BENCH_SIZES", "1000,5000").split(",")]
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_queue_throughput_benchmark(tmp_path):
+    """基准测试：入队数千个任务，以及执行器从入队到开始执行的延迟"""
+    workers = int(os.environ.get("QUEUE_BENCH_WORKERS", "4"))
+    for size in _bench_sizes():
+        manager = QueueManager(str(tmp_path / f"queue_{size}"))
+
+        start = time.perf_counter()
+        for i in range(size):
+            manager.add_task(f"task {i}", priority=i % 3)
+        enqueue = time.perf_counter() - start
+
+        dispatch_latencies = []
+        started = threading.Event()
+
+        def run(cmd, cwd):
+            return subprocess.CompletedProcess(cmd, 0, stdout="ok", stderr="")
+
+        def on_event(task, event, *args):
+            if event == "started":
+                started.set()
+
+        executor = FakeExecutor(manager, max_concurrent_tasks=workers, run=run,
+                                execution_callback=on_event, idle_poll_interval=60)
+        start = time.perf_counter()
+        executor.start()
+        assert _wait_until(lambda: manager.get_queue_statistics()['completed'] == size, timeout=600)
+        drain = time.perf_counter() - start
+
+        # 空闲执行器对新任务的响应延迟
+        for _ in range(50):
+            assert _wait_until(lambda: executor.get_running_tasks_count() == 0)
+            started.clear()
+            enqueued = time.perf_counter()
+            manager.add_task("latency probe")
+            assert started.wait(5)
+            dispatch_latencies.append(time.perf_counter() - enqueued)
+        executor.stop()
+        manager.close()
+
+        dispatch_latencies.sort()
+        print(
+            f"{size} tasks: enqueue {enqueue / size * 1000:.3f} ms/task, drain with {workers} workers "
+            f"{drain * 1000:.0f} ms ({drain / size * 1000:.3f} ms/task), idle dispatch latency "
+            f"p50 {dispatch_latencies[len(dispatch_latencies) // 2] * 1000:.2f} ms, "
+            f"max {dispatch_latencies[-1] * 1000:.2f} ms"
+        )
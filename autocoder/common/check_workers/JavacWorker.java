@@ -0,0 +1,81 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * 常驻的 javac 进程，由 autocoder.common.check_workers 通过 "java JavacWorker.java" 启动。
+ *
+ * 协议与 python_worker.py 相同：
+ * 启动后输出 "ready javac\n"；每个请求是一行，字段以 NUL 分隔：工作目录、工具名、参数...；
+ * JVM 不能切换工作目录，调用方按工作目录分别启动进程，这里忽略第一个字段。
+ * 响应为 "退出码 stdout字节数 stderr字节数\n" 加上两段输出，不支持的工具返回 "!unavailable\n"。
+ */
+public class JavacWorker {
+
+    public static void main(String[] argv) throws IOException {
+        InputStream in = new BufferedInputStream(System.in);
+        OutputStream protocol = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+        // 其他代码打印到标准输出的内容不能混进协议
+        System.setOut(System.err);
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        writeLine(protocol, javac != null ? "ready javac" : "ready");
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            line.reset();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                line.write(c);
+            }
+            if (c == -1) {
+                return;
+            }
+            String[] fields = new String(line.toByteArray(), StandardCharsets.UTF_8).split("\u0000", -1);
+            if (javac == null || fields.length < 2 || !"javac".equals(fields[1])) {
+                writeLine(protocol, "!unavailable");
+                continue;
+            }
+            String[] args = Arrays.copyOfRange(fields, 2, fields.length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int code;
+            try (PrintStream outStream = new PrintStream(out, true, "UTF-8");
+                 PrintStream errStream = new PrintStream(err, true, "UTF-8")) {
+                try {
+                    code = javac.run(null, outStream, errStream, args);
+                } catch (Throwable t) {
+                    StringWriter trace = new StringWriter();
+                    t.printStackTrace(new PrintWriter(trace));
+                    errStream.print(trace);
+                    code = 4;
+                }
+            }
+            byte[] outBytes = out.toByteArray();
+            byte[] errBytes = err.toByteArray();
+            writeLine(protocol, code + " " + outBytes.length + " " + errBytes.length);
+            protocol.write(outBytes);
+            protocol.write(errBytes);
+            protocol.flush();
+        }
+    }
+
+    private static void writeLine(OutputStream protocol, String text) throws IOException {
+        protocol.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+        protocol.flush();
+    }
+}
@@ -0,0 +1,23 @@
+"""
+lint/编译检查的常驻进程和结果缓存
+
+- CheckWorkerManager / get_check_worker_manager: 检查命令的统一执行入口，能由常驻进程处理的命令不再每次启动新进程
+- CheckResultCache: 按 (文件内容哈希, 配置哈希[, 源码树指纹]) 缓存检查结果
+"""
+
+from .manager import CheckWorkerManager, get_check_worker_manager
+from .result_cache import CheckResultCache, config_digest, file_digest, interpreter_fingerprint, tree_fingerprint
+from .worker_process import PersistentWorker, WorkerPool, WorkerUnavailable
+
+__all__ = [
+    "CheckWorkerManager",
+    "get_check_worker_manager",
+    "CheckResultCache",
+    "config_digest",
+    "file_digest",
+    "interpreter_fingerprint",
+    "tree_fingerprint",
+    "PersistentWorker",
+    "WorkerPool",
+    "WorkerUnavailable",
+]
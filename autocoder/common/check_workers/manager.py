@@ -0,0 +1,210 @@
+"""
+lint/编译检查的统一执行入口
+
+每次编辑后的检查原先都启动一次 flake8/mypy/pylint 解释器或 javac JVM，启动开销远大于检查本身。
+CheckWorkerManager.run_command 接收与 subprocess.run 相同的命令行，能由常驻进程处理的命令
+(flake8、mypy、pylint、pyflakes、javac、导入检查) 转给常驻进程，其余命令和常驻进程不可用时仍用一次性子进程，
+调用方拿到的都是 subprocess.CompletedProcess。另外提供：
+
+- 检查结果缓存 (CheckResultCache)，由 LinterManager/CompilerFactory 按文件内容和配置查询
+- 共享线程池 map_parallel，用于并行检查互不依赖的文件
+- 工具可用性缓存 tool_available，避免每次创建 LinterManager 都执行 --version
+"""
+
+import atexit
+import os
+import shutil
+import subprocess
+import sys
+import threading
+import time
+from concurrent.futures import ThreadPoolExecutor
+from typing import Any, Callable, Dict, Iterable, List, Optional, Sequence, Tuple
+
+from loguru import logger
+
+from .result_cache import CheckResultCache
+from .worker_process import WorkerPool, WorkerUnavailable
+
+# 设置为 1/true 时不启动常驻进程，全部使用一次性子进程
+DISABLE_ENV = "AUTOCODER_DISABLE_CHECK_WORKERS"
+
+_WORKER_DIR = os.path.dirname(os.path.abspath(__file__))
+_PYTHON_TOOLS = ("flake8", "mypy", "pylint", "pyflakes")
+# 可用性检查结果的有效期 (秒)，只缓存可用的结果，未安装的工具下次重新检查
+_AVAILABILITY_TTL = 300.0
+
+
+class CheckWorkerManager:
+    """
+    常驻检查进程、结果缓存和检查线程池的管理器，进程内共享一个实例 (get_check_worker_manager)
+
+    Args:
+        max_workers: 每种常驻进程的最大数量，也是并行检查的线程数
+        cache_size: 检查结果缓存的条目数
+        enabled: 为 False 时 run_command 总是使用一次性子进程
+    """
+
+    def __init__(self, max_workers: Optional[int] = None, cache_size: int = 2048, enabled: Optional[bool] = None):
+        self.max_workers = max_workers or min(4, os.cpu_count() or 1)
+        if enabled is None:
+            enabled = os.environ.get(DISABLE_ENV, "").lower() not in ("1", "true", "yes")
+        self.enabled = enabled
+        self.cache = CheckResultCache(cache_size)
+        self._pools: Dict[Tuple[str, str], WorkerPool] = {}
+        self._available: Dict[Any, float] = {}
+        self._executor: Optional[ThreadPoolExecutor] = None
+        self._lock = threading.Lock()
+        self.worker_runs = 0
+        self.subprocess_runs = 0
+
+    def run_command(self, cmd: Sequence[str], timeout: Optional[float] = None,
+                    cwd: Optional[str] = None) -> subprocess.CompletedProcess:
+        """
+        执行检查命令，等价于 subprocess.run(cmd, capture_output=True, text=True, timeout=timeout, cwd=cwd)
+
+        Raises:
+            subprocess.TimeoutExpired: 超时
+            FileNotFoundError: 命令不存在 (仅一次性子进程)
+        """
+        cmd = [str(c) for c in cmd]
+        route = self._route(cmd) if self.enabled else None
+        if route is not None:
+            kind, tool, args = route
+            work_dir = os.path.abspath(cwd or os.getcwd())
+            pool = self._get_pool(kind, work_dir)
+            if pool is not None and pool.supports(tool):
+                try:
+                    code, out, err = pool.run(work_dir, tool, args, timeout=timeout)
+                    self.worker_runs += 1
+                    return subprocess.CompletedProcess(cmd, code, out, err)
+                except WorkerUnavailable as e:
+                    logger.debug(f"常驻进程执行 {tool} 失败，改用子进程: {str(e)}")
+        self.subprocess_runs += 1
+        return subprocess.run(cmd, capture_output=True, text=True, timeout=timeout, cwd=cwd)
+
+    def run_tool(self, tool: str, args: Sequence[str], timeout: Optional[float] = None,
+                 cwd: Optional[str] = None) -> Optional[subprocess.CompletedProcess]:
+        """
+        由常驻 Python 进程执行内置检查 (如 "imports")，常驻进程不可用时返回 None，由调用方自行处理
+        """
+        if not self.enabled:
+            return None
+        work_dir = os.path.abspath(cwd or os.getcwd())
+        pool = self._get_pool("python", work_dir)
+        if pool is None or not pool.supports(tool):
+            return None
+        try:
+            code, out, err = pool.run(work_dir, tool, [str(a) for a in args], timeout=timeout)
+        except WorkerUnavailable:
+            return None
+        self.worker_runs += 1
+        return subprocess.CompletedProcess([tool, *args], code, out, err)
+
+    def _route(self, cmd: List[str]) -> Optional[Tuple[str, str, List[str]]]:
+        """判断命令能否交给常驻进程，返回 (进程类型, 工具名, 参数)"""
+        if not cmd or any("\n" in c or "\0" in c for c in cmd):
+            return None
+        program = os.path.basename(cmd[0]).lower()
+        if program.endswith(".exe"):
+            program = program[:-4]
+        if program in _PYTHON_TOOLS:
+            return "python", program, cmd[1:]
+        if len(cmd) >= 3 and cmd[0] == sys.executable and cmd[1] == "-m" and cmd[2] in _PYTHON_TOOLS:
+            return "python", cmd[2], cmd[3:]
+        if program == "javac":
+            return "javac", "javac", cmd[1:]
+        return None
+
+    def _get_pool(self, kind: str, cwd: str) -> Optional[WorkerPool]:
+        # python 进程每次请求切换工作目录，可以共用；JVM 不能切换工作目录，按目录分别启动
+        key = (kind, cwd if kind == "javac" else "")
+        with self._lock:
+            pool = self._pools.get(key)
+            if pool is None:
+                command = self._worker_command(kind)
+                if command is None:
+                    return None
+                pool = WorkerPool(f"{kind}-worker", command, cwd=cwd if kind == "javac" else None,
+                                  size=self.max_workers)
+                self._pools[key] = pool
+        return None if pool.broken else pool
+
+    def _worker_command(self, kind: str) -> Optional[List[str]]:
+        if kind == "python":
+            return [sys.executable, os.path.join(_WORKER_DIR, "python_worker.py")]
+        javac = shutil.which("javac")
+        if javac is None:
+            return None
+        # 使用与 javac 同一 JDK 的 java，以源码方式启动 (JDK 11+)
+        java = shutil.which("java", path=os.path.dirname(os.path.realpath(javac))) or shutil.which("java")
+        if java is None:
+            return None
+        return [java, "-XX:+UseSerialGC", "-Xshare:auto", os.path.join(_WORKER_DIR, "JavacWorker.java")]
+
+    def tool_available(self, key: Any, check: Callable[[], bool]) -> bool:
+        """
+        带缓存的工具可用性检查
+
+        Args:
+            key: 缓存键，如 (linter 类名, 配置哈希)
+            check: 实际的检查函数
+        """
+        now = time.monotonic()
+        checked_at = self._available.get(key)
+        if checked_at is not None and now - checked_at < _AVAILABILITY_TTL:
+            return True
+        available = check()
+        if available:
+            self._available[key] = now
+        else:
+            self._available.pop(key, None)
+        return available
+
+    def map_parallel(self, fn: Callable[[Any], Any], items: Iterable[Any]) -> List[Any]:
+        """在共享线程池中并行执行 fn，按输入顺序返回结果；单个条目时直接在当前线程执行"""
+        items = list(items)
+        if len(items) <= 1 or self.max_workers <= 1:
+            return [fn(item) for item in items]
+        with self._lock:
+            if self._executor is None:
+                self._executor = ThreadPoolExecutor(max_workers=self.max_workers, thread_name_prefix="check")
+            executor = self._executor
+        return list(executor.map(fn, items))
+
+    def get_stats(self) -> Dict[str, Any]:
+        with self._lock:
+            pools = {f"{kind}:{cwd}" if cwd else kind: {
+                "started": pool._started, "idle": len(pool._idle), "broken": pool.broken, "tools": pool.tools
+            } for (kind, cwd), pool in self._pools.items()}
+        return {
+            "enabled": self.enabled,
+            "worker_runs": self.worker_runs,
+            "subprocess_runs": self.subprocess_runs,
+            "pools": pools,
+            "cache": self.cache.get_stats(),
+        }
+
+    def shutdown(self) -> None:
+        with self._lock:
+            pools, self._pools = list(self._pools.values()), {}
+            executor, self._executor = self._executor, None
+        for pool in pools:
+            pool.close()
+        if executor is not None:
+            executor.shutdown(wait=False)
+
+
+_manager: Optional[CheckWorkerManager] = None
+_manager_lock = threading.Lock()
+
+
+def get_check_worker_manager() -> CheckWorkerManager:
+    """进程内共享的 CheckWorkerManager"""
+    global _manager
+    if _manager is None:
+        with _manager_lock:
+            if _manager is None:
+                _manager = CheckWorkerManager()
+                atexit.register(_manager.shutdown)
+    return _manager
@@ -0,0 +1,165 @@
+"""
+常驻的 Python 检查进程
+
+由 autocoder.common.check_workers 以 "python python_worker.py" 启动 (按文件路径运行，
+不导入 autocoder 包，启动只需要解释器本身)。flake8/mypy/pylint/pyflakes 在本进程内调用，
+每次检查省去解释器启动和工具自身的导入时间。
+
+协议 (与 JavacWorker.java 相同)：
+- 启动后输出 "ready 工具1,工具2\n"，列出本解释器中可以导入的工具
+- 每个请求是一行，字段以 NUL 分隔：工作目录、工具名、参数...
+- 响应为 "退出码 stdout字节数 stderr字节数\n" 加上两段 UTF-8 输出；不支持的工具返回 "!unavailable\n"
+"""
+
+import contextlib
+import importlib
+import importlib.util
+import io
+import os
+import re
+import sys
+
+_IMPORT_PATTERNS = [
+    re.compile(r"^\s*import\s+([\w\.]+)"),
+    re.compile(r"^\s*from\s+([\w\.]+)\s+import"),
+]
+
+
+def _call(fn, args):
+    """在捕获标准输出/错误的情况下调用 fn，SystemExit 视为退出码"""
+    out, err = io.StringIO(), io.StringIO()
+    code = 0
+    with contextlib.redirect_stdout(out), contextlib.redirect_stderr(err):
+        try:
+            result = fn(args)
+            if isinstance(result, int):
+                code = result
+        except SystemExit as e:
+            if isinstance(e.code, int):
+                code = e.code
+            elif e.code is not None:
+                err.write(str(e.code))
+                code = 1
+    return code, out.getvalue(), err.getvalue()
+
+
+def _run_flake8(args):
+    from flake8.main.cli import main
+
+    return _call(main, args)
+
+
+def _run_mypy(args):
+    from mypy import api
+
+    stdout, stderr, code = api.run(args)
+    return code, stdout, stderr
+
+
+def _run_pylint(args):
+    import astroid
+    from pylint.lint import Run
+
+    # astroid 按模块名缓存解析结果，文件修改后必须清掉
+    astroid.MANAGER.clear_cache()
+    return _call(lambda a: Run(a, exit=False).linter.msg_status, args)
+
+
+def _run_pyflakes(args):
+    from pyflakes.api import main
+
+    return _call(lambda a: main(args=a), args)
+
+
+def _check_imports(args):
+    """
+    检查文件中的顶层导入能否解析，输出格式与 PythonCompiler 的导入检查脚本一致
+
+    只用 find_spec 查找模块而不真正导入：常驻进程里导入项目模块会执行项目代码并留下过期的模块缓存。
+    """
+    file_path = args[0]
+    with open(file_path, "r", encoding="utf-8") as f:
+        source = f.read()
+
+    imports = []
+    for line in source.split("\n"):
+        for pattern in _IMPORT_PATTERNS:
+            match = pattern.match(line)
+            if match and not match.group(1).startswith("."):
+                top_package = match.group(1).split(".")[0]
+                if top_package not in imports:
+                    imports.append(top_package)
+
+    importlib.invalidate_caches()
+    original_path = list(sys.path)
+    sys.path.insert(0, os.path.dirname(os.path.abspath(file_path)))
+    lines = []
+    try:
+        for module_name in imports:
+            try:
+                found = module_name in sys.modules or importlib.util.find_spec(module_name) is not None
+            except (ImportError, ValueError) as e:
+                lines.append(f"ERROR: {module_name} - {str(e)}")
+                continue
+            if found:
+                lines.append(f"SUCCESS: {module_name}")
+            else:
+                lines.append(f"ERROR: {module_name} - No module named '{module_name}'")
+    finally:
+        sys.path[:] = original_path
+    return 0, "\n".join(lines) + ("\n" if lines else ""), ""
+
+
+_TOOLS = {
+    "flake8": ("flake8", _run_flake8),
+    "mypy": ("mypy", _run_mypy),
+    "pylint": ("pylint", _run_pylint),
+    "pyflakes": ("pyflakes", _run_pyflakes),
+    "imports": (None, _check_imports),
+}
+
+
+def _available_tools():
+    tools = []
+    for name, (module, _) in _TOOLS.items():
+        if module is None or importlib.util.find_spec(module) is not None:
+            tools.append(name)
+    return tools
+
+
+def main():
+    # 脚本目录不应出现在被检查代码的导入路径中
+    script_dir = os.path.dirname(os.path.abspath(__file__))
+    sys.path[:] = [p for p in sys.path if os.path.abspath(p or ".") != script_dir]
+
+    stdin = sys.stdin.buffer
+    protocol = os.fdopen(os.dup(sys.stdout.fileno()), "wb")
+    # 工具直接写文件描述符 1 的内容转到标准错误，不混进协议
+    os.dup2(sys.stderr.fileno(), sys.stdout.fileno())
+
+    def _write(header, out=b"", err=b""):
+        protocol.write(header.encode("utf-8") + b"\n" + out + err)
+        protocol.flush()
+
+    tools = _available_tools()
+    _write("ready " + ",".join(tools))
+
+    for raw in stdin:
+        fields = raw.rstrip(b"\n").decode("utf-8").split("\0")
+        if len(fields) < 2 or fields[1] not in tools:
+            _write("!unavailable")
+            continue
+        cwd, tool, args = fields[0], fields[1], fields[2:]
+        try:
+            if cwd:
+                os.chdir(cwd)
+            code, out, err = _TOOLS[tool][1](args)
+        except Exception as e:
+            code, out, err = 4, "", f"{type(e).__name__}: {e}"
+        out_bytes = (out or "").encode("utf-8")
+        err_bytes = (err or "").encode("utf-8")
+        _write(f"{code} {len(out_bytes)} {len(err_bytes)}", out_bytes, err_bytes)
+
+
+if __name__ == "__main__":
+    main()
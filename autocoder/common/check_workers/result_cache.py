@@ -0,0 +1,172 @@
+"""
+lint/编译结果缓存
+
+同一文件内容在同一配置下的检查结果不变，键由文件路径、文件内容哈希和配置哈希组成。
+mypy、tsc、javac 这类跨文件检查的结果还取决于项目里的其他源文件，
+调用方为它们额外传入源码树指纹 (tree_fingerprint)，任何相关文件变化后旧结果不再命中。
+"""
+
+import copy
+import hashlib
+import json
+import os
+import sys
+import threading
+from collections import OrderedDict
+from typing import Any, Dict, Hashable, Iterable, Optional, Tuple
+
+# 计算源码树指纹时跳过的目录
+SKIP_DIRS = frozenset(
+    {
+        ".git",
+        ".hg",
+        ".svn",
+        "node_modules",
+        "__pycache__",
+        ".venv",
+        "venv",
+        ".mypy_cache",
+        ".pytest_cache",
+        ".auto-coder",
+        "target",
+        "build",
+        "dist",
+        ".gradle",
+        ".idea",
+    }
+)
+# 源码树超过该文件数时不计算指纹 (返回 None，调用方不缓存)，避免遍历大仓库的开销超过检查本身
+MAX_FINGERPRINT_FILES = 20000
+
+
+def file_digest(path: str) -> Optional[str]:
+    """文件内容的 sha256，文件不可读时返回 None"""
+    try:
+        with open(path, "rb") as f:
+            return hashlib.sha256(f.read()).hexdigest()
+    except OSError:
+        return None
+
+
+def config_digest(config: Any) -> str:
+    """配置 (可 JSON 序列化的任意结构) 的 sha256"""
+    data = json.dumps(config, sort_keys=True, default=str, ensure_ascii=False)
+    return hashlib.sha256(data.encode("utf-8")).hexdigest()
+
+
+def tree_fingerprint(root: str, extensions: Iterable[str]) -> Optional[str]:
+    """
+    root 下指定扩展名文件的 (相对路径, 修改时间, 大小) 的哈希
+
+    Returns:
+        指纹；root 不存在或文件数超过 MAX_FINGERPRINT_FILES 时返回 None
+    """
+    if not os.path.isdir(root):
+        return None
+    suffixes = tuple(ext.lower() for ext in extensions)
+    h = hashlib.sha256()
+    count = 0
+    for dirpath, dirnames, filenames in os.walk(root):
+        dirnames[:] = sorted(d for d in dirnames if d not in SKIP_DIRS)
+        for name in sorted(filenames):
+            if not name.lower().endswith(suffixes):
+                continue
+            full = os.path.join(dirpath, name)
+            try:
+                st = os.stat(full)
+            except OSError:
+                continue
+            count += 1
+            if count > MAX_FINGERPRINT_FILES:
+                return None
+            h.update(f"{os.path.relpath(full, root)}\0{st.st_mtime_ns}\0{st.st_size}\n".encode("utf-8"))
+    return h.hexdigest()
+
+
+def interpreter_fingerprint() -> str:
+    """
+    当前 Python 解释器及其模块搜索路径的指纹
+
+    包含解释器路径、版本和 sys.path 中各目录的修改时间，
+    安装或卸载包会改变 site-packages 目录的修改时间，依赖导入解析的结果随之失效。
+    """
+    h = hashlib.sha256(f"{sys.executable}\0{sys.version}\n".encode("utf-8"))
+    for entry in sys.path:
+        try:
+            st = os.stat(entry or os.curdir)
+        except OSError:
+            continue
+        h.update(f"{entry}\0{st.st_mtime_ns}\n".encode("utf-8"))
+    return h.hexdigest()
+
+
+class CheckResultCache:
+    """线程安全、容量有限的检查结果 LRU 缓存，存取时复制值，调用方修改结果不影响缓存"""
+
+    def __init__(self, max_size: int = 2048):
+        self.max_size = max_size
+        self._data: "OrderedDict[Hashable, Any]" = OrderedDict()
+        self._lock = threading.Lock()
+        self.hits = 0
+        self.misses = 0
+
+    @staticmethod
+    def make_key(
+        namespace: str, path: str, config: Any = None, dependencies: Optional[str] = None
+    ) -> Optional[Tuple[str, str, str, str, Optional[str]]]:
+        """
+        构造缓存键
+
+        Args:
+            namespace: 检查器名，如 "PythonLinter"、"compile:java"
+            path: 被检查的文件
+            config: 影响检查结果的配置
+            dependencies: 跨文件检查时的源码树指纹
+
+        Returns:
+            缓存键；文件不可读时返回 None (不缓存)
+        """
+        digest = file_digest(path)
+        if digest is None:
+            return None
+        return (namespace, os.path.abspath(path), digest, config_digest(config), dependencies)
+
+    def get(self, key: Optional[Hashable]) -> Optional[Any]:
+        if key is None:
+            return None
+        with self._lock:
+            if key in self._data:
+                self._data.move_to_end(key)
+                self.hits += 1
+                return copy.deepcopy(self._data[key])
+            self.misses += 1
+            return None
+
+    def put(self, key: Optional[Hashable], value: Any) -> None:
+        if key is None or self.max_size <= 0:
+            return
+        value = copy.deepcopy(value)
+        with self._lock:
+            self._data[key] = value
+            self._data.move_to_end(key)
+            while len(self._data) > self.max_size:
+                self._data.popitem(last=False)
+
+    def clear(self) -> None:
+        with self._lock:
+            self._data.clear()
+
+    def __len__(self) -> int:
+        with self._lock:
+            return len(self._data)
+
+    def get_stats(self) -> Dict[str, Any]:
+        with self._lock:
+            total = self.hits + self.misses
+            return {
+                "size": len(self._data),
+                "max_size": self.max_size,
+                "hits": self.hits,
+                "misses": self.misses,
+                "hit_rate": round(self.hits / total, 4) if total else 0.0,
+            }
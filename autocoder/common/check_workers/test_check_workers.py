@@ -0,0 +1,324 @@
+import os
+import shutil
+import subprocess
+import sys
+import time
+from pathlib import Path
+from typing import List, Union
+
+import pytest
+
+from autocoder.common.check_workers import (
+    CheckResultCache,
+    CheckWorkerManager,
+    WorkerPool,
+    WorkerUnavailable,
+    interpreter_fingerprint,
+    tree_fingerprint,
+)
+from autocoder.common.linter_core.base_linter import BaseLinter
+from autocoder.common.linter_core.linter_manager import LinterManager
+from autocoder.common.linter_core.models.lint_result import LintResult
+from autocoder.compilers import compiler_factory
+from autocoder.compilers.compiler_factory import CompilerFactory
+from autocoder.compilers.python_compiler import PythonCompiler
+
+requires_javac = pytest.mark.skipif(shutil.which("javac") is None, reason="javac not installed")
+
+
+@pytest.fixture
+def manager():
+    m = CheckWorkerManager(max_workers=2)
+    yield m
+    m.shutdown()
+
+
+class TestResultCache:
+    """CheckResultCache 和指纹计算的单元测试"""
+
+    def test_key_follows_content_and_config(self, tmp_path):
+        path = tmp_path / "a.py"
+        path.write_text("x = 1\n")
+        cache = CheckResultCache()
+        key = cache.make_key("lint", str(path), {"args": ["-v"]})
+        cache.put(key, {"issues": []})
+
+        assert cache.get(cache.make_key("lint", str(path), {"args": ["-v"]})) == {"issues": []}
+        assert cache.get(cache.make_key("lint", str(path), {"args": []})) is None
+        path.write_text("x = 2\n")
+        assert cache.get(cache.make_key("lint", str(path), {"args": ["-v"]})) is None
+
+    def test_values_are_copied(self, tmp_path):
+        path = tmp_path / "a.py"
+        path.write_text("x = 1\n")
+        cache = CheckResultCache()
+        key = cache.make_key("lint", str(path))
+        cache.put(key, {"issues": []})
+
+        cache.get(key)["issues"].append("changed")
+        assert cache.get(key) == {"issues": []}
+
+    def test_unreadable_file_is_not_cached(self, tmp_path):
+        assert CheckResultCache.make_key("lint", str(tmp_path / "missing.py")) is None
+
+    def test_tree_fingerprint_tracks_matching_files(self, tmp_path):
+        (tmp_path / "A.java").write_text("class A {}")
+        (tmp_path / "node_modules").mkdir()
+        before = tree_fingerprint(str(tmp_path), [".java"])
+
+        (tmp_path / "notes.txt").write_text("ignored")
+        (tmp_path / "node_modules" / "B.java").write_text("ignored")
+        assert tree_fingerprint(str(tmp_path), [".java"]) == before
+
+        (tmp_path / "B.java").write_text("class B {}")
+        assert tree_fingerprint(str(tmp_path), [".java"]) != before
+
+    def test_interpreter_fingerprint_follows_installed_packages(self, tmp_path, monkeypatch):
+        site_packages = tmp_path / "site-packages"
+        site_packages.mkdir()
+        monkeypatch.setattr(sys, "path", [str(site_packages)])
+        before = interpreter_fingerprint()
+        assert interpreter_fingerprint() == before
+
+        (site_packages / "newpkg").mkdir()
+        os.utime(str(site_packages), ns=(0, 0))
+        assert interpreter_fingerprint() != before
+
+
+class TestWorkers:
+    """常驻进程和 run_command 路由的测试"""
+
+    def test_unrouted_command_uses_subprocess(self, manager):
+        result = manager.run_command([sys.executable, "-c", "print('hi')"])
+
+        assert result.stdout.strip() == "hi"
+        assert manager.subprocess_runs == 1
+        assert manager.worker_runs == 0
+
+    def test_python_worker_checks_imports(self, manager, tmp_path):
+        (tmp_path / "helper.py").write_text("VALUE = 1\n")
+        source = tmp_path / "main.py"
+        source.write_text("import os\nimport helper\nfrom no_such_module_xyz import thing\n")
+
+        result = manager.run_tool("imports", [str(source)])
+
+        assert result is not None
+        assert "SUCCESS: os" in result.stdout
+        assert "SUCCESS: helper" in result.stdout
+        assert "ERROR: no_such_module_xyz" in result.stdout
+        assert manager.worker_runs == 1
+
+    def test_unsupported_python_tool_falls_back(self, manager, tmp_path):
+        pool = manager._get_pool("python", str(tmp_path))
+        pool.tools = ["imports"]
+
+        manager.run_command([sys.executable, "-m", "pylint", "--version"])
+
+        assert manager.subprocess_runs == 1
+        assert manager.worker_runs == 0
+        assert manager.run_tool("pylint", ["x.py"]) is None
+
+    def test_disabled_manager_never_starts_workers(self, tmp_path):
+        m = CheckWorkerManager(enabled=False)
+        source = tmp_path / "a.py"
+        source.write_text("import os\n")
+
+        assert m.run_tool("imports", [str(source)]) is None
+        assert m.get_stats()["pools"] == {}
+
+    def test_broken_worker_pool_is_not_retried_forever(self):
+        pool = WorkerPool("broken", [sys.executable, "-c", "import sys; sys.exit(1)"], size=1, max_failures=2)
+
+        for _ in range(2):
+            with pytest.raises(WorkerUnavailable):
+                pool.run("", "imports", [])
+        assert pool.broken
+        assert not pool.supports("imports")
+
+    @requires_javac
+    def test_javac_worker_matches_cold_javac(self, manager, tmp_path):
+        source = tmp_path / "Broken.java"
+        source.write_text("public class Broken { int x = 1 }\n")
+        cmd = ["javac", "-d", str(tmp_path / "out"), "-Xlint:all", str(source)]
+
+        warm = manager.run_command(cmd, timeout=120)
+        cold = subprocess.run(cmd, capture_output=True, text=True, timeout=120)
+
+        assert manager.worker_runs == 1
+        assert warm.returncode == cold.returncode != 0
+        assert warm.stderr == cold.stderr
+
+    @requires_javac
+    def test_javac_worker_timeout_restarts_worker(self, manager, tmp_path):
+        source = tmp_path / "Ok.java"
+        source.write_text("public class Ok {}\n")
+        cmd = ["javac", "-d", str(tmp_path / "out"), str(source)]
+        manager.run_command(cmd, timeout=120)
+
+        with pytest.raises(subprocess.TimeoutExpired):
+            manager.run_command(cmd, timeout=0.0001)
+        assert manager.run_command(cmd, timeout=120).returncode == 0
+
+
+class _CountingLinter(BaseLinter):
+    """记录调用次数的 linter，可选地声明跨文件依赖"""
+
+    def __init__(self, config=None, extensions=None):
+        super().__init__(config)
+        self.calls: List[str] = []
+        self.extensions = extensions or []
+
+    @property
+    def supported_extensions(self) -> List[str]:
+        return [".py"]
+
+    @property
+    def language_name(self) -> str:
+        return "Python"
+
+    def is_available(self) -> bool:
+        return True
+
+    def dependency_extensions(self) -> List[str]:
+        return self.extensions
+
+    def lint_file(self, file_path: Union[str, Path]) -> LintResult:
+        self.calls.append(str(file_path))
+        return LintResult(linter_name=self.name, files_checked=[str(file_path)],
+                          lint_output=f"checked {Path(file_path).read_text()}", success=True)
+
+
+def _manager_with(linter, source_dir, **config):
+    manager = LinterManager(dict(config), source_dir=str(source_dir))
+    manager.linters = {"python": linter}
+    manager.workers.cache.clear()
+    return manager
+
+
+class TestLinterManagerCache:
+    """LinterManager 经由结果缓存执行检查"""
+
+    def test_unchanged_file_is_not_relinted(self, tmp_path):
+        path = tmp_path / "a.py"
+        path.write_text("x = 1\n")
+        linter = _CountingLinter()
+        manager = _manager_with(linter, tmp_path)
+
+        first = manager.lint_file(path)
+        second = manager.lint_file(path)
+        path.write_text("x = 2\n")
+        third = manager.lint_file(path)
+
+        assert len(linter.calls) == 2
+        assert second.lint_output == first.lint_output
+        assert second.metadata["cache_hit"] is True
+        assert "x = 2" in third.lint_output
+
+    def test_cross_file_results_follow_dependencies(self, tmp_path):
+        path = tmp_path / "a.py"
+        path.write_text("import b\n")
+        linter = _CountingLinter(extensions=[".py"])
+        manager = _manager_with(linter, tmp_path)
+
+        manager.lint_file(path)
+        manager.lint_file(path)
+        (tmp_path / "b.py").write_text("VALUE = 1\n")
+        manager.lint_file(path)
+
+        assert len(linter.calls) == 2
+
+    def test_cache_can_be_disabled(self, tmp_path):
+        path = tmp_path / "a.py"
+        path.write_text("x = 1\n")
+        linter = _CountingLinter()
+        manager = _manager_with(linter, tmp_path, cache_results=False)
+
+        manager.lint_files([path, path], parallel=False)
+
+        assert len(linter.calls) == 2
+
+
+class TestCompilerFactoryCache:
+    """CompilerFactory 缓存的编译结果随依赖的源文件失效"""
+
+    @pytest.fixture
+    def calls(self, tmp_path, monkeypatch):
+        calls = []
+
+        def _compile_file(compiler, file_path):
+            calls.append(file_path)
+            return {"success": True, "file_path": file_path}
+
+        monkeypatch.setattr(PythonCompiler, "compile_file", _compile_file)
+        monkeypatch.chdir(tmp_path)
+        return calls
+
+    def test_python_result_follows_imported_modules(self, tmp_path, calls):
+        path = tmp_path / "a.py"
+        path.write_text("import b\n")
+
+        CompilerFactory.compile_file(str(path))
+        CompilerFactory.compile_file(str(path))
+        (tmp_path / "b.py").write_text("VALUE = 1\n")
+        CompilerFactory.compile_file(str(path))
+
+        assert len(calls) == 2
+
+    def test_batch_fingerprints_are_computed_once(self, tmp_path, calls, monkeypatch):
+        fingerprints = []
+
+        def _tree_fingerprint(root, extensions):
+            fingerprints.append(tuple(extensions))
+            return tree_fingerprint(root, extensions)
+
+        monkeypatch.setattr(compiler_factory, "tree_fingerprint", _tree_fingerprint)
+        paths = []
+        for i in range(5):
+            path = tmp_path / f"m{i}.py"
+            path.write_text(f"x = {i}\n")
+            paths.append(str(path))
+
+        results = CompilerFactory.compile_files(paths)
+
+        assert fingerprints == [(".py",)]
+        assert all(results[p]["success"] for p in paths)
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+@requires_javac
+def test_javac_worker_benchmark(tmp_path):
+    """基准测试：每次编辑后检查一个 Java 文件，对比每次启动 javac 与常驻 javac 的耗时"""
+    runs = int(os.environ.get("CHECK_WORKERS_BENCH_RUNS", "10"))
+    source = tmp_path / "Service.java"
+    cmd = ["javac", "-d", str(tmp_path / "out"), "-Xlint:all", str(source)]
+
+    def _edit(i):
+        source.write_text(f"public class Service {{ int value() {{ return {i}; }} }}\n")
+
+    start = time.perf_counter()
+    for i in range(runs):
+        _edit(i)
+        subprocess.run(cmd, capture_output=True, text=True, timeout=120)
+    cold = time.perf_counter() - start
+
+    manager = CheckWorkerManager(max_workers=1)
+    try:
+        start = time.perf_counter()
+        manager.run_command(cmd, timeout=120)
+        startup = time.perf_counter() - start
+
+        start = time.perf_counter()
+        for i in range(runs):
+            _edit(i)
+            manager.run_command(cmd, timeout=120)
+        warm = time.perf_counter() - start
+    finally:
+        manager.shutdown()
+
+    print(
+        f"{runs} javac checks: cold {cold / runs * 1000:.0f} ms/file, "
+        f"warm {warm / runs * 1000:.0f} ms/file (worker startup {startup:.2f}s)"
+    )
+
+    assert warm < cold
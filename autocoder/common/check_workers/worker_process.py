@@ -0,0 +1,235 @@
+"""
+常驻检查进程及进程池
+
+每个 PersistentWorker 是一个长期运行的子进程 (python_worker.py 或 JavacWorker.java)，
+一次处理一个请求；WorkerPool 按需启动最多 size 个进程，进程崩溃或超时后丢弃，下次请求重新启动。
+"""
+
+import queue
+import subprocess
+import threading
+from typing import List, Optional, Sequence, Tuple
+
+from loguru import logger
+
+_CLOSED = ("closed",)
+
+
+class WorkerUnavailable(Exception):
+    """进程无法启动、已退出或不支持请求的工具，调用方应退回到一次性子进程"""
+
+
+class PersistentWorker:
+    """
+    一个常驻检查进程
+
+    Args:
+        name: 进程名，用于日志
+        command: 启动命令
+        cwd: 工作目录
+        startup_timeout: 等待进程输出 "ready" 的秒数
+    """
+
+    def __init__(self, name: str, command: Sequence[str], cwd: Optional[str] = None, startup_timeout: float = 60.0):
+        self.name = name
+        self.command = list(command)
+        self._responses: "queue.Queue" = queue.Queue()
+        try:
+            self.process = subprocess.Popen(
+                self.command,
+                cwd=cwd,
+                stdin=subprocess.PIPE,
+                stdout=subprocess.PIPE,
+                stderr=subprocess.DEVNULL,
+            )
+        except OSError as e:
+            raise WorkerUnavailable(f"{name} 启动失败: {str(e)}")
+        self._reader = threading.Thread(target=self._read_loop, name=f"{name}-reader", daemon=True)
+        self._reader.start()
+
+        response = self._next_response(startup_timeout)
+        if response[0] != "ready":
+            self.close()
+            raise WorkerUnavailable(f"{name} 未能就绪")
+        self.tools: List[str] = response[1]
+
+    def _read_loop(self) -> None:
+        stream = self.process.stdout
+        try:
+            while True:
+                header = stream.readline()
+                if not header:
+                    break
+                header = header.decode("utf-8").strip()
+                if header.startswith("ready"):
+                    tools = header[len("ready"):].strip()
+                    self._responses.put(("ready", [t for t in tools.split(",") if t]))
+                elif header == "!unavailable":
+                    self._responses.put(("unavailable",))
+                else:
+                    code, out_len, err_len = (int(x) for x in header.split())
+                    out = stream.read(out_len) if out_len else b""
+                    err = stream.read(err_len) if err_len else b""
+                    self._responses.put(("result", code, out, err))
+        except Exception as e:
+            logger.debug(f"{self.name} 输出解析失败: {str(e)}")
+        finally:
+            self._responses.put(_CLOSED)
+
+    def _next_response(self, timeout: Optional[float]) -> tuple:
+        try:
+            return self._responses.get(timeout=timeout)
+        except queue.Empty:
+            self.close()
+            raise subprocess.TimeoutExpired(self.command, timeout)
+
+    @property
+    def alive(self) -> bool:
+        return self.process.poll() is None
+
+    def request(self, cwd: str, tool: str, args: Sequence[str], timeout: Optional[float] = None) -> Tuple[int, str, str]:
+        """
+        执行一次检查
+
+        Returns:
+            (退出码, stdout, stderr)
+
+        Raises:
+            subprocess.TimeoutExpired: 超时 (进程已被结束)
+            WorkerUnavailable: 进程已退出或不支持该工具
+        """
+        line = "\0".join([cwd, tool, *args]) + "\n"
+        try:
+            self.process.stdin.write(line.encode("utf-8"))
+            self.process.stdin.flush()
+        except (OSError, ValueError) as e:
+            self.close()
+            raise WorkerUnavailable(f"{self.name} 已退出: {str(e)}")
+        response = self._next_response(timeout)
+        if response[0] == "result":
+            _, code, out, err = response
+            return code, out.decode("utf-8", errors="replace"), err.decode("utf-8", errors="replace")
+        if response[0] == "unavailable":
+            raise WorkerUnavailable(f"{self.name} 不支持 {tool}")
+        self.close()
+        raise WorkerUnavailable(f"{self.name} 已退出")
+
+    def close(self) -> None:
+        if self.process.poll() is None:
+            try:
+                self.process.stdin.close()
+            except OSError:
+                pass
+            try:
+                self.process.wait(timeout=2)
+            except subprocess.TimeoutExpired:
+                self.process.kill()
+                self.process.wait()
+
+
+class WorkerPool:
+    """
+    同一种常驻进程的池，最多 size 个进程并发处理请求
+
+    连续 max_failures 次启动失败或崩溃后进程池标记为不可用，之后的请求直接抛出 WorkerUnavailable，
+    避免在缺少运行环境时每次检查都付出一次启动失败的开销。
+    """
+
+    def __init__(self, name: str, command: Sequence[str], cwd: Optional[str] = None, size: int = 2,
+                 startup_timeout: float = 60.0, max_failures: int = 3):
+        self.name = name
+        self.command = list(command)
+        self.cwd = cwd
+        self.size = max(1, size)
+        self.startup_timeout = startup_timeout
+        self.max_failures = max_failures
+        self.tools: Optional[List[str]] = None
+        self._idle: List[PersistentWorker] = []
+        self._started = 0
+        self._failures = 0
+        self._closed = False
+        self._cond = threading.Condition()
+
+    @property
+    def broken(self) -> bool:
+        return self._failures >= self.max_failures
+
+    def supports(self, tool: str) -> bool:
+        """进程是否支持该工具；首次调用时启动一个进程以获取工具列表"""
+        if self.tools is None and not self.broken:
+            try:
+                self._release(self._acquire())
+            except WorkerUnavailable:
+                return False
+        return self.tools is not None and tool in self.tools
+
+    def run(self, cwd: str, tool: str, args: Sequence[str], timeout: Optional[float] = None) -> Tuple[int, str, str]:
+        worker = self._acquire()
+        try:
+            result = worker.request(cwd, tool, args, timeout=timeout)
+        except subprocess.TimeoutExpired:
+            self._discard(worker, failed=False)
+            raise
+        except WorkerUnavailable:
+            if worker.alive:
+                self._release(worker)
+            else:
+                self._discard(worker, failed=True)
+            raise
+        except BaseException:
+            worker.close()
+            self._discard(worker, failed=False)
+            raise
+        self._release(worker)
+        return result
+
+    def _acquire(self) -> PersistentWorker:
+        with self._cond:
+            while True:
+                if self._closed or self.broken:
+                    raise WorkerUnavailable(f"{self.name} 不可用")
+                if self._idle:
+                    return self._idle.pop()
+                if self._started < self.size:
+                    self._started += 1
+                    break
+                self._cond.wait()
+        try:
+            worker = PersistentWorker(self.name, self.command, cwd=self.cwd, startup_timeout=self.startup_timeout)
+        except (WorkerUnavailable, subprocess.TimeoutExpired) as e:
+            with self._cond:
+                self._started -= 1
+                self._failures += 1
+                self._cond.notify()
+            logger.warning(f"检查进程 {self.name} 启动失败，使用一次性子进程: {str(e)}")
+            raise WorkerUnavailable(str(e))
+        with self._cond:
+            self.tools = worker.tools
+        return worker
+
+    def _release(self, worker: PersistentWorker) -> None:
+        with self._cond:
+            if self._closed:
+                self._started -= 1
+                worker.close()
+            else:
+                self._failures = 0
+                self._idle.append(worker)
+            self._cond.notify()
+
+    def _discard(self, worker: PersistentWorker, failed: bool) -> None:
+        worker.close()
+        with self._cond:
+            self._started -= 1
+            if failed:
+                self._failures += 1
+            self._cond.notify()
+
+    def close(self) -> None:
+        with self._cond:
+            self._closed = True
+            idle, self._idle = self._idle, []
+            self._started -= len(idle)
+            self._cond.notify_all()
+        for worker in idle:
+            worker.close()
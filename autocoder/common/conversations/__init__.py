@@ -28,6 +28,7 @@ from .file_locker import FileLocker
 from .storage import (
     BaseStorage,
     FileStorage,
+    SegmentedLogStorage,
     IndexManager
 )
 
@@ -80,6 +81,7 @@ __all__ = [
     # Storage layer
     'BaseStorage',
     'FileStorage', 
+    'SegmentedLogStorage',
     'IndexManager',
     
     # Cache layer
@@ -23,6 +23,8 @@ class ConversationManagerConfig:
     enable_compression: bool = False
     log_level: str = "INFO"
     default_namespace: Optional[str] = None
+    storage_backend: str = "file"
+    segment_max_messages: int = 500
     
     def __post_init__(self):
         """配置验证"""
@@ -62,6 +64,15 @@ class ConversationManagerConfig:
         # 验证默认命名空间
         if self.default_namespace is not None and not isinstance(self.default_namespace, str):
             raise ValueError("默认命名空间必须是字符串或None")
+        
+        # 验证存储后端
+        valid_backends = ["file", "segmented_log"]
+        if self.storage_backend not in valid_backends:
+            raise ValueError(f"无效的存储后端: {self.storage_backend}，有效后端: {valid_backends}")
+        
+        # 验证分段大小
+        if not isinstance(self.segment_max_messages, int) or self.segment_max_messages <= 0:
+            raise ValueError("分段最大消息数必须是正整数")
     
     def to_dict(self) -> Dict[str, Any]:
         """转换为字典"""
@@ -75,7 +86,9 @@ class ConversationManagerConfig:
             "max_backups": self.max_backups,
             "enable_compression": self.enable_compression,
             "log_level": self.log_level,
-            "default_namespace": self.default_namespace
+            "default_namespace": self.default_namespace,
+            "storage_backend": self.storage_backend,
+            "segment_max_messages": self.segment_max_messages
         }
     
     @classmethod
@@ -110,7 +123,9 @@ class ConversationManagerConfig:
             f"{prefix}MAX_BACKUPS": "max_backups",
             f"{prefix}ENABLE_COMPRESSION": "enable_compression",
             f"{prefix}LOG_LEVEL": "log_level",
-            f"{prefix}DEFAULT_NAMESPACE": "default_namespace"
+            f"{prefix}DEFAULT_NAMESPACE": "default_namespace",
+            f"{prefix}STORAGE_BACKEND": "storage_backend",
+            f"{prefix}SEGMENT_MAX_MESSAGES": "segment_max_messages"
         }
         
         for env_key, attr_name in env_mapping.items():
@@ -118,7 +133,7 @@ class ConversationManagerConfig:
             if env_value is not None:
                 # 类型转换
                 try:
-                    if attr_name in ["max_cache_size", "max_backups"]:
+                    if attr_name in ["max_cache_size", "max_backups", "segment_max_messages"]:
                         value = int(env_value)
                     elif attr_name in ["cache_ttl", "lock_timeout", "backup_interval"]:
                         value = float(env_value)
@@ -193,7 +208,8 @@ class ConversationManagerConfig:
                 f"lock_timeout={self.lock_timeout}, "
                 f"backup_enabled={self.backup_enabled}, "
                 f"log_level='{self.log_level}', "
-                f"default_namespace={self.default_namespace!r})")
+                f"default_namespace={self.default_namespace!r}, "
+                f"storage_backend='{self.storage_backend}')")
     
     def __eq__(self, other) -> bool:
         """相等性比较"""
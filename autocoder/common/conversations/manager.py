@@ -24,7 +24,7 @@ from .exceptions import (
 from .models import Conversation, ConversationMessage
 from .llm_stats_models import LLMCallMetadata
 from .file_locker import FileLocker
-from .storage import FileStorage, IndexManager
+from .storage import FileStorage, SegmentedLogStorage, IndexManager
 from .cache import CacheManager
 from .search import TextSearcher, FilterManager
 
@@ -68,7 +68,13 @@ class PersistConversationManager:
         storage_path.mkdir(parents=True, exist_ok=True)
         
         # Initialize storage backend
-        self.storage = FileStorage(str(storage_path / "conversations"))
+        if self.config.storage_backend == "segmented_log":
+            self.storage = SegmentedLogStorage(
+                str(storage_path / "conversations"),
+                segment_max_messages=self.config.segment_max_messages
+            )
+        else:
+            self.storage = FileStorage(str(storage_path / "conversations"))
         
         # Initialize index manager
         self.index_manager = IndexManager(str(storage_path / "index"))
@@ -403,29 +409,7 @@ class PersistConversationManager:
                 llm_metadata=llm_metadata
             )
             
-            with self._conversation_lock(conversation_id):
-                # Load conversation
-                conversation_data = self.storage.load_conversation(conversation_id)
-                if not conversation_data:
-                    raise ConversationNotFoundError(conversation_id)
-                
-                # Add message to conversation
-                conversation = Conversation.from_dict(conversation_data)
-                conversation.add_message(message)
-                
-                # Save updated conversation
-                updated_data = conversation.to_dict()
-                self.storage.save_conversation(updated_data)
-                
-                # Update index
-                self.index_manager.update_conversation(updated_data)
-                
-                # Update cache
-                self.conversation_cache.set(conversation_id, updated_data)
-                self.message_cache.set(f"{conversation_id}:{message.message_id}", message.to_dict())
-            
-            # Update statistics
-            self._stats['messages_added'] += 1
+            self._append_message_objects(conversation_id, [message])
             
             return message.message_id
             
@@ -434,6 +418,47 @@ class PersistConversationManager:
         except Exception as e:
             raise ConversationManagerError(f"Failed to append message to conversation {conversation_id}: {e}")
     
+    def _append_message_objects(
+        self,
+        conversation_id: str,
+        messages: List[ConversationMessage]
+    ) -> None:
+        """
+        Append message objects to a conversation under a single lock.
+        
+        The storage backend decides how much data is rewritten; incremental
+        backends only write the new messages and a small header.
+        
+        Raises:
+            ConversationNotFoundError: If conversation doesn't exist
+        """
+        message_dicts = [message.to_dict() for message in messages]
+        
+        with self._conversation_lock(conversation_id):
+            if not self.storage.conversation_exists(conversation_id):
+                raise ConversationNotFoundError(conversation_id)
+            
+            updated_data = self.storage.append_messages(
+                conversation_id, message_dicts, time.time()
+            )
+            if updated_data is None:
+                raise ConversationManagerError(f"Failed to write messages to conversation {conversation_id}")
+            
+            # Update index
+            self.index_manager.update_conversation(updated_data)
+            
+            # Update cache; incremental backends return data without messages,
+            # so the cached full conversation is dropped instead of rebuilt
+            if 'messages' in updated_data:
+                self.conversation_cache.set(conversation_id, updated_data)
+            else:
+                self.conversation_cache.delete(conversation_id)
+            for message_dict in message_dicts:
+                self.message_cache.set(f"{conversation_id}:{message_dict['message_id']}", message_dict)
+        
+        # Update statistics
+        self._stats['messages_added'] += len(messages)
+    
     def append_messages(
         self,
         conversation_id: str,
@@ -453,19 +478,28 @@ class PersistConversationManager:
         Returns:
             List of message IDs
         """
-        message_ids = []
-        
-        for msg_data in messages:
-            message_id = self.append_message(
-                conversation_id,
-                msg_data['role'],
-                msg_data['content'],
-                msg_data.get('metadata'),
-                msg_data.get('llm_metadata')
-            )
-            message_ids.append(message_id)
+        if not messages:
+            return []
         
-        return message_ids
+        try:
+            message_objects = [
+                ConversationMessage(
+                    role=msg_data['role'],
+                    content=msg_data['content'],
+                    metadata=msg_data.get('metadata') or {},
+                    llm_metadata=msg_data.get('llm_metadata')
+                )
+                for msg_data in messages
+            ]
+            
+            self._append_message_objects(conversation_id, message_objects)
+            
+            return [message.message_id for message in message_objects]
+            
+        except ConversationNotFoundError:
+            raise
+        except Exception as e:
+            raise ConversationManagerError(f"Failed to append messages to conversation {conversation_id}: {e}")
     
     def get_messages(
         self,
@@ -487,6 +521,17 @@ class PersistConversationManager:
             List of message data
         """
         try:
+            # Page directly through segmented storage when no ID filter is needed
+            # and the full conversation is not cached
+            if (self.storage.supports_incremental_messages
+                    and not message_ids
+                    and self.conversation_cache.get(conversation_id) is None):
+                with self._conversation_lock(conversation_id, exclusive=False):
+                    messages = self.storage.load_messages(conversation_id, offset, limit)
+                if messages is None:
+                    raise ConversationNotFoundError(conversation_id)
+                return messages
+            
             # Get conversation
             conversation_data = self.get_conversation(conversation_id)
             if not conversation_data:
@@ -7,10 +7,12 @@ including file-based storage and indexing capabilities.
 
 from .base_storage import BaseStorage
 from .file_storage import FileStorage
+from .segmented_log_storage import SegmentedLogStorage
 from .index_manager import IndexManager
 
 __all__ = [
     'BaseStorage',
     'FileStorage', 
+    'SegmentedLogStorage',
     'IndexManager'
 ] 
\ No newline at end of file
@@ -11,6 +11,9 @@ from typing import Optional, List, Dict, Any
 class BaseStorage(ABC):
     """存储基类，定义对话存储的抽象接口"""
     
+    # 是否原生支持增量追加与分页读取消息（不需要加载整个对话）
+    supports_incremental_messages: bool = False
+    
     @abstractmethod
     def save_conversation(self, conversation_data: Dict[str, Any]) -> bool:
         """
@@ -79,4 +82,63 @@ class BaseStorage(ABC):
         Returns:
             List[Dict[str, Any]]: 对话数据列表
         """
-        pass 
\ No newline at end of file
+        pass
+    
+    def append_messages(
+        self,
+        conversation_id: str,
+        messages: List[Dict[str, Any]],
+        updated_at: float
+    ) -> Optional[Dict[str, Any]]:
+        """
+        向对话追加消息
+        
+        默认实现为加载整个对话、追加后整体重写；支持增量写入的存储应覆盖此方法。
+        
+        Args:
+            conversation_id: 对话唯一标识符
+            messages: 待追加的消息字典列表
+            updated_at: 对话新的更新时间
+            
+        Returns:
+            Optional[Dict[str, Any]]: 更新后的对话数据（增量存储可能只返回不含messages的头部），
+            对话不存在或写入失败返回None
+        """
+        conversation_data = self.load_conversation(conversation_id)
+        if not conversation_data:
+            return None
+        
+        conversation_data = dict(conversation_data)
+        conversation_data['messages'] = list(conversation_data.get('messages', [])) + list(messages)
+        conversation_data['updated_at'] = updated_at
+        
+        if not self.save_conversation(conversation_data):
+            return None
+        return conversation_data
+    
+    def load_messages(
+        self,
+        conversation_id: str,
+        offset: int = 0,
+        limit: Optional[int] = None
+    ) -> Optional[List[Dict[str, Any]]]:
+        """
+        分页加载对话消息
+        
+        默认实现为加载整个对话后切片；支持分段存储的实现应覆盖此方法。
+        
+        Args:
+            conversation_id: 对话唯一标识符
+            offset: 偏移量
+            limit: 限制返回数量，None表示无限制
+            
+        Returns:
+            Optional[List[Dict[str, Any]]]: 消息列表，对话不存在返回None
+        """
+        conversation_data = self.load_conversation(conversation_id)
+        if conversation_data is None:
+            return None
+        
+        messages = conversation_data.get('messages', [])
+        end_idx = offset + limit if limit else None
+        return messages[offset:end_idx]
@@ -0,0 +1,600 @@
+"""
+分段日志存储实现
+
+每个对话对应一个目录，包含一个很小的头部文件（对话元数据与分段表）和若干
+JSONL 分段文件（每行一条消息）。追加消息只写入尾部分段并重写头部，代价与
+消息大小成正比，而不是与整个对话大小成正比。整体保存对话（更新/删除消息）
+时会重新分段写入，相当于一次压缩。
+"""
+
+import os
+import json
+import shutil
+import tempfile
+import re
+from typing import Optional, List, Dict, Any, Iterator
+from pathlib import Path
+
+from .base_storage import BaseStorage
+from ..exceptions import DataIntegrityError
+
+
+class SegmentedLogStorage(BaseStorage):
+    """基于分段追加日志的存储实现"""
+
+    HEADER_FILE = "header.json"
+    FORMAT_NAME = "segmented_log"
+    FORMAT_VERSION = 1
+
+    supports_incremental_messages = True
+
+    def __init__(
+        self,
+        storage_path: str,
+        segment_max_messages: int = 500,
+        segment_max_bytes: int = 4 * 1024 * 1024,
+        compaction_ratio: float = 2.0
+    ):
+        """
+        初始化分段日志存储
+
+        Args:
+            storage_path: 存储目录路径
+            segment_max_messages: 单个分段的最大消息数
+            segment_max_bytes: 单个分段的最大字节数，超过后切换到新分段
+            compaction_ratio: 分段数超过理想分段数的倍数时触发压缩
+        """
+        self.storage_path = Path(storage_path)
+        self.segment_max_messages = segment_max_messages
+        self.segment_max_bytes = segment_max_bytes
+        self.compaction_ratio = compaction_ratio
+        self._ensure_storage_directory()
+
+    def _ensure_storage_directory(self):
+        """确保存储目录存在"""
+        self.storage_path.mkdir(parents=True, exist_ok=True)
+
+    def _sanitize_filename(self, filename: str) -> str:
+        """
+        清理文件名，移除或替换特殊字符
+
+        Args:
+            filename: 原始文件名
+
+        Returns:
+            str: 安全的文件名
+        """
+        safe_filename = re.sub(r'[<>:"/\\|?*]', '_', filename)
+        if not safe_filename or safe_filename.isspace():
+            safe_filename = 'unnamed'
+        return safe_filename
+
+    def _get_conversation_dir(self, conversation_id: str) -> Path:
+        """获取对话目录路径"""
+        return self.storage_path / self._sanitize_filename(conversation_id)
+
+    def _get_header_path(self, conversation_id: str) -> Path:
+        """获取对话头部文件路径"""
+        return self._get_conversation_dir(conversation_id) / self.HEADER_FILE
+
+    def _get_legacy_file_path(self, conversation_id: str) -> Path:
+        """获取 FileStorage 格式的旧对话文件路径，用于兼容迁移"""
+        return self.storage_path / f"{self._sanitize_filename(conversation_id)}.json"
+
+    @staticmethod
+    def _segment_name(segment_no: int) -> str:
+        """根据分段序号生成分段文件名"""
+        return f"seg-{segment_no:08d}.jsonl"
+
+    def _validate_conversation_data(self, conversation_data: Dict[str, Any]) -> bool:
+        """
+        验证对话数据的完整性
+
+        Args:
+            conversation_data: 对话数据
+
+        Returns:
+            bool: 数据有效返回True
+        """
+        if not isinstance(conversation_data, dict):
+            return False
+        return bool(conversation_data.get('conversation_id'))
+
+    def _atomic_write_json(self, file_path: Path, data: Dict[str, Any]) -> bool:
+        """
+        原子写入JSON文件
+
+        Args:
+            file_path: 目标文件路径
+            data: 要写入的数据
+
+        Returns:
+            bool: 写入成功返回True
+        """
+        temp_path = None
+        try:
+            temp_fd, temp_path = tempfile.mkstemp(
+                suffix='.tmp',
+                prefix=file_path.name + '.',
+                dir=file_path.parent
+            )
+            with os.fdopen(temp_fd, 'w', encoding='utf-8') as temp_file:
+                json.dump(data, temp_file, ensure_ascii=False)
+            os.replace(temp_path, file_path)
+            return True
+        except (OSError, IOError, PermissionError, TypeError, ValueError):
+            if temp_path and os.path.exists(temp_path):
+                try:
+                    os.unlink(temp_path)
+                except OSError:
+                    pass
+            return False
+
+    @staticmethod
+    def _encode_messages(messages: List[Dict[str, Any]]) -> List[bytes]:
+        """将消息编码为 JSONL 行"""
+        return [
+            (json.dumps(message, ensure_ascii=False) + "\n").encode('utf-8')
+            for message in messages
+        ]
+
+    def _load_header(self, conversation_id: str) -> Optional[Dict[str, Any]]:
+        """
+        加载对话头部
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            Optional[Dict[str, Any]]: 头部数据，不存在返回None
+        """
+        header_path = self._get_header_path(conversation_id)
+        if not header_path.exists():
+            return None
+
+        try:
+            with open(header_path, 'r', encoding='utf-8') as f:
+                header = json.load(f)
+        except (json.JSONDecodeError, UnicodeDecodeError) as e:
+            raise DataIntegrityError(f"对话头部损坏: {conversation_id}, 错误: {str(e)}")
+        except (OSError, IOError):
+            return None
+
+        if not self._validate_conversation_data(header) or 'segments' not in header:
+            raise DataIntegrityError(f"对话头部无效: {conversation_id}")
+        return header
+
+    def _header_to_conversation(self, header: Dict[str, Any]) -> Dict[str, Any]:
+        """从头部中去除存储相关字段，得到不含消息的对话数据"""
+        data = {
+            key: value for key, value in header.items()
+            if key not in ('segments', 'next_segment', 'format', 'format_version')
+        }
+        return data
+
+    def _iter_segment(self, conversation_dir: Path, segment: Dict[str, Any], skip: int = 0) -> Iterator[Dict[str, Any]]:
+        """
+        逐条读取分段中的消息
+
+        只读取头部记录的有效字节范围，忽略崩溃时可能残留的未提交尾部。
+
+        Args:
+            conversation_dir: 对话目录
+            segment: 分段描述
+            skip: 跳过的前置消息数
+        """
+        segment_path = conversation_dir / segment['name']
+        remaining = segment['size']
+        try:
+            with open(segment_path, 'rb') as f:
+                for index, line in enumerate(f):
+                    if remaining <= 0:
+                        break
+                    remaining -= len(line)
+                    if index < skip:
+                        continue
+                    yield json.loads(line)
+        except (json.JSONDecodeError, UnicodeDecodeError) as e:
+            raise DataIntegrityError(f"对话分段损坏: {segment_path}, 错误: {str(e)}")
+
+    def _write_segments(
+        self,
+        conversation_dir: Path,
+        messages: List[Dict[str, Any]],
+        first_segment_no: int
+    ) -> List[Dict[str, Any]]:
+        """
+        将消息按分段大小写入新的分段文件
+
+        Args:
+            conversation_dir: 对话目录
+            messages: 消息列表
+            first_segment_no: 第一个分段的序号
+
+        Returns:
+            List[Dict[str, Any]]: 写入的分段描述列表
+        """
+        segments = []
+        current = None
+        current_file = None
+        segment_no = first_segment_no
+
+        try:
+            for line in self._encode_messages(messages):
+                if (current is None
+                        or current['count'] >= self.segment_max_messages
+                        or current['size'] >= self.segment_max_bytes):
+                    if current_file is not None:
+                        current_file.close()
+                    current = {'name': self._segment_name(segment_no), 'count': 0, 'size': 0}
+                    segment_no += 1
+                    segments.append(current)
+                    current_file = open(conversation_dir / current['name'], 'wb')
+                current_file.write(line)
+                current['count'] += 1
+                current['size'] += len(line)
+        finally:
+            if current_file is not None:
+                current_file.close()
+
+        return segments
+
+    def _remove_stale_segments(self, conversation_dir: Path, segments: List[Dict[str, Any]]):
+        """删除头部不再引用的分段文件"""
+        live = {segment['name'] for segment in segments}
+        for segment_path in conversation_dir.glob("seg-*.jsonl"):
+            if segment_path.name not in live:
+                try:
+                    segment_path.unlink()
+                except OSError:
+                    pass
+
+    def _needs_compaction(self, header: Dict[str, Any]) -> bool:
+        """
+        判断分段是否过于碎片化
+
+        除最后一个分段外，每个分段都因消息数或字节数达到上限而切换，因此正常
+        追加产生的分段数不会超过按两种上限估算的理想值；超出时说明分段上限被
+        调大过或存在大量过小的分段。
+        """
+        segments = header['segments']
+        total_size = sum(segment['size'] for segment in segments)
+        ideal = (-(-header.get('message_count', 0) // self.segment_max_messages)
+                 + -(-total_size // self.segment_max_bytes))
+        return len(segments) > max(1, ideal) * self.compaction_ratio
+
+    def save_conversation(self, conversation_data: Dict[str, Any]) -> bool:
+        """
+        保存完整对话数据
+
+        消息会写入新序号的分段，头部原子替换后再删除旧分段，因此写入过程中
+        崩溃不会破坏已有数据。
+
+        Args:
+            conversation_data: 对话数据字典
+
+        Returns:
+            bool: 保存成功返回True
+        """
+        if not self._validate_conversation_data(conversation_data):
+            return False
+
+        conversation_id = conversation_data['conversation_id']
+        conversation_dir = self._get_conversation_dir(conversation_id)
+
+        try:
+            conversation_dir.mkdir(parents=True, exist_ok=True)
+
+            previous = None
+            try:
+                previous = self._load_header(conversation_id)
+            except DataIntegrityError:
+                previous = None
+            first_segment_no = previous.get('next_segment', 1) if previous else 1
+
+            messages = conversation_data.get('messages', []) or []
+            segments = self._write_segments(conversation_dir, messages, first_segment_no)
+
+            header = {k: v for k, v in conversation_data.items() if k != 'messages'}
+            header['message_count'] = len(messages)
+            header['segments'] = segments
+            header['next_segment'] = first_segment_no + len(segments)
+            header['format'] = self.FORMAT_NAME
+            header['format_version'] = self.FORMAT_VERSION
+
+            if not self._atomic_write_json(conversation_dir / self.HEADER_FILE, header):
+                return False
+
+            self._remove_stale_segments(conversation_dir, segments)
+
+            # 迁移完成后移除旧格式文件
+            legacy_path = self._get_legacy_file_path(conversation_id)
+            if legacy_path.exists():
+                legacy_path.unlink()
+
+            return True
+
+        except (OSError, IOError, TypeError, ValueError):
+            return False
+
+    def _load_legacy_conversation(self, conversation_id: str) -> Optional[Dict[str, Any]]:
+        """加载 FileStorage 格式的旧对话文件"""
+        legacy_path = self._get_legacy_file_path(conversation_id)
+        if not legacy_path.exists():
+            return None
+
+        try:
+            with open(legacy_path, 'r', encoding='utf-8') as f:
+                data = json.load(f)
+        except (json.JSONDecodeError, UnicodeDecodeError) as e:
+            raise DataIntegrityError(f"对话文件损坏: {conversation_id}, 错误: {str(e)}")
+        except (OSError, IOError):
+            return None
+
+        if not self._validate_conversation_data(data):
+            raise DataIntegrityError(f"对话数据无效: {conversation_id}")
+        return data
+
+    def load_conversation(self, conversation_id: str) -> Optional[Dict[str, Any]]:
+        """
+        加载完整对话数据
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            Optional[Dict[str, Any]]: 对话数据，不存在返回None
+        """
+        header = self._load_header(conversation_id)
+        if header is None:
+            return self._load_legacy_conversation(conversation_id)
+
+        conversation_dir = self._get_conversation_dir(conversation_id)
+        data = self._header_to_conversation(header)
+        data.pop('message_count', None)
+        data['messages'] = [
+            message
+            for segment in header['segments']
+            for message in self._iter_segment(conversation_dir, segment)
+        ]
+        return data
+
+    def load_conversation_header(self, conversation_id: str) -> Optional[Dict[str, Any]]:
+        """
+        加载不含消息的对话数据（包含 message_count）
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            Optional[Dict[str, Any]]: 对话数据，不存在返回None
+        """
+        header = self._load_header(conversation_id)
+        if header is None:
+            legacy = self._load_legacy_conversation(conversation_id)
+            if legacy is None:
+                return None
+            data = {k: v for k, v in legacy.items() if k != 'messages'}
+            data['message_count'] = len(legacy.get('messages', []))
+            return data
+        return self._header_to_conversation(header)
+
+    def append_messages(
+        self,
+        conversation_id: str,
+        messages: List[Dict[str, Any]],
+        updated_at: float
+    ) -> Optional[Dict[str, Any]]:
+        """
+        向对话尾部分段追加消息
+
+        只写入新消息并重写头部。消息先写入分段，头部随后原子替换；若在两步之间
+        崩溃，分段中未被头部记录的字节会在下一次追加时被截断。
+
+        Args:
+            conversation_id: 对话ID
+            messages: 待追加的消息字典列表
+            updated_at: 对话新的更新时间
+
+        Returns:
+            Optional[Dict[str, Any]]: 不含消息的对话数据，对话不存在或写入失败返回None
+        """
+        header = self._load_header(conversation_id)
+        if header is None:
+            # 旧格式对话：迁移为分段格式后再追加
+            legacy = self._load_legacy_conversation(conversation_id)
+            if legacy is None or not self.save_conversation(legacy):
+                return None
+            header = self._load_header(conversation_id)
+            if header is None:
+                return None
+
+        conversation_dir = self._get_conversation_dir(conversation_id)
+        segments = header['segments']
+
+        try:
+            current_file = None
+            current = segments[-1] if segments else None
+            try:
+                for line in self._encode_messages(messages):
+                    if (current is None
+                            or current['count'] >= self.segment_max_messages
+                            or current['size'] >= self.segment_max_bytes):
+                        if current_file is not None:
+                            current_file.close()
+                        current = {
+                            'name': self._segment_name(header['next_segment']),
+                            'count': 0,
+                            'size': 0
+                        }
+                        header['next_segment'] += 1
+                        segments.append(current)
+                        current_file = open(conversation_dir / current['name'], 'wb')
+                    elif current_file is None:
+                        current_file = open(conversation_dir / current['name'], 'r+b')
+                        current_file.seek(current['size'])
+                        current_file.truncate()
+                    current_file.write(line)
+                    current['count'] += 1
+                    current['size'] += len(line)
+            finally:
+                if current_file is not None:
+                    current_file.close()
+
+            header['message_count'] = header.get('message_count', 0) + len(messages)
+            header['updated_at'] = updated_at
+
+            if not self._atomic_write_json(conversation_dir / self.HEADER_FILE, header):
+                return None
+
+        except (OSError, IOError, TypeError, ValueError):
+            return None
+
+        if self._needs_compaction(header):
+            self.compact(conversation_id)
+
+        return self._header_to_conversation(header)
+
+    def load_messages(
+        self,
+        conversation_id: str,
+        offset: int = 0,
+        limit: Optional[int] = None
+    ) -> Optional[List[Dict[str, Any]]]:
+        """
+        分页加载消息，只读取覆盖请求范围的分段
+
+        Args:
+            conversation_id: 对话ID
+            offset: 偏移量
+            limit: 限制返回数量，None表示无限制
+
+        Returns:
+            Optional[List[Dict[str, Any]]]: 消息列表，对话不存在返回None
+        """
+        header = self._load_header(conversation_id)
+        if header is None:
+            return super().load_messages(conversation_id, offset, limit)
+
+        conversation_dir = self._get_conversation_dir(conversation_id)
+        result = []
+        position = 0
+
+        for segment in header['segments']:
+            if limit and len(result) >= limit:
+                break
+
+            segment_end = position + segment['count']
+            if segment_end <= offset:
+                position = segment_end
+                continue
+
+            skip = max(0, offset - position)
+            for message in self._iter_segment(conversation_dir, segment, skip=skip):
+                result.append(message)
+                if limit and len(result) >= limit:
+                    break
+            position = segment_end
+
+        return result
+
+    def compact(self, conversation_id: str) -> bool:
+        """
+        压缩对话：按当前分段大小重新写入全部消息，合并碎片分段
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            bool: 压缩成功返回True
+        """
+        conversation_data = self.load_conversation(conversation_id)
+        if conversation_data is None:
+            return False
+        return self.save_conversation(conversation_data)
+
+    def delete_conversation(self, conversation_id: str) -> bool:
+        """
+        删除对话数据
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            bool: 删除成功返回True
+        """
+        conversation_dir = self._get_conversation_dir(conversation_id)
+        legacy_path = self._get_legacy_file_path(conversation_id)
+        deleted = False
+
+        try:
+            if conversation_dir.exists():
+                shutil.rmtree(conversation_dir)
+                deleted = True
+            if legacy_path.exists():
+                legacy_path.unlink()
+                deleted = True
+        except (OSError, IOError):
+            return False
+
+        return deleted
+
+    def conversation_exists(self, conversation_id: str) -> bool:
+        """
+        检查对话是否存在
+
+        Args:
+            conversation_id: 对话ID
+
+        Returns:
+            bool: 存在返回True
+        """
+        return (self._get_header_path(conversation_id).exists()
+                or self._get_legacy_file_path(conversation_id).exists())
+
+    def list_conversations(
+        self,
+        limit: Optional[int] = None,
+        offset: int = 0
+    ) -> List[Dict[str, Any]]:
+        """
+        列出对话
+
+        Args:
+            limit: 限制返回数量
+            offset: 偏移量
+
+        Returns:
+            List[Dict[str, Any]]: 对话数据列表
+        """
+        conversations = []
+
+        try:
+            entries = list(self.storage_path.glob(f"*/{self.HEADER_FILE}"))
+            entries.extend(self.storage_path.glob("*.json"))
+
+            # 按修改时间排序（最新的在前）
+            entries.sort(key=lambda x: x.stat().st_mtime, reverse=True)
+
+            if limit is not None:
+                entries = entries[offset:offset + limit]
+            else:
+                entries = entries[offset:]
+
+            for entry in entries:
+                try:
+                    with open(entry, 'r', encoding='utf-8') as f:
+                        data = json.load(f)
+                    if not self._validate_conversation_data(data):
+                        continue
+                    conversation = self.load_conversation(data['conversation_id'])
+                    if conversation:
+                        conversations.append(conversation)
+                except (json.JSONDecodeError, UnicodeDecodeError, OSError, IOError, DataIntegrityError):
+                    # 跳过损坏的对话
+                    continue
+
+        except OSError:
+            pass
+
+        return conversations
@@ -0,0 +1,164 @@
+import json
+import pytest
+
+from autocoder.common.conversations.storage.segmented_log_storage import SegmentedLogStorage
+from autocoder.common.conversations.config import ConversationManagerConfig
+from autocoder.common.conversations.manager import PersistConversationManager
+from autocoder.common.conversations.exceptions import ConversationNotFoundError
+
+
+def _message(i):
+    return {
+        "role": "user",
+        "content": f"message {i}",
+        "timestamp": 1000.0 + i,
+        "message_id": f"msg-{i}",
+        "metadata": {}
+    }
+
+
+def _conversation(conversation_id="conv-1", count=0):
+    return {
+        "conversation_id": conversation_id,
+        "name": "test",
+        "description": None,
+        "created_at": 1000.0,
+        "updated_at": 1000.0,
+        "messages": [_message(i) for i in range(count)],
+        "metadata": {},
+        "version": 1
+    }
+
+
+@pytest.fixture
+def storage(tmp_path):
+    return SegmentedLogStorage(str(tmp_path / "conversations"), segment_max_messages=3)
+
+
+class TestSegmentedLogStorage:
+    """SegmentedLogStorage 的单元测试"""
+
+    def test_save_and_load_roundtrip(self, storage):
+        """测试整体保存后加载结果与原数据一致"""
+        data = _conversation(count=7)
+        assert storage.save_conversation(data)
+
+        loaded = storage.load_conversation("conv-1")
+        assert loaded == data
+
+        header = storage._load_header("conv-1")
+        assert [s["count"] for s in header["segments"]] == [3, 3, 1]
+
+    def test_append_only_touches_tail_segment(self, storage):
+        """测试追加消息只写入尾部分段"""
+        storage.save_conversation(_conversation(count=3))
+        conversation_dir = storage._get_conversation_dir("conv-1")
+        first_segment = conversation_dir / storage._load_header("conv-1")["segments"][0]["name"]
+        before = first_segment.read_bytes()
+
+        result = storage.append_messages("conv-1", [_message(3), _message(4)], 2000.0)
+
+        assert result["message_count"] == 5
+        assert result["updated_at"] == 2000.0
+        assert "messages" not in result
+        assert first_segment.read_bytes() == before
+        assert [m["message_id"] for m in storage.load_conversation("conv-1")["messages"]] == \
+            [f"msg-{i}" for i in range(5)]
+
+    def test_load_messages_pages_across_segments(self, storage):
+        """测试分页读取跨越多个分段"""
+        storage.save_conversation(_conversation(count=10))
+
+        page = storage.load_messages("conv-1", offset=2, limit=5)
+        assert [m["message_id"] for m in page] == [f"msg-{i}" for i in range(2, 7)]
+
+        tail = storage.load_messages("conv-1", offset=8)
+        assert [m["message_id"] for m in tail] == ["msg-8", "msg-9"]
+
+        assert storage.load_messages("missing") is None
+
+    def test_uncommitted_tail_is_ignored_and_truncated(self, storage):
+        """测试头部未记录的残留字节在读取时被忽略、追加时被截断"""
+        storage.save_conversation(_conversation(count=1))
+        header = storage._load_header("conv-1")
+        segment_path = storage._get_conversation_dir("conv-1") / header["segments"][-1]["name"]
+        with open(segment_path, "ab") as f:
+            f.write(b'{"partial": tr')
+
+        assert len(storage.load_conversation("conv-1")["messages"]) == 1
+
+        storage.append_messages("conv-1", [_message(1)], 2000.0)
+        messages = storage.load_conversation("conv-1")["messages"]
+        assert [m["message_id"] for m in messages] == ["msg-0", "msg-1"]
+
+    def test_compaction_merges_fragmented_segments(self, tmp_path):
+        """测试分段上限调大后碎片分段会被合并"""
+        path = str(tmp_path / "conversations")
+        SegmentedLogStorage(path, segment_max_messages=1).save_conversation(_conversation(count=10))
+
+        storage = SegmentedLogStorage(path, segment_max_messages=4)
+        storage.append_messages("conv-1", [_message(10)], 2000.0)
+
+        header = storage._load_header("conv-1")
+        assert [s["count"] for s in header["segments"]] == [4, 4, 3]
+        assert len(list(storage._get_conversation_dir("conv-1").glob("seg-*.jsonl"))) == 3
+        assert len(storage.load_conversation("conv-1")["messages"]) == 11
+
+    def test_legacy_file_is_migrated_on_append(self, storage):
+        """测试 FileStorage 格式的对话在首次追加时迁移"""
+        legacy_path = storage.storage_path / "conv-1.json"
+        legacy_path.write_text(json.dumps(_conversation(count=2)), encoding="utf-8")
+
+        assert storage.conversation_exists("conv-1")
+        assert len(storage.load_conversation("conv-1")["messages"]) == 2
+
+        storage.append_messages("conv-1", [_message(2)], 2000.0)
+
+        assert not legacy_path.exists()
+        assert len(storage.load_conversation("conv-1")["messages"]) == 3
+
+    def test_delete_and_list(self, storage):
+        """测试删除与列出对话"""
+        storage.save_conversation(_conversation("conv-1", count=2))
+        storage.save_conversation(_conversation("conv-2", count=1))
+
+        ids = {c["conversation_id"] for c in storage.list_conversations()}
+        assert ids == {"conv-1", "conv-2"}
+
+        assert storage.delete_conversation("conv-1")
+        assert not storage.conversation_exists("conv-1")
+        assert not storage.delete_conversation("conv-1")
+
+
+class TestManagerWithSegmentedLog:
+    """使用分段日志后端的 PersistConversationManager 测试"""
+
+    @pytest.fixture
+    def manager(self, tmp_path):
+        config = ConversationManagerConfig(
+            storage_path=str(tmp_path),
+            storage_backend="segmented_log",
+            segment_max_messages=2
+        )
+        return PersistConversationManager(config)
+
+    def test_append_and_get_messages(self, manager):
+        """测试追加和分页获取消息"""
+        conversation_id = manager.create_conversation(name="test")
+        manager.append_message(conversation_id, "user", "hello")
+        manager.append_messages(conversation_id, [
+            {"role": "assistant", "content": "hi"},
+            {"role": "user", "content": "bye"}
+        ])
+        manager.clear_cache()
+
+        messages = manager.get_messages(conversation_id, offset=1, limit=2)
+        assert [m["content"] for m in messages] == ["hi", "bye"]
+
+        conversation = manager.get_conversation(conversation_id)
+        assert [m["content"] for m in conversation["messages"]] == ["hello", "hi", "bye"]
+
+    def test_append_to_missing_conversation(self, manager):
+        """测试向不存在的对话追加消息"""
+        with pytest.raises(ConversationNotFoundError):
+            manager.append_message("missing", "user", "hello")
@@ -2,29 +2,41 @@
 文件备份管理器
 
 负责文件的备份和恢复操作，支持多版本文件备份。
+
+备份内容保存在内容寻址的 BlobStore 中 (压缩、去重，同一文件的相邻版本做差量编码)，
+备份元数据保存在 SQLite 数据库中，默认与 FileChangeStore 共用 changes.db，
+每次备份只插入一行记录，不再重写整个元数据文件。
 """
 
 import os
 import uuid
-import shutil
 import logging
+import sqlite3
+from collections import OrderedDict
 from typing import Optional, Dict, List, Tuple
 from datetime import datetime
 import json
 import threading
 
+from autocoder.common.file_checkpoint.blob_store import BlobStore, ORPHAN_GRACE_SECONDS
+
 logger = logging.getLogger(__name__)
 
+# 缓存最近备份的文件内容，作为下一次备份的差量基准，避免从差量链还原
+_RECENT_CONTENT_LIMIT = 32
+
 
 class FileBackupManager:
     """负责文件的备份和恢复操作"""
     
-    def __init__(self, backup_dir: Optional[str] = None):
+    def __init__(self, backup_dir: Optional[str] = None, db_file: Optional[str] = None, delta: bool = True):
         """
         初始化备份管理器
         
         Args:
             backup_dir: 备份文件存储目录，如果为None则使用默认目录
+            db_file: 备份元数据数据库，默认为备份目录下的 changes.db (与 FileChangeStore 的默认位置相同)
+            delta: 是否对同一文件的相邻版本做差量编码
         """
         if backup_dir is None:
             # 默认备份目录为项目根目录下的.auto-coder/checkpoint
@@ -32,13 +44,85 @@ class FileBackupManager:
         
         self.backup_dir = backup_dir
         self.metadata_file = os.path.join(backup_dir, "backup_metadata.json")
+        self.db_file = db_file or os.path.join(backup_dir, "changes.db")
         self.lock = threading.RLock()
         
         # 确保备份目录存在
         os.makedirs(backup_dir, exist_ok=True)
         
-        # 加载备份元数据
-        self.metadata = self._load_metadata()
+        self._conn = sqlite3.connect(self.db_file, check_same_thread=False, timeout=30)
+        self._init_db()
+        self.blobs = BlobStore(os.path.join(backup_dir, "blobs"), self._conn, delta=delta)
+        self._conn.commit()
+        self._recent: "OrderedDict[str, Tuple[str, bytes]]" = OrderedDict()
+        
+        # 导入旧版本的备份 (backup_metadata.json 和完整副本)
+        self._migrate_legacy_backups()
+    
+    def _init_db(self) -> None:
+        """初始化备份元数据表"""
+        self._conn.execute(
+            """
+            CREATE TABLE IF NOT EXISTS backups (
+                backup_id TEXT PRIMARY KEY,
+                original_path TEXT NOT NULL,
+                timestamp REAL NOT NULL,
+                size INTEGER NOT NULL,
+                mode INTEGER,
+                mtime REAL,
+                blob_hash TEXT NOT NULL
+            )
+            """
+        )
+        self._conn.execute(
+            "CREATE INDEX IF NOT EXISTS idx_backups_path_time ON backups (original_path, timestamp)"
+        )
+        self._conn.execute("CREATE INDEX IF NOT EXISTS idx_backups_timestamp ON backups (timestamp)")
+    
+    @property
+    def metadata(self) -> Dict[str, Dict]:
+        """所有备份的元数据快照：备份ID -> {original_path, timestamp, size}"""
+        with self.lock:
+            rows = self._conn.execute(
+                "SELECT backup_id, original_path, timestamp, size FROM backups"
+            ).fetchall()
+        return {
+            backup_id: {"original_path": original_path, "timestamp": timestamp, "size": size}
+            for backup_id, original_path, timestamp, size in rows
+        }
+    
+    def _latest_blob_for(self, file_path: str) -> Tuple[Optional[str], Optional[bytes]]:
+        """同一文件最近一次备份的内容哈希 (和已缓存的内容)，作为差量编码的基准"""
+        cached = self._recent.get(file_path)
+        if cached is not None:
+            self._recent.move_to_end(file_path)
+            return cached
+        row = self._conn.execute(
+            "SELECT blob_hash FROM backups WHERE original_path = ? ORDER BY timestamp DESC LIMIT 1",
+            (file_path,)
+        ).fetchone()
+        return (row[0], None) if row else (None, None)
+    
+    def _remember(self, file_path: str, blob_hash: str, data: bytes) -> None:
+        self._recent[file_path] = (blob_hash, data)
+        self._recent.move_to_end(file_path)
+        while len(self._recent) > _RECENT_CONTENT_LIMIT:
+            self._recent.popitem(last=False)
+    
+    def _store_backup(self, backup_id: str, file_path: str, data: bytes, timestamp: float,
+                      mode: Optional[int], mtime: Optional[float]) -> str:
+        base_hash, base_data = self._latest_blob_for(file_path)
+        with self._conn:
+            blob_hash = self.blobs.put(data, base_hash=base_hash, base_data=base_data)
+            self._conn.execute(
+                """
+                INSERT INTO backups (backup_id, original_path, timestamp, size, mode, mtime, blob_hash)
+                VALUES (?, ?, ?, ?, ?, ?, ?)
+                """,
+                (backup_id, file_path, timestamp, len(data), mode, mtime, blob_hash)
+            )
+        self._remember(file_path, blob_hash, data)
+        return blob_hash
     
     def backup_file(self, file_path: str) -> Optional[str]:
         """
@@ -57,33 +141,37 @@ class FileBackupManager:
             # 生成唯一的备份ID
             backup_id = str(uuid.uuid4())
             
-            # 构建备份文件路径
-            backup_file_path = os.path.join(self.backup_dir, backup_id)
-            
             try:
-                # 复制文件到备份目录
-                shutil.copy2(file_path, backup_file_path)
+                with open(file_path, 'rb') as f:
+                    data = f.read()
+                stat = os.stat(file_path)
                 
-                # 更新元数据
-                self.metadata[backup_id] = {
-                    "original_path": file_path,
-                    "timestamp": datetime.now().timestamp(),
-                    "size": os.path.getsize(file_path)
-                }
+                self._store_backup(backup_id, file_path, data, datetime.now().timestamp(),
+                                   stat.st_mode & 0o7777, stat.st_mtime)
                 
-                # 保存元数据
-                self._save_metadata()
-                
-                logger.debug(f"已备份文件 {file_path} 到 {backup_file_path}")
+                logger.debug(f"已备份文件 {file_path}，备份ID {backup_id}")
                 return backup_id
             
             except Exception as e:
                 logger.error(f"备份文件 {file_path} 失败: {str(e)}")
-                # 清理可能部分创建的备份文件
-                if os.path.exists(backup_file_path):
-                    os.remove(backup_file_path)
                 return None
     
+    def _read_backup(self, backup_id: str) -> Optional[Tuple[bytes, Optional[int], Optional[float]]]:
+        """读取备份内容，备份不存在或数据块损坏时返回None"""
+        row = self._conn.execute(
+            "SELECT blob_hash, mode, mtime FROM backups WHERE backup_id = ?", (backup_id,)
+        ).fetchone()
+        if row is None:
+            logger.error(f"备份ID {backup_id} 不存在")
+            return None
+        
+        try:
+            data = self.blobs.get(row[0])
+        except (KeyError, OSError, RuntimeError, ValueError) as e:
+            logger.error(f"读取备份 {backup_id} 的数据失败: {str(e)}")
+            return None
+        return data, row[1], row[2]
+    
     def restore_file(self, file_path: str, backup_id: str) -> bool:
         """
         从备份恢复文件
@@ -96,27 +184,24 @@ class FileBackupManager:
             bool: 恢复是否成功
         """
         with self.lock:
-            # 检查备份ID是否存在
-            if backup_id not in self.metadata:
-                logger.error(f"备份ID {backup_id} 不存在")
-                return False
-            
-            # 构建备份文件路径
-            backup_file_path = os.path.join(self.backup_dir, backup_id)
-            
-            # 检查备份文件是否存在
-            if not os.path.exists(backup_file_path):
-                logger.error(f"备份文件 {backup_file_path} 不存在")
+            backup = self._read_backup(backup_id)
+            if backup is None:
                 return False
+            data, mode, mtime = backup
             
             try:
                 # 确保目标目录存在
                 os.makedirs(os.path.dirname(file_path), exist_ok=True)
                 
-                # 复制备份文件到目标路径
-                shutil.copy2(backup_file_path, file_path)
+                # 写入备份内容，并恢复权限和修改时间
+                with open(file_path, 'wb') as f:
+                    f.write(data)
+                if mode is not None:
+                    os.chmod(file_path, mode)
+                if mtime is not None:
+                    os.utime(file_path, (mtime, mtime))
                 
-                logger.debug(f"已从 {backup_file_path} 恢复文件到 {file_path}")
+                logger.debug(f"已从备份 {backup_id} 恢复文件到 {file_path}")
                 return True
             
             except Exception as e:
@@ -134,31 +219,19 @@ class FileBackupManager:
             str: 备份文件内容，如果备份不存在则返回None
         """
         with self.lock:
-            # 检查备份ID是否存在
-            if backup_id not in self.metadata:
-                logger.error(f"备份ID {backup_id} 不存在")
-                return None
-            
-            # 构建备份文件路径
-            backup_file_path = os.path.join(self.backup_dir, backup_id)
-            
-            # 检查备份文件是否存在
-            if not os.path.exists(backup_file_path):
-                logger.error(f"备份文件 {backup_file_path} 不存在")
+            backup = self._read_backup(backup_id)
+            if backup is None:
                 return None
             
             try:
-                # 读取备份文件内容
-                with open(backup_file_path, 'r', encoding='utf-8') as f:
-                    return f.read()
-            
-            except Exception as e:
-                logger.error(f"读取备份文件 {backup_file_path} 失败: {str(e)}")
+                return backup[0].decode('utf-8')
+            except UnicodeDecodeError as e:
+                logger.error(f"读取备份 {backup_id} 失败: {str(e)}")
                 return None
     
     def delete_backup(self, backup_id: str) -> bool:
         """
-        删除指定的备份文件
+        删除指定的备份，不再被引用的数据块随之删除
         
         Args:
             backup_id: 备份文件ID
@@ -167,24 +240,23 @@ class FileBackupManager:
             bool: 删除是否成功
         """
         with self.lock:
+            row = self._conn.execute(
+                "SELECT blob_hash FROM backups WHERE backup_id = ?", (backup_id,)
+            ).fetchone()
             # 检查备份ID是否存在
-            if backup_id not in self.metadata:
+            if row is None:
                 logger.error(f"备份ID {backup_id} 不存在")
                 return False
             
-            # 构建备份文件路径
-            backup_file_path = os.path.join(self.backup_dir, backup_id)
-            
             try:
-                # 删除备份文件
-                if os.path.exists(backup_file_path):
-                    os.remove(backup_file_path)
+                with self._conn:
+                    self._conn.execute("DELETE FROM backups WHERE backup_id = ?", (backup_id,))
+                    self.blobs.decref(row[0])
                 
-                # 更新元数据
-                del self.metadata[backup_id]
-                
-                # 保存元数据
-                self._save_metadata()
+                # 缓存的差量基准可能已被删除
+                self._recent = OrderedDict(
+                    (path, entry) for path, entry in self._recent.items() if self.blobs.exists(entry[0])
+                )
                 
                 logger.debug(f"已删除备份 {backup_id}")
                 return True
@@ -204,15 +276,14 @@ class FileBackupManager:
             int: 清理的备份文件数量
         """
         with self.lock:
-            now = datetime.now().timestamp()
-            max_age_seconds = max_age_days * 24 * 60 * 60
-            
-            backup_ids_to_delete = []
+            cutoff = datetime.now().timestamp() - max_age_days * 24 * 60 * 60
             
             # 找出过旧的备份
-            for backup_id, metadata in self.metadata.items():
-                if now - metadata["timestamp"] > max_age_seconds:
-                    backup_ids_to_delete.append(backup_id)
+            backup_ids_to_delete = [
+                row[0] for row in self._conn.execute(
+                    "SELECT backup_id FROM backups WHERE timestamp < ?", (cutoff,)
+                ).fetchall()
+            ]
             
             # 删除过旧的备份
             deleted_count = 0
@@ -222,6 +293,20 @@ class FileBackupManager:
             
             return deleted_count
     
+    def collect_garbage(self, grace_period: float = ORPHAN_GRACE_SECONDS) -> int:
+        """
+        清理未被引用的数据块 (例如写入中断留下的文件)
+        
+        Args:
+            grace_period: 没有元数据的数据块文件修改后超过该秒数才会被删除
+        
+        Returns:
+            int: 删除的数据块数量
+        """
+        with self.lock:
+            with self._conn:
+                return self.blobs.collect_garbage(grace_period)
+    
     def get_backups_for_file(self, file_path: str) -> List[Tuple[str, float]]:
         """
         获取指定文件的所有备份
@@ -233,32 +318,61 @@ class FileBackupManager:
             List[Tuple[str, float]]: 备份ID和时间戳的列表，按时间戳降序排序
         """
         with self.lock:
-            backups = []
-            
-            for backup_id, metadata in self.metadata.items():
-                if metadata["original_path"] == file_path:
-                    backups.append((backup_id, metadata["timestamp"]))
-            
-            # 按时间戳降序排序
-            backups.sort(key=lambda x: x[1], reverse=True)
-            
-            return backups
+            rows = self._conn.execute(
+                "SELECT backup_id, timestamp FROM backups WHERE original_path = ? ORDER BY timestamp DESC",
+                (file_path,)
+            ).fetchall()
+            return [(backup_id, timestamp) for backup_id, timestamp in rows]
     
-    def _load_metadata(self) -> Dict:
-        """加载备份元数据"""
-        if os.path.exists(self.metadata_file):
-            try:
-                with open(self.metadata_file, 'r', encoding='utf-8') as f:
-                    return json.load(f)
-            except Exception as e:
-                logger.error(f"加载备份元数据失败: {str(e)}")
-        
-        return {}
+    def get_storage_stats(self) -> Dict[str, int]:
+        """备份数量、数据块数量、原始大小和实际存储大小"""
+        with self.lock:
+            stats = self.blobs.get_stats()
+            stats["backups"] = self._conn.execute("SELECT COUNT(*) FROM backups").fetchone()[0]
+            return stats
     
-    def _save_metadata(self) -> None:
-        """保存备份元数据"""
+    def _migrate_legacy_backups(self) -> None:
+        """导入旧版本的备份：backup_metadata.json 中的记录和备份目录下的完整副本"""
+        if not os.path.exists(self.metadata_file):
+            return
+        
         try:
-            with open(self.metadata_file, 'w', encoding='utf-8') as f:
-                json.dump(self.metadata, f, indent=2)
+            with open(self.metadata_file, 'r', encoding='utf-8') as f:
+                legacy = json.load(f)
         except Exception as e:
-            logger.error(f"保存备份元数据失败: {str(e)}")
+            logger.error(f"加载备份元数据失败: {str(e)}")
+            return
+        
+        migrated = 0
+        failed = False
+        with self.lock:
+            # 按时间顺序导入，同一文件的后续版本可以基于前一个版本做差量编码
+            for backup_id, info in sorted(legacy.items(), key=lambda item: item[1].get("timestamp", 0)):
+                backup_file_path = os.path.join(self.backup_dir, backup_id)
+                if not os.path.isfile(backup_file_path):
+                    continue
+                try:
+                    if self._conn.execute(
+                        "SELECT 1 FROM backups WHERE backup_id = ?", (backup_id,)
+                    ).fetchone() is None:
+                        with open(backup_file_path, 'rb') as f:
+                            data = f.read()
+                        stat = os.stat(backup_file_path)
+                        self._store_backup(backup_id, info["original_path"], data, info["timestamp"],
+                                           stat.st_mode & 0o7777, stat.st_mtime)
+                    os.remove(backup_file_path)
+                    migrated += 1
+                except Exception as e:
+                    failed = True
+                    logger.error(f"导入备份 {backup_id} 失败: {str(e)}")
+        
+        logger.info(f"已导入 {migrated} 个旧版本备份")
+        # 有记录导入失败时保留旧的元数据文件，下次启动时重试 (已导入的记录会被跳过)
+        if failed:
+            logger.warning("部分旧版本备份导入失败，保留 backup_metadata.json 以便下次重试")
+            return
+        os.replace(self.metadata_file, self.metadata_file + ".migrated")
+    
+    def close(self) -> None:
+        with self.lock:
+            self._conn.close()
@@ -0,0 +1,280 @@
+"""
+内容寻址的备份数据存储
+
+按内容的 SHA-256 存储文件内容，相同内容只保存一份；每份内容压缩后保存在 blob 目录中，
+安装了 zstandard 时使用 zstd，否则使用标准库的 zlib。
+
+同一文件的相邻版本通常只有一小段不同，存储时可以基于上一个版本做差量编码：
+只保存与基准版本不同的中间部分，以及与基准版本相同的前缀和后缀长度。
+差量链的长度有上限，超过后重新保存完整内容，恢复时最多解压 max_delta_chain 个数据块。
+
+数据块的元数据 (编码方式、差量基准、引用计数) 保存在调用方提供的 SQLite 连接中，
+引用计数降为 0 时删除数据块，并释放对差量基准的引用。
+"""
+
+import os
+import time
+import zlib
+import hashlib
+import logging
+import sqlite3
+from typing import Dict, Optional
+
+try:
+    import zstandard
+except ImportError:  # pragma: no cover - 取决于运行环境
+    zstandard = None
+
+logger = logging.getLogger(__name__)
+
+CODEC_ZSTD = "zstd"
+CODEC_ZLIB = "zlib"
+DEFAULT_CODEC = CODEC_ZSTD if zstandard is not None else CODEC_ZLIB
+# 没有元数据的数据块文件在修改后超过该秒数才视为中断写入的残留，
+# 避免删除其他进程正在写入、元数据尚未提交的数据块
+ORPHAN_GRACE_SECONDS = 3600.0
+
+
+def content_hash(data: bytes) -> str:
+    return hashlib.sha256(data).hexdigest()
+
+
+def _compress(data: bytes, codec: str) -> bytes:
+    if codec == CODEC_ZSTD:
+        return zstandard.ZstdCompressor(level=3).compress(data)
+    return zlib.compress(data, 6)
+
+
+def _decompress(data: bytes, codec: str) -> bytes:
+    if codec == CODEC_ZSTD:
+        if zstandard is None:
+            raise RuntimeError("读取 zstd 压缩的备份需要安装 zstandard")
+        return zstandard.ZstdDecompressor().decompress(data)
+    return zlib.decompress(data)
+
+
+def _common_prefix_len(a: bytes, b: bytes) -> int:
+    """二分查找最长公共前缀，每一步是一次 C 层面的切片比较"""
+    lo, hi = 0, min(len(a), len(b))
+    while lo < hi:
+        mid = (lo + hi + 1) // 2
+        if a[:mid] == b[:mid]:
+            lo = mid
+        else:
+            hi = mid - 1
+    return lo
+
+
+def _common_suffix_len(a: bytes, b: bytes, limit: int) -> int:
+    lo, hi = 0, limit
+    while lo < hi:
+        mid = (lo + hi + 1) // 2
+        if a[len(a) - mid:] == b[len(b) - mid:]:
+            lo = mid
+        else:
+            hi = mid - 1
+    return lo
+
+
+class BlobStore:
+    """
+    内容寻址、带引用计数的数据块存储
+
+    Args:
+        blob_dir: 数据块文件目录
+        conn: 保存 blobs 表的 SQLite 连接，事务由调用方提交
+        delta: 是否对同一文件的相邻版本做差量编码
+        max_delta_chain: 差量链的最大长度
+        codec: 新数据块的压缩方式，默认优先使用 zstd
+    """
+
+    def __init__(self, blob_dir: str, conn: sqlite3.Connection, delta: bool = True,
+                 max_delta_chain: int = 16, codec: str = DEFAULT_CODEC):
+        self.blob_dir = blob_dir
+        self.conn = conn
+        self.delta = delta
+        self.max_delta_chain = max_delta_chain
+        self.codec = codec
+        os.makedirs(blob_dir, exist_ok=True)
+        self._init_table()
+
+    def _init_table(self) -> None:
+        self.conn.execute(
+            """
+            CREATE TABLE IF NOT EXISTS blobs (
+                hash TEXT PRIMARY KEY,
+                codec TEXT NOT NULL,
+                base_hash TEXT,
+                prefix_len INTEGER NOT NULL DEFAULT 0,
+                suffix_len INTEGER NOT NULL DEFAULT 0,
+                depth INTEGER NOT NULL DEFAULT 0,
+                size INTEGER NOT NULL,
+                stored_size INTEGER NOT NULL,
+                refcount INTEGER NOT NULL DEFAULT 0
+            )
+            """
+        )
+        self.conn.execute("CREATE INDEX IF NOT EXISTS idx_blobs_refcount ON blobs (refcount)")
+
+    def _blob_path(self, blob_hash: str) -> str:
+        return os.path.join(self.blob_dir, blob_hash[:2], blob_hash)
+
+    def _write_blob_file(self, blob_hash: str, payload: bytes) -> None:
+        path = self._blob_path(blob_hash)
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        tmp_path = f"{path}.{os.getpid()}.tmp"
+        with open(tmp_path, "wb") as f:
+            f.write(payload)
+        os.replace(tmp_path, path)
+
+    def exists(self, blob_hash: str) -> bool:
+        return self.conn.execute("SELECT 1 FROM blobs WHERE hash = ?", (blob_hash,)).fetchone() is not None
+
+    def put(self, data: bytes, base_hash: Optional[str] = None, base_data: Optional[bytes] = None) -> str:
+        """
+        保存内容并增加其引用计数
+
+        Args:
+            data: 文件内容
+            base_hash: 差量编码的候选基准 (通常是同一文件的上一个版本)
+            base_data: 基准内容，未提供时从存储中读取
+
+        Returns:
+            str: 内容哈希
+        """
+        blob_hash = content_hash(data)
+        if self.conn.execute(
+            "UPDATE blobs SET refcount = refcount + 1 WHERE hash = ?", (blob_hash,)
+        ).rowcount:
+            return blob_hash
+
+        prefix_len = suffix_len = depth = 0
+        middle = data
+        delta_base = None
+        if self.delta and base_hash and base_hash != blob_hash:
+            row = self.conn.execute("SELECT depth FROM blobs WHERE hash = ?", (base_hash,)).fetchone()
+            if row is not None and row[0] < self.max_delta_chain:
+                if base_data is None:
+                    base_data = self.get(base_hash)
+                prefix_len = _common_prefix_len(base_data, data)
+                limit = min(len(base_data), len(data)) - prefix_len
+                suffix_len = _common_suffix_len(base_data, data, limit)
+                # 相同部分不足一半时差量编码收益不大，保存完整内容
+                if (prefix_len + suffix_len) * 2 >= len(data) and prefix_len + suffix_len > 0:
+                    middle = data[prefix_len:len(data) - suffix_len]
+                    delta_base = base_hash
+                    depth = row[0] + 1
+                else:
+                    prefix_len = suffix_len = 0
+
+        payload = _compress(middle, self.codec)
+        self._write_blob_file(blob_hash, payload)
+        self.conn.execute(
+            """
+            INSERT INTO blobs (hash, codec, base_hash, prefix_len, suffix_len, depth, size, stored_size, refcount)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, 1)
+            """,
+            (blob_hash, self.codec, delta_base, prefix_len, suffix_len, depth, len(data), len(payload))
+        )
+        if delta_base is not None:
+            self.incref(delta_base)
+        return blob_hash
+
+    def get(self, blob_hash: str) -> bytes:
+        """
+        读取内容，差量编码的数据块沿差量链还原
+
+        Raises:
+            KeyError: 数据块不存在
+        """
+        chain = []
+        current = blob_hash
+        while current is not None:
+            row = self.conn.execute(
+                "SELECT codec, base_hash, prefix_len, suffix_len FROM blobs WHERE hash = ?", (current,)
+            ).fetchone()
+            if row is None:
+                raise KeyError(current)
+            chain.append((current,) + tuple(row))
+            current = row[1]
+
+        # 从完整内容开始，依次应用差量
+        data = b""
+        for current, codec, base_hash, prefix_len, suffix_len in reversed(chain):
+            with open(self._blob_path(current), "rb") as f:
+                middle = _decompress(f.read(), codec)
+            if base_hash is None:
+                data = middle
+            else:
+                data = data[:prefix_len] + middle + data[len(data) - suffix_len:]
+        return data
+
+    def incref(self, blob_hash: str) -> None:
+        self.conn.execute("UPDATE blobs SET refcount = refcount + 1 WHERE hash = ?", (blob_hash,))
+
+    def decref(self, blob_hash: str) -> int:
+        """
+        释放一个引用，引用计数降为 0 的数据块被删除，并依次释放其差量基准
+
+        Returns:
+            int: 删除的数据块数量
+        """
+        removed = 0
+        current = blob_hash
+        while current is not None:
+            self.conn.execute("UPDATE blobs SET refcount = refcount - 1 WHERE hash = ?", (current,))
+            row = self.conn.execute("SELECT refcount, base_hash FROM blobs WHERE hash = ?", (current,)).fetchone()
+            if row is None or row[0] > 0:
+                break
+            self.conn.execute("DELETE FROM blobs WHERE hash = ?", (current,))
+            self._remove_blob_file(current)
+            removed += 1
+            current = row[1]
+        return removed
+
+    def _remove_blob_file(self, blob_hash: str) -> None:
+        try:
+            os.remove(self._blob_path(blob_hash))
+        except FileNotFoundError:
+            pass
+
+    def collect_garbage(self, grace_period: float = ORPHAN_GRACE_SECONDS) -> int:
+        """
+        删除引用计数不大于 0 的数据块，以及没有元数据的数据块文件 (写入过程中中断留下的)
+
+        写入中的临时文件 (*.tmp) 和最近 grace_period 秒内修改过的文件不会被删除。
+
+        Returns:
+            int: 删除的数据块数量
+        """
+        removed = 0
+        for (blob_hash,) in self.conn.execute("SELECT hash FROM blobs WHERE refcount <= 0").fetchall():
+            # decref 把计数减到 0 以下后删除，并释放差量基准
+            self.conn.execute("UPDATE blobs SET refcount = 1 WHERE hash = ?", (blob_hash,))
+            removed += self.decref(blob_hash)
+
+        known = {row[0] for row in self.conn.execute("SELECT hash FROM blobs")}
+        cutoff = time.time() - grace_period
+        for prefix in os.listdir(self.blob_dir):
+            prefix_dir = os.path.join(self.blob_dir, prefix)
+            if not os.path.isdir(prefix_dir):
+                continue
+            for name in os.listdir(prefix_dir):
+                if name in known or name.endswith(".tmp"):
+                    continue
+                path = os.path.join(prefix_dir, name)
+                try:
+                    if os.path.getmtime(path) > cutoff:
+                        continue
+                    os.remove(path)
+                except FileNotFoundError:
+                    continue
+                removed += 1
+        return removed
+
+    def get_stats(self) -> Dict[str, int]:
+        count, size, stored_size, deltas = self.conn.execute(
+            "SELECT COUNT(*), COALESCE(SUM(size), 0), COALESCE(SUM(stored_size), 0), "
+            "COALESCE(SUM(base_hash IS NOT NULL), 0) FROM blobs"
+        ).fetchone()
+        return {"blobs": count, "delta_blobs": deltas, "size": size, "stored_size": stored_size}
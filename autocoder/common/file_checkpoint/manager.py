@@ -57,8 +57,9 @@ class FileChangeManager:
             conversation_store_dir: 对话检查点存储目录
         """
         self.project_dir = os.path.abspath(project_dir)
-        self.backup_manager = FileBackupManager(backup_dir)
         self.change_store = FileChangeStore(store_dir, max_history)
+        # 备份元数据与变更记录保存在同一个数据库中
+        self.backup_manager = FileBackupManager(backup_dir, db_file=self.change_store.db_file)
         
         # 初始化对话检查点存储
         if conversation_store_dir is None and store_dir is not None:
@@ -3,6 +3,7 @@ import os
 import json
 import tempfile
 import shutil
+import time
 from datetime import datetime, timedelta
 from pathlib import Path
 
@@ -52,14 +53,11 @@ class TestFileBackupManager:
         assert backup_id is not None
         assert len(backup_id) > 0
         
-        # 检查备份文件是否存在
-        backup_file_path = os.path.join(temp_backup_dir, backup_id)
-        assert os.path.exists(backup_file_path)
-        
-        # 检查备份文件内容
-        with open(backup_file_path, 'r', encoding='utf-8') as f:
-            content = f.read()
-        assert content == "这是一个测试文件的内容"
+        # 检查备份内容保存在数据块中
+        stats = manager.get_storage_stats()
+        assert stats["backups"] == 1
+        assert stats["blobs"] == 1
+        assert manager.get_backup_content(backup_id) == "这是一个测试文件的内容"
         
         # 检查元数据
         assert backup_id in manager.metadata
@@ -142,19 +140,19 @@ class TestFileBackupManager:
         
         # 备份文件
         backup_id = manager.backup_file(sample_file)
-        backup_file_path = os.path.join(temp_backup_dir, backup_id)
         
-        # 检查备份文件是否存在
-        assert os.path.exists(backup_file_path)
+        # 检查备份是否存在
         assert backup_id in manager.metadata
+        assert manager.get_storage_stats()["blobs"] == 1
         
         # 删除备份
         success = manager.delete_backup(backup_id)
         
-        # 检查删除结果
+        # 检查删除结果，不再被引用的数据块随之删除
         assert success is True
-        assert not os.path.exists(backup_file_path)
         assert backup_id not in manager.metadata
+        assert manager.get_storage_stats()["blobs"] == 0
+        assert manager.get_backup_content(backup_id) is None
     
     def test_delete_nonexistent_backup(self, temp_backup_dir):
         """测试删除不存在的备份"""
@@ -195,8 +193,8 @@ class TestFileBackupManager:
         
         # 修改备份的时间戳为过去的时间
         old_timestamp = (datetime.now() - timedelta(days=max_age_days+1)).timestamp()
-        manager.metadata[backup_id]["timestamp"] = old_timestamp
-        manager._save_metadata()
+        with manager._conn:
+            manager._conn.execute("UPDATE backups SET timestamp = ? WHERE backup_id = ?", (old_timestamp, backup_id))
         
         # 创建一个新备份
         new_backup_id = manager.backup_file(sample_file)
@@ -204,12 +202,12 @@ class TestFileBackupManager:
         # 清理旧备份
         cleaned_count = manager.clean_old_backups(max_age_days)
         
-        # 检查清理结果
+        # 检查清理结果，内容相同的新备份仍引用同一个数据块
         assert cleaned_count == 1
         assert backup_id not in manager.metadata
-        assert not os.path.exists(os.path.join(temp_backup_dir, backup_id))
+        assert manager.get_backup_content(backup_id) is None
         assert new_backup_id in manager.metadata
-        assert os.path.exists(os.path.join(temp_backup_dir, new_backup_id))
+        assert manager.get_backup_content(new_backup_id) == "这是一个测试文件的内容"
     
     def test_metadata_persistence(self, temp_backup_dir, sample_file):
         """测试元数据持久化"""
@@ -222,4 +220,195 @@ class TestFileBackupManager:
         
         # 检查元数据是否被正确加载
         assert backup_id in manager2.metadata
-        assert manager2.metadata[backup_id]["original_path"] == sample_file 
\ No newline at end of file
+        assert manager2.metadata[backup_id]["original_path"] == sample_file 
+        assert manager2.get_backup_content(backup_id) == "这是一个测试文件的内容"
+
+
+def _edit(path, lines, i):
+    """修改文件中的一行，模拟对同一文件的连续编辑"""
+    lines[(i * 37) % len(lines)] = f"    value_{i} = compute({i})  # edited\n"
+    with open(path, 'w', encoding='utf-8') as f:
+        f.writelines(lines)
+
+
+def _source_lines(count):
+    return [f"def function_{i}(arg):\n    return arg * {i} + {i % 7}\n" for i in range(count // 2)]
+
+
+class TestBlobStorage:
+    """内容去重、差量编码和引用计数"""
+    
+    def test_identical_content_is_stored_once(self, temp_backup_dir, sample_file):
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        
+        ids = [manager.backup_file(sample_file) for _ in range(5)]
+        
+        stats = manager.get_storage_stats()
+        assert stats["backups"] == 5
+        assert stats["blobs"] == 1
+        # 最后一个引用被删除前，数据块一直保留
+        for backup_id in ids[:-1]:
+            assert manager.delete_backup(backup_id)
+        assert manager.get_backup_content(ids[-1]) == "这是一个测试文件的内容"
+        assert manager.delete_backup(ids[-1])
+        assert manager.get_storage_stats()["blobs"] == 0
+    
+    def test_versions_of_one_file_are_delta_encoded(self, temp_backup_dir, temp_test_dir):
+        path = os.path.join(temp_test_dir, "module.py")
+        lines = _source_lines(2000)
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        
+        versions = {}
+        for i in range(40):
+            _edit(path, lines, i)
+            with open(path, 'r', encoding='utf-8') as f:
+                versions[manager.backup_file(path)] = f.read()
+        
+        stats = manager.get_storage_stats()
+        assert stats["delta_blobs"] > 0
+        assert stats["stored_size"] < stats["size"] / 20
+        
+        # 每个版本都能从差量链还原，包括重新打开之后
+        reopened = FileBackupManager(backup_dir=temp_backup_dir)
+        for backup_id, content in versions.items():
+            assert reopened.get_backup_content(backup_id) == content
+    
+    def test_deleting_a_delta_base_keeps_dependent_versions(self, temp_backup_dir, temp_test_dir):
+        path = os.path.join(temp_test_dir, "module.py")
+        lines = _source_lines(400)
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        ids, contents = [], []
+        for i in range(5):
+            _edit(path, lines, i)
+            ids.append(manager.backup_file(path))
+            with open(path, 'r', encoding='utf-8') as f:
+                contents.append(f.read())
+        
+        # 删除前面的版本后，后面的版本仍依赖其数据块
+        for backup_id in ids[:4]:
+            assert manager.delete_backup(backup_id)
+        assert manager.get_storage_stats()["blobs"] == 5
+        assert manager.get_backup_content(ids[4]) == contents[4]
+        
+        assert manager.delete_backup(ids[4])
+        assert manager.get_storage_stats()["blobs"] == 0
+        assert not [name for _, _, files in os.walk(os.path.join(temp_backup_dir, "blobs")) for name in files]
+    
+    def test_restore_keeps_file_mode(self, temp_backup_dir, temp_test_dir):
+        path = os.path.join(temp_test_dir, "run.sh")
+        with open(path, 'w', encoding='utf-8') as f:
+            f.write("#!/bin/sh\necho hi\n")
+        os.chmod(path, 0o755)
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        backup_id = manager.backup_file(path)
+        
+        os.remove(path)
+        assert manager.restore_file(path, backup_id)
+        
+        assert os.stat(path).st_mode & 0o777 == 0o755
+        with open(path, 'r', encoding='utf-8') as f:
+            assert f.read() == "#!/bin/sh\necho hi\n"
+    
+    def test_legacy_backups_are_imported(self, temp_backup_dir, sample_file):
+        backup_id = "legacy-backup"
+        shutil.copy2(sample_file, os.path.join(temp_backup_dir, backup_id))
+        with open(os.path.join(temp_backup_dir, "backup_metadata.json"), 'w', encoding='utf-8') as f:
+            json.dump({backup_id: {"original_path": sample_file, "timestamp": 1700000000.0, "size": 10}}, f)
+        
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        
+        assert manager.get_backup_content(backup_id) == "这是一个测试文件的内容"
+        assert manager.get_backups_for_file(sample_file) == [(backup_id, 1700000000.0)]
+        assert not os.path.exists(os.path.join(temp_backup_dir, backup_id))
+        assert not os.path.exists(os.path.join(temp_backup_dir, "backup_metadata.json"))
+    
+    def test_collect_garbage_removes_orphan_blob_files(self, temp_backup_dir, sample_file):
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        backup_id = manager.backup_file(sample_file)
+        orphan_dir = os.path.join(temp_backup_dir, "blobs", "ff")
+        os.makedirs(orphan_dir, exist_ok=True)
+        stale = os.path.join(orphan_dir, "ff" * 32)
+        with open(stale, 'wb') as f:
+            f.write(b"interrupted write")
+        old = time.time() - 2 * 3600
+        os.utime(stale, (old, old))
+        # 其他进程正在写入的数据块：临时文件，以及元数据尚未提交的新文件
+        in_flight = [os.path.join(orphan_dir, "fe" * 32), os.path.join(orphan_dir, "fd" * 32 + ".123.tmp")]
+        for path in in_flight:
+            with open(path, 'wb') as f:
+                f.write(b"being written")
+        os.utime(in_flight[1], (old, old))
+        
+        assert manager.collect_garbage() == 1
+        assert sorted(os.listdir(orphan_dir)) == sorted(os.path.basename(p) for p in in_flight)
+        assert manager.get_backup_content(backup_id) == "这是一个测试文件的内容"
+    
+    def test_legacy_metadata_is_kept_when_an_import_fails(self, temp_backup_dir, sample_file):
+        shutil.copy2(sample_file, os.path.join(temp_backup_dir, "good"))
+        shutil.copy2(sample_file, os.path.join(temp_backup_dir, "bad"))
+        metadata_file = os.path.join(temp_backup_dir, "backup_metadata.json")
+        with open(metadata_file, 'w', encoding='utf-8') as f:
+            json.dump({
+                "good": {"original_path": sample_file, "timestamp": 1700000000.0, "size": 10},
+                "bad": {"timestamp": 1700000001.0, "size": 10},
+            }, f)
+        
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        
+        assert manager.get_backup_content("good") == "这是一个测试文件的内容"
+        assert os.path.exists(metadata_file)
+        assert os.path.exists(os.path.join(temp_backup_dir, "bad"))
+        manager.close()
+        
+        # 修复记录后重新启动，剩余的备份被导入，已导入的不会重复
+        with open(metadata_file, 'w', encoding='utf-8') as f:
+            json.dump({
+                "good": {"original_path": sample_file, "timestamp": 1700000000.0, "size": 10},
+                "bad": {"original_path": sample_file, "timestamp": 1700000001.0, "size": 10},
+            }, f)
+        manager = FileBackupManager(backup_dir=temp_backup_dir)
+        
+        assert manager.get_backups_for_file(sample_file) == [("bad", 1700000001.0), ("good", 1700000000.0)]
+        assert not os.path.exists(metadata_file)
+        assert os.path.exists(metadata_file + ".migrated")
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_repeated_edit_backup_benchmark(temp_backup_dir, temp_test_dir):
+    """基准测试：对一个 5000 行的文件连续编辑并备份 100 次的存储大小和耗时，对比完整副本"""
+    line_count = int(os.environ.get("BACKUP_BENCH_LINES", "5000"))
+    edits = int(os.environ.get("BACKUP_BENCH_EDITS", "100"))
+    path = os.path.join(temp_test_dir, "big_module.py")
+    lines = _source_lines(line_count)
+    manager = FileBackupManager(backup_dir=temp_backup_dir)
+    
+    copy_dir = os.path.join(temp_test_dir, "full_copies")
+    os.makedirs(copy_dir)
+    copy_elapsed = 0.0
+    backup_elapsed = 0.0
+    ids = []
+    for i in range(edits):
+        _edit(path, lines, i)
+        start = time.perf_counter()
+        shutil.copy2(path, os.path.join(copy_dir, str(i)))
+        copy_elapsed += time.perf_counter() - start
+        start = time.perf_counter()
+        ids.append(manager.backup_file(path))
+        backup_elapsed += time.perf_counter() - start
+    
+    start = time.perf_counter()
+    restored = manager.get_backup_content(ids[-1])
+    restore_elapsed = time.perf_counter() - start
+    with open(path, 'r', encoding='utf-8') as f:
+        assert restored == f.read()
+    
+    stats = manager.get_storage_stats()
+    copies_size = sum(os.path.getsize(os.path.join(copy_dir, name)) for name in os.listdir(copy_dir))
+    print(
+        f"{edits} backups of a {line_count}-line file: full copies {copies_size / 1024:.0f} KiB "
+        f"({copy_elapsed * 1000:.0f} ms), blob store {stats['stored_size'] / 1024:.1f} KiB "
+        f"in {stats['blobs']} blobs ({stats['delta_blobs']} deltas, {backup_elapsed * 1000:.0f} ms), "
+        f"restore latest {restore_elapsed * 1000:.1f} ms"
+    )
+    assert stats["stored_size"] < copies_size / 10
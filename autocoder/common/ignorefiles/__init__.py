@@ -1,4 +1,4 @@
-
 from .ignore_file_utils import should_ignore
+from .ignore_file_walker import walk_non_ignored, WalkEntry
 
-__all__ = ["should_ignore"]
+__all__ = ["should_ignore", "walk_non_ignored", "WalkEntry"]
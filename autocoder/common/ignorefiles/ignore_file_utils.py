@@ -95,13 +95,23 @@ class IgnoreFileManager:
         rel_path = rel_path.replace(os.sep, '/')
         return self._spec.match_file(rel_path)
 
+    def should_ignore_dir(self, path: str) -> bool:
+        """判断目录是否应该被忽略（同时匹配以 / 结尾的仅目录规则，如 build/）"""
+        rel_path = os.path.relpath(path, self._project_root)
+        rel_path = rel_path.replace(os.sep, '/')
+        return self._spec.match_file(rel_path) or self._spec.match_file(rel_path + '/')
+
 
 # 对外提供的单例管理器
 _ignore_manager = None
 
-def should_ignore(path: str, project_root: Optional[str] = None) -> bool:
-    """判断指定路径是否应该被忽略"""
+def get_ignore_manager(project_root: Optional[str] = None) -> IgnoreFileManager:
+    """获取忽略规则管理器单例"""
     global _ignore_manager
     if _ignore_manager is None:
         _ignore_manager = IgnoreFileManager(project_root=project_root)
-    return _ignore_manager.should_ignore(path)
+    return _ignore_manager
+
+def should_ignore(path: str, project_root: Optional[str] = None) -> bool:
+    """判断指定路径是否应该被忽略"""
+    return get_ignore_manager(project_root).should_ignore(path)
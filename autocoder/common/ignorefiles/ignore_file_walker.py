@@ -0,0 +1,167 @@
+import os
+import re
+from functools import lru_cache
+from typing import Callable, Iterator, NamedTuple, Optional, Pattern
+
+from .ignore_file_utils import get_ignore_manager
+
+
+class WalkEntry(NamedTuple):
+    """遍历得到的条目"""
+    path: str
+    is_dir: bool
+
+
+def _translate_glob(pattern: str) -> str:
+    """
+    把 glob 模式转换为正则表达式，语义与 glob.glob(recursive=True) 一致：
+    * 和 ? 不跨越目录，[...] 为字符集，** 作为完整的一段时匹配零个或多个目录
+    """
+    parts = []
+    segments = pattern.split("/")
+    for index, segment in enumerate(segments):
+        last = index == len(segments) - 1
+        if segment == "**":
+            parts.append(".*" if last else "(?:[^/]+/)*")
+            continue
+        i, n = 0, len(segment)
+        while i < n:
+            c = segment[i]
+            i += 1
+            if c == "*":
+                parts.append("[^/]*")
+            elif c == "?":
+                parts.append("[^/]")
+            elif c == "[":
+                j = i
+                if j < n and segment[j] in "!^":
+                    j += 1
+                if j < n and segment[j] == "]":
+                    j += 1
+                while j < n and segment[j] != "]":
+                    j += 1
+                if j >= n:
+                    parts.append("\\[")
+                    continue
+                chars = segment[i:j].replace("\\", "\\\\")
+                i = j + 1
+                if chars[0] in "!^":
+                    chars = "^" + chars[1:]
+                parts.append(f"[{chars}]")
+            else:
+                parts.append(re.escape(c))
+        if not last:
+            parts.append("/")
+    return "".join(parts)
+
+
+@lru_cache(maxsize=64)
+def _compile_file_pattern(file_pattern: str) -> Pattern:
+    """
+    编译文件模式，等价于 glob.glob(os.path.join(base_dir, "**", file_pattern), recursive=True)：
+    模式匹配相对于起始目录的路径，可以从任意一层目录开始
+    """
+    pattern = file_pattern.replace(os.sep, "/")
+    while pattern.startswith("./"):
+        pattern = pattern[2:]
+    flags = re.IGNORECASE if os.name == "nt" else 0
+    return re.compile(f"(?s:(?:[^/]+/)*{_translate_glob(pattern)})\\Z", flags)
+
+
+def _match_file_pattern(file_pattern: str, base_dir: str, path: str) -> bool:
+    rel_path = os.path.relpath(path, base_dir).replace(os.sep, "/")
+    return _compile_file_pattern(file_pattern).match(rel_path) is not None
+
+
+def _dir_key(path: str) -> Optional[tuple]:
+    try:
+        st = os.stat(path)
+    except OSError:
+        return None
+    return st.st_dev, st.st_ino
+
+
+def walk_non_ignored(
+    base_dir: str,
+    file_pattern: Optional[str] = None,
+    recursive: bool = True,
+    include_dirs: bool = False,
+    include_hidden: bool = True,
+    on_error: Optional[Callable[[str, OSError], None]] = None,
+) -> Iterator[WalkEntry]:
+    """
+    基于 os.scandir 惰性遍历目录，在进入子目录之前应用忽略规则。
+
+    被忽略的目录（如 node_modules、.git、build）整棵子树都不会被枚举。
+    同一目录内按名称排序，结果顺序稳定。目录符号链接会被跟随，
+    同一个目录 (按设备号和 inode 判断) 只进入一次，避免链接成环时无限递归。
+    只返回普通文件 (包括指向普通文件的符号链接)，管道、设备等特殊文件被跳过。
+
+    Args:
+        base_dir: 起始目录
+        file_pattern: 文件的 glob 模式（如 "*.py"、"src/**/*.ts"），匹配相对于 base_dir 的路径，
+            可以从任意一层目录开始匹配；None 表示所有文件，不作用于目录
+        recursive: 是否递归进入子目录
+        include_dirs: 是否同时返回目录条目。递归模式下目录只有在能够成功列出时才会返回
+        include_hidden: 是否包含以 "." 开头的文件和目录
+        on_error: 目录无法访问时的回调，参数为 (路径, 异常)
+
+    Yields:
+        WalkEntry: 未被忽略的文件（以及可选的目录）
+    """
+    manager = get_ignore_manager()
+    # (目录, 是否进入)，已经进入过的目录只按顺序返回目录条目
+    stack = [(base_dir, True)]
+    visited = {_dir_key(base_dir)}
+
+    while stack:
+        current, descend = stack.pop()
+        if not descend:
+            if include_dirs:
+                yield WalkEntry(current, True)
+            continue
+        try:
+            with os.scandir(current) as iterator:
+                entries = sorted(iterator, key=lambda e: e.name)
+        except OSError as e:
+            if on_error:
+                on_error(current, e)
+            continue
+
+        if recursive and include_dirs and current != base_dir:
+            yield WalkEntry(current, True)
+
+        subdirs = []
+        for entry in entries:
+            if not include_hidden and entry.name.startswith("."):
+                continue
+
+            try:
+                is_dir = entry.is_dir()
+                is_file = not is_dir and entry.is_file()
+            except OSError:
+                continue
+
+            if is_dir:
+                if manager.should_ignore_dir(entry.path):
+                    continue
+                if not recursive:
+                    if include_dirs:
+                        yield WalkEntry(entry.path, True)
+                    continue
+                key = _dir_key(entry.path)
+                # 已经进入过的目录 (链接成环或多个链接指向同一目录) 不再进入
+                descend = key is not None and key not in visited
+                if descend:
+                    visited.add(key)
+                subdirs.append((entry.path, descend))
+                continue
+
+            if not is_file or manager.should_ignore(entry.path):
+                continue
+            if file_pattern and not _match_file_pattern(file_pattern, base_dir, entry.path):
+                continue
+            yield WalkEntry(entry.path, False)
+
+        # 逆序入栈，保证按名称顺序深度优先
+        stack.extend(reversed(subdirs))
@@ -0,0 +1,179 @@
+import os
+import glob
+import time
+
+import pytest
+
+from autocoder.common.ignorefiles import ignore_file_utils
+from autocoder.common.ignorefiles.ignore_file_walker import walk_non_ignored
+
+
+@pytest.fixture(autouse=True)
+def cleanup_ignore_manager(monkeypatch, tmp_path):
+    """
+    每个测试都在临时目录中重新加载忽略规则，保证测试隔离
+    """
+    monkeypatch.chdir(tmp_path)
+    original_instance = ignore_file_utils._ignore_manager
+
+    def reset_ignore_manager():
+        ignore_file_utils.IgnoreFileManager._instance = None
+        return ignore_file_utils.IgnoreFileManager()
+
+    monkeypatch.setattr(ignore_file_utils, "_ignore_manager", reset_ignore_manager())
+    yield reset_ignore_manager
+    ignore_file_utils._ignore_manager = original_instance
+
+
+def _touch(path, content="x"):
+    path.parent.mkdir(parents=True, exist_ok=True)
+    path.write_text(content)
+
+
+def _relative(entries, base):
+    return [os.path.relpath(e.path, base).replace(os.sep, "/") + ("/" if e.is_dir else "") for e in entries]
+
+
+def test_prunes_default_excluded_dirs(tmp_path):
+    _touch(tmp_path / "src" / "main.py")
+    _touch(tmp_path / "node_modules" / "pkg" / "index.js")
+    _touch(tmp_path / ".git" / "HEAD")
+    _touch(tmp_path / "README.md")
+
+    entries = list(walk_non_ignored(str(tmp_path), include_dirs=True))
+
+    assert _relative(entries, tmp_path) == ["README.md", "src/", "src/main.py"]
+
+
+def test_dir_only_rules_are_applied_before_descending(tmp_path, cleanup_ignore_manager):
+    (tmp_path / ".autocoderignore").write_text("generated/\n*.log\n")
+    ignore_file_utils._ignore_manager = cleanup_ignore_manager()
+    _touch(tmp_path / "generated" / "a.py")
+    _touch(tmp_path / "src" / "generated.py")
+    _touch(tmp_path / "src" / "debug.log")
+
+    entries = list(walk_non_ignored(str(tmp_path)))
+
+    assert _relative(entries, tmp_path) == [".autocoderignore", "src/generated.py"]
+
+
+def test_file_pattern_and_hidden_entries(tmp_path):
+    _touch(tmp_path / "a.py")
+    _touch(tmp_path / "b.txt")
+    _touch(tmp_path / "pkg" / "c.py")
+    _touch(tmp_path / ".hidden" / "d.py")
+    _touch(tmp_path / ".env.py")
+
+    entries = list(walk_non_ignored(str(tmp_path), file_pattern="*.py", include_hidden=False))
+    assert _relative(entries, tmp_path) == ["a.py", "pkg/c.py"]
+
+    entries = list(walk_non_ignored(str(tmp_path), file_pattern="pkg/*.py"))
+    assert _relative(entries, tmp_path) == ["pkg/c.py"]
+
+
+@pytest.mark.parametrize("pattern", [
+    "*.py", "pkg/*.py", "**/*.py", "pkg/**/*.py", "pkg/**", "src/**/*.ts", "[ab].py", "?.py", "[!a]*.py",
+])
+def test_file_pattern_matches_glob(tmp_path, pattern):
+    """文件模式与 glob.glob(base/**/pattern, recursive=True) 的结果一致"""
+    for rel in ["a.py", "b.py", "c.txt", "pkg/c.py", "pkg/sub/d.py", "pkg/sub/deeper/e.py",
+                "src/app/main.ts", "src/main.ts", "other/src/lib/f.ts", "other/pkg/g.py"]:
+        _touch(tmp_path / rel)
+
+    # "**/**" 这类模式会让 glob 返回重复路径
+    expected = sorted({
+        os.path.relpath(p, tmp_path).replace(os.sep, "/")
+        for p in glob.glob(os.path.join(str(tmp_path), "**", pattern), recursive=True)
+        if os.path.isfile(p)
+    })
+    entries = walk_non_ignored(str(tmp_path), file_pattern=pattern, include_hidden=False)
+
+    assert sorted(_relative(entries, tmp_path)) == expected
+
+
+def test_follows_symlinked_dirs_without_looping(tmp_path):
+    project = tmp_path / "project"
+    _touch(project / "main.py")
+    _touch(tmp_path / "external" / "lib.py")
+    os.symlink(tmp_path / "external", project / "vendor")
+    os.symlink(project, project / "vendor_loop")
+
+    entries = list(walk_non_ignored(str(project), include_dirs=True))
+
+    assert _relative(entries, project) == ["main.py", "vendor/", "vendor/lib.py", "vendor_loop/"]
+
+
+@pytest.mark.skipif(not hasattr(os, "mkfifo"), reason="需要 mkfifo")
+def test_only_regular_files_are_returned(tmp_path):
+    _touch(tmp_path / "a.py")
+    os.mkfifo(tmp_path / "pipe.py")
+    os.symlink(tmp_path / "a.py", tmp_path / "link.py")
+    os.symlink(tmp_path / "missing.py", tmp_path / "broken.py")
+
+    entries = list(walk_non_ignored(str(tmp_path), file_pattern="*.py"))
+
+    assert _relative(entries, tmp_path) == ["a.py", "link.py"]
+
+
+def test_non_recursive_lists_direct_children(tmp_path):
+    _touch(tmp_path / "a.py")
+    _touch(tmp_path / "pkg" / "b.py")
+    (tmp_path / "dist").mkdir()
+
+    entries = list(walk_non_ignored(str(tmp_path), recursive=False, include_dirs=True))
+
+    assert _relative(entries, tmp_path) == ["a.py", "pkg/"]
+
+
+def test_unreadable_dir_is_reported(tmp_path, monkeypatch):
+    _touch(tmp_path / "ok" / "a.py")
+    _touch(tmp_path / "locked" / "b.py")
+    locked = str(tmp_path / "locked")
+    real_scandir = os.scandir
+
+    def fake_scandir(path):
+        if str(path) == locked:
+            raise PermissionError("denied")
+        return real_scandir(path)
+
+    monkeypatch.setattr(os, "scandir", fake_scandir)
+    errors = []
+    entries = list(walk_non_ignored(str(tmp_path), include_dirs=True,
+                                    on_error=lambda p, e: errors.append(p)))
+
+    assert _relative(entries, tmp_path) == ["ok/", "ok/a.py"]
+    assert errors == [locked]
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_pruned_walk_benchmark(tmp_path):
+    """基准测试：包含大型 node_modules 的项目中，剪枝遍历与 glob + 逐个过滤的对比"""
+    node_modules_files = int(os.environ.get("WALKER_BENCH_NODE_MODULES_FILES", "200000"))
+    per_dir = 1000
+
+    for i in range(200):
+        _touch(tmp_path / "src" / f"pkg{i % 20}" / f"module{i}.py", "print('hello')\n")
+    for d in range(0, node_modules_files, per_dir):
+        package_dir = tmp_path / "node_modules" / f"package{d // per_dir}"
+        package_dir.mkdir(parents=True)
+        for i in range(min(per_dir, node_modules_files - d)):
+            (package_dir / f"file{i}.js").write_text("")
+
+    start = time.perf_counter()
+    baseline = sorted(
+        path for path in glob.glob(os.path.join(str(tmp_path), "**", "*.py"), recursive=True)
+        if os.path.isfile(path) and not ignore_file_utils.should_ignore(os.path.abspath(path))
+    )
+    baseline_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    pruned = sorted(e.path for e in walk_non_ignored(str(tmp_path), file_pattern="*.py", include_hidden=False))
+    pruned_time = time.perf_counter() - start
+
+    print(f"glob + should_ignore: {baseline_time * 1000:.1f} ms, pruned walk: {pruned_time * 1000:.1f} ms "
+          f"({node_modules_files} files under node_modules)")
+
+    assert pruned == baseline
+    assert len(pruned) == 200
+    assert pruned_time < baseline_time
@@ -2,8 +2,9 @@
 Simple base class for language-specific linters.
 """
 
+import subprocess
 from abc import ABC, abstractmethod
-from typing import List, Optional, Dict, Any, Union
+from typing import Callable, List, Optional, Dict, Any, Sequence, Union
 from pathlib import Path
 
 from .models.lint_result import LintResult
@@ -15,6 +16,9 @@ class BaseLinter(ABC):
     def __init__(self, config: Optional[Dict[str, Any]] = None):
         """Initialize with optional configuration."""
         self.config = config or {}
+        # Replacement for subprocess.run used by run_command. LinterManager sets it to
+        # CheckWorkerManager.run_command so tool invocations can be served by warm workers.
+        self.command_runner: Optional[Callable[..., subprocess.CompletedProcess]] = None
     
     @property
     def name(self) -> str:
@@ -58,4 +62,20 @@ class BaseLinter(ABC):
     
     def get_config_value(self, key: str, default: Any = None) -> Any:
         """Get a configuration value."""
-        return self.config.get(key, default) 
\ No newline at end of file
+        return self.config.get(key, default)
+    
+    def run_command(self, cmd: Sequence[str], timeout: Optional[float] = None) -> subprocess.CompletedProcess:
+        """Run a lint tool command and capture its text output."""
+        if self.command_runner is not None:
+            return self.command_runner(list(cmd), timeout=timeout)
+        return subprocess.run(cmd, capture_output=True, text=True, timeout=timeout)
+    
+    def dependency_extensions(self) -> List[str]:
+        """
+        Extensions of other project files that can change the result for a file.
+        
+        Single-file checks return an empty list. Cross-file checks (type checkers,
+        compilers) list the source extensions they resolve, so cached results are
+        invalidated when any of those files change.
+        """
+        return []
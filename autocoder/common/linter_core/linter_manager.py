@@ -8,6 +8,8 @@ from pathlib import Path
 import time
 from collections import defaultdict
 
+from autocoder.common.check_workers import config_digest, get_check_worker_manager, tree_fingerprint
+
 from .base_linter import BaseLinter
 from .linter_factory import LinterFactory
 from .models.lint_result import LintResult
@@ -15,6 +17,13 @@ from .formatters.base_formatter import BaseLintOutputFormatter
 from .formatters.raw_formatter import RawLintOutputFormatter
 from .config_loader import LinterConfigLoader
 
+# Tool configuration files in the project root that can change lint results
+PROJECT_CONFIG_FILES = (
+    '.flake8', 'setup.cfg', 'tox.ini', 'pyproject.toml', 'mypy.ini', '.mypy.ini',
+    'tsconfig.json', 'package.json', '.eslintrc', '.eslintrc.js', '.eslintrc.json',
+    'eslint.config.js', 'pom.xml', 'build.gradle', 'build.gradle.kts',
+)
+
 
 class LinterManager:
     """
@@ -43,6 +52,10 @@ class LinterManager:
         self.linters: Dict[str, BaseLinter] = {}
         self.max_workers = self.global_config.get('max_workers', 4)
         self.timeout = self.global_config.get('timeout', 300)  # 5 minutes default
+        # Serve lint tools from warm worker processes and reuse results for unchanged files
+        self.use_workers = self.global_config.get('use_workers', True)
+        self.cache_results = self.global_config.get('cache_results', True)
+        self.workers = get_check_worker_manager()
         self.output_formatter: BaseLintOutputFormatter = self._initialize_formatter()
         
         # Initialize available linters
@@ -70,9 +83,16 @@ class LinterManager:
             linter_config = self.global_config.get(f'{language}_config', {})
             linter = LinterFactory.create_linter(language, linter_config)
             
-            if linter and linter.is_available():
+            if linter and self._is_linter_available(linter):
+                if self.use_workers:
+                    linter.command_runner = self.workers.run_command
                 self.linters[language] = linter
 
+    def _is_linter_available(self, linter: BaseLinter) -> bool:
+        """Check tool availability, remembering positive results across manager instances."""
+        key = (linter.name, config_digest(linter.config))
+        return self.workers.tool_available(key, linter.is_available)
+
     def _initialize_formatter(self) -> BaseLintOutputFormatter:
         """Initialize manager-level formatter; default to Raw.
 
@@ -104,6 +124,10 @@ class LinterManager:
         Returns:
             LintResult containing any issues found
         """
+        return self._lint_file(file_path, language, {})
+
+    def _lint_file(self, file_path: Union[str, Path], language: Optional[str],
+                   fingerprints: Dict[Any, Optional[str]]) -> LintResult:
         file_path = Path(file_path)
         
         if not file_path.exists():
@@ -133,7 +157,7 @@ class LinterManager:
         
         # Lint the file
         try:
-            return linter.lint_file(file_path)
+            return self._lint_with_cache(linter, file_path, fingerprints)
         except Exception as e:
             return LintResult(
                 linter_name=linter.name,
@@ -154,13 +178,15 @@ class LinterManager:
             Dictionary mapping file paths to their lint results
         """
         results = {}
+        # Project fingerprints are computed once per batch and shared by all files
+        fingerprints = self._batch_fingerprints(file_paths)
         
         if parallel and len(file_paths) > 1:
             # Use parallel processing
             with concurrent.futures.ThreadPoolExecutor(max_workers=self.max_workers) as executor:
                 # Submit all tasks
                 future_to_file = {
-                    executor.submit(self.lint_file, file_path): str(file_path)
+                    executor.submit(self._lint_file, file_path, None, fingerprints): str(file_path)
                     for file_path in file_paths
                 }
                 
@@ -178,10 +204,69 @@ class LinterManager:
         else:
             # Sequential processing
             for file_path in file_paths:
-                results[str(file_path)] = self.lint_file(file_path)
+                results[str(file_path)] = self._lint_file(file_path, None, fingerprints)
         
         return results
 
+    def _lint_with_cache(self, linter: BaseLinter, file_path: Path,
+                         fingerprints: Dict[Any, Optional[str]]) -> LintResult:
+        """
+        Lint a file, reusing the previous result when nothing it depends on changed.
+        
+        Results are keyed by file content, linter configuration and project tool
+        configuration files; cross-file linters also include a fingerprint of the
+        source files they resolve.
+        """
+        if not self.cache_results or not isinstance(linter, BaseLinter):
+            return linter.lint_file(file_path)
+        
+        extensions = tuple(linter.dependency_extensions())
+        dependencies = None
+        if extensions:
+            if extensions not in fingerprints:
+                fingerprints[extensions] = tree_fingerprint(self.source_dir, extensions)
+            dependencies = fingerprints[extensions]
+            if dependencies is None:
+                return linter.lint_file(file_path)
+        if 'project_config' not in fingerprints:
+            fingerprints['project_config'] = self._project_config_fingerprint()
+        
+        cache = self.workers.cache
+        config = {'linter': linter.config, 'project_config': fingerprints['project_config']}
+        key = cache.make_key(linter.name, str(file_path), config, dependencies)
+        cached = cache.get(key)
+        if cached is not None:
+            cached.metadata['cache_hit'] = True
+            return cached
+        
+        result = linter.lint_file(file_path)
+        # Skip caching if the file changed while it was being linted
+        if result.success and cache.make_key(linter.name, str(file_path), config, dependencies) == key:
+            cache.put(key, result)
+        return result
+
+    def _batch_fingerprints(self, file_paths: List[Union[str, Path]]) -> Dict[Any, Optional[str]]:
+        fingerprints: Dict[Any, Optional[str]] = {}
+        if not self.cache_results:
+            return fingerprints
+        fingerprints['project_config'] = self._project_config_fingerprint()
+        for file_path in file_paths:
+            linter = self._get_linter_for_file(Path(file_path))
+            extensions = tuple(linter.dependency_extensions()) if linter else ()
+            if extensions and extensions not in fingerprints:
+                fingerprints[extensions] = tree_fingerprint(self.source_dir, extensions)
+        return fingerprints
+
+    def _project_config_fingerprint(self) -> List[Any]:
+        state = []
+        for name in PROJECT_CONFIG_FILES:
+            try:
+                stat = (Path(self.source_dir) / name).stat()
+            except OSError:
+                continue
+            state.append([name, stat.st_mtime_ns, stat.st_size])
+        return state
+
     def format_results(self, results: Dict[str, LintResult]) -> Dict[str, Any]:
         """Format multi-file results using the manager-level formatter."""
         return self.output_formatter.format_results(results)
@@ -55,6 +55,10 @@ class JavaLinter(BaseLinter):
         except (subprocess.CalledProcessError, FileNotFoundError, subprocess.TimeoutExpired):
             return False
 
+    def dependency_extensions(self) -> List[str]:
+        # javac resolves other classes through --source-path and local JARs
+        return ['.java', '.jar']
+
     def lint_file(self, file_path: Union[str, Path]) -> LintResult:
         start_time = time.time()
         path = Path(file_path)
@@ -327,12 +331,7 @@ allprojects {
         # Add the file to compile
         cmd.append(str(file_path))
 
-        completed = subprocess.run(
-            cmd, 
-            capture_output=True, 
-            text=True, 
-            timeout=self.javac_timeout_secs
-        )
+        completed = self.run_command(cmd, timeout=self.javac_timeout_secs)
         
         # Check if command failed due to invalid flag
         if completed.returncode != 0 and use_release and ('invalid flag' in completed.stderr or '--release' in completed.stderr):
@@ -24,6 +24,7 @@ class PythonLinter(BaseLinter):
         self.mypy_args: List[str] = self.get_config_value('mypy_args', [])
         self.flake8_timeout_secs: int = self.get_config_value('flake8_timeout', 30)
         self.mypy_timeout_secs: int = self.get_config_value('mypy_timeout', 30)
+        self._mypy_available = False
 
     @property
     def supported_extensions(self) -> List[str]:
@@ -41,12 +42,20 @@ class PythonLinter(BaseLinter):
             return False
 
     def _is_mypy_available(self) -> bool:
+        # Only a positive result is remembered, so installing mypy later is still picked up
+        if self._mypy_available:
+            return True
         try:
             subprocess.run(['mypy', '--version'], capture_output=True, check=True, timeout=10)
+            self._mypy_available = True
             return True
         except (subprocess.CalledProcessError, FileNotFoundError, subprocess.TimeoutExpired):
             return False
 
+    def dependency_extensions(self) -> List[str]:
+        # mypy follows imports; flake8 only looks at the file itself
+        return ['.py', '.pyi'] if self.use_mypy and self._is_mypy_available() else []
+
     def lint_file(self, file_path: Union[str, Path]) -> LintResult:
         path = Path(file_path)
         result = LintResult(
@@ -94,7 +103,7 @@ class PythonLinter(BaseLinter):
             cmd.extend(self.flake8_args)
             cmd.append(str(file_path))
 
-            completed = subprocess.run(cmd, capture_output=True, text=True, timeout=self.flake8_timeout_secs)
+            completed = self.run_command(cmd, timeout=self.flake8_timeout_secs)
             return completed.stdout.strip()
         except subprocess.TimeoutExpired:
             raise Exception('flake8 execution timed out')
@@ -107,7 +116,7 @@ class PythonLinter(BaseLinter):
             cmd.extend(self.mypy_args)
             cmd.append(str(file_path))
 
-            completed = subprocess.run(cmd, capture_output=True, text=True, timeout=self.mypy_timeout_secs)
+            completed = self.run_command(cmd, timeout=self.mypy_timeout_secs)
             return completed.stdout.strip()
         except subprocess.TimeoutExpired:
             raise Exception('mypy execution timed out')
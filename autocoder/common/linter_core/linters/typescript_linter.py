@@ -49,6 +49,10 @@ class TypeScriptLinter(BaseLinter):
         except (subprocess.CalledProcessError, FileNotFoundError, subprocess.TimeoutExpired):
             return False
 
+    def dependency_extensions(self) -> List[str]:
+        # tsc type-checks against imported modules and tsconfig.json
+        return ['.ts', '.tsx', '.js', '.jsx', '.json']
+
     def lint_file(self, file_path: Union[str, Path]) -> LintResult:
         start_time = time.time()
         path = Path(file_path)
@@ -97,7 +101,7 @@ class TypeScriptLinter(BaseLinter):
             cmd.extend(self.tsc_args)
             cmd.append(str(file_path))
 
-            completed = subprocess.run(cmd, capture_output=True, text=True, timeout=self.tsc_timeout_secs)
+            completed = self.run_command(cmd, timeout=self.tsc_timeout_secs)
             # tsc outputs to stderr
             return completed.stderr.strip()
         except subprocess.TimeoutExpired:
@@ -111,7 +115,7 @@ class TypeScriptLinter(BaseLinter):
             cmd.extend(self.eslint_args)
             cmd.append(str(file_path))
 
-            completed = subprocess.run(cmd, capture_output=True, text=True, timeout=self.eslint_timeout_secs)
+            completed = self.run_command(cmd, timeout=self.eslint_timeout_secs)
             return completed.stdout.strip()
         except subprocess.TimeoutExpired:
             raise Exception('eslint execution timed out')
@@ -4,7 +4,6 @@ import re
 import copy
 import byzerllm
 from autocoder.common.printer import Printer
-from autocoder.common.tokens import count_string_tokens
 from loguru import logger
 from autocoder.common import AutoCoderArgs
 from autocoder.common.autocoderargs_parser import AutoCoderArgsParser
@@ -14,6 +13,7 @@ from autocoder.common.conversations.get_conversation_manager import get_conversa
 from .tool_content_detector import ToolContentDetector
 from .conversation_message_ids_api import get_conversation_message_ids_api
 from .conversation_message_ids_pruner import ConversationMessageIdsPruner
+from .conversation_token_cache import ConversationTokenCache
 
 
 class AgenticConversationPruner:
@@ -47,6 +47,9 @@ class AgenticConversationPruner:
         self.message_ids_api = get_conversation_message_ids_api()
         self.message_ids_pruner = ConversationMessageIdsPruner()
 
+        # Per-message token counts, reused across turns so only new or changed messages are tokenized
+        self.token_cache = ConversationTokenCache()
+
         # Track pruning statistics
         self.pruning_stats = {
             "range_pruning_applied": False,
@@ -54,7 +57,10 @@ class AgenticConversationPruner:
             "original_length": 0,
             "after_range_pruning": 0,
             "after_tool_cleanup": 0,
-            "total_compression_ratio": 1.0
+            "total_compression_ratio": 1.0,
+            "original_tokens": 0,
+            "after_range_pruning_tokens": 0,
+            "after_tool_cleanup_tokens": 0
         }
 
     def _get_current_conversation_id(self) -> str:
@@ -110,15 +116,17 @@ class AgenticConversationPruner:
         # Initialize pruning statistics
         self.pruning_stats["original_length"] = original_length
 
-        current_tokens = count_string_tokens(
-            json.dumps(conversations, ensure_ascii=False))
+        current_tokens = self.token_cache.count_conversations(conversations)
+        self.pruning_stats["original_tokens"] = current_tokens
 
         if current_tokens <= safe_zone_tokens:
             # Update stats for no pruning needed
             self.pruning_stats.update({
                 "after_range_pruning": original_length,
                 "after_tool_cleanup": original_length,
-                "total_compression_ratio": 1.0
+                "total_compression_ratio": 1.0,
+                "after_range_pruning_tokens": current_tokens,
+                "after_tool_cleanup_tokens": current_tokens
             })
             return conversations
 
@@ -129,8 +137,8 @@ class AgenticConversationPruner:
             f"After Message IDs pruning: {len(conversations)} -> {len(processed_conversations)} messages")
 
         # Check if we're within safe zone after range pruning
-        current_tokens = count_string_tokens(json.dumps(
-            processed_conversations, ensure_ascii=False))
+        current_tokens = self.token_cache.count_conversations(processed_conversations)
+        self.pruning_stats["after_range_pruning_tokens"] = current_tokens
 
         # Step 2: Apply tool cleanup if still needed
         if current_tokens > safe_zone_tokens:
@@ -149,8 +157,8 @@ class AgenticConversationPruner:
                     f"(total compression: {self.pruning_stats['total_compression_ratio']:.2%})")
 
         # if the processed_conversations is still too long, we should add a user message to ask the LLM to clean up the conversation
-        final_tokens = count_string_tokens(json.dumps(
-            processed_conversations, ensure_ascii=False))
+        final_tokens = self.token_cache.count_conversations(processed_conversations)
+        self.pruning_stats["after_tool_cleanup_tokens"] = final_tokens
         if final_tokens > safe_zone_tokens:
             cleanup_message = "The conversation is still too long, please use conversation_message_ids_write tool to save the message ids to be deleted."
 
@@ -244,9 +252,10 @@ class AgenticConversationPruner:
         # 使用深拷贝避免修改原始数据
         processed_conversations = copy.deepcopy(conversations)
 
-        # 预先计算初始 token 数量，避免在循环中引用未定义的变量
-        current_tokens = count_string_tokens(json.dumps(
-            processed_conversations, ensure_ascii=False))
+        # 预先计算每条消息的 token 数量，清理时只对被替换的消息重新计数
+        message_tokens = self.token_cache.count_messages(processed_conversations)
+        initial_tokens = self.token_cache.total(message_tokens)
+        current_tokens = initial_tokens
 
         # Find all cleanable message indices with their types
         cleanable_messages = []
@@ -278,10 +287,6 @@ class AgenticConversationPruner:
 
         # Clean messages one by one
         for i, message_info in enumerate(cleanable_messages):
-            # 更新当前 token 数量
-            current_tokens = count_string_tokens(json.dumps(
-                processed_conversations, ensure_ascii=False))
-
             # 检查停止条件
             # 1. Token数已经在安全区域内
             if current_tokens <= safe_zone_tokens:
@@ -328,12 +333,15 @@ class AgenticConversationPruner:
                         logger.info(f"Cleaned tool call content at index {msg_index} (tool: {tool_info['tool_name']}), "
                                     f"reduced from {len(original_content)} to {len(new_content)} characters")
 
-        final_tokens = count_string_tokens(json.dumps(
-            processed_conversations, ensure_ascii=False))
-        initial_tokens = count_string_tokens(
-            json.dumps(conversations, ensure_ascii=False))
+            # 只对被替换的消息重新计数，增量更新总 token 数量
+            if processed_conversations[msg_index]["content"] is not original_content:
+                new_tokens = self.token_cache.message_tokens(
+                    processed_conversations[msg_index])
+                current_tokens += new_tokens - message_tokens[msg_index]
+                message_tokens[msg_index] = new_tokens
+
         logger.info(
-            f"Unified tool cleanup completed. Cleaned {cleaned_count} messages. Token count: {initial_tokens} -> {final_tokens}")
+            f"Unified tool cleanup completed. Cleaned {cleaned_count} messages. Token count: {initial_tokens} -> {current_tokens}")
 
         return processed_conversations
 
@@ -399,10 +407,8 @@ class AgenticConversationPruner:
         Returns:
             Dictionary with cleanup statistics
         """
-        original_tokens = count_string_tokens(
-            json.dumps(original_conversations, ensure_ascii=False))
-        pruned_tokens = count_string_tokens(
-            json.dumps(pruned_conversations, ensure_ascii=False))
+        original_tokens = self.token_cache.count_conversations(original_conversations)
+        pruned_tokens = self.token_cache.count_conversations(pruned_conversations)
 
         # Count cleaned tool results
         tool_results_cleaned = 0
@@ -474,6 +480,12 @@ class AgenticConversationPruner:
                     self.pruning_stats["original_length"] -
                     self.pruning_stats["after_tool_cleanup"]
                 )
+            },
+            "token_counts": {
+                "original": self.pruning_stats["original_tokens"],
+                "after_range_pruning": self.pruning_stats["after_range_pruning_tokens"],
+                "after_tool_cleanup": self.pruning_stats["after_tool_cleanup_tokens"],
+                "cache": self.token_cache.get_stats()
             }
         }
 
@@ -547,10 +559,8 @@ class AgenticConversationPruner:
         removed_count = original_count - pruned_count
 
         # Token统计
-        original_tokens = count_string_tokens(
-            json.dumps(original_conversations, ensure_ascii=False))
-        pruned_tokens = count_string_tokens(
-            json.dumps(pruned_conversations, ensure_ascii=False))
+        original_tokens = self.token_cache.count_conversations(original_conversations)
+        pruned_tokens = self.token_cache.count_conversations(pruned_conversations)
         tokens_saved = original_tokens - pruned_tokens
 
         # 分析变化详情
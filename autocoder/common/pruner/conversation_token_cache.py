@@ -0,0 +1,107 @@
+import hashlib
+import json
+import threading
+from collections import OrderedDict
+from typing import Any, Callable, Dict, List, Optional, Tuple
+
+from autocoder.common.tokens import count_string_tokens_many
+
+
+class ConversationTokenCache:
+    """
+    Per-message token counts for conversation lists.
+
+    A conversation's token count is approximated as the sum of its messages' counts
+    (each message serialized with json.dumps) plus one separator token per message,
+    so totals can be maintained incrementally: only appended or replaced messages
+    are tokenized, and removing a message just subtracts its cached count.
+
+    Messages are looked up first by identity (the same dict whose content object has
+    not been replaced), then by a hash of their serialized form.
+    """
+
+    def __init__(self,
+                 count_many: Optional[Callable[[List[str]], List[int]]] = None,
+                 max_entries: int = 4096):
+        self._count_many = count_many or count_string_tokens_many
+        self.max_entries = max_entries
+        self._by_hash: "OrderedDict[bytes, int]" = OrderedDict()
+        # id(message) -> (message, content, role, tokens); holding the message keeps its id stable
+        self._by_identity: Dict[int, Tuple[Dict[str, Any], Any, Any, int]] = {}
+        self._lock = threading.Lock()
+        self.hits = 0
+        self.misses = 0
+
+    def message_tokens(self, message: Dict[str, Any]) -> int:
+        """Token count of a single message."""
+        return self.count_messages([message])[0]
+
+    def count_messages(self, messages: List[Dict[str, Any]]) -> List[int]:
+        """Token counts for each message, tokenizing only messages not seen before."""
+        results: List[Optional[int]] = [None] * len(messages)
+        missing: Dict[bytes, Tuple[str, List[int]]] = {}
+
+        with self._lock:
+            for i, message in enumerate(messages):
+                cached = self._lookup_identity(message)
+                if cached is not None:
+                    results[i] = cached
+                    self.hits += 1
+                    continue
+                serialized = json.dumps(message, ensure_ascii=False)
+                key = hashlib.blake2b(
+                    serialized.encode("utf-8", errors="surrogatepass"), digest_size=16).digest()
+                cached = self._by_hash.get(key)
+                if cached is not None:
+                    self._by_hash.move_to_end(key)
+                    self._remember_identity(message, cached)
+                    results[i] = cached
+                    self.hits += 1
+                else:
+                    missing.setdefault(key, (serialized, []))[1].append(i)
+                    self.misses += 1
+
+        if missing:
+            keys = list(missing)
+            counts = self._count_many([missing[key][0] for key in keys])
+            with self._lock:
+                for key, count in zip(keys, counts):
+                    self._by_hash[key] = count
+                    for i in missing[key][1]:
+                        results[i] = count
+                        self._remember_identity(messages[i], count)
+                while len(self._by_hash) > self.max_entries:
+                    self._by_hash.popitem(last=False)
+
+        return results
+
+    def count_conversations(self, conversations: List[Dict[str, Any]]) -> int:
+        """Approximate token count of json.dumps(conversations)."""
+        return self.total(self.count_messages(conversations))
+
+    @staticmethod
+    def total(message_tokens: List[int]) -> int:
+        """Combine per-message counts into a conversation total (brackets and separators included)."""
+        return sum(message_tokens) + len(message_tokens) + 1
+
+    def get_stats(self) -> Dict[str, int]:
+        return {"hits": self.hits, "misses": self.misses, "size": len(self._by_hash)}
+
+    def _lookup_identity(self, message: Dict[str, Any]) -> Optional[int]:
+        entry = self._by_identity.get(id(message))
+        if entry is None:
+            return None
+        cached_message, content, role, tokens = entry
+        # Only immutable string content can be trusted by identity
+        if (cached_message is message
+                and isinstance(content, str)
+                and message.get("content") is content
+                and message.get("role") == role):
+            return tokens
+        return None
+
+    def _remember_identity(self, message: Dict[str, Any], tokens: int) -> None:
+        if len(self._by_identity) >= self.max_entries * 2:
+            self._by_identity.clear()
+        self._by_identity[id(message)] = (
+            message, message.get("content"), message.get("role"), tokens)
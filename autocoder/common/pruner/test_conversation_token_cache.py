@@ -0,0 +1,118 @@
+import copy
+import os
+import time
+
+import pytest
+from .conversation_token_cache import ConversationTokenCache
+
+
+class _RecordingCounter:
+    """按字符数计数的假 tokenizer，记录每次被要求计数的文本"""
+
+    def __init__(self):
+        self.calls = []
+
+    def __call__(self, texts):
+        self.calls.append(list(texts))
+        return [len(t) for t in texts]
+
+
+def _conversation(n, size=100):
+    return [
+        {"role": "user" if i % 2 == 0 else "assistant", "content": f"message {i} " + "x" * size}
+        for i in range(n)
+    ]
+
+
+class TestConversationTokenCache:
+    """测试 ConversationTokenCache 的增量计数"""
+
+    def setup_method(self):
+        self.counter = _RecordingCounter()
+        self.cache = ConversationTokenCache(count_many=self.counter)
+
+    def test_only_new_messages_are_counted(self):
+        conversations = _conversation(10)
+        first = self.cache.count_conversations(conversations)
+        assert len(self.counter.calls) == 1
+        assert len(self.counter.calls[0]) == 10
+
+        conversations.append({"role": "user", "content": "new"})
+        second = self.cache.count_conversations(conversations)
+
+        assert self.counter.calls[-1] == ['{"role": "user", "content": "new"}']
+        assert second == first + len('{"role": "user", "content": "new"}') + 1
+
+    def test_replaced_content_is_recounted(self):
+        conversations = _conversation(5)
+        before = self.cache.count_messages(conversations)
+
+        conversations[2]["content"] = "short"
+        after = self.cache.count_messages(conversations)
+
+        assert after[:2] == before[:2] and after[3:] == before[3:]
+        assert after[2] < before[2]
+        assert len(self.counter.calls[-1]) == 1
+
+    def test_copies_hit_hash_cache(self):
+        conversations = _conversation(5)
+        self.cache.count_conversations(conversations)
+
+        copied = copy.deepcopy(conversations)
+        self.cache.count_conversations(copied)
+
+        assert len(self.counter.calls) == 1
+        assert self.cache.get_stats()["hits"] == 5
+
+    def test_removed_messages_drop_out_of_total(self):
+        conversations = _conversation(6)
+        tokens = self.cache.count_messages(conversations)
+
+        total = self.cache.count_conversations(conversations[:3] + conversations[4:])
+
+        assert total == ConversationTokenCache.total(tokens[:3] + tokens[4:])
+        assert len(self.counter.calls) == 1
+
+    def test_duplicate_messages_counted_once(self):
+        message = {"role": "user", "content": "same"}
+        counts = self.cache.count_messages([message, dict(message), dict(message)])
+
+        assert counts[0] == counts[1] == counts[2]
+        assert len(self.counter.calls[0]) == 1
+
+    def test_list_content_is_not_trusted_by_identity(self):
+        message = {"role": "user", "content": [{"type": "text", "text": "a"}]}
+        before = self.cache.message_tokens(message)
+
+        message["content"].append({"type": "text", "text": "more text"})
+
+        assert self.cache.message_tokens(message) > before
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_incremental_counting_benchmark():
+    """基准测试：每轮追加一条消息时，整段重新计数与增量计数的耗时对比"""
+    from autocoder.common.tokens import count_string_tokens
+    import json
+
+    turns = int(os.environ.get("PRUNER_BENCH_TURNS", "50"))
+    conversations = _conversation(200, size=4000)
+    cache = ConversationTokenCache()
+
+    start = time.perf_counter()
+    for i in range(turns):
+        conversations.append({"role": "user", "content": f"turn {i}"})
+        count_string_tokens(json.dumps(conversations, ensure_ascii=False))
+    full_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    for i in range(turns):
+        conversations.append({"role": "user", "content": f"turn {i}"})
+        cache.count_conversations(conversations)
+    incremental_time = time.perf_counter() - start
+
+    print(f"{turns} turns over ~{len(conversations)} messages: full recount {full_time:.2f}s, "
+          f"incremental {incremental_time:.2f}s")
+
+    assert incremental_time < full_time
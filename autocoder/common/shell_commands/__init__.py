@@ -40,6 +40,7 @@ from .command_executor import (
     execute_command_generator,
     execute_command_background,
     execute_commands,
+    register_background_process,
     get_background_processes,
     get_background_process_info,
     cleanup_background_process
@@ -105,6 +106,7 @@ __all__ = [
     "execute_command_generator", 
     "execute_command_background",
     "execute_commands",
+    "register_background_process",
     "get_background_processes",
     "get_background_process_info",
     "cleanup_background_process",
@@ -982,6 +982,41 @@ def execute_command_background(
         raise CommandExecutionError(f"Failed to start background command: {str(e)}")
 
 
+def register_background_process(
+    process: subprocess.Popen,
+    command: Union[str, List[str]],
+    cwd: Optional[str] = None,
+) -> Dict[str, Any]:
+    """
+    Register an already running process as a background process.
+
+    Used for processes that were started ahead of time (such as pre-warmed
+    workers) so that they are listed, captured and reported the same way as
+    processes started by execute_command_background.
+
+    Args:
+        process: Running process with stdout/stderr pipes
+        command: Command shown in process listings and notifications
+        cwd: Working directory
+
+    Returns:
+        Dictionary containing process information with PID
+    """
+    import uuid
+
+    manager = _get_global_process_manager()
+    process_uniq_id = str(uuid.uuid4())
+    manager.adopt_background_process(process, command, cwd, process_uniq_id)
+    return {
+        "pid": process.pid,
+        "process_uniq_id": process_uniq_id,
+        "command": _command_to_string(command),
+        "working_directory": cwd or os.getcwd(),
+        "start_time": time.time(),
+        "status": "running"
+    }
+
+
 # Global process manager for background processes
 _global_process_manager: Optional[ProcessManager] = None
 _global_process_manager_lock = threading.Lock()
@@ -396,6 +396,28 @@ class ProcessManager:
                 f"Failed to create background process for command '{command}': {e}")
             raise CommandExecutionError(f"Failed to create background process: {e}")
 
+    def adopt_background_process(
+        self,
+        process: subprocess.Popen,
+        command: Union[str, List[str]],
+        cwd: Optional[str] = None,
+        process_uniq_id: Optional[str] = None
+    ) -> None:
+        """
+        Track an already started process as a background process.
+
+        The process must have been started with stdout/stderr pipes; its output
+        is captured to the backgrounds directory exactly like processes created
+        by create_background_process.
+
+        Args:
+            process: Running process (e.g. a pre-started worker)
+            command: Command shown in process listings and notifications
+            cwd: Working directory used to locate the backgrounds directory
+            process_uniq_id: Unique id used to name the output files
+        """
+        self._register_background_process(process, command, cwd, process_uniq_id)
+
     def _register_background_process(
         self, 
         process: subprocess.Popen, 
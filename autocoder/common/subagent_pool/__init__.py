@@ -0,0 +1,14 @@
+"""
+预热子代理进程池
+
+- SubagentWorkerPool / get_subagent_pool: 预先启动并完成导入的子代理进程，后台子代理任务直接派发给就绪进程
+- shutdown_subagent_pools: 结束所有未使用的预热进程
+"""
+
+from .pool import SubagentWorkerPool, get_subagent_pool, shutdown_subagent_pools
+
+__all__ = [
+    "SubagentWorkerPool",
+    "get_subagent_pool",
+    "shutdown_subagent_pools",
+]
@@ -0,0 +1,319 @@
+"""
+预热子代理进程池
+
+RunNamedSubagentsTool 以后台模式运行子代理时，原先每个子代理都启动一个新的 auto-coder.run 进程，
+解释器启动、模块导入、模型配置加载和客户端创建要花几秒，之后子代理才开始工作。
+SubagentWorkerPool 预先启动若干已完成这些准备工作的进程 (worker.py)，派发任务时取一个就绪进程，
+通过 stdin 发送任务，并把它登记为普通后台进程 (register_background_process)，
+输出文件、进程列表和 BackgroundProcessNotifier 的完成通知与 execute_command_background 启动的进程一致。
+
+每个预热进程只执行一个任务，派发后在后台补充新的预热进程；没有就绪进程时调用方退回到一次性启动。
+"""
+
+import atexit
+import json
+import os
+import subprocess
+import sys
+import threading
+from typing import Any, Dict, List, Optional, Sequence
+
+from loguru import logger
+
+from autocoder.common.shell_commands import register_background_process
+from .worker import DEFAULT_ENTRY, ORIGINAL_PYTHONPATH_ENV, READY_MARKER
+
+# 设置为 1/true 时不预热子代理进程
+DISABLE_ENV = "AUTOCODER_DISABLE_SUBAGENT_POOL"
+
+# 子代理 (auto-coder.run) 启动时导入的主要模块
+DEFAULT_PRELOAD = (
+    "autocoder.sdk.cli.main",
+    "autocoder.sdk.cli.handlers",
+    "autocoder.sdk.core.auto_coder_core",
+    "autocoder.utils.llms",
+)
+
+_PACKAGE_ROOT = os.path.dirname(os.path.dirname(os.path.dirname(os.path.dirname(os.path.abspath(__file__)))))
+
+# 在子进程中查找 autocoder 包所在目录，不导入包本身
+_PACKAGE_PROBE = (
+    "import importlib.util; spec = importlib.util.find_spec('autocoder'); "
+    "print(list(spec.submodule_search_locations)[0] if spec and spec.submodule_search_locations else '')"
+)
+
+
+class SubagentWorkerPool:
+    """
+    预热的子代理进程池
+
+    Args:
+        size: 保持就绪的进程数
+        cwd: 进程的工作目录，也是后台进程输出文件 (.auto-coder/backgrounds) 所在的目录
+        model: 预先创建客户端的模型，通常为当前模型
+        product_mode: 预先创建客户端时使用的产品模式
+        preload: 预加载的模块
+        entry: 任务入口，"模块:函数"
+        startup_timeout: 等待进程就绪的秒数，超时的进程被结束
+        max_failures: 连续启动失败的次数达到该值后不再预热
+    """
+
+    def __init__(
+        self,
+        size: int,
+        cwd: Optional[str] = None,
+        model: Optional[str] = None,
+        product_mode: str = "lite",
+        preload: Sequence[str] = DEFAULT_PRELOAD,
+        entry: str = DEFAULT_ENTRY,
+        startup_timeout: float = 120.0,
+        max_failures: int = 3,
+    ):
+        self.size = max(0, size)
+        self.cwd = os.path.abspath(cwd or os.getcwd())
+        self.model = model
+        self.product_mode = product_mode
+        self.preload = list(preload)
+        self.entry = entry
+        self.startup_timeout = startup_timeout
+        self.max_failures = max_failures
+        self._ready: List[subprocess.Popen] = []
+        self._warming = 0
+        self._failures = 0
+        self._closed = False
+        self._lock = threading.Lock()
+        self._needs_package_root: Optional[bool] = None
+        self.warm_dispatches = 0
+        self.cold_dispatches = 0
+
+    @property
+    def broken(self) -> bool:
+        return self._failures >= self.max_failures
+
+    def prewarm(self) -> None:
+        """在后台启动进程，直到就绪和正在启动的进程数达到 size"""
+        with self._lock:
+            if self._closed or self.broken:
+                return
+            missing = self.size - len(self._ready) - self._warming
+            self._warming += max(0, missing)
+        for _ in range(missing):
+            threading.Thread(target=self._warm_one, name="subagent-prewarm", daemon=True).start()
+
+    def _worker_command(self) -> List[str]:
+        command = [sys.executable, "-m", "autocoder.common.subagent_pool.worker",
+                   "--preload", ",".join(self.preload), "--product-mode", self.product_mode]
+        if self.model:
+            command += ["--model", self.model]
+        return command
+
+    def _worker_env(self) -> Dict[str, str]:
+        """
+        预热进程的环境变量
+
+        只有子进程自己找不到当前这份 autocoder 时 (例如从源码目录运行) 才把包目录加入 PYTHONPATH，
+        原来的 PYTHONPATH 通过 ORIGINAL_PYTHONPATH_ENV 传给 worker，执行任务前恢复，
+        子代理启动的命令看到的环境与一次性启动时一致。
+        """
+        env = dict(os.environ)
+        paths = [p for p in env.get("PYTHONPATH", "").split(os.pathsep) if p]
+        if _PACKAGE_ROOT not in paths and self._package_root_needed(env):
+            env[ORIGINAL_PYTHONPATH_ENV] = env.get("PYTHONPATH", "")
+            env["PYTHONPATH"] = os.pathsep.join([_PACKAGE_ROOT] + paths)
+        return env
+
+    def _package_root_needed(self, env: Dict[str, str]) -> bool:
+        """在工作目录中用相同的解释器和环境查找 autocoder，结果不是当前这份包时需要加入包目录"""
+        if self._needs_package_root is None:
+            try:
+                found = subprocess.run(
+                    [sys.executable, "-c", _PACKAGE_PROBE], cwd=self.cwd, env=env,
+                    capture_output=True, text=True, timeout=30,
+                ).stdout.strip()
+            except (OSError, subprocess.SubprocessError):
+                found = ""
+            self._needs_package_root = (
+                not found or os.path.realpath(os.path.dirname(found)) != os.path.realpath(_PACKAGE_ROOT)
+            )
+        return self._needs_package_root
+
+    def _warm_one(self) -> None:
+        process = None
+        try:
+            process = subprocess.Popen(
+                self._worker_command(),
+                cwd=self.cwd,
+                env=self._worker_env(),
+                stdin=subprocess.PIPE,
+                stdout=subprocess.PIPE,
+                stderr=subprocess.PIPE,
+                text=True,
+                encoding="utf-8",
+                errors="replace",
+                # 与 create_background_process 一致，使用独立的进程组，便于清理整个进程树
+                start_new_session=os.name != "nt",
+            )
+            timer = threading.Timer(self.startup_timeout, process.kill)
+            timer.start()
+            # 同时读取 stderr，预热阶段 stderr 输出较多时管道写满会让进程阻塞在就绪之前
+            stderr_ready = []
+            stderr_reader = threading.Thread(
+                target=lambda: stderr_ready.append(self._wait_ready(process.stderr)),
+                name="subagent-prewarm-stderr", daemon=True,
+            )
+            stderr_reader.start()
+            try:
+                ready = self._wait_ready(process.stdout)
+                # 超时后进程被结束，stderr 读到结尾，读取线程随之退出
+                stderr_reader.join()
+                ready = ready and stderr_ready == [True]
+            finally:
+                timer.cancel()
+            if not ready or process.poll() is not None:
+                raise RuntimeError(f"进程未能就绪 (退出码 {process.poll()})")
+        except Exception as e:
+            if process is not None:
+                self._kill(process)
+            with self._lock:
+                self._warming -= 1
+                self._failures += 1
+            logger.warning(f"子代理预热进程启动失败: {str(e)}")
+            return
+
+        with self._lock:
+            self._warming -= 1
+            self._failures = 0
+            if not self._closed:
+                self._ready.append(process)
+                return
+        self._kill(process)
+
+    @staticmethod
+    def _wait_ready(stream) -> bool:
+        """读取预热阶段的输出直到就绪标记，预热阶段的输出不计入子代理的输出"""
+        while True:
+            line = stream.readline()
+            if not line:
+                return False
+            if line.rstrip("\n") == READY_MARKER:
+                return True
+
+    def _take_ready(self) -> Optional[subprocess.Popen]:
+        with self._lock:
+            while self._ready:
+                process = self._ready.pop(0)
+                if process.poll() is None:
+                    return process
+        return None
+
+    def dispatch(self, argv: Sequence[str], stdin: str, command: str) -> Optional[Dict[str, Any]]:
+        """
+        把一个子代理任务交给就绪进程执行
+
+        Args:
+            argv: auto-coder.run 的命令行参数 (不含程序名)
+            stdin: 子代理的标准输入 (查询内容)
+            command: 进程列表和完成通知中显示的命令
+
+        Returns:
+            与 execute_command_background 相同格式的进程信息；没有就绪进程时返回 None，调用方应改用一次性启动
+        """
+        process = self._take_ready()
+        if process is None:
+            self.cold_dispatches += 1
+            self.prewarm()
+            return None
+
+        task = {"entry": self.entry, "argv": list(argv), "stdin": stdin, "cwd": self.cwd}
+        try:
+            process.stdin.write(json.dumps(task, ensure_ascii=False) + "\n")
+            process.stdin.close()
+        except (OSError, ValueError) as e:
+            logger.warning(f"向子代理预热进程发送任务失败: {str(e)}")
+            self._kill(process)
+            self.cold_dispatches += 1
+            self.prewarm()
+            return None
+
+        process_info = register_background_process(process, command, cwd=self.cwd)
+        self.warm_dispatches += 1
+        self.prewarm()
+        return process_info
+
+    @staticmethod
+    def _kill(process: subprocess.Popen) -> None:
+        if process.poll() is None:
+            process.kill()
+        try:
+            process.wait(timeout=5)
+        except subprocess.TimeoutExpired:
+            pass
+
+    def get_stats(self) -> Dict[str, Any]:
+        with self._lock:
+            return {
+                "size": self.size,
+                "ready": len(self._ready),
+                "warming": self._warming,
+                "broken": self.broken,
+                "warm_dispatches": self.warm_dispatches,
+                "cold_dispatches": self.cold_dispatches,
+            }
+
+    def close(self) -> None:
+        """结束所有未派发任务的进程"""
+        with self._lock:
+            self._closed = True
+            ready, self._ready = self._ready, []
+        for process in ready:
+            try:
+                process.stdin.close()
+            except OSError:
+                pass
+            try:
+                process.wait(timeout=2)
+            except subprocess.TimeoutExpired:
+                self._kill(process)
+
+
+_pools: Dict[str, SubagentWorkerPool] = {}
+_pools_lock = threading.Lock()
+_atexit_registered = False
+
+
+def get_subagent_pool(
+    size: int,
+    cwd: Optional[str] = None,
+    model: Optional[str] = None,
+    product_mode: str = "lite",
+) -> Optional[SubagentWorkerPool]:
+    """
+    返回 cwd 对应的进程内共享进程池，并开始预热
+
+    Returns:
+        进程池；size 不大于 0 或设置了 AUTOCODER_DISABLE_SUBAGENT_POOL 时返回 None
+    """
+    if size <= 0 or os.environ.get(DISABLE_ENV, "").lower() in ("1", "true", "yes"):
+        return None
+    global _atexit_registered
+    key = os.path.abspath(cwd or os.getcwd())
+    with _pools_lock:
+        pool = _pools.get(key)
+        if pool is None:
+            pool = SubagentWorkerPool(size, cwd=key, model=model, product_mode=product_mode)
+            _pools[key] = pool
+            if not _atexit_registered:
+                atexit.register(shutdown_subagent_pools)
+                _atexit_registered = True
+        elif size > pool.size:
+            pool.size = size
+    pool.prewarm()
+    return pool
+
+
+def shutdown_subagent_pools() -> None:
+    with _pools_lock:
+        pools = list(_pools.values())
+        _pools.clear()
+    for pool in pools:
+        pool.close()
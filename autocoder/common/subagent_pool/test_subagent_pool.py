@@ -0,0 +1,240 @@
+import os
+import subprocess
+import sys
+import time
+from pathlib import Path
+
+import pytest
+
+from autocoder.common.shell_commands import execute_command_background, get_background_process_info
+from autocoder.common.shell_commands.background_process_notifier import BackgroundProcessNotifier
+from autocoder.common.subagent_pool import SubagentWorkerPool, get_subagent_pool
+from autocoder.common.subagent_pool.pool import DEFAULT_PRELOAD, _PACKAGE_ROOT
+from autocoder.common.subagent_pool.worker import ORIGINAL_PYTHONPATH_ENV, READY_MARKER
+
+ENTRY_SOURCE = """
+import os
+import sys
+
+def main():
+    print("argv=" + " ".join(sys.argv[1:]))
+    print("stdin=" + sys.stdin.read().strip())
+    print("pythonpath=" + os.environ.get("PYTHONPATH", ""))
+    sys.stdout.flush()
+    return int(sys.argv[-1]) if sys.argv[-1].isdigit() else 0
+"""
+
+
+@pytest.fixture
+def entry_module(tmp_path, monkeypatch):
+    """一个可被预热进程导入的任务入口，打印收到的参数和标准输入"""
+    (tmp_path / "fake_subagent.py").write_text(ENTRY_SOURCE)
+    paths = [str(tmp_path)] + [p for p in os.environ.get("PYTHONPATH", "").split(os.pathsep) if p]
+    monkeypatch.setenv("PYTHONPATH", os.pathsep.join(paths))
+    return "fake_subagent:main"
+
+
+def _wait_ready(pool, count=1, timeout=60.0):
+    deadline = time.monotonic() + timeout
+    while time.monotonic() < deadline:
+        if pool.get_stats()["ready"] >= count:
+            return
+        time.sleep(0.05)
+    raise AssertionError(f"预热进程未就绪: {pool.get_stats()}")
+
+
+def _wait_completed(pid, timeout=30.0):
+    deadline = time.monotonic() + timeout
+    while time.monotonic() < deadline:
+        info = get_background_process_info(pid)
+        if info and info["status"] == "completed":
+            return info
+        time.sleep(0.05)
+    raise AssertionError(f"进程 {pid} 未结束")
+
+
+def _read_output(cwd, process_uniq_id, suffix="out", timeout=10.0):
+    path = Path(cwd) / ".auto-coder" / "backgrounds" / f"{process_uniq_id}.{suffix}"
+    deadline = time.monotonic() + timeout
+    while time.monotonic() < deadline:
+        if path.exists() and path.read_text():
+            return path.read_text()
+        time.sleep(0.05)
+    return path.read_text() if path.exists() else ""
+
+
+class TestSubagentWorkerPool:
+    """预热进程的派发、输出捕获和完成通知"""
+
+    def test_dispatch_runs_task_in_warm_process(self, tmp_path, entry_module):
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path), preload=["json"], entry=entry_module)
+        try:
+            pool.prewarm()
+            _wait_ready(pool)
+
+            info = pool.dispatch(["--model", "m1", "3"], "review the parser\n", "echo 'review the parser' | auto-coder.run")
+
+            assert info is not None
+            assert info["command"] == "echo 'review the parser' | auto-coder.run"
+            completed = _wait_completed(info["pid"])
+            assert completed["exit_code"] == 3
+            output = _read_output(tmp_path, info["process_uniq_id"])
+            assert "argv=--model m1 3" in output
+            assert "stdin=review the parser" in output
+            # 预热阶段的就绪标记不计入子代理输出
+            assert "ready" not in output
+            assert pool.get_stats()["warm_dispatches"] == 1
+        finally:
+            pool.close()
+
+    def test_completion_is_reported_by_notifier(self, tmp_path, entry_module):
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path), preload=[], entry=entry_module)
+        notifier = BackgroundProcessNotifier()
+        notifier.set_options(poll_interval_sec=0.1)
+        try:
+            pool.prewarm()
+            _wait_ready(pool)
+            info = pool.dispatch(["0"], "task\n", "auto-coder.run")
+            notifier.register_process(conversation_id="conv-1", pid=info["pid"], tool_name="RunNamedSubagentsTool",
+                                      command=info["command"], cwd=info["working_directory"], agent_name="reviewer")
+
+            deadline = time.monotonic() + 30
+            messages = []
+            while not messages and time.monotonic() < deadline:
+                messages = notifier.poll_messages("conv-1")
+                time.sleep(0.1)
+
+            assert len(messages) == 1
+            assert messages[0].status == "completed"
+            assert messages[0].agent_name == "reviewer"
+            assert "stdin=task" in messages[0].output_tail
+        finally:
+            notifier.stop()
+            pool.close()
+
+    def test_dispatch_without_ready_worker_returns_none(self, tmp_path):
+        pool = SubagentWorkerPool(0, cwd=str(tmp_path))
+
+        assert pool.dispatch(["x"], "", "auto-coder.run") is None
+        assert pool.get_stats()["cold_dispatches"] == 1
+
+    def test_failing_worker_marks_pool_broken(self, tmp_path, monkeypatch):
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path), max_failures=2)
+        monkeypatch.setattr(pool, "_worker_command", lambda: [sys.executable, "-c", "import sys; sys.exit(3)"])
+
+        for _ in range(2):
+            pool.prewarm()
+            deadline = time.monotonic() + 30
+            while pool.get_stats()["warming"] and time.monotonic() < deadline:
+                time.sleep(0.05)
+
+        assert pool.broken
+        pool.prewarm()
+        assert pool.get_stats()["warming"] == 0
+
+    def test_noisy_preload_on_stderr_does_not_block_startup(self, tmp_path):
+        """预热阶段向 stderr 写入超过管道容量的输出，进程仍能就绪"""
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path), startup_timeout=20)
+        script = (
+            "import sys\n"
+            "sys.stderr.write('warning\\n' * 200000)\n"
+            f"print({READY_MARKER!r}, flush=True)\n"
+            f"print({READY_MARKER!r}, file=sys.stderr, flush=True)\n"
+            "sys.stdin.read()\n"
+        )
+        pool._worker_command = lambda: [sys.executable, "-c", script]
+        try:
+            pool.prewarm()
+            _wait_ready(pool, timeout=10)
+        finally:
+            pool.close()
+
+    def test_task_sees_original_pythonpath(self, tmp_path, entry_module):
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path), preload=[], entry=entry_module)
+        try:
+            pool.prewarm()
+            _wait_ready(pool)
+            info = pool.dispatch(["0"], "task\n", "auto-coder.run")
+            _wait_completed(info["pid"])
+
+            output = _read_output(tmp_path, info["process_uniq_id"])
+            assert f"pythonpath={os.environ['PYTHONPATH']}\n" in output
+        finally:
+            pool.close()
+
+    def test_package_root_is_added_only_when_not_importable(self, tmp_path, monkeypatch):
+        monkeypatch.setenv("PYTHONPATH", str(tmp_path))
+        pool = SubagentWorkerPool(1, cwd=str(tmp_path))
+
+        pool._needs_package_root = False
+        assert pool._worker_env()["PYTHONPATH"] == str(tmp_path)
+        assert ORIGINAL_PYTHONPATH_ENV not in pool._worker_env()
+
+        pool._needs_package_root = True
+        env = pool._worker_env()
+        assert env["PYTHONPATH"] == os.pathsep.join([_PACKAGE_ROOT, str(tmp_path)])
+        assert env[ORIGINAL_PYTHONPATH_ENV] == str(tmp_path)
+
+    def test_pool_can_be_disabled(self, tmp_path, monkeypatch):
+        assert get_subagent_pool(0, cwd=str(tmp_path)) is None
+        monkeypatch.setenv("AUTOCODER_DISABLE_SUBAGENT_POOL", "1")
+        assert get_subagent_pool(4, cwd=str(tmp_path)) is None
+
+
+def _first_output_latencies(starts, outputs, timeout=300.0):
+    """每个子代理从启动到输出第一行的耗时"""
+    latencies = [None] * len(outputs)
+    deadline = time.monotonic() + timeout
+    while any(lat is None for lat in latencies) and time.monotonic() < deadline:
+        for i, path in enumerate(outputs):
+            if latencies[i] is None and path.exists() and "first-token" in path.read_text():
+                latencies[i] = time.perf_counter() - starts[i]
+        time.sleep(0.005)
+    assert all(lat is not None for lat in latencies), "子代理没有输出"
+    return latencies
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_subagent_fan_out_benchmark(tmp_path, monkeypatch):
+    """基准测试：8 个子代理并行启动时，从启动到首次输出的耗时，对比每次启动新进程和预热进程"""
+    fan_out = int(os.environ.get("SUBAGENT_POOL_BENCH_FAN_OUT", "8"))
+    preload = os.environ.get("SUBAGENT_POOL_BENCH_PRELOAD", ",".join(DEFAULT_PRELOAD)).split(",")
+    imports = "; ".join(f"import {name}" for name in preload)
+    (tmp_path / "first_token.py").write_text("def main():\n    print('first-token', flush=True)\n    return 0\n")
+    paths = [str(tmp_path), _PACKAGE_ROOT] + [p for p in os.environ.get("PYTHONPATH", "").split(os.pathsep) if p]
+    monkeypatch.setenv("PYTHONPATH", os.pathsep.join(paths))
+
+    probe = subprocess.run([sys.executable, "-c", imports], capture_output=True, text=True, cwd=str(tmp_path))
+    if probe.returncode != 0:
+        pytest.skip(f"无法导入预加载模块: {probe.stderr.strip().splitlines()[-1:]}")
+    backgrounds = tmp_path / ".auto-coder" / "backgrounds"
+
+    cold_command = f"{sys.executable} -c \"{imports}; print('first-token', flush=True)\""
+    starts, outputs = [], []
+    for _ in range(fan_out):
+        starts.append(time.perf_counter())
+        info = execute_command_background(cold_command, cwd=str(tmp_path))
+        outputs.append(backgrounds / f"{info['process_uniq_id']}.out")
+    cold = _first_output_latencies(starts, outputs)
+
+    pool = SubagentWorkerPool(fan_out, cwd=str(tmp_path), preload=preload, entry="first_token:main")
+    try:
+        pool.prewarm()
+        _wait_ready(pool, fan_out, timeout=300)
+        starts, outputs = [], []
+        for _ in range(fan_out):
+            starts.append(time.perf_counter())
+            info = pool.dispatch([], "", "first-token")
+            assert info is not None
+            outputs.append(backgrounds / f"{info['process_uniq_id']}.out")
+        warm = _first_output_latencies(starts, outputs)
+    finally:
+        pool.close()
+
+    print(
+        f"{fan_out} subagents spawn-to-first-output: cold mean {sum(cold) / fan_out * 1000:.0f} ms "
+        f"(max {max(cold) * 1000:.0f} ms), warm mean {sum(warm) / fan_out * 1000:.0f} ms "
+        f"(max {max(warm) * 1000:.0f} ms)"
+    )
+    assert max(warm) < max(cold)
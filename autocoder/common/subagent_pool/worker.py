@@ -0,0 +1,122 @@
+"""
+预热的子代理进程
+
+由 SubagentWorkerPool 启动，启动后先导入子代理运行所需的模块、加载模型配置并预先创建常用模型的客户端，
+然后在 stdout/stderr 各输出一行 READY_MARKER，等待父进程从 stdin 发送一个 JSON 任务：
+
+    {"entry": "autocoder.sdk.cli:main", "argv": [...], "stdin": "...", "cwd": "..."}
+
+收到任务后以 argv 作为命令行参数、stdin 作为标准输入执行 entry，进程以 entry 的返回值退出。
+每个进程只执行一个任务，子代理之间的工作目录、全局单例和输出互不影响。
+"""
+
+import argparse
+import importlib
+import io
+import json
+import os
+import sys
+import traceback
+
+READY_MARKER = "\0autocoder-subagent-ready"
+DEFAULT_ENTRY = "autocoder.sdk.cli:main"
+# 进程池为了让 worker 能导入 autocoder 而修改 PYTHONPATH 时，用该变量保存原来的值
+ORIGINAL_PYTHONPATH_ENV = "AUTOCODER_SUBAGENT_ORIGINAL_PYTHONPATH"
+
+
+def _restore_pythonpath() -> None:
+    """恢复调用方原来的 PYTHONPATH，子代理启动的命令不继承进程池加入的包目录"""
+    original = os.environ.pop(ORIGINAL_PYTHONPATH_ENV, None)
+    if original is None:
+        return
+    if original:
+        os.environ["PYTHONPATH"] = original
+    else:
+        os.environ.pop("PYTHONPATH", None)
+
+
+def _preload(modules):
+    for name in modules:
+        try:
+            importlib.import_module(name)
+        except Exception as e:
+            print(f"预加载模块 {name} 失败: {str(e)}", file=sys.stderr)
+
+
+def _prebuild_llm(model: str, product_mode: str) -> None:
+    """
+    预先创建 model 的客户端，子代理第一次以相同参数获取模型时直接使用该实例
+
+    预先创建的实例只交出一次，之后的调用照常创建新实例。
+    """
+    try:
+        from autocoder.common.llms import LLMManager
+        from autocoder.utils.llms import get_single_llm
+    except Exception:
+        return
+    try:
+        prebuilt = {(model, product_mode): get_single_llm(model, product_mode)}
+    except Exception as e:
+        print(f"预先创建模型 {model} 失败: {str(e)}", file=sys.stderr)
+        return
+
+    original = LLMManager.get_single_llm
+
+    def get_single_llm_prebuilt(self, model_names, mode):
+        llm = prebuilt.pop((model_names, mode), None)
+        return llm if llm is not None else original(self, model_names, mode)
+
+    LLMManager.get_single_llm = get_single_llm_prebuilt
+
+
+def _run_task(task: dict) -> int:
+    module_name, _, func_name = task.get("entry", DEFAULT_ENTRY).partition(":")
+    entry = getattr(importlib.import_module(module_name), func_name or "main")
+
+    if task.get("cwd"):
+        os.chdir(task["cwd"])
+    sys.argv = [task.get("prog", "auto-coder.run")] + list(task.get("argv", []))
+    sys.stdin = io.StringIO(task.get("stdin", ""))
+    try:
+        code = entry()
+    except SystemExit as e:
+        code = e.code
+    if code is None:
+        return 0
+    return code if isinstance(code, int) else 1
+
+
+def main() -> int:
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--preload", default="", help="逗号分隔的预加载模块")
+    parser.add_argument("--model", default="", help="预先创建客户端的模型")
+    parser.add_argument("--product-mode", default="lite")
+    options = parser.parse_args()
+
+    # sys.path 在解释器启动时已经确定，恢复环境变量不影响本进程导入模块
+    _restore_pythonpath()
+    _preload([m for m in options.preload.split(",") if m])
+    if options.model:
+        _prebuild_llm(options.model, options.product_mode)
+
+    for stream in (sys.stdout, sys.stderr):
+        stream.write(READY_MARKER + "\n")
+        stream.flush()
+
+    line = sys.stdin.readline()
+    if not line.strip():
+        # 父进程关闭了管道 (进程池关闭)，没有任务
+        return 0
+    try:
+        code = _run_task(json.loads(line))
+    except Exception:
+        traceback.print_exc()
+        code = 1
+    finally:
+        sys.stdout.flush()
+        sys.stderr.flush()
+    return code
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,18 @@
+"""
+文本搜索模块 - 并行、流式的正则文件搜索
+
+- 多进程并行搜索，小规模搜索直接在当前进程完成
+- 大文件使用 mmap，先对整个缓冲区匹配，只为命中位置计算行号
+- 自动跳过二进制文件
+- 支持匹配数上限，结果按文件逐个产出
+"""
+
+from .models import TextSearchHit, FileSearchResult
+from .engine import ParallelTextSearchEngine, search_file
+
+__all__ = [
+    'TextSearchHit',
+    'FileSearchResult',
+    'ParallelTextSearchEngine',
+    'search_file',
+]
@@ -0,0 +1,511 @@
+import os
+import re
+import mmap
+import stat
+import atexit
+import threading
+from collections import deque
+from concurrent.futures import ProcessPoolExecutor
+from concurrent.futures.process import BrokenProcessPool
+from functools import lru_cache
+from typing import Iterable, Iterator, List, Optional, Tuple
+
+from loguru import logger
+
+try:
+    import re._parser as _sre_parse
+    import re._constants as _sre_constants
+except ImportError:  # Python < 3.11
+    import sre_parse as _sre_parse
+    import sre_constants as _sre_constants
+
+from .models import TextSearchHit, FileSearchResult
+
+
+# 超过该大小的文件使用 mmap 读取
+MMAP_THRESHOLD = 1024 * 1024
+# 用于判断二进制文件的头部长度
+BINARY_SNIFF_BYTES = 8192
+
+# 依赖“整行即整个字符串”语义的构造，整块缓冲区搜索无法等价，需逐行匹配
+_LINE_SENSITIVE = re.compile(r"\\[AZ]|\(\?<?[=!]")
+
+_NEWLINE = ord("\n")
+# 字符类中不会匹配换行符的类别，其余类别按能匹配处理
+_NON_NEWLINE_CATEGORIES = {
+    _sre_constants.CATEGORY_NOT_SPACE,
+    _sre_constants.CATEGORY_DIGIT,
+    _sre_constants.CATEGORY_WORD,
+    _sre_constants.CATEGORY_NOT_LINEBREAK,
+}
+_REPEATS = {_sre_constants.MAX_REPEAT, _sre_constants.MIN_REPEAT}
+if hasattr(_sre_constants, "POSSESSIVE_REPEAT"):
+    _REPEATS.add(_sre_constants.POSSESSIVE_REPEAT)
+
+
+def _set_matches_newline(items) -> bool:
+    negate = bool(items) and items[0][0] is _sre_constants.NEGATE
+    contains = False
+    for op, av in items:
+        if op is _sre_constants.NEGATE:
+            continue
+        if op is _sre_constants.LITERAL:
+            contains = av == _NEWLINE
+        elif op is _sre_constants.RANGE:
+            contains = av[0] <= _NEWLINE <= av[1]
+        elif op is _sre_constants.CATEGORY:
+            if av not in _NON_NEWLINE_CATEGORIES:
+                contains = True
+        else:
+            return True
+        if contains:
+            break
+    return contains != negate
+
+
+def _can_match_newline(items, flags: int) -> bool:
+    """
+    判断解析后的正则能否匹配换行符，无法判断的构造 (如反向引用) 按能匹配处理
+
+    能跨过换行符的模式在整块缓冲区上的结果与逐行搜索不同：
+    例如 `foo\\s+$` 逐行搜索时可以用 `\\s+` 匹配行尾的换行符，
+    在整块缓冲区中 `$` 却落在下一行的开头。
+    """
+    for op, av in items:
+        if op is _sre_constants.LITERAL:
+            if av == _NEWLINE:
+                return True
+        elif op is _sre_constants.NOT_LITERAL:
+            if av != _NEWLINE:
+                return True
+        elif op is _sre_constants.ANY:
+            if flags & re.DOTALL:
+                return True
+        elif op is _sre_constants.IN:
+            if _set_matches_newline(av):
+                return True
+        elif op in _REPEATS:
+            if _can_match_newline(av[2], flags):
+                return True
+        elif op is _sre_constants.SUBPATTERN:
+            _, add_flags, del_flags, sub = av
+            if _can_match_newline(sub, (flags | add_flags) & ~del_flags):
+                return True
+        elif op is _sre_constants.BRANCH:
+            if any(_can_match_newline(branch, flags) for branch in av[1]):
+                return True
+        elif op in (_sre_constants.ASSERT, _sre_constants.ASSERT_NOT):
+            if _can_match_newline(av[1], flags):
+                return True
+        elif op is _sre_constants.GROUPREF_EXISTS:
+            _, yes, no = av
+            if _can_match_newline(yes, flags) or (no is not None and _can_match_newline(no, flags)):
+                return True
+        elif op is getattr(_sre_constants, "ATOMIC_GROUP", None):
+            if _can_match_newline(av, flags):
+                return True
+        elif op is _sre_constants.AT:
+            continue
+        else:
+            return True
+    return False
+
+
+def _is_byte_safe(pattern: str) -> bool:
+    """
+    判断模式能否直接作用于 UTF-8 字节而不漏掉匹配
+
+    `.`、`[^...]`、`\\w` 等在字节模式下只匹配单个字节或 ASCII 字符，
+    遇到多字节字符会漏报；这类模式改为在解码后的文本上搜索。
+    """
+    if not pattern.isascii():
+        return False
+    i = 0
+    while i < len(pattern):
+        c = pattern[i]
+        if c == "\\":
+            nxt = pattern[i + 1:i + 2]
+            if nxt in ("", "w", "W", "d", "D", "s", "S", "b", "B", "u", "U", "N", "x") or nxt.isdigit():
+                return False
+            i += 2
+            continue
+        if c == "." or pattern.startswith("[^", i):
+            return False
+        if pattern.startswith("(?", i):
+            flags = re.match(r"\(\?([a-zA-Z]*)", pattern[i:]).group(1)
+            if "i" in flags:
+                return False
+        i += 1
+    return True
+
+
+@lru_cache(maxsize=64)
+def _compile(pattern: str, flags: int = 0) -> Tuple[re.Pattern, Optional[re.Pattern], Optional[re.Pattern], bool]:
+    """
+    编译搜索所需的正则
+
+    Args:
+        pattern: 正则表达式
+        flags: 调用方编译正则时使用的标志
+
+    Returns:
+        (逐行校验用的正则, 文本缓冲区正则, 字节缓冲区正则, 是否需要逐行匹配)
+    """
+    line_regex = re.compile(pattern, flags)
+    # 调用方的 MULTILINE 会让 ^ 匹配行尾换行符之后的位置，只能逐行匹配
+    if (_LINE_SENSITIVE.search(pattern) or line_regex.flags & re.MULTILINE
+            or _can_match_newline(_sre_parse.parse(pattern, flags), line_regex.flags)):
+        return line_regex, None, None, True
+
+    text_regex = re.compile(pattern, flags | re.MULTILINE)
+    bytes_regex = None
+    if _is_byte_safe(pattern) and not flags & re.IGNORECASE:
+        try:
+            bytes_regex = re.compile(pattern.encode("utf-8"), (flags & ~re.UNICODE) | re.MULTILINE)
+        except (re.error, ValueError):
+            bytes_regex = None
+    return line_regex, text_regex, bytes_regex, False
+
+
+def _count(buf, needle, start: int, end: int) -> int:
+    if isinstance(buf, mmap.mmap):
+        return buf[start:end].count(needle)
+    return buf.count(needle, start, end)
+
+
+def _decode(chunk) -> str:
+    return chunk if isinstance(chunk, str) else chunk.decode("utf-8", errors="replace")
+
+
+def _scan_buffer(buf, regex: re.Pattern, line_regex: re.Pattern, max_hits: Optional[int],
+                 context_before: int, context_after: int) -> List[TextSearchHit]:
+    """
+    先在整个缓冲区上运行正则，只为命中的位置计算行号，
+    命中行再用原始正则逐行校验，保证结果与逐行搜索一致。
+    """
+    newline = "\n" if isinstance(buf, str) else b"\n"
+    size = len(buf)
+    hits = []
+    pos = 0
+    line_number = 1
+    counted_upto = 0
+
+    while pos < size:
+        match = regex.search(buf, pos)
+        if match is None:
+            break
+        line_start = buf.rfind(newline, 0, match.start()) + 1
+        if line_start >= size:
+            break
+        line_end = buf.find(newline, line_start)
+        line_stop = size if line_end == -1 else line_end + 1
+
+        line_number += _count(buf, newline, counted_upto, line_start)
+        counted_upto = line_start
+
+        line = _decode(buf[line_start:line_stop])
+        if line_regex.search(line):
+            hits.append(_make_hit(buf, newline, line_start, line_stop, line_number, line,
+                                  context_before, context_after))
+            if max_hits is not None and len(hits) >= max_hits:
+                break
+        pos = line_stop
+
+    return hits
+
+
+def _make_hit(buf, newline, line_start: int, line_stop: int, line_number: int, line: str,
+              context_before: int, context_after: int) -> TextSearchHit:
+    before = []
+    start = line_start
+    while len(before) < context_before and start > 0:
+        prev_start = buf.rfind(newline, 0, start - 1) + 1
+        before.append(_decode(buf[prev_start:start]))
+        start = prev_start
+    before.reverse()
+
+    after = []
+    stop = line_stop
+    size = len(buf)
+    while len(after) < context_after and stop < size:
+        end = buf.find(newline, stop)
+        next_stop = size if end == -1 else end + 1
+        after.append(_decode(buf[stop:next_stop]))
+        stop = next_stop
+
+    return TextSearchHit(
+        line_number=line_number,
+        line=line,
+        context_start=line_number - len(before),
+        context_lines=before + [line] + after
+    )
+
+
+def _split_lines(text: str) -> List[str]:
+    """只按 \\n 切分并保留换行符，与文本模式 readlines() 的行为一致"""
+    lines = []
+    start = 0
+    while start < len(text):
+        end = text.find("\n", start)
+        if end == -1:
+            lines.append(text[start:])
+            break
+        lines.append(text[start:end + 1])
+        start = end + 1
+    return lines
+
+
+def _scan_lines(text: str, line_regex: re.Pattern, max_hits: Optional[int],
+                context_before: int, context_after: int) -> List[TextSearchHit]:
+    """逐行匹配，用于包含 \\A、\\Z、环视断言或能匹配换行符的模式"""
+    lines = _split_lines(text)
+    hits = []
+    for index, line in enumerate(lines):
+        if line_regex.search(line):
+            start = max(0, index - context_before)
+            end = min(len(lines), index + 1 + context_after)
+            hits.append(TextSearchHit(
+                line_number=index + 1,
+                line=line,
+                context_start=start + 1,
+                context_lines=lines[start:end]
+            ))
+            if max_hits is not None and len(hits) >= max_hits:
+                break
+    return hits
+
+
+def search_file(path: str, pattern: str, max_hits: Optional[int] = None,
+                context_before: int = 2, context_after: int = 2, flags: int = 0) -> FileSearchResult:
+    """
+    在单个文件中搜索正则，行为与以文本模式 readlines() 后逐行 search 一致
+
+    二进制文件（头部包含 NUL 字节）和非普通文件（FIFO、设备等）会被跳过。
+
+    Args:
+        path: 文件路径
+        pattern: 正则表达式
+        max_hits: 单个文件最多返回的匹配数，None 表示不限制
+        context_before: 匹配行之前的上下文行数
+        context_after: 匹配行之后的上下文行数
+        flags: 正则标志，与 re.compile 的 flags 相同
+
+    Returns:
+        FileSearchResult: 搜索结果
+    """
+    result = FileSearchResult(path=path)
+    line_regex, text_regex, bytes_regex, line_sensitive = _compile(pattern, flags)
+
+    try:
+        # 打开 FIFO 会一直阻塞，先确认是普通文件
+        if not stat.S_ISREG(os.stat(path).st_mode):
+            return result
+        with open(path, "rb") as f:
+            size = os.fstat(f.fileno()).st_size
+            if size == 0:
+                return result
+            if size >= MMAP_THRESHOLD:
+                buf = mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ)
+            else:
+                buf = f.read()
+
+        try:
+            if b"\x00" in buf[:BINARY_SNIFF_BYTES]:
+                result.skipped_binary = True
+                return result
+
+            # 含 \r 的文件需要按通用换行符规则转换；其余文件可直接在字节上搜索
+            if bytes_regex is not None and not line_sensitive and buf.find(b"\r") == -1:
+                result.hits = _scan_buffer(buf, bytes_regex, line_regex, max_hits,
+                                           context_before, context_after)
+                return result
+        finally:
+            if isinstance(buf, mmap.mmap):
+                buf.close()
+
+        with open(path, "r", encoding="utf-8", errors="replace") as f:
+            text = f.read()
+        if line_sensitive:
+            result.hits = _scan_lines(text, line_regex, max_hits, context_before, context_after)
+        else:
+            result.hits = _scan_buffer(text, text_regex, line_regex, max_hits,
+                                       context_before, context_after)
+    except (PermissionError, OSError, UnicodeDecodeError, ValueError) as e:
+        result.error_type = type(e).__name__
+        result.error_message = f"Cannot read file: {str(e)}"
+    except Exception as e:
+        result.error_type = type(e).__name__
+        result.error_message = f"Unexpected error: {str(e)}"
+    return result
+
+
+def _search_batch(paths: List[str], pattern: str, max_hits: Optional[int],
+                  context_before: int, context_after: int, flags: int = 0) -> List[FileSearchResult]:
+    """进程池中执行的任务：依次搜索一批文件"""
+    return [search_file(path, pattern, max_hits, context_before, context_after, flags) for path in paths]
+
+
+_executor: Optional[ProcessPoolExecutor] = None
+_executor_workers = 0
+_executor_lock = threading.Lock()
+
+
+def _get_executor(max_workers: int) -> ProcessPoolExecutor:
+    """获取共享的进程池，避免每次搜索都重新启动工作进程"""
+    global _executor, _executor_workers
+    with _executor_lock:
+        if _executor is None or _executor_workers != max_workers:
+            if _executor is not None:
+                _executor.shutdown(wait=False, cancel_futures=True)
+            _executor = ProcessPoolExecutor(max_workers=max_workers)
+            _executor_workers = max_workers
+        return _executor
+
+
+def _reset_executor() -> None:
+    global _executor
+    with _executor_lock:
+        if _executor is not None:
+            _executor.shutdown(wait=False, cancel_futures=True)
+            _executor = None
+
+
+atexit.register(_reset_executor)
+
+
+class ParallelTextSearchEngine:
+    """
+    并行流式正则搜索引擎
+
+    - 文件分批分发到进程池，小规模搜索直接在当前进程完成
+    - 大文件通过 mmap 读取，先对整个缓冲区运行正则，只为命中位置计算行号
+    - 跳过二进制文件
+    - 达到匹配上限后停止，未开始的任务会被取消
+    - 结果按输入顺序逐个文件产出，调用方可随时停止迭代
+    """
+
+    def __init__(self,
+                 max_workers: Optional[int] = None,
+                 max_matches: Optional[int] = None,
+                 context_before: int = 2,
+                 context_after: int = 2,
+                 parallel_min_files: int = 64,
+                 batch_max_files: int = 32,
+                 batch_max_bytes: int = 4 * 1024 * 1024):
+        """
+        初始化搜索引擎
+
+        Args:
+            max_workers: 工作进程数，默认取 CPU 核数（最多 8 个）
+            max_matches: 匹配总数上限，None 表示不限制
+            context_before: 匹配行之前的上下文行数
+            context_after: 匹配行之后的上下文行数
+            parallel_min_files: 文件数达到该值时才启用进程池
+            batch_max_files: 每个任务最多包含的文件数
+            batch_max_bytes: 每个任务最多包含的字节数
+        """
+        self.max_workers = max_workers or max(1, min(8, os.cpu_count() or 1))
+        self.max_matches = max_matches
+        self.context_before = context_before
+        self.context_after = context_after
+        self.parallel_min_files = parallel_min_files
+        self.batch_max_files = batch_max_files
+        self.batch_max_bytes = batch_max_bytes
+
+    def search_file(self, path: str, pattern: str, flags: int = 0) -> FileSearchResult:
+        """在当前进程中搜索单个文件"""
+        return search_file(path, pattern, self.max_matches, self.context_before, self.context_after, flags)
+
+    def iter_search(self, paths: Iterable[str], pattern: str, flags: int = 0) -> Iterator[FileSearchResult]:
+        """
+        搜索多个文件，按输入顺序逐个产出每个文件的结果
+
+        Args:
+            paths: 待搜索的文件路径，可以是惰性迭代器
+            pattern: 正则表达式
+            flags: 正则标志，与 re.compile 的 flags 相同
+
+        Raises:
+            re.error: 正则表达式无效
+
+        Yields:
+            FileSearchResult: 有匹配或读取出错的文件结果
+        """
+        _compile(pattern, flags)
+        remaining = self.max_matches
+        path_iter = iter(paths)
+
+        head = []
+        for path in path_iter:
+            head.append(path)
+            if len(head) >= self.parallel_min_files:
+                break
+
+        if self.max_workers > 1 and len(head) >= self.parallel_min_files:
+            results = self._iter_parallel(head, path_iter, pattern, flags)
+        else:
+            results = (self.search_file(path, pattern, flags) for path in _chain(head, path_iter))
+
+        try:
+            for result in results:
+                if not result.hits and result.success:
+                    continue
+                if remaining is not None:
+                    result.hits = result.hits[:remaining]
+                    remaining -= len(result.hits)
+                yield result
+                if remaining is not None and remaining <= 0:
+                    return
+        finally:
+            results.close()
+
+    def _iter_batches(self, head: List[str], rest: Iterator[str]) -> Iterator[List[str]]:
+        batch, batch_bytes = [], 0
+        for path in _chain(head, rest):
+            try:
+                size = os.path.getsize(path)
+            except OSError:
+                size = 0
+            if batch and (len(batch) >= self.batch_max_files or batch_bytes + size > self.batch_max_bytes):
+                yield batch
+                batch, batch_bytes = [], 0
+            batch.append(path)
+            batch_bytes += size
+        if batch:
+            yield batch
+
+    def _iter_parallel(self, head: List[str], rest: Iterator[str], pattern: str,
+                       flags: int = 0) -> Iterator[FileSearchResult]:
+        executor = _get_executor(self.max_workers)
+        batches = self._iter_batches(head, rest)
+        max_in_flight = self.max_workers * 4
+        pending = deque()
+        args = (pattern, self.max_matches, self.context_before, self.context_after, flags)
+
+        try:
+            for batch in batches:
+                pending.append((batch, executor.submit(_search_batch, batch, *args)))
+                if len(pending) < max_in_flight:
+                    continue
+                batch, future = pending.popleft()
+                yield from future.result()
+
+            while pending:
+                batch, future = pending.popleft()
+                yield from future.result()
+        except BrokenProcessPool as e:
+            # 工作进程异常退出时，在当前进程中完成剩余的搜索
+            logger.warning(f"Search worker pool is broken, falling back to serial search: {e}")
+            _reset_executor()
+            unfinished = [batch] + [b for b, _ in pending]
+            pending.clear()
+            for batch in _chain(unfinished, batches):
+                yield from _search_batch(batch, *args)
+        finally:
+            for _, future in pending:
+                future.cancel()
+
+
+def _chain(first, second):
+    yield from first
+    yield from second
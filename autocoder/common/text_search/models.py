@@ -0,0 +1,25 @@
+from typing import List, Optional
+from dataclasses import dataclass, field
+
+
+@dataclass
+class TextSearchHit:
+    """单个匹配行"""
+    line_number: int
+    line: str
+    context_start: int
+    context_lines: List[str]
+
+
+@dataclass
+class FileSearchResult:
+    """单个文件的搜索结果"""
+    path: str
+    hits: List[TextSearchHit] = field(default_factory=list)
+    error_type: Optional[str] = None
+    error_message: Optional[str] = None
+    skipped_binary: bool = False
+
+    @property
+    def success(self) -> bool:
+        return self.error_type is None
@@ -0,0 +1,206 @@
+import os
+import re
+import time
+
+import pytest
+
+from autocoder.common.text_search import engine as engine_module
+from autocoder.common.text_search import ParallelTextSearchEngine, search_file
+
+
+def _reference_search(path, pattern, before=2, after=2, flags=0):
+    """原有实现：文本模式 readlines() 后逐行匹配"""
+    regex = re.compile(pattern, flags)
+    with open(path, "r", encoding="utf-8", errors="replace") as f:
+        lines = f.readlines()
+    hits = []
+    for i, line in enumerate(lines):
+        if regex.search(line):
+            start = max(0, i - before)
+            hits.append((i + 1, line, start + 1, lines[start:min(len(lines), i + 1 + after)]))
+    return hits
+
+
+def _as_tuples(result):
+    return [(h.line_number, h.line, h.context_start, h.context_lines) for h in result.hits]
+
+
+SAMPLE = (
+    "import os\n"
+    "def foo():\n"
+    "    return 'héllo wörld'\n"
+    "\n"
+    "class Foo:\n"
+    "    def bar(self):  # 中文注释\n"
+    "        pass\n"
+    "foo bar\n"
+    "last line without newline"
+)
+
+PATTERNS = [
+    r"foo",
+    r"def \w+",
+    r"^class",
+    r"line$",
+    r"h.llo",
+    r"[^a-z]ar",
+    r"中文",
+    r"(?i)FOO",
+    r"foo\s+bar",
+    r"bar(?=\()",
+    r"\Aimport",
+    r"",
+    r"foo\s+$",
+    r"\)\s*\n",
+    r"pass\W",
+    r"^$",
+]
+
+
+@pytest.mark.parametrize("pattern", PATTERNS)
+def test_matches_line_by_line_semantics(tmp_path, pattern):
+    path = tmp_path / "sample.py"
+    path.write_text(SAMPLE, encoding="utf-8")
+
+    assert _as_tuples(search_file(str(path), pattern)) == _reference_search(str(path), pattern)
+
+
+def test_crlf_and_mmap_files(tmp_path, monkeypatch):
+    monkeypatch.setattr(engine_module, "MMAP_THRESHOLD", 16)
+    crlf = tmp_path / "crlf.txt"
+    crlf.write_bytes(SAMPLE.replace("\n", "\r\n").encode("utf-8"))
+    plain = tmp_path / "plain.txt"
+    plain.write_text(SAMPLE * 50, encoding="utf-8")
+
+    for path in (crlf, plain):
+        for pattern in (r"foo", r"line$", r"h.llo"):
+            assert _as_tuples(search_file(str(path), pattern)) == _reference_search(str(path), pattern)
+
+
+def test_patterns_crossing_newlines_keep_line_semantics(tmp_path, monkeypatch):
+    """逐行搜索时能匹配行尾换行符的模式，在整块缓冲区上可能漏掉匹配"""
+    monkeypatch.setattr(engine_module, "MMAP_THRESHOLD", 16)
+    path = tmp_path / "trailing.py"
+    path.write_text("foo\nbar\nfoo  \nfoo", encoding="utf-8")
+
+    for pattern in (r"foo\s+$", r"foo\s", r"o[^x]$"):
+        result = search_file(str(path), pattern)
+        assert _as_tuples(result) == _reference_search(str(path), pattern)
+    assert [h.line_number for h in search_file(str(path), r"foo\s+$").hits] == [1, 3]
+
+
+def test_caller_flags_are_kept(tmp_path):
+    path = tmp_path / "sample.py"
+    path.write_text(SAMPLE, encoding="utf-8")
+
+    for pattern, flags in ((r"CLASS foo", re.IGNORECASE), (r"^$", re.MULTILINE), (r"foo . bar", re.VERBOSE)):
+        result = search_file(str(path), pattern, flags=flags)
+        assert _as_tuples(result) == _reference_search(str(path), pattern, flags=flags)
+    assert search_file(str(path), "CLASS foo", flags=re.IGNORECASE).hits
+
+    engine = ParallelTextSearchEngine(max_workers=2, parallel_min_files=1)
+    results = list(engine.iter_search([str(path)], "FOO", re.IGNORECASE))
+    assert [h.line_number for r in results for h in r.hits] == [2, 5, 8]
+
+
+@pytest.mark.skipif(not hasattr(os, "mkfifo"), reason="requires os.mkfifo")
+def test_fifo_is_skipped_without_blocking(tmp_path):
+    fifo = tmp_path / "pipe"
+    os.mkfifo(str(fifo))
+
+    result = search_file(str(fifo), "foo")
+
+    assert result.success
+    assert result.hits == []
+
+
+def test_binary_files_are_skipped(tmp_path):
+    path = tmp_path / "data.bin"
+    path.write_bytes(b"foo\x00bar\nfoo\n")
+
+    result = search_file(str(path), "foo")
+
+    assert result.skipped_binary
+    assert result.hits == []
+
+
+def test_unreadable_file_reports_error(tmp_path):
+    result = search_file(str(tmp_path / "missing.py"), "foo")
+
+    assert not result.success
+    assert result.error_type == "FileNotFoundError"
+
+
+def test_match_cap_stops_search(tmp_path):
+    paths = []
+    for i in range(10):
+        path = tmp_path / f"f{i}.txt"
+        path.write_text("match\n" * 3)
+        paths.append(str(path))
+
+    searched = []
+
+    def tracking():
+        for p in paths:
+            searched.append(p)
+            yield p
+
+    engine = ParallelTextSearchEngine(max_matches=5, max_workers=1, parallel_min_files=1)
+    results = list(engine.iter_search(tracking(), "match"))
+
+    assert sum(len(r.hits) for r in results) == 5
+    assert [r.path for r in results] == paths[:2]
+    assert searched == paths[:2]
+
+
+def test_parallel_search_preserves_order(tmp_path):
+    paths = []
+    for i in range(40):
+        path = tmp_path / f"f{i:02d}.txt"
+        path.write_text("needle\n" if i % 3 == 0 else "hay\n")
+        paths.append(str(path))
+
+    for max_workers in (1, 2):
+        engine = ParallelTextSearchEngine(max_workers=max_workers, parallel_min_files=8, batch_max_files=4)
+        results = list(engine.iter_search(paths, "needle"))
+
+        assert [r.path for r in results] == [p for i, p in enumerate(paths) if i % 3 == 0]
+
+
+def test_invalid_pattern_raises(tmp_path):
+    engine = ParallelTextSearchEngine()
+    with pytest.raises(re.error):
+        list(engine.iter_search([str(tmp_path / "a.py")], "("))
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_search_throughput_benchmark(tmp_path):
+    """基准测试：并行 + 整块匹配与原有的逐行串行搜索对比"""
+    total_mb = int(os.environ.get("TEXT_SEARCH_BENCH_MB", "256"))
+    file_count = max(8, total_mb * 4)
+    line = "the quick brown fox jumps over the lazy dog 0123456789\n"
+    body = line * ((total_mb * 1024 * 1024 // file_count) // len(line))
+    paths = []
+    for i in range(file_count):
+        path = tmp_path / f"file{i}.txt"
+        content = body + ("needle_%d\n" % i if i % 50 == 0 else "")
+        path.write_text(content)
+        paths.append(str(path))
+
+    start = time.perf_counter()
+    expected = []
+    for path in paths:
+        expected.extend((path, hit[0]) for hit in _reference_search(path, r"needle_\d+"))
+    baseline_time = time.perf_counter() - start
+
+    engine = ParallelTextSearchEngine()
+    start = time.perf_counter()
+    actual = [(r.path, h.line_number) for r in engine.iter_search(paths, r"needle_\d+") for h in r.hits]
+    engine_time = time.perf_counter() - start
+
+    print(f"{total_mb} MB in {file_count} files: readlines {baseline_time:.2f}s, "
+          f"engine {engine_time:.2f}s ({engine.max_workers} workers)")
+
+    assert actual == expected
+    assert engine_time < baseline_time
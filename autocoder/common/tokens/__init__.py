@@ -4,6 +4,8 @@ Tokens 模块 - 高效统计文件和目录中的 token 数量
 提供了简单易用的接口，支持正则过滤和智能文件类型识别。
 """
 
+from typing import List
+
 from .models import TokenResult, DirectoryTokenResult
 from .counter import TokenCounter
 from .file_detector import FileTypeDetector
@@ -65,6 +67,21 @@ def count_string_tokens(text: str) -> int:
     return counter.count_string_tokens(text)
 
 
+
+def count_string_tokens_many(texts: List[str]) -> List[int]:
+    """
+    批量统计多个字符串的 token 数量
+    
+    Args:
+        texts: 要统计的字符串列表
+        
+    Returns:
+        List[int]: 与 texts 一一对应的 token 数量
+    """
+    counter = TokenCounter()
+    return counter.count_string_tokens_many(texts)
+
+
 __all__ = [
     'TokenResult',
     'DirectoryTokenResult',
@@ -74,4 +91,5 @@ __all__ = [
     'count_file_tokens',
     'count_directory_tokens',
     'count_string_tokens',
+    'count_string_tokens_many',
 ]
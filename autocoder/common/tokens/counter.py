@@ -56,15 +56,21 @@ class TokenCounter:
                 f"Make sure tokenizer.json exists in the autocoder package data directory."
             )
     
-    def count_file(self, file_path: str) -> TokenResult:
+    def _get_service(self):
+        """返回基于当前 tokenizer 的批量计数服务 (只统计正文，带 LRU 缓存)"""
+        from autocoder.rag.token_counter import get_token_counting_service
+        self._ensure_tokenizer_initialized()
+        return get_token_counting_service(chat_message=False)
+
+    def _read_file(self, file_path: str) -> Union[TokenResult, str]:
         """
-        统计单个文件的 token 数量
-        
+        读取文本文件内容，无法统计时返回失败的 TokenResult
+
         Args:
             file_path: 文件路径
-            
+
         Returns:
-            TokenResult: 统计结果
+            文件内容字符串，或失败的 TokenResult
         """
         try:
             if not os.path.isfile(file_path):
@@ -93,24 +99,7 @@ class TokenCounter:
             
             # 读取文件内容
             with open(file_path, 'r', encoding=encoding, errors='replace') as f:
-                content = f.read()
-            
-            # 统计行数
-            line_count = content.count('\n') + (0 if content == "" or content.endswith('\n') else 1)
-            
-            # 统计字符数
-            char_count = len(content)
-            
-            # 统计 token 数量
-            tokens = VariableHolder.TOKENIZER_MODEL.encode(content)
-            token_count = len(tokens)
-            
-            return TokenResult(
-                file_path=file_path,
-                token_count=token_count,
-                char_count=char_count,
-                line_count=line_count
-            )
+                return f.read()
         except Exception as e:
             return TokenResult(
                 file_path=file_path,
@@ -121,29 +110,65 @@ class TokenCounter:
                 error=str(e)
             )
     
+    def count_file(self, file_path: str) -> TokenResult:
+        """
+        统计单个文件的 token 数量
+        
+        Args:
+            file_path: 文件路径
+            
+        Returns:
+            TokenResult: 统计结果
+        """
+        return self.count_files([file_path])[0]
+    
     def count_files(self, file_paths: List[str]) -> List[TokenResult]:
         """
         批量统计多个文件的 token 数量
+
+        并行读取文件内容后，一次性交给批量计数服务统计 token。
         
         Args:
             file_paths: 文件路径列表
             
         Returns:
-            List[TokenResult]: 统计结果列表
+            List[TokenResult]: 统计结果列表，顺序与 file_paths 一致
         """
         if not self.parallel or len(file_paths) <= 1:
-            return [self.count_file(file_path) for file_path in file_paths]
+            contents = [self._read_file(file_path) for file_path in file_paths]
+        else:
+            with concurrent.futures.ThreadPoolExecutor(max_workers=self.max_workers) as executor:
+                contents = list(executor.map(self._read_file, file_paths))
+        
+        texts = [content for content in contents if isinstance(content, str)]
+        try:
+            token_counts = iter(self._get_service().count_many(texts))
+            count_error = None
+        except Exception as e:
+            token_counts = None
+            count_error = str(e)
         
         results = []
-        with concurrent.futures.ThreadPoolExecutor(max_workers=self.max_workers) as executor:
-            future_to_file = {
-                executor.submit(self.count_file, file_path): file_path 
-                for file_path in file_paths
-            }
-            
-            for future in concurrent.futures.as_completed(future_to_file):
-                results.append(future.result())
-                
+        for file_path, content in zip(file_paths, contents):
+            if isinstance(content, TokenResult):
+                results.append(content)
+                continue
+            if token_counts is None:
+                results.append(TokenResult(
+                    file_path=file_path,
+                    token_count=0,
+                    char_count=0,
+                    line_count=0,
+                    success=False,
+                    error=count_error
+                ))
+                continue
+            results.append(TokenResult(
+                file_path=file_path,
+                token_count=next(token_counts),
+                char_count=len(content),
+                line_count=content.count('\n') + (0 if content == "" or content.endswith('\n') else 1)
+            ))
         return results
     
     def count_directory(self, 
@@ -236,9 +261,23 @@ class TokenCounter:
             if not isinstance(text, str):
                 raise ValueError("Input must be a string")
             
-            # 使用 tokenizer 编码字符串并统计 token 数量
-            tokens = VariableHolder.TOKENIZER_MODEL.encode(text)
-            return len(tokens)
+            # 通过批量计数服务统计，重复内容直接命中缓存
+            return self._get_service().count(text)
+        except Exception as e:
+            raise RuntimeError(f"Failed to count tokens: {str(e)}")
+    
+    def count_string_tokens_many(self, texts: List[str]) -> List[int]:
+        """
+        批量统计多个字符串的 token 数量
+        
+        Args:
+            texts: 要统计的字符串列表
+            
+        Returns:
+            List[int]: 与 texts 一一对应的 token 数量
+        """
+        try:
+            return self._get_service().count_many(texts)
         except Exception as e:
             raise RuntimeError(f"Failed to count tokens: {str(e)}")
     
@@ -5,7 +5,6 @@ import byzerllm
 from typing import List, Dict, Any, Union, Optional, Tuple, Type, Generator
 from loguru import logger
 from pathlib import Path
-import re
 import xml.sax.saxutils
 from copy import deepcopy
 from autocoder.common.printer import Printer
@@ -17,6 +16,7 @@ from autocoder.common.utils_code_auto_generate import (
     stream_chat_with_continue,
 )  # Added import
 from autocoder.common.agents.agent_manager import AgentManager
+from autocoder.common.subagent_pool import get_subagent_pool
 from autocoder.common.conversations.get_conversation_manager import (
     get_conversation_manager,
 )
@@ -74,6 +74,13 @@ from autocoder.common.v2.agent.agentic_edit_types import (
 from autocoder.common.rag_manager import RAGManager
 from .agentic_edit_change_manager import AgenticEditChangeManager
 from .tool_caller import ToolCaller
+from .tool_call_stream_parser import (
+    StreamingToolCallParser,
+    TextChunk,
+    ThinkingChunk,
+    ToolCallEnd,
+    UnterminatedBlock,
+)
 from autocoder.common.tokens import count_string_tokens as count_tokens
 from autocoder.common.wrap_llm_hint.utils import append_hint_to_text
 from autocoder.common.shell_commands import get_background_process_notifier
@@ -2018,6 +2025,13 @@ class AgenticEdit:
             sub_agents_content = agent_manager.render_sub_agents_section(
                 current_model=current_model
             )
+            if sub_agents_content.strip():
+                # 有可用的子代理时提前预热子代理进程，后台运行子代理时省去进程启动时间
+                get_subagent_pool(
+                    self.args.subagent_warm_pool_size,
+                    model=self.args.model,
+                    product_mode=self.args.product_mode
+                )
         except Exception as e:
             logger.warning(f"Failed to load agents: {e}")
             sub_agents_content = ""
@@ -2762,36 +2776,16 @@ class AgenticEdit:
             Union[LLMOutputEvent, LLMThinkingEvent, ToolCallEvent, ErrorEvent]: Events representing
             different parts of the LLM's response.
         """
-        buffer = ""
-        in_tool_block = False
-        in_thinking_block = False
-        current_tool_tag = None
-        tool_start_pattern = re.compile(r"<([a-zA-Z0-9_]+)>")  # Matches tool tags
-        thinking_start_tag = "<thinking>"
-        thinking_end_tag = "</thinking>"
-
-        def parse_tool_xml(tool_xml: str, tool_tag: str) -> Optional[BaseTool]:
-            """Minimal parser for tool XML string."""
-            params = {}
-            try:
-                # Find content between <tool_tag> and </tool_tag>
-                inner_xml_match = re.search(
-                    rf"<{tool_tag}>(.*?)</{tool_tag}>", tool_xml, re.DOTALL
-                )
-                if not inner_xml_match:
-                    logger.error(
-                        f"Could not find content within <{tool_tag}>...</{tool_tag}>"
-                    )
-                    return None
-                inner_xml = inner_xml_match.group(1).strip()
+        parser = StreamingToolCallParser(TOOL_MODEL_MAP.keys())
 
-                # Find <param>value</param> pairs within the inner content
-                pattern = re.compile(r"<([a-zA-Z0-9_]+)>(.*?)</\1>", re.DOTALL)
-                for m in pattern.finditer(inner_xml):
-                    key = m.group(1)
-                    # Basic unescaping (might need more robust unescaping if complex values are used)
-                    val = xml.sax.saxutils.unescape(m.group(2))
-                    params[key] = val
+        def build_tool(tool_tag: str, raw_params: Dict[str, str], tool_xml: str) -> Optional[BaseTool]:
+            """Builds the tool model from the parsed parameters."""
+            try:
+                # Basic unescaping (might need more robust unescaping if complex values are used)
+                params = {
+                    key: xml.sax.saxutils.unescape(val)
+                    for key, val in raw_params.items()
+                }
 
                 tool_cls = TOOL_MODEL_MAP.get(tool_tag)
                 if tool_cls:
@@ -2830,6 +2824,49 @@ class AgenticEdit:
                 )
                 return None
 
+        def to_events(parse_events):
+            """Converts parser events into the agent's event models."""
+            for parse_event in parse_events:
+                if isinstance(parse_event, TextChunk):
+                    yield LLMOutputEvent(text=parse_event.text)
+                elif isinstance(parse_event, ThinkingChunk):
+                    yield LLMThinkingEvent(text=parse_event.text)
+                elif isinstance(parse_event, ToolCallEnd):
+                    tool_obj = build_tool(
+                        parse_event.tool_tag, parse_event.params, parse_event.raw_xml
+                    )
+                    if tool_obj:
+                        # Reconstruct the XML accurately here AFTER successful parsing
+                        # This ensures the XML yielded matches what was parsed.
+                        reconstructed_xml = self._reconstruct_tool_xml(tool_obj)
+                        if reconstructed_xml.startswith("<error>"):
+                            yield ErrorEvent(
+                                message=f"Failed to reconstruct XML for tool {parse_event.tool_tag}"
+                            )
+                        else:
+                            yield ToolCallEvent(
+                                tool=tool_obj, tool_xml=reconstructed_xml
+                            )
+                    else:
+                        # Optionally yield the raw XML as plain text?
+                        yield LLMOutputEvent(
+                            text=f"Failed to parse tool: <{parse_event.tool_tag}> {parse_event.raw_xml}"
+                        )
+                elif isinstance(parse_event, UnterminatedBlock):
+                    if parse_event.kind == "thinking":
+                        yield RetryEvent(
+                            message="Stream ended with unterminated <thinking> block."
+                        )
+                        if parse_event.text:
+                            yield LLMThinkingEvent(text=parse_event.text)
+                    else:
+                        yield RetryEvent(
+                            message=f"Stream ended with unterminated <{parse_event.tool_tag}> block."
+                        )
+                        if parse_event.text:
+                            yield LLMOutputEvent(text=parse_event.text)
+                # 工具调用开始和参数级事件只在解析器内部使用：运行器会把未知事件类型当作错误处理
+
         last_metadata = None
         retry_count = 0
         max_retries = self.args.agentic_connection_retries
@@ -2838,137 +2875,11 @@ class AgenticEdit:
             try:
                 for content_chunk, metadata in generator:
                     global_cancel.check_and_raise(token=self.cancel_token)
+                    last_metadata = metadata
                     if not content_chunk:
-                        last_metadata = metadata
                         continue
 
-                    last_metadata = metadata
-                    buffer += content_chunk
-
-                    while True:
-                        # Check for transitions: thinking -> text, tool -> text, text -> thinking, text -> tool
-                        next_event_pos = len(buffer)
-                        found_event = False
-
-                        # 1. Check for </thinking> if inside thinking block
-                        if in_thinking_block:
-                            end_think_pos = buffer.find(thinking_end_tag)
-                            if end_think_pos != -1:
-                                thinking_content = buffer[:end_think_pos]
-                                yield LLMThinkingEvent(text=thinking_content)
-                                buffer = buffer[end_think_pos + len(thinking_end_tag) :]
-                                in_thinking_block = False
-                                found_event = True
-                                continue  # Restart loop with updated buffer/state
-                            else:
-                                # Need more data to close thinking block
-                                break
-
-                        # 2. Check for </tool_tag> if inside tool block
-                        elif in_tool_block:
-                            end_tag = f"</{current_tool_tag}>"
-                            end_tool_pos = buffer.find(end_tag)
-                            if end_tool_pos != -1:
-                                tool_block_end_index = end_tool_pos + len(end_tag)
-                                tool_xml = buffer[:tool_block_end_index]
-                                tool_obj = parse_tool_xml(tool_xml, current_tool_tag)
-
-                                if tool_obj:
-                                    # Reconstruct the XML accurately here AFTER successful parsing
-                                    # This ensures the XML yielded matches what was parsed.
-                                    reconstructed_xml = self._reconstruct_tool_xml(
-                                        tool_obj
-                                    )
-                                    if reconstructed_xml.startswith("<error>"):
-                                        yield ErrorEvent(
-                                            message=f"Failed to reconstruct XML for tool {current_tool_tag}"
-                                        )
-                                    else:
-                                        yield ToolCallEvent(
-                                            tool=tool_obj, tool_xml=reconstructed_xml
-                                        )
-                                else:
-                                    # yield ErrorEvent(message=f"Failed to parse tool: <{current_tool_tag}>")
-                                    # Optionally yield the raw XML as plain text?
-                                    yield LLMOutputEvent(
-                                        text=f"Failed to parse tool: <{current_tool_tag}> {tool_xml}"
-                                    )
-
-                                buffer = buffer[tool_block_end_index:]
-                                in_tool_block = False
-                                current_tool_tag = None
-                                found_event = True
-                                continue  # Restart loop
-                            else:
-                                # Need more data to close tool block
-                                break
-
-                        # 3. Check for <thinking> or <tool_tag> if in plain text state
-                        else:
-                            start_think_pos = buffer.find(thinking_start_tag)
-                            tool_match = tool_start_pattern.search(buffer)
-                            start_tool_pos = tool_match.start() if tool_match else -1
-                            tool_name = tool_match.group(1) if tool_match else None
-
-                            # Determine which tag comes first (if any)
-                            first_tag_pos = -1
-                            is_thinking = False
-                            is_tool = False
-
-                            if start_think_pos != -1 and (
-                                start_tool_pos == -1 or start_think_pos < start_tool_pos
-                            ):
-                                first_tag_pos = start_think_pos
-                                is_thinking = True
-                            elif start_tool_pos != -1 and (
-                                start_think_pos == -1
-                                or start_tool_pos < start_think_pos
-                            ):
-                                # Check if it's a known tool
-                                if tool_name in TOOL_MODEL_MAP:
-                                    first_tag_pos = start_tool_pos
-                                    is_tool = True
-                                else:
-                                    # Unknown tag, treat as text for now, let buffer grow
-                                    pass
-
-                            if (
-                                first_tag_pos != -1
-                            ):  # Found either <thinking> or a known <tool>
-                                # Yield preceding text if any
-                                preceding_text = buffer[:first_tag_pos]
-                                if preceding_text:
-                                    yield LLMOutputEvent(text=preceding_text)
-
-                                # Transition state
-                                if is_thinking:
-                                    buffer = buffer[
-                                        first_tag_pos + len(thinking_start_tag) :
-                                    ]
-                                    in_thinking_block = True
-                                elif is_tool:
-                                    # Keep the starting tag
-                                    buffer = buffer[first_tag_pos:]
-                                    in_tool_block = True
-                                    current_tool_tag = tool_name
-
-                                found_event = True
-                                continue  # Restart loop
-
-                            else:
-                                # No tags found, or only unknown tags found. Need more data or end of stream.
-                                # Yield text chunk but keep some buffer for potential tag start
-                                # Keep last 100 chars
-                                split_point = max(0, len(buffer) - 100)
-                                text_to_yield = buffer[:split_point]
-                                if text_to_yield:
-                                    yield LLMOutputEvent(text=text_to_yield)
-                                    buffer = buffer[split_point:]
-                                break  # Need more data
-
-                        # If no event was processed in this iteration, break inner loop
-                        if not found_event:
-                            break
+                    yield from to_events(parser.feed(content_chunk))
                 # 如果成功执行完毕，跳出重试循环
                 break
 
@@ -3008,10 +2919,7 @@ class AgenticEdit:
                     time.sleep(10)
 
                     # 重置状态以便重试
-                    buffer = ""
-                    in_tool_block = False
-                    in_thinking_block = False
-                    current_tool_tag = None
+                    parser = StreamingToolCallParser(TOOL_MODEL_MAP.keys())
 
                     continue  # 继续重试循环
                 else:
@@ -3025,22 +2933,7 @@ class AgenticEdit:
                     break
 
         # After generator exhausted, yield any remaining content
-        if in_thinking_block:
-            # Unterminated thinking block
-            yield RetryEvent(message="Stream ended with unterminated <thinking> block.")
-            if buffer:
-                # Yield remaining as thinking
-                yield LLMThinkingEvent(text=buffer)
-        elif in_tool_block:
-            # Unterminated tool block
-            yield RetryEvent(
-                message=f"Stream ended with unterminated <{current_tool_tag}> block."
-            )
-            if buffer:
-                yield LLMOutputEvent(text=buffer)  # Yield remaining as text
-        elif buffer:
-            # Yield remaining plain text
-            yield LLMOutputEvent(text=buffer)
+        yield from to_events(parser.finish())
 
         # 这个要放在最后，防止其他关联的多个事件的信息中断
         yield TokenUsageEvent(usage=last_metadata)
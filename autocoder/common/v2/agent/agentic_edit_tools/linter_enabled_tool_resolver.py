@@ -115,7 +115,7 @@ class LinterEnabledToolResolver(BaseToolResolver):
                 abs_file_paths.append(abs_path)
             
             # Run linter
-            results = self.linter_manager.lint_files(abs_file_paths, parallel=False)
+            results = self.linter_manager.lint_files(abs_file_paths, parallel=True)
             
             # Create report
             report = LintReport.from_linter_results(results, self.linter_manager)
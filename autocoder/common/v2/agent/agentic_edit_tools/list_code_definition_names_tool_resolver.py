@@ -31,7 +31,11 @@ class ListCodeDefinitionNamesToolResolver(BaseToolResolver):
     
     def resolve(self) -> ToolResult:
 
-        index_items = self._get_index().read_index()
+        index_manager = self._get_index()
+        try:
+            index_items = index_manager.read_index()
+        finally:
+            index_manager.close()
         index_data = {item.module_name: item for item in index_items}
 
         target_path_str = self.tool.path
@@ -8,7 +8,7 @@ from loguru import logger
 import typing
 from autocoder.common import AutoCoderArgs
 
-from autocoder.common.ignorefiles.ignore_file_utils import should_ignore
+from autocoder.common.ignorefiles.ignore_file_walker import walk_non_ignored
 
 if typing.TYPE_CHECKING:
     from autocoder.common.v2.agent.agentic_edit import AgenticEdit
@@ -50,94 +50,22 @@ class ListFilesToolResolver(BaseToolResolver):
         """
         result = set()
         errors = []
-        
+
+        def on_error(path: str, e: OSError) -> None:
+            errors.append(ListErrorInfo(
+                file_path=path,
+                error_type=type(e).__name__,
+                error_message=f"Cannot access directory: {str(e)}"
+            ))
+            logger.warning(f"Cannot access directory {path}: {e}")
+
         try:
-            if recursive:
-                for root, dirs, files in os.walk(base_dir):
-                    try:
-                        # Modify dirs in-place to skip ignored dirs early
-                        accessible_dirs = []
-                        for d in dirs:
-                            dir_path = os.path.join(root, d)
-                            if should_ignore(dir_path):
-                                continue
-                            try:
-                                # Test if we can access the directory
-                                os.listdir(dir_path)
-                                accessible_dirs.append(d)
-                            except (PermissionError, OSError) as e:
-                                error_info = ListErrorInfo(
-                                    file_path=dir_path,
-                                    error_type=type(e).__name__,
-                                    error_message=f"Cannot access directory: {str(e)}"
-                                )
-                                errors.append(error_info)
-                                logger.warning(f"Cannot access directory {dir_path}: {e}")
-                        dirs[:] = accessible_dirs
-                        
-                        # Process files in current directory
-                        for name in files:
-                            full_path = os.path.join(root, name)
-                            if should_ignore(full_path):
-                                continue
-                            try:
-                                # Test if we can access the file
-                                os.stat(full_path)
-                                display_path = os.path.relpath(full_path, source_dir) if not is_outside_source else full_path
-                                result.add(display_path)
-                            except (PermissionError, OSError) as e:
-                                error_info = ListErrorInfo(
-                                    file_path=full_path,
-                                    error_type=type(e).__name__,
-                                    error_message=f"Cannot access file: {str(e)}"
-                                )
-                                errors.append(error_info)
-                                logger.warning(f"Cannot access file {full_path}: {e}")
-                        
-                        # Add accessible directories to result
-                        for d in dirs:
-                            full_path = os.path.join(root, d)
-                            display_path = os.path.relpath(full_path, source_dir) if not is_outside_source else full_path
-                            result.add(display_path + "/")
-                            
-                    except (PermissionError, OSError) as e:
-                        error_info = ListErrorInfo(
-                            file_path=root,
-                            error_type=type(e).__name__,
-                            error_message=f"Cannot access directory during walk: {str(e)}"
-                        )
-                        errors.append(error_info)
-                        logger.warning(f"Cannot access directory {root} during walk: {e}")
-                        break  # Stop walking this branch
-            else:
-                try:
-                    items = os.listdir(base_dir)
-                    for item in items:
-                        full_path = os.path.join(base_dir, item)
-                        if should_ignore(full_path):
-                            continue
-                        try:
-                            display_path = os.path.relpath(full_path, source_dir) if not is_outside_source else full_path
-                            if os.path.isdir(full_path):
-                                result.add(display_path + "/")
-                            else:
-                                result.add(display_path)
-                        except (PermissionError, OSError) as e:
-                            error_info = ListErrorInfo(
-                                file_path=full_path,
-                                error_type=type(e).__name__,
-                                error_message=f"Cannot access item: {str(e)}"
-                            )
-                            errors.append(error_info)
-                            logger.warning(f"Cannot access item {full_path}: {e}")
-                except (PermissionError, OSError) as e:
-                    error_info = ListErrorInfo(
-                        file_path=base_dir,
-                        error_type=type(e).__name__,
-                        error_message=f"Cannot list directory: {str(e)}"
-                    )
-                    errors.append(error_info)
-                    logger.warning(f"Cannot list directory {base_dir}: {e}")
+            # Ignored directories are pruned before descending; inaccessible
+            # directories are reported through on_error and left out of the result.
+            for entry in walk_non_ignored(base_dir, recursive=recursive,
+                                          include_dirs=True, on_error=on_error):
+                display_path = os.path.relpath(entry.path, source_dir) if not is_outside_source else entry.path
+                result.add(display_path + "/" if entry.is_dir else display_path)
         except Exception as e:
             error_info = ListErrorInfo(
                 file_path=base_dir,
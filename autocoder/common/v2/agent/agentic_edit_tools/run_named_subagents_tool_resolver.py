@@ -19,6 +19,7 @@ from autocoder.common.v2.agent.agentic_edit_types import RunNamedSubagentsTool,
 from autocoder.common.agents import AgentManager
 from autocoder.common.shell_commands import execute_commands, execute_command_background, get_background_processes, get_background_process_info
 from autocoder.common.shell_commands import get_background_process_notifier
+from autocoder.common.subagent_pool import get_subagent_pool
 from loguru import logger    
 
 if typing.TYPE_CHECKING:
@@ -46,6 +47,9 @@ class RunNamedSubagentsToolResolver(BaseToolResolver):
         
         # 用于管理临时文件的列表
         self.temp_files = []
+        
+        # 与命令一一对应的参数和标准输入，供预热进程直接执行
+        self.command_specs: List[Dict[str, Any]] = []
     
     def resolve(self) -> ToolResult:
         """
@@ -478,14 +482,14 @@ class RunNamedSubagentsToolResolver(BaseToolResolver):
         finally:
             temp_file.close()
         
+        # 使用 --system-prompt-path 而不是 --system-prompt
+        # 添加 --verbose 标志以确保子代理执行时有控制台日志输出
+        argv = ["--model", model, "--system-prompt-path", temp_file_path, "--is-sub-agent", "--verbose"]
+        self.command_specs.append({"argv": argv, "stdin": query + "\n"})
+        
         # 使用 shlex.quote 进行安全的 shell 转义
         safe_query = shlex.quote(query)
-        safe_model = shlex.quote(model)
-        safe_prompt_path = shlex.quote(temp_file_path)
-        
-        # 构建命令，使用 --system-prompt-path 而不是 --system-prompt
-        # 添加 --verbose 标志以确保子代理执行时有控制台日志输出
-        command = f'echo {safe_query} | auto-coder.run --model {safe_model} --system-prompt-path {safe_prompt_path} --is-sub-agent --verbose'
+        command = f'echo {safe_query} | auto-coder.run ' + " ".join(shlex.quote(arg) for arg in argv)
         
         return command
     
@@ -615,6 +619,11 @@ class RunNamedSubagentsToolResolver(BaseToolResolver):
             后台进程信息列表
         """
         background_processes = []
+        pool = get_subagent_pool(
+            self.args.subagent_warm_pool_size,
+            model=self._get_current_model(),
+            product_mode=self.args.product_mode
+        )
         
         for i, (command, subagent) in enumerate(zip(commands, subagents_list)):
             agent_name = subagent["name"]
@@ -623,11 +632,16 @@ class RunNamedSubagentsToolResolver(BaseToolResolver):
             try:
                 logger.info(f"启动后台子代理 {i+1}/{len(commands)}: {agent_name}")
                 
-                # 使用 execute_command_background 启动后台进程
-                process_info = execute_command_background(
-                    command=command,
-                    verbose=True
-                )
+                # 优先交给预热进程执行，没有就绪进程时使用 execute_command_background 启动后台进程
+                process_info = None
+                if pool is not None and i < len(self.command_specs):
+                    spec = self.command_specs[i]
+                    process_info = pool.dispatch(spec["argv"], spec["stdin"], command)
+                if process_info is None:
+                    process_info = execute_command_background(
+                        command=command,
+                        verbose=True
+                    )
                 
                 # 添加子代理相关信息
                 background_process = {
@@ -1,6 +1,5 @@
 import os
 import re
-import glob
 from typing import Dict, Any, Optional, List, Union
 
 from pydantic import BaseModel, Field
@@ -8,6 +7,8 @@ from autocoder.common.v2.agent.agentic_edit_tools.base_tool_resolver import Base
 from autocoder.common.v2.agent.agentic_edit_types import SearchFilesTool, ToolResult
 from autocoder.common import AutoCoderArgs
 from autocoder.common.ignorefiles.ignore_file_utils import should_ignore
+from autocoder.common.ignorefiles.ignore_file_walker import walk_non_ignored
+from autocoder.common.text_search import ParallelTextSearchEngine, FileSearchResult, TextSearchHit
 from loguru import logger
 import typing
 import json
@@ -84,6 +85,7 @@ class SearchFilesToolResolver(BaseToolResolver):
     
     # Constants for search configuration
     MAX_SEARCH_RESULTS = 200
+    MAX_RESULT_TOKENS = 5000
     CONTEXT_LINES_BEFORE = 2
     CONTEXT_LINES_AFTER = 3
     DEFAULT_FILE_PATTERN = "*"
@@ -99,56 +101,82 @@ class SearchFilesToolResolver(BaseToolResolver):
         """
         super().__init__(agent, tool, args)
         self.tool: SearchFilesTool = tool
+        self.search_truncated = False
 
     def search_in_dir(self, base_dir: str, regex_pattern: str, file_pattern: str, 
                      source_dir: str, is_shadow: bool = False, 
                      compiled_regex: Optional[re.Pattern] = None) -> tuple[List[SearchMatchInfo], List[SearchErrorInfo]]:
         """Search for regex patterns in files within a directory.
         
+        Files are searched in parallel and consumed as a stream; the search stops
+        as soon as the result count or token budget is exhausted.
+        
         Args:
             base_dir: Directory to search in
             regex_pattern: Regular expression pattern to search for
             file_pattern: Glob pattern for file filtering (e.g., '*.py')
             source_dir: Source directory for calculating relative paths
             is_shadow: Whether this is a shadow directory search (legacy parameter)
-            compiled_regex: Pre-compiled regex pattern for efficiency
+            compiled_regex: Pre-compiled regex pattern; its pattern and flags are used
             
         Returns:
             Tuple of (search match objects, error information list)
         """
         search_results = []
         errors = []
-        search_glob_pattern = os.path.join(base_dir, "**", file_pattern)
 
         logger.info(
             f"Searching for regex '{regex_pattern}' in files matching '{file_pattern}' "
             f"under '{base_dir}' (shadow: {is_shadow}) with ignore rules applied."
         )
 
-        if compiled_regex is None:
-            compiled_regex = re.compile(regex_pattern)
+        flags = 0
+        if compiled_regex is not None:
+            regex_pattern = compiled_regex.pattern
+            flags = compiled_regex.flags
 
-        try:
-            matching_files = glob.glob(search_glob_pattern, recursive=True)
-        except (PermissionError, OSError) as e:
-            error_info = SearchErrorInfo(
-                file_path=base_dir,
+        def on_error(path: str, e: OSError) -> None:
+            errors.append(SearchErrorInfo(
+                file_path=path,
                 error_type=type(e).__name__,
-                error_message=f"Cannot access directory for glob search: {str(e)}"
+                error_message=f"Cannot access directory: {str(e)}"
+            ))
+            logger.warning(f"Cannot access directory {path}: {e}")
+
+        # Ignored directories are pruned before descending, so large trees such as
+        # node_modules are never enumerated. Hidden entries are skipped to match glob.
+        paths = (
+            entry.path for entry in walk_non_ignored(
+                base_dir, file_pattern=file_pattern, include_hidden=False, on_error=on_error
             )
-            errors.append(error_info)
-            logger.warning(f"Cannot access directory {base_dir}: {e}")
-            return search_results, errors
-        
-        for filepath in matching_files:
-            if not self._should_process_file(filepath):
-                continue
-                
-            file_matches, file_errors = self._search_in_file_with_errors(filepath, compiled_regex, source_dir)
-            search_results.extend(file_matches)
-            errors.extend(file_errors)
+        )
+
+        token_count = 0
+        results = self._create_search_engine().iter_search(paths, regex_pattern, flags)
+        try:
+            for file_result in results:
+                file_matches, file_errors = self._convert_file_result(file_result, source_dir)
+                errors.extend(file_errors)
+                for match_info in file_matches:
+                    search_results.append(match_info)
+                    token_count += count_string_tokens(json.dumps(match_info.model_dump(), ensure_ascii=False))
+                    if len(search_results) > self.MAX_SEARCH_RESULTS or token_count > self.MAX_RESULT_TOKENS:
+                        # Anything beyond this point would be cut from the output anyway
+                        self.search_truncated = True
+                        return search_results, errors
+        finally:
+            results.close()
 
         return search_results, errors
+
+    def _create_search_engine(self) -> ParallelTextSearchEngine:
+        """Create the search engine used for this tool call."""
+        return ParallelTextSearchEngine(
+            max_matches=self.MAX_SEARCH_RESULTS + 1,
+            context_before=self.CONTEXT_LINES_BEFORE,
+            # CONTEXT_LINES_AFTER is an exclusive bound that includes the matching line
+            context_after=self.CONTEXT_LINES_AFTER - 1
+        )
     
     def _should_process_file(self, filepath: str) -> bool:
         """Check if a file should be processed for searching.
@@ -189,59 +217,49 @@ class SearchFilesToolResolver(BaseToolResolver):
         Returns:
             Tuple of (SearchMatchInfo objects, error information list)
         """
-        file_matches = []
-        errors = []
+        file_result = self._create_search_engine().search_file(filepath, compiled_regex.pattern, compiled_regex.flags)
+        return self._convert_file_result(file_result, source_dir)
+
+    def _convert_file_result(self, file_result: FileSearchResult,
+                             source_dir: str) -> tuple[List[SearchMatchInfo], List[SearchErrorInfo]]:
+        """Convert a search engine result into match and error objects.
         
-        try:
-            with open(filepath, 'r', encoding='utf-8', errors='replace') as f:
-                lines = f.readlines()
-                
-            for line_index, line in enumerate(lines):
-                if compiled_regex.search(line):
-                    match_info = self._create_match_info(
-                        filepath, line_index, line, lines, source_dir
-                    )
-                    file_matches.append(match_info)
-                    
-        except (PermissionError, OSError, UnicodeDecodeError) as e:
-            error_info = SearchErrorInfo(
-                file_path=filepath,
-                error_type=type(e).__name__,
-                error_message=f"Cannot read file: {str(e)}"
-            )
-            errors.append(error_info)
-            logger.warning(f"Could not read or process file {filepath}: {e}")
-        except Exception as e:
+        Args:
+            file_result: Result produced by the search engine for one file
+            source_dir: Source directory for calculating relative paths
+            
+        Returns:
+            Tuple of (SearchMatchInfo objects, error information list)
+        """
+        if not file_result.success:
+            logger.warning(f"Could not read or process file {file_result.path}: {file_result.error_message}")
             error_info = SearchErrorInfo(
-                file_path=filepath,
-                error_type=type(e).__name__,
-                error_message=f"Unexpected error: {str(e)}"
+                file_path=file_result.path,
+                error_type=file_result.error_type,
+                error_message=file_result.error_message
             )
-            errors.append(error_info)
-            logger.warning(f"Unexpected error processing file {filepath}: {e}")
-            
-        return file_matches, errors
+            return [], [error_info]
+
+        file_matches = [
+            self._create_match_info(file_result.path, hit, source_dir)
+            for hit in file_result.hits
+        ]
+        return file_matches, []
     
-    def _create_match_info(self, filepath: str, line_index: int, line: str, 
-                          all_lines: List[str], source_dir: str) -> SearchMatchInfo:
+    def _create_match_info(self, filepath: str, hit: TextSearchHit, source_dir: str) -> SearchMatchInfo:
         """Create a match information object.
         
         Args:
             filepath: Path to the file containing the match
-            line_index: Zero-based index of the matching line
-            line: The matching line content
-            all_lines: All lines in the file for context
+            hit: Matching line and its surrounding context lines
             source_dir: Source directory for calculating relative paths
             
         Returns:
             SearchMatchInfo object containing match information
         """
-        context_start = max(0, line_index - self.CONTEXT_LINES_BEFORE)
-        context_end = min(len(all_lines), line_index + self.CONTEXT_LINES_AFTER)
-        
         context_lines = [
-            f"{j + 1}: {all_lines[j]}" 
-            for j in range(context_start, context_end)
+            f"{hit.context_start + offset}: {line}" 
+            for offset, line in enumerate(hit.context_lines)
         ]
         context = "".join(context_lines)
         
@@ -249,8 +267,8 @@ class SearchFilesToolResolver(BaseToolResolver):
         
         return SearchMatchInfo(
             path=relative_path,
-            line_number=line_index + 1,
-            match_line=line.strip(),
+            line_number=hit.line_number,
+            match_line=hit.line.strip(),
             context=context.strip()
         )
 
@@ -394,6 +412,8 @@ class SearchFilesToolResolver(BaseToolResolver):
         search_results, errors = result
         total_results = len(search_results)
         total_errors = len(errors)
+        # When the search stopped early the real number of matches is unknown
+        found = f"at least {total_results}" if self.search_truncated else str(total_results)
         
         # Prepare error summary for message
         error_summary = ""
@@ -416,8 +436,7 @@ class SearchFilesToolResolver(BaseToolResolver):
         token_count = count_string_tokens(content_str)
         
         # Check if content exceeds 5k tokens
-        MAX_TOKENS = 5000
-        if token_count > MAX_TOKENS:
+        if token_count > self.MAX_RESULT_TOKENS:
             # Truncate to first 1000 characters
             truncated_content_str = content_str[:1000]
             
@@ -431,12 +450,12 @@ class SearchFilesToolResolver(BaseToolResolver):
             # Create truncation message
             if total_results > self.MAX_SEARCH_RESULTS:
                 message = (
-                    f"Search completed. Found {total_results} matches (showing first {self.MAX_SEARCH_RESULTS}), "
+                    f"Search completed. Found {found} matches (showing first {self.MAX_SEARCH_RESULTS}), "
                     f"but results were truncated due to size (original: {token_count} tokens).{error_summary}"
                 )
             else:
                 message = (
-                    f"Search completed. Found {total_results} matches, "
+                    f"Search completed. Found {found} matches, "
                     f"but results were truncated due to size (original: {token_count} tokens).{error_summary}"
                 )
             
@@ -445,12 +464,12 @@ class SearchFilesToolResolver(BaseToolResolver):
         # Normal case - content within token limit
         if total_results > self.MAX_SEARCH_RESULTS:
             message = (
-                f"Search completed. Found {total_results} matches, "
+                f"Search completed. Found {found} matches, "
                 f"showing only the first {self.MAX_SEARCH_RESULTS}.{error_summary}"
             )
             logger.info(message)
             return ToolResult(success=True, message=message, content=content)
         else:
-            message = f"Search completed. Found {total_results} matches.{error_summary}"
+            message = f"Search completed. Found {found} matches.{error_summary}"
             logger.info(message)
             return ToolResult(success=True, message=message, content=content)
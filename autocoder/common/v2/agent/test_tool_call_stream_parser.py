@@ -0,0 +1,153 @@
+import os
+import time
+
+import pytest
+
+from autocoder.common.v2.agent.tool_call_stream_parser import (
+    StreamingToolCallParser,
+    TextChunk,
+    ThinkingChunk,
+    ToolCallEnd,
+    ToolCallStart,
+    ToolParamDelta,
+    ToolParamEnd,
+    ToolParamStart,
+    UnterminatedBlock,
+)
+
+TOOLS = ["write_to_file", "read_file", "execute_command"]
+
+
+def _parse(text, chunk_size=1, stream_params=False):
+    parser = StreamingToolCallParser(TOOLS, stream_params=stream_params)
+    events = []
+    for i in range(0, len(text), chunk_size):
+        events.extend(parser.feed(text[i:i + chunk_size]))
+    events.extend(parser.finish())
+    return events
+
+
+def _merge(events):
+    """合并相邻的文本/思考分块，便于与期望结果比较"""
+    merged = []
+    for event in events:
+        if merged and type(event) in (TextChunk, ThinkingChunk) and type(merged[-1]) is type(event):
+            merged[-1] = type(event)(merged[-1].text + event.text)
+        else:
+            merged.append(event)
+    return merged
+
+
+SAMPLE = (
+    "Let me look.<thinking>need the <file> first</thinking>"
+    "Reading a < b <unknown>tag</unknown> now."
+    "<read_file>\n<path>src/a.py</path>\n</read_file>"
+    "done"
+)
+
+EXPECTED = [
+    TextChunk("Let me look."),
+    ThinkingChunk("need the <file> first"),
+    TextChunk("Reading a < b <unknown>tag</unknown> now."),
+    ToolCallStart("read_file"),
+    ToolCallEnd("read_file", {"path": "src/a.py"}, "<read_file>\n<path>src/a.py</path>\n</read_file>"),
+    TextChunk("done"),
+]
+
+
+@pytest.mark.parametrize("chunk_size", [1, 2, 3, 7, 1000])
+def test_result_does_not_depend_on_chunking(chunk_size):
+    assert _merge(_parse(SAMPLE, chunk_size)) == EXPECTED
+
+
+def test_param_values_keep_nested_markup():
+    text = "<write_to_file><path>a.html</path><content><div>x</div>\n&lt;p&gt;</content></write_to_file>"
+
+    end = [e for e in _parse(text, 5) if isinstance(e, ToolCallEnd)][0]
+
+    assert end.params == {"path": "a.html", "content": "<div>x</div>\n&lt;p&gt;"}
+    assert end.raw_xml == text
+
+
+def test_param_level_streaming():
+    text = "<write_to_file><path>a.py</path><content>print(1)\nprint(2)</content></write_to_file>"
+
+    events = _parse(text, 4, stream_params=True)
+    deltas = "".join(e.text for e in events if isinstance(e, ToolParamDelta) and e.name == "content")
+
+    assert ToolParamStart("write_to_file", "content") in events
+    assert ToolParamEnd("write_to_file", "content", "print(1)\nprint(2)") in events
+    assert deltas == "print(1)\nprint(2)"
+    # 参数增量在工具调用结束之前产生
+    first_delta = next(i for i, e in enumerate(events) if isinstance(e, ToolParamDelta))
+    end = next(i for i, e in enumerate(events) if isinstance(e, ToolCallEnd))
+    assert first_delta < end
+
+
+def test_text_is_emitted_without_waiting_for_more_output():
+    parser = StreamingToolCallParser(TOOLS)
+
+    assert parser.feed("hello wor") == [TextChunk("hello wor")]
+    # 可能是标签开头的部分会暂存
+    assert parser.feed("ld <read") == [TextChunk("ld ")]
+    assert parser.feed("me>") == [TextChunk("<readme>")]
+
+
+def test_unterminated_blocks():
+    thinking = _merge(_parse("hi<thinking>still thinking", 3))
+    assert thinking[-1] == UnterminatedBlock("thinking", None, "")
+    assert ThinkingChunk("still thinking") in thinking
+
+    tool = _parse("<execute_command><command>ls</command>", 3)
+    assert tool[-1] == UnterminatedBlock(
+        "tool", "execute_command", "<execute_command><command>ls</command>"
+    )
+
+
+def test_unclosed_param_is_dropped_at_tool_end():
+    events = _parse("<read_file><path>a.py</read_file>", 2)
+
+    end = [e for e in events if isinstance(e, ToolCallEnd)][0]
+    assert end.params == {}
+    assert end.raw_xml == "<read_file><path>a.py</read_file>"
+
+
+def test_long_angle_bracket_text_is_not_buffered_forever():
+    parser = StreamingToolCallParser(TOOLS)
+    parser.feed("<" + "a" * 200)
+
+    assert parser._pending == ""
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_streaming_parser_benchmark():
+    """基准测试：以 1 个 token (约 4 个字符) 为单位流式解析 500 KB 的 write_to_file 调用"""
+    size_kb = int(os.environ.get("TOOL_PARSER_BENCH_KB", "500"))
+    token_chars = int(os.environ.get("TOOL_PARSER_BENCH_TOKEN_CHARS", "4"))
+    line = "    value = compute(value) + 1  # <tag> & more\n"
+
+    def _run(kb, stream_params):
+        content = line * (kb * 1024 // len(line))
+        text = f"Writing.<write_to_file><path>big.py</path><content>{content}</content></write_to_file>"
+        parser = StreamingToolCallParser(TOOLS, stream_params=stream_params)
+        start = time.perf_counter()
+        ends = []
+        for i in range(0, len(text), token_chars):
+            ends.extend(e for e in parser.feed(text[i:i + token_chars]) if isinstance(e, ToolCallEnd))
+        elapsed = time.perf_counter() - start
+        assert ends[0].params["content"] == content
+        return elapsed
+
+    small = _run(size_kb // 10, False)
+    full = _run(size_kb, False)
+    streamed = _run(size_kb, True)
+
+    print(
+        f"{size_kb} KB in {token_chars}-char chunks: {full:.3f}s "
+        f"({size_kb / 1024 / full:.1f} MB/s), with param streaming {streamed:.3f}s, "
+        f"{size_kb // 10} KB: {small:.3f}s"
+    )
+
+    # 线性复杂度：10 倍输入的耗时不应超过约 10 倍
+    assert full < small * 20 + 0.05
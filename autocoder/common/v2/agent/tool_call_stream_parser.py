@@ -0,0 +1,312 @@
+"""
+流式解析 LLM 输出中的文本、<thinking> 块和 XML 工具调用
+
+原先的解析方式在每个分块到来时都对累计的整段输出重新做正则匹配和切片，
+输出越长每个分块越慢，一次几百 KB 的 write_to_file 会让流式输出明显卡顿。
+StreamingToolCallParser 是可恢复的状态机：每次 feed 只扫描新到达的内容，
+分块边界上可能是标签前缀的几个字符暂存到下一次，因此总耗时与输出长度成线性关系。
+
+解析规则与原实现一致：
+- 文本中的 <thinking> 开始思考块，遇到 </thinking> 结束
+- 文本中的 <已知工具名> 开始工具调用，遇到第一个 </工具名> 结束，未知标签按普通文本处理
+- 工具调用内 <参数名>...</参数名> 为一个参数，参数值原样保留 (不做 XML 反转义)
+"""
+
+import re
+from typing import Dict, Iterable, List, NamedTuple, Optional, Union
+
+_TAG_NAME_RE = re.compile(r"[a-zA-Z0-9_]*")
+# 超过该长度仍未遇到 ">" 的 "<xxx" 不再视为可能的标签，避免在异常输出上无限暂存
+MAX_TAG_NAME_LENGTH = 64
+
+_TEXT = 0
+_THINKING = 1
+_TOOL = 2
+_PARAM = 3
+
+
+class TextChunk(NamedTuple):
+    text: str
+
+
+class ThinkingChunk(NamedTuple):
+    text: str
+
+
+class ToolCallStart(NamedTuple):
+    tool_tag: str
+
+
+class ToolParamStart(NamedTuple):
+    tool_tag: str
+    name: str
+
+
+class ToolParamDelta(NamedTuple):
+    tool_tag: str
+    name: str
+    text: str
+
+
+class ToolParamEnd(NamedTuple):
+    tool_tag: str
+    name: str
+    value: str
+
+
+class ToolCallEnd(NamedTuple):
+    tool_tag: str
+    params: Dict[str, str]
+    raw_xml: str
+
+
+class UnterminatedBlock(NamedTuple):
+    """流结束时仍未闭合的块，kind 为 "thinking" 或 "tool"，text 为尚未输出的原始内容"""
+    kind: str
+    tool_tag: Optional[str]
+    text: str
+
+
+ParseEvent = Union[
+    TextChunk,
+    ThinkingChunk,
+    ToolCallStart,
+    ToolParamStart,
+    ToolParamDelta,
+    ToolParamEnd,
+    ToolCallEnd,
+    UnterminatedBlock,
+]
+
+
+def _partial_suffix(data: str, start: int, terminator: str) -> int:
+    """data[start:] 末尾与 terminator 前缀重合的最大长度，这部分需要等待下一个分块"""
+    for k in range(min(len(terminator) - 1, len(data) - start), 0, -1):
+        if data.endswith(terminator[:k]):
+            return k
+    return 0
+
+
+class StreamingToolCallParser:
+    """
+    增量解析器，按到达顺序 feed 分块，返回本次新产生的事件
+
+    Args:
+        tool_tags: 识别为工具调用的标签名
+        stream_params: 为 True 时在参数解析过程中产生 ToolParamStart/ToolParamDelta/ToolParamEnd，
+            否则只在工具调用结束时通过 ToolCallEnd 给出全部参数
+    """
+
+    def __init__(self, tool_tags: Iterable[str], stream_params: bool = False):
+        self.tool_tags = frozenset(tool_tags)
+        self.stream_params = stream_params
+        self._state = _TEXT
+        self._pending = ""
+        self._text_parts: List[str] = []
+        self._thinking_parts: List[str] = []
+        self._tool_tag: Optional[str] = None
+        self._tool_close = ""
+        self._raw_parts: List[str] = []
+        self._params: Dict[str, str] = {}
+        self._param_name: Optional[str] = None
+        self._param_close = ""
+        self._param_parts: List[str] = []
+        self._events: List[ParseEvent] = []
+
+    def feed(self, chunk: str) -> List[ParseEvent]:
+        if not chunk:
+            return []
+        data = self._pending + chunk if self._pending else chunk
+        self._pending = ""
+        pos = 0
+        end = len(data)
+        while pos < end:
+            if self._state == _TEXT:
+                pos = self._scan_text(data, pos)
+            elif self._state == _THINKING:
+                pos = self._scan_thinking(data, pos)
+            elif self._state == _TOOL:
+                pos = self._scan_tool(data, pos)
+            else:
+                pos = self._scan_param(data, pos)
+        self._flush_text()
+        return self._take_events()
+
+    def finish(self) -> List[ParseEvent]:
+        """流结束时调用，输出暂存的内容；块未闭合时产生 UnterminatedBlock"""
+        pending, self._pending = self._pending, ""
+        if self._state == _TEXT:
+            if pending:
+                self._text_parts.append(pending)
+            self._flush_text()
+        elif self._state == _THINKING:
+            self._flush_thinking()
+            self._events.append(UnterminatedBlock("thinking", None, pending))
+        else:
+            self._raw_parts.append(pending)
+            self._events.append(
+                UnterminatedBlock("tool", self._tool_tag, "".join(self._raw_parts))
+            )
+            self._reset_tool()
+        self._state = _TEXT
+        return self._take_events()
+
+    def _take_events(self) -> List[ParseEvent]:
+        events, self._events = self._events, []
+        return events
+
+    def _flush_text(self) -> None:
+        if self._text_parts:
+            self._events.append(TextChunk("".join(self._text_parts)))
+            self._text_parts = []
+
+    def _flush_thinking(self) -> None:
+        if self._thinking_parts:
+            self._events.append(ThinkingChunk("".join(self._thinking_parts)))
+            self._thinking_parts = []
+
+    def _read_open_tag(self, data: str, lt: int):
+        """
+        解析 data[lt] 处的 "<name>"
+
+        Returns:
+            (name, 结束位置)；需要更多数据时 name 为 None、结束位置为 -1；不是标签时返回 (None, lt + 1)
+        """
+        name_end = _TAG_NAME_RE.match(data, lt + 1).end()
+        if name_end == len(data):
+            if name_end - lt - 1 > MAX_TAG_NAME_LENGTH:
+                return None, lt + 1
+            return None, -1
+        if data[name_end] == ">" and name_end > lt + 1:
+            return data[lt + 1:name_end], name_end + 1
+        return None, lt + 1
+
+    def _scan_text(self, data: str, pos: int) -> int:
+        lt = data.find("<", pos)
+        if lt == -1:
+            self._text_parts.append(data[pos:])
+            return len(data)
+        if lt > pos:
+            self._text_parts.append(data[pos:lt])
+        name, after = self._read_open_tag(data, lt)
+        if after == -1:
+            self._pending = data[lt:]
+            return len(data)
+        if name == "thinking":
+            self._flush_text()
+            self._state = _THINKING
+            return after
+        if name is not None and name in self.tool_tags:
+            self._flush_text()
+            self._state = _TOOL
+            self._tool_tag = name
+            self._tool_close = f"</{name}>"
+            self._raw_parts = [data[lt:after]]
+            self._events.append(ToolCallStart(name))
+            return after
+        # 未知标签或不是标签，按普通文本处理
+        self._text_parts.append("<")
+        return lt + 1
+
+    def _scan_thinking(self, data: str, pos: int) -> int:
+        close = data.find("</thinking>", pos)
+        if close != -1:
+            if close > pos:
+                self._thinking_parts.append(data[pos:close])
+            self._flush_thinking()
+            self._state = _TEXT
+            return close + len("</thinking>")
+        keep = _partial_suffix(data, pos, "</thinking>")
+        if len(data) - keep > pos:
+            self._thinking_parts.append(data[pos:len(data) - keep])
+        self._flush_thinking()
+        self._pending = data[len(data) - keep:] if keep else ""
+        return len(data)
+
+    def _scan_tool(self, data: str, pos: int) -> int:
+        """工具调用内、参数之外：寻找参数开始标签或工具结束标签，其余内容忽略"""
+        lt = data.find("<", pos)
+        if lt == -1:
+            self._raw_parts.append(data[pos:])
+            return len(data)
+        if lt > pos:
+            self._raw_parts.append(data[pos:lt])
+        if data.startswith("</", lt):
+            if data.startswith(self._tool_close, lt):
+                after = lt + len(self._tool_close)
+                self._raw_parts.append(self._tool_close)
+                self._end_tool()
+                return after
+            if len(data) - lt < len(self._tool_close) and self._tool_close.startswith(data[lt:]):
+                self._pending = data[lt:]
+                return len(data)
+            self._raw_parts.append("<")
+            return lt + 1
+        name, after = self._read_open_tag(data, lt)
+        if after == -1:
+            self._pending = data[lt:]
+            return len(data)
+        if name is None:
+            self._raw_parts.append("<")
+            return after
+        self._raw_parts.append(data[lt:after])
+        self._state = _PARAM
+        self._param_name = name
+        self._param_close = f"</{name}>"
+        self._param_parts = []
+        if self.stream_params:
+            self._events.append(ToolParamStart(self._tool_tag, name))
+        return after
+
+    def _scan_param(self, data: str, pos: int) -> int:
+        close = data.find(self._param_close, pos)
+        # 只在参数结束标签之前查找工具结束标签，保证每个字符只被扫描常数次
+        tool_close = data.find(self._tool_close, pos, close + len(self._tool_close) if close != -1 else len(data))
+        if tool_close != -1 and (close == -1 or tool_close < close):
+            # 参数未闭合工具调用就结束了，丢弃该参数
+            after = tool_close + len(self._tool_close)
+            self._raw_parts.append(data[pos:after])
+            self._end_tool()
+            return after
+        if close != -1:
+            self._add_param_text(data[pos:close])
+            self._raw_parts.append(self._param_close)
+            value = "".join(self._param_parts)
+            self._params[self._param_name] = value
+            if self.stream_params:
+                self._events.append(ToolParamEnd(self._tool_tag, self._param_name, value))
+            self._param_name = None
+            self._param_parts = []
+            self._state = _TOOL
+            return close + len(self._param_close)
+        keep = max(
+            _partial_suffix(data, pos, self._param_close),
+            _partial_suffix(data, pos, self._tool_close),
+        )
+        self._add_param_text(data[pos:len(data) - keep])
+        self._pending = data[len(data) - keep:] if keep else ""
+        return len(data)
+
+    def _add_param_text(self, text: str) -> None:
+        if not text:
+            return
+        self._param_parts.append(text)
+        self._raw_parts.append(text)
+        if self.stream_params:
+            self._events.append(ToolParamDelta(self._tool_tag, self._param_name, text))
+
+    def _end_tool(self) -> None:
+        self._events.append(
+            ToolCallEnd(self._tool_tag, self._params, "".join(self._raw_parts))
+        )
+        self._reset_tool()
+        self._state = _TEXT
+
+    def _reset_tool(self) -> None:
+        self._tool_tag = None
+        self._tool_close = ""
+        self._raw_parts = []
+        self._params = {}
+        self._param_name = None
+        self._param_close = ""
+        self._param_parts = []
@@ -5,6 +5,7 @@ Module providing a factory for creating language-specific compilers.
 import os
 from typing import Optional, Dict, Any, List
 
+from autocoder.common.check_workers import get_check_worker_manager, interpreter_fingerprint, tree_fingerprint
 from autocoder.compilers.base_compiler import BaseCompiler
 from autocoder.compilers.reactjs_compiler import ReactJSCompiler
 from autocoder.compilers.vue_compiler import VueCompiler
@@ -12,6 +13,17 @@ from autocoder.compilers.python_compiler import PythonCompiler
 from autocoder.compilers.java_compiler import JavaCompiler
 from autocoder.compilers.provided_compiler import ProvidedCompiler
 
+# Languages whose single-file compile results are cached, mapped to the extensions of
+# other files that can change the result (javac resolves classes and the Python import
+# check resolves modules from the working directory)
+CACHEABLE_DEPENDENCIES = {
+    'python': ('.py',),
+    'java': ('.java', '.class', '.jar'),
+}
+# Languages whose results also depend on the interpreter and its installed packages
+INTERPRETER_DEPENDENT = {'python'}
+
+
 class CompilerFactory:
     """
     Factory class for creating appropriate compiler instances based on file type or language.
@@ -65,7 +77,10 @@ class CompilerFactory:
         if compiler_class is None:
             return None
         
-        return compiler_class(verbose=verbose, config_path=config_path, **kwargs)
+        # Only ProvidedCompiler takes a config file
+        if config_path is not None:
+            kwargs['config_path'] = config_path
+        return compiler_class(verbose=verbose, **kwargs)
     
     @classmethod
     def _detect_language_from_file(cls, file_path: str) -> Optional[str]:
@@ -123,10 +138,74 @@ class CompilerFactory:
         Returns:
             Dict[str, Any]: Compilation results.
         """
-        compiler = cls.create_compiler(file_path=file_path, verbose=verbose)
+        return cls._compile_file(file_path, verbose, {})
+    
+    @classmethod
+    def _compile_file(cls, file_path: str, verbose: bool,
+                      fingerprints: Dict[str, Optional[str]]) -> Dict[str, Any]:
+        language = cls._detect_language_from_file(file_path)
+        compiler = cls.create_compiler(language=language, file_path=file_path, verbose=verbose)
         if compiler is None:
             return None
-        return compiler.compile_file(file_path)
+        if language not in CACHEABLE_DEPENDENCIES:
+            return compiler.compile_file(file_path)
+        
+        if language not in fingerprints:
+            fingerprints[language] = cls._dependency_fingerprint(language)
+        dependencies = fingerprints[language]
+        if dependencies is None:
+            return compiler.compile_file(file_path)
+        
+        cache = get_check_worker_manager().cache
+        key = cache.make_key(f"compile:{language}", file_path, None, dependencies)
+        cached = cache.get(key)
+        if cached is not None:
+            return cached
+        result = compiler.compile_file(file_path)
+        # Failed results are not cached: they may depend on the environment (e.g. a
+        # missing package) and are re-checked after the user fixes it
+        if result and result.get('success') and cache.make_key(f"compile:{language}", file_path, None, dependencies) == key:
+            cache.put(key, result)
+        return result
+    
+    @classmethod
+    def _dependency_fingerprint(cls, language: str) -> Optional[str]:
+        """
+        Fingerprint of everything besides the file itself that can change a cached result.
+        
+        Returns:
+            The fingerprint, or None when the source tree is too large to fingerprint
+            (results are then not cached).
+        """
+        tree = tree_fingerprint(os.getcwd(), CACHEABLE_DEPENDENCIES[language])
+        if tree is None:
+            return None
+        if language in INTERPRETER_DEPENDENT:
+            return f"{tree}:{interpreter_fingerprint()}"
+        return tree
+    
+    @classmethod
+    def compile_files(cls, file_paths: List[str], verbose: bool = False) -> Dict[str, Any]:
+        """
+        Compile several independent files in parallel.
+        
+        Args:
+            file_paths (List[str]): Paths of the files to compile.
+            verbose (bool): Whether to enable verbose output.
+            
+        Returns:
+            Dict[str, Any]: Compilation results keyed by file path.
+        """
+        # Dependency fingerprints are computed once per batch and shared by all files
+        fingerprints: Dict[str, Optional[str]] = {}
+        for path in file_paths:
+            language = cls._detect_language_from_file(path)
+            if language in CACHEABLE_DEPENDENCIES and language not in fingerprints:
+                fingerprints[language] = cls._dependency_fingerprint(language)
+        results = get_check_worker_manager().map_parallel(
+            lambda path: cls._compile_file(path, verbose, fingerprints), file_paths
+        )
+        return dict(zip(file_paths, results))
     
     @classmethod
     def compile_project(cls, project_path: str, language: Optional[str] = None, verbose: bool = False) -> Dict[str, Any]:
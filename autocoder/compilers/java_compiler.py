@@ -10,6 +10,7 @@ import time
 import re
 from typing import Dict, List, Any, Optional, Tuple
 
+from autocoder.common.check_workers import get_check_worker_manager
 from autocoder.compilers.base_compiler import BaseCompiler
 from autocoder.compilers.models import (
     CompilationError, 
@@ -49,6 +50,10 @@ class JavaCompiler(BaseCompiler):
         Returns:
             bool: True if all dependencies are available, False otherwise.
         """
+        # Cache positive results process-wide instead of starting a JVM per file
+        return get_check_worker_manager().tool_available((self.__class__.__name__, 'javac'), self._probe_javac)
+
+    def _probe_javac(self) -> bool:
         try:
             # Check if javac is installed
             process = subprocess.run(
@@ -147,12 +152,8 @@ class JavaCompiler(BaseCompiler):
                 # Run javac on the file
                 cmd = ['javac', '-d', temp_dir, file_path]
                 
-                process = subprocess.run(
-                    cmd,
-                    stdout=subprocess.PIPE,
-                    stderr=subprocess.PIPE,
-                    text=True
-                )
+                # Served by a warm in-process javac when a JDK is available
+                process = get_check_worker_manager().run_command(cmd)
                 
                 # Parse compilation errors
                 if process.returncode != 0:
@@ -11,6 +11,7 @@ import time
 import re
 from typing import Dict, List, Any, Optional, Tuple
 
+from autocoder.common.check_workers import get_check_worker_manager
 from autocoder.compilers.base_compiler import BaseCompiler
 from autocoder.compilers.models import (
     CompilationError, 
@@ -129,15 +130,66 @@ class PythonCompiler(BaseCompiler):
         }
         
         try:
-            # Use a temporary directory for PYTHONPATH to avoid polluting the real environment
-            with tempfile.TemporaryDirectory() as temp_dir:
-                # Get the directory of the file to check
-                file_dir = os.path.dirname(os.path.abspath(file_path))
+            # A warm worker resolves the imports without starting a new interpreter
+            process = get_check_worker_manager().run_tool("imports", [os.path.abspath(file_path)])
+            if process is None:
+                process = self._run_import_checker(file_path)
+            
+            # Parse the output to find import errors
+            line_num = 1  # Default line number for import errors
+            for line in process.stdout.splitlines():
+                if line.startswith("ERROR:"):
+                    # Extract module name and error message
+                    _, module_info = line.split(":", 1)
+                    module_name, error_msg = module_info.strip().split(" - ", 1)
+                    
+                    # Try to find the line number for this import
+                    import_line = self._find_import_line(file_path, module_name)
+                    if import_line > 0:
+                        line_num = import_line
+                    
+                    # Create error details
+                    error = CompilationError(
+                        message=f"Import error for module '{module_name}': {error_msg}",
+                        severity=CompilationErrorSeverity.ERROR,
+                        position=CompilationErrorPosition(line=line_num),
+                        file_path=file_path,
+                        code="import-error"
+                    )
+                    
+                    result['errors'].append(error)
+                    result['error_count'] += 1
+            
+            # Check if there were any errors
+            if result['error_count'] > 0:
+                result['success'] = False
                 
-                # Create a temporary file to check imports
-                temp_file = os.path.join(temp_dir, "import_checker.py")
-                with open(temp_file, 'w', encoding='utf-8') as f:
-                    f.write(f"""
+        except Exception as e:
+            # Handle any other errors
+            result['success'] = False
+            result['error_message'] = f"Error checking imports: {str(e)}"
+        
+        return result
+    
+    def _run_import_checker(self, file_path: str) -> subprocess.CompletedProcess:
+        """
+        Check imports in a fresh interpreter (used when no warm worker is available).
+        
+        Args:
+            file_path (str): Path to the file to check.
+            
+        Returns:
+            subprocess.CompletedProcess: Checker output, one SUCCESS/ERROR line per module.
+        """
+        # Use a temporary directory for PYTHONPATH to avoid polluting the real environment
+        with tempfile.TemporaryDirectory() as temp_dir:
+            # Get the directory of the file to check
+            file_dir = os.path.dirname(os.path.abspath(file_path))
+            
+            # Create a temporary file to check imports
+            temp_file = os.path.join(temp_dir, "import_checker.py")
+            with open(temp_file, 'w', encoding='utf-8') as f:
+                f.write(f"""
 import sys
 import os
 import importlib.util
@@ -179,51 +231,15 @@ for module_name in imports:
     except ImportError as e:
         print(f"ERROR: {{module_name}} - {{str(e)}}")
 """)
-                
-                # Run the import checker
-                cmd = [sys.executable, temp_file]
-                process = subprocess.run(
-                    cmd,
-                    stdout=subprocess.PIPE,
-                    stderr=subprocess.PIPE,
-                    text=True
-                )
-                
-                # Parse the output to find import errors
-                line_num = 1  # Default line number for import errors
-                for line in process.stdout.splitlines():
-                    if line.startswith("ERROR:"):
-                        # Extract module name and error message
-                        _, module_info = line.split(":", 1)
-                        module_name, error_msg = module_info.strip().split(" - ", 1)
-                        
-                        # Try to find the line number for this import
-                        import_line = self._find_import_line(file_path, module_name)
-                        if import_line > 0:
-                            line_num = import_line
-                        
-                        # Create error details
-                        error = CompilationError(
-                            message=f"Import error for module '{module_name}': {error_msg}",
-                            severity=CompilationErrorSeverity.ERROR,
-                            position=CompilationErrorPosition(line=line_num),
-                            file_path=file_path,
-                            code="import-error"
-                        )
-                        
-                        result['errors'].append(error)
-                        result['error_count'] += 1
-                
-                # Check if there were any errors
-                if result['error_count'] > 0:
-                    result['success'] = False
-                
-        except Exception as e:
-            # Handle any other errors
-            result['success'] = False
-            result['error_message'] = f"Error checking imports: {str(e)}"
-        
-        return result
+            
+            # Run the import checker
+            cmd = [sys.executable, temp_file]
+            return subprocess.run(
+                cmd,
+                stdout=subprocess.PIPE,
+                stderr=subprocess.PIPE,
+                text=True
+            )
     
     def _find_import_line(self, file_path: str, module_name: str) -> int:
         """
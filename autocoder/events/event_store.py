@@ -5,6 +5,7 @@ Event store implementation for storing and retrieving events.
 import os
 import json
 import time
+import bisect
 import threading
 from typing import List, Optional, Dict, Any, Iterator, Union, Callable, Tuple
 from abc import ABC, abstractmethod
@@ -90,6 +91,17 @@ class JsonlEventStore(EventStore):
     """
     Event store implementation using JSONL files.
     This implementation uses reader-writer locks and file locks to ensure thread safety.
+    
+    The store keeps an in-memory index of event ID -> byte range and a tail
+    cursor marking how much of the file has been indexed. Appends and file
+    growth observed by the monitor thread only index the new bytes, and reads
+    after a known event seek straight to its offset instead of re-parsing the
+    whole file.
+    
+    Lines are also kept in a list sorted by (timestamp, start offset), so a
+    line whose timestamp is older than its predecessors (e.g. from a process
+    with a skewed clock) is slotted into place instead of forcing every read
+    to re-read and sort the whole file.
     """
     
     def __init__(self, file_path: str, flush_interval: float = 0.1):
@@ -106,6 +118,14 @@ class JsonlEventStore(EventStore):
         self._last_event_id: Optional[str] = None
         self._watchers: List[threading.Event] = []
         
+        # Offset index: event_id -> (timestamp, start, end) of its line
+        self._index_lock = threading.Lock()
+        self._offsets: Dict[str, Tuple[float, int, int]] = {}
+        # Every indexed line as (timestamp, start, end), sorted by timestamp
+        # and then file position
+        self._order: List[Tuple[float, int, int]] = []
+        self._indexed_size = 0
+        
         # Create directory if it doesn't exist
         os.makedirs(os.path.dirname(os.path.abspath(file_path)), exist_ok=True)
         
@@ -114,7 +134,7 @@ class JsonlEventStore(EventStore):
             with open(file_path, 'w', encoding='utf-8') as f:
                 pass
         
-        # Update last event ID from file
+        # Build the offset index and last event ID from file
         self._update_last_event_id()
         
         # Start a background thread to monitor for new events
@@ -122,71 +142,152 @@ class JsonlEventStore(EventStore):
         self._monitor_thread = threading.Thread(target=self._monitor_events, daemon=True)
         self._monitor_thread.start()
     
-    def _update_last_event_id(self) -> None:
-        """Update the last event ID by reading the last event from the file."""
-        with self.rwlock.gen_rlock():
+    @staticmethod
+    def _parse_event(event_data: Dict[str, Any]) -> Event:
+        """Build an event object from its decoded JSON data."""
+        if "response_to" in event_data:
+            return ResponseEvent.from_dict(event_data)
+        return Event.from_dict(event_data)
+    
+    def _reset_index(self) -> None:
+        """Drop the offset index. Caller must hold _index_lock."""
+        self._offsets = {}
+        self._order = []
+        self._indexed_size = 0
+        self._last_event_id = None
+    
+    def _refresh_index(self) -> None:
+        """
+        Index lines appended to the file since the last refresh.
+        
+        Only complete lines are consumed; a partially written trailing line is
+        picked up by a later refresh once its newline arrives.
+        """
+        with self._index_lock:
             try:
-                with open(self.file_path, 'r', encoding='utf-8') as f:
-                    # fcntl.flock(f, fcntl.LOCK_SH)
-                    try:
-                        # Get the last line of the file that contains a valid event
-                        last_event = None
-                        for line in f:
-                            line = line.strip()
-                            if not line:
-                                continue
-                            try:
-                                event_data = json.loads(line)
-                                if "event_type" not in event_data:
-                                    continue
-                                
-                                if "response_to" in event_data:
-                                    event = ResponseEvent.from_dict(event_data)
-                                else:
-                                    event = Event.from_dict(event_data)
-                                
-                                last_event = event
-                            except json.JSONDecodeError:
-                                # Skip invalid lines
-                                pass
-                        
-                        if last_event:
-                            self._last_event_id = last_event.event_id
-                    finally:
-                        # fcntl.flock(f, fcntl.LOCK_UN)
-                        pass
+                file_size = os.path.getsize(self.file_path)
             except FileNotFoundError:
-                # File doesn't exist yet
-                pass
+                self._reset_index()
+                return
+            
+            if file_size < self._indexed_size:
+                # File was truncated or replaced by another writer
+                self._reset_index()
+            
+            if file_size == self._indexed_size:
+                return
+            
+            with open(self.file_path, 'rb') as f:
+                f.seek(self._indexed_size)
+                offset = self._indexed_size
+                for raw_line in f:
+                    if not raw_line.endswith(b'\n'):
+                        break
+                    start = offset
+                    offset += len(raw_line)
+                    self._index_line(raw_line, start, offset)
+                self._indexed_size = offset
     
-    def _read_events_from_file(self) -> List[Event]:
+    def _index_line(self, raw_line: bytes, start: int, end: int) -> None:
+        """Record the byte range of one line. Caller must hold _index_lock."""
+        line = raw_line.strip()
+        if not line:
+            return
+        try:
+            event_data = json.loads(line)
+        except (json.JSONDecodeError, UnicodeDecodeError):
+            # Skip invalid lines
+            return
+        if not isinstance(event_data, dict) or "event_type" not in event_data:
+            return
+        
+        timestamp = event_data.get("timestamp")
+        if not isinstance(timestamp, (int, float)):
+            # Event.from_dict stamps such events with the time they are read
+            timestamp = time.time()
+        key = (float(timestamp), start, end)
+        if not self._order or key >= self._order[-1]:
+            self._order.append(key)
+        else:
+            bisect.insort(self._order, key)
+        
+        event_id = event_data.get("event_id")
+        if not event_id:
+            return
+        
+        self._offsets.setdefault(event_id, key)
+        self._last_event_id = event_id
+    
+    def _update_last_event_id(self) -> None:
+        """Update the last event ID by indexing any new lines in the file."""
+        with self.rwlock.gen_rlock():
+            self._refresh_index()
+    
+    def _iter_events_from_offset(self, start_offset: int = 0, end_offset: Optional[int] = None) -> Iterator[Event]:
         """
-        Read all events from the file.
+        Lazily parse events from a byte offset.
         
-        Returns:
-            List of all events from the file
+        Args:
+            start_offset: Byte offset of the first line to read
+            end_offset: Stop before this offset (defaults to the indexed size)
+            
+        Yields:
+            Events in file order
         """
-        events = []
-        with open(self.file_path, 'r', encoding='utf-8') as f:                        
-            for line in f:
-                line = line.strip()
+        if end_offset is None:
+            end_offset = self._indexed_size
+        
+        with open(self.file_path, 'rb') as f:
+            f.seek(start_offset)
+            offset = start_offset
+            for raw_line in f:
+                if offset >= end_offset:
+                    break
+                offset += len(raw_line)
+                line = raw_line.strip()
                 if not line:
                     continue
                 try:
                     event_data = json.loads(line)
                     if "event_type" not in event_data:
                         continue
-                    
-                    if "response_to" in event_data:
-                        event = ResponseEvent.from_dict(event_data)
-                    else:
-                        event = Event.from_dict(event_data)
-                    
-                    events.append(event)
-                except json.JSONDecodeError:
+                    yield self._parse_event(event_data)
+                except (json.JSONDecodeError, UnicodeDecodeError):
+                    # Skip invalid lines
+                    pass
+    
+    def _iter_events_at(self, spans: List[Tuple[float, int, int]]) -> Iterator[Event]:
+        """
+        Lazily parse the events at the given (timestamp, start, end) entries.
+        
+        Consecutive entries that are adjacent in the file are read without
+        seeking, so an in-order file is read sequentially.
+        """
+        with open(self.file_path, 'rb') as f:
+            position = 0
+            for _, start, end in spans:
+                if start != position:
+                    f.seek(start)
+                line = f.read(end - start).strip()
+                position = end
+                try:
+                    event_data = json.loads(line)
+                    if "event_type" not in event_data:
+                        continue
+                    yield self._parse_event(event_data)
+                except (json.JSONDecodeError, UnicodeDecodeError):
                     # Skip invalid lines
-                    pass                    
-        return events
+                    pass
+    
+    def _read_events_from_file(self) -> List[Event]:
+        """
+        Read all events from the file.
+        
+        Returns:
+            List of all events from the file
+        """
+        self._refresh_index()
+        return list(self._iter_events_from_offset(0))
     
     def append_event(self, event: Event) -> None:
         """
@@ -196,15 +297,26 @@ class JsonlEventStore(EventStore):
             event: The event to append
         """
         with self.rwlock.gen_wlock():
-            with open(self.file_path, 'a', encoding='utf-8') as f:
+            # Catch up with lines written by other processes first, so the
+            # offset of our own line is known without re-reading it
+            self._refresh_index()
+            
+            data = (event.to_json() + '\n').encode('utf-8')
+            with open(self.file_path, 'ab') as f:
                 # fcntl.flock(f, fcntl.LOCK_EX)
                 try:
-                    f.write(event.to_json() + '\n')
+                    start = f.tell()
+                    f.write(data)
                     f.flush()
                 finally:
                     # fcntl.flock(f, fcntl.LOCK_UN)
                     pass
             
+            with self._index_lock:
+                if start == self._indexed_size:
+                    self._index_line(data, start, start + len(data))
+                    self._indexed_size = start + len(data)
+            
             self._last_event_id = event.event_id
             
             # Notify all watchers
@@ -227,31 +339,24 @@ class JsonlEventStore(EventStore):
             List of events matching the criteria
         """
         with self.rwlock.gen_rlock():
-            events = self._read_events_from_file()
-            
-            # Sort by timestamp
-            events.sort(key=lambda e: e.timestamp)
+            self._refresh_index()
             
-            # Filter by ID
-            if after_id:
-                after_index = None
-                for i, event in enumerate(events):
-                    if event.event_id == after_id:
-                        after_index = i
-                        break
-                
-                if after_index is not None:
-                    events = events[after_index + 1:]
-                else:
-                    events = []
+            with self._index_lock:
+                start_index = 0
+                if after_id:
+                    key = self._offsets.get(after_id)
+                    if key is None:
+                        return []
+                    start_index = bisect.bisect_right(self._order, key)
+                spans = self._order[start_index:]
             
-            # Filter by event type
-            if event_types:
-                events = [e for e in events if e.event_type in event_types]
-            
-            # Apply limit
-            if limit is not None and limit > 0:
-                events = events[:limit]
+            events = []
+            for event in self._iter_events_at(spans):
+                if event_types and event.event_type not in event_types:
+                    continue
+                events.append(event)
+                if limit is not None and limit > 0 and len(events) >= limit:
+                    break
             
             return events
     
@@ -266,11 +371,14 @@ class JsonlEventStore(EventStore):
             The event if found, None otherwise
         """
         with self.rwlock.gen_rlock():
-            events = self._read_events_from_file()
+            self._refresh_index()
             
-            for event in events:
-                if event.event_id == event_id:
-                    return event
+            key = self._offsets.get(event_id)
+            if key is None:
+                return None
+            
+            for event in self._iter_events_at([key]):
+                return event
             
             return None
     
@@ -280,6 +388,9 @@ class JsonlEventStore(EventStore):
         """
         Wait for an event matching the given condition.
         
+        Existing events are checked once; after that each wake-up only parses
+        the events appended since the previous check.
+        
         Args:
             condition: Function that takes an event and returns True if it matches
             timeout: Maximum time to wait in seconds, or None to wait indefinitely
@@ -288,12 +399,14 @@ class JsonlEventStore(EventStore):
             The matching event, or None if timeout occurs
         """
         watcher = threading.Event()
+        deadline = None if timeout is None else time.time() + timeout
         
         # Check if we already have a matching event
         with self.rwlock.gen_rlock():
-            events = self._read_events_from_file()
+            self._refresh_index()
+            cursor = self._indexed_size
             
-            for event in events:
+            for event in self._iter_events_from_offset(0, cursor):
                 if condition(event):
                     return event
             
@@ -301,18 +414,29 @@ class JsonlEventStore(EventStore):
             self._watchers.append(watcher)
         
         try:
-            # Wait for a notification
-            if watcher.wait(timeout):
-                # Check for new matching events
+            while True:
+                remaining = None if deadline is None else deadline - time.time()
+                if remaining is not None and remaining <= 0:
+                    return None
+                
+                # Wait for a notification
+                if not watcher.wait(remaining):
+                    return None
+                watcher.clear()
+                
+                # Check only the events appended since the last check
                 with self.rwlock.gen_rlock():
-                    events = self._read_events_from_file()
+                    self._refresh_index()
+                    if self._indexed_size < cursor:
+                        # Store was truncated; start over from the beginning
+                        cursor = 0
+                    new_cursor = self._indexed_size
                     
-                    for event in events:
+                    for event in self._iter_events_from_offset(cursor, new_cursor):
                         if condition(event):
                             return event
-            
-            # Timeout or no matching event
-            return None
+                    
+                    cursor = new_cursor
         finally:
             # Remove the watcher
             with self.rwlock.gen_wlock():
@@ -337,9 +461,9 @@ class JsonlEventStore(EventStore):
                 
                 last_check = current_time
                 
-                # Check if file has changed
+                # Check if file has changed; index only the new bytes
                 current_size = os.path.getsize(self.file_path)
-                if current_size > last_size:
+                if current_size != last_size:
                     self._update_last_event_id()
                     last_size = current_size
                     
@@ -368,8 +492,9 @@ class JsonlEventStore(EventStore):
             with open(self.file_path, 'w', encoding='utf-8') as f:
                 pass  # Just open and close to truncate
             
-            # Reset the last event ID
-            self._last_event_id = None
+            # Reset the offset index and last event ID
+            with self._index_lock:
+                self._reset_index()
             
             # Notify all watchers
             for watcher in self._watchers:
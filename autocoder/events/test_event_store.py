@@ -0,0 +1,183 @@
+import time
+import threading
+import statistics
+
+import pytest
+
+from autocoder.events.event_store import JsonlEventStore
+from autocoder.events.event_types import Event, EventType, ResponseEvent
+
+
+@pytest.fixture
+def store(tmp_path):
+    """提供一个临时的 JSONL 事件存储"""
+    event_store = JsonlEventStore(str(tmp_path / "events.jsonl"), flush_interval=0.05)
+    yield event_store
+    event_store.close()
+
+
+def _result(i, timestamp=None):
+    return Event(
+        event_type=EventType.RESULT,
+        event_id=f"evt-{i}",
+        timestamp=timestamp if timestamp is not None else 1000.0 + i,
+        content={"i": i}
+    )
+
+
+class TestJsonlEventStore:
+    """JsonlEventStore 偏移索引与增量读取的单元测试"""
+
+    def test_get_events_after_id_seeks_to_offset(self, store):
+        """测试 after_id 之后的事件读取"""
+        for i in range(5):
+            store.append_event(_result(i))
+
+        events = store.get_events(after_id="evt-2")
+        assert [e.event_id for e in events] == ["evt-3", "evt-4"]
+        assert store.get_events(after_id="unknown") == []
+        assert [e.event_id for e in store.get_events(limit=2)] == ["evt-0", "evt-1"]
+
+    def test_get_events_filters_by_type(self, store):
+        """测试按事件类型过滤"""
+        store.append_event(_result(0))
+        store.append_event(Event(event_type=EventType.STREAM, event_id="stream-1", timestamp=1001.0))
+        store.append_event(_result(2))
+
+        events = store.get_events(event_types=[EventType.STREAM])
+        assert [e.event_id for e in events] == ["stream-1"]
+
+    def test_get_event_by_id(self, store):
+        """测试按ID读取单个事件，包括响应事件"""
+        store.append_event(_result(0))
+        store.append_event(ResponseEvent(
+            event_type=EventType.USER_RESPONSE,
+            event_id="resp-1",
+            timestamp=1001.0,
+            content={"response": "yes"},
+            response_to="evt-0"
+        ))
+
+        event = store.get_event_by_id("resp-1")
+        assert isinstance(event, ResponseEvent)
+        assert event.response_to == "evt-0"
+        assert store.get_event_by_id("evt-0").content == {"i": 0}
+        assert store.get_event_by_id("missing") is None
+
+    def test_external_writes_are_indexed(self, store):
+        """测试其他进程追加的事件（包括未写完的行）会被增量索引"""
+        store.append_event(_result(0))
+        with open(store.file_path, "a", encoding="utf-8") as f:
+            f.write(_result(1).to_json() + "\n")
+            f.write(_result(2).to_json()[:10])
+
+        assert [e.event_id for e in store.get_events(after_id="evt-0")] == ["evt-1"]
+
+        with open(store.file_path, "a", encoding="utf-8") as f:
+            f.write(_result(2).to_json()[10:] + "\n")
+
+        assert store.get_event_by_id("evt-2") is not None
+
+    def test_out_of_order_timestamps_fall_back_to_sorting(self, store):
+        """测试文件顺序与时间戳顺序不一致时仍按时间戳排序"""
+        store.append_event(_result(0, timestamp=1000.0))
+        store.append_event(_result(1, timestamp=3000.0))
+        store.append_event(_result(2, timestamp=2000.0))
+
+        assert [e.event_id for e in store.get_events()] == ["evt-0", "evt-2", "evt-1"]
+        assert [e.event_id for e in store.get_events(after_id="evt-2")] == ["evt-1"]
+
+    def test_out_of_order_event_does_not_slow_later_reads(self, store):
+        """测试个别乱序事件只影响它自己的位置，之后的增量读取仍只解析新事件"""
+        for i in range(5):
+            store.append_event(_result(i))
+        store.append_event(_result(5, timestamp=1000.5))
+        with open(store.file_path, "a", encoding="utf-8") as f:
+            f.write('{"event_type": "RESULT", "event_id": "no-ts", "content": {}}\n')
+        store.append_event(_result(6, timestamp=time.time() + 3600))
+
+        ids = [e.event_id for e in store.get_events()]
+        assert ids == ["evt-0", "evt-5", "evt-1", "evt-2", "evt-3", "evt-4", "no-ts", "evt-6"]
+        assert [e.event_id for e in store.get_events(after_id="evt-5")] == ids[2:]
+
+        parsed = []
+        parse = store._parse_event
+        store._parse_event = lambda data: parsed.append(data["event_id"]) or parse(data)
+        assert [e.event_id for e in store.get_events(after_id="no-ts")] == ["evt-6"]
+        assert parsed == ["evt-6"]
+
+    def test_wait_for_event_checks_only_new_events(self, store):
+        """测试等待事件时只检查新追加的事件"""
+        store.append_event(_result(0))
+        seen = []
+
+        def condition(event):
+            seen.append(event.event_id)
+            return event.event_id == "evt-2"
+
+        def writer():
+            time.sleep(0.1)
+            store.append_event(_result(1))
+            time.sleep(0.1)
+            store.append_event(_result(2))
+
+        thread = threading.Thread(target=writer)
+        thread.start()
+        event = store.wait_for_event(condition, timeout=5.0)
+        thread.join()
+
+        assert event is not None and event.event_id == "evt-2"
+        assert seen.count("evt-0") == 1
+        assert seen.count("evt-1") == 1
+
+    def test_wait_for_event_timeout(self, store):
+        """测试等待超时"""
+        assert store.wait_for_event(lambda e: False, timeout=0.1) is None
+
+    def test_truncate_resets_index(self, store):
+        """测试清空后索引被重置"""
+        store.append_event(_result(0))
+        store.truncate()
+
+        assert store.get_events() == []
+        assert store.get_event_by_id("evt-0") is None
+
+        store.append_event(_result(1))
+        assert [e.event_id for e in store.get_events()] == ["evt-1"]
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_incremental_read_latency_is_flat(tmp_path):
+    """基准测试：文件增长到 10 万事件时，增量读取延迟保持平稳"""
+    file_path = tmp_path / "events.jsonl"
+    store = JsonlEventStore(str(file_path), flush_interval=0.05)
+    try:
+        checkpoints = [1_000, 10_000, 100_000]
+        latencies = {}
+        written = 0
+        for checkpoint in checkpoints:
+            # 直接批量写入文件，模拟其他进程产生的事件
+            with open(file_path, "a", encoding="utf-8") as f:
+                for i in range(written, checkpoint):
+                    f.write(_result(i).to_json() + "\n")
+            written = checkpoint
+            # 首次调用时完成增量索引
+            store.get_event_by_id(f"evt-{checkpoint - 1}")
+
+            samples = []
+            for _ in range(50):
+                start = time.perf_counter()
+                events = store.get_events(after_id=f"evt-{checkpoint - 10}")
+                store.get_event_by_id(f"evt-{checkpoint // 2}")
+                samples.append(time.perf_counter() - start)
+                assert len(events) == 9
+            latencies[checkpoint] = statistics.median(samples)
+
+        for checkpoint, latency in latencies.items():
+            print(f"{checkpoint:>7} events: {latency * 1000:.3f} ms per incremental read")
+
+        # 事件数增长 100 倍，增量读取延迟不应随之线性增长
+        assert latencies[100_000] < latencies[1_000] * 10 + 0.001
+    finally:
+        store.close()
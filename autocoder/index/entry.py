@@ -145,6 +145,9 @@ def build_index_and_filter_files(
             # Merge normal filter results into final_files
             final_files.update(normal_filter_result.files)
 
+    # 过滤阶段结束后不再访问索引，释放索引数据库连接
+    index_manager.close()
+
     def display_table_and_get_selections(data):
         from prompt_toolkit.shortcuts import checkboxlist_dialog
         from prompt_toolkit.styles import Style
@@ -0,0 +1,137 @@
+"""
+按 token 预算把索引条目切分成多个 chunk
+
+QuickFilter 的提示词由固定模板和逐条渲染的索引条目 (`##[序号]正文`，条目之间以换行分隔) 组成，
+因此一个 chunk 的 token 数可以由 "模板开销 + 各条目 token 数之和" 估算：
+
+- 每个条目正文的 token 数只统计一次，并可按 (module_name, 文本哈希) 缓存在索引存储中，
+  未变化的条目在下次过滤时不再重新统计
+- 序号前缀 `##[i]` 和换行分隔符的 token 数与条目内容无关，统计一次后复用
+- 切分时顺序累加，整个过程是 O(N)，不再为每个候选 chunk 重新渲染和统计整个提示词
+"""
+
+import hashlib
+from typing import Callable, List, Optional, Sequence
+
+from autocoder.index.store import IndexStore
+
+# 与 quick_filter_files/super_big_quick_filter_files 模板中条目的渲染方式保持一致
+ITEM_SEPARATOR = "\n"
+_PREFIX_BATCH = 256
+
+
+def item_prefix(position: int) -> str:
+    """chunk 内第 position 个条目的序号前缀"""
+    return f"##[{position}]"
+
+
+def text_hash(text: str) -> str:
+    return hashlib.sha1(text.encode("utf-8")).hexdigest()
+
+
+class ChunkPacker:
+    """
+    基于预先统计的条目 token 数切分 chunk
+
+    Args:
+        max_tokens: 单个 chunk 渲染后的 token 上限
+        count_many: 批量统计 token 数的函数，默认使用 count_string_tokens_many
+    """
+
+    def __init__(self, max_tokens: int, count_many: Optional[Callable[[List[str]], List[int]]] = None):
+        if count_many is None:
+            from autocoder.common.tokens import count_string_tokens_many
+            count_many = count_string_tokens_many
+        self.max_tokens = max_tokens
+        self.count_many = count_many
+        self._prefix_costs: List[int] = []
+        self._separator_cost: Optional[int] = None
+
+    def item_costs(
+        self,
+        texts: Sequence[str],
+        keys: Optional[Sequence[str]] = None,
+        store: Optional[IndexStore] = None,
+        kind: str = "quick_filter",
+    ) -> List[int]:
+        """
+        统计每个条目正文 (不含序号前缀) 的 token 数
+
+        Args:
+            texts: 条目正文
+            keys: 条目对应的 module_name，与 store 一起提供时读写索引存储中的缓存
+            store: 索引存储
+            kind: 条目的渲染方式，不同渲染方式分别缓存
+
+        Returns:
+            与 texts 一一对应的 token 数
+        """
+        use_store = store is not None and keys is not None
+        cached = store.get_token_costs(kind) if use_store else {}
+        hashes = [text_hash(text) for text in texts] if use_store else []
+
+        costs: List[int] = [0] * len(texts)
+        missing: List[int] = []
+        for i in range(len(texts)):
+            entry = cached.get(keys[i]) if use_store else None
+            if entry is not None and entry[0] == hashes[i]:
+                costs[i] = entry[1]
+            else:
+                missing.append(i)
+
+        if missing:
+            counted = self.count_many([texts[i] for i in missing])
+            for i, tokens in zip(missing, counted):
+                costs[i] = tokens
+            if use_store:
+                store.put_token_costs(kind, {keys[i]: (hashes[i], costs[i]) for i in missing})
+        return costs
+
+    def _prefix_cost(self, position: int) -> int:
+        if position >= len(self._prefix_costs):
+            start = len(self._prefix_costs)
+            end = max(position + 1, start + _PREFIX_BATCH)
+            self._prefix_costs.extend(self.count_many([item_prefix(i) for i in range(start, end)]))
+        return self._prefix_costs[position]
+
+    def _separator(self) -> int:
+        if self._separator_cost is None:
+            self._separator_cost = self.count_many([ITEM_SEPARATOR])[0]
+        return self._separator_cost
+
+    def estimate_total(self, costs: Sequence[int], overhead: int) -> int:
+        """所有条目放在同一个提示词中时的估算 token 数"""
+        total = overhead + sum(self._prefix_cost(i) for i in range(len(costs))) + sum(costs)
+        if len(costs) > 1:
+            total += self._separator() * (len(costs) - 1)
+        return total
+
+    def pack(self, costs: Sequence[int], overhead: int) -> List[List[int]]:
+        """
+        按顺序贪心切分：条目放入当前 chunk 后超过 max_tokens 时开始新的 chunk，
+        单个条目本身就超过上限时独占一个 chunk
+
+        Args:
+            costs: item_costs 返回的条目 token 数
+            overhead: 模板 (不含任何条目) 渲染后的 token 数
+
+        Returns:
+            每个 chunk 包含的条目下标
+        """
+        chunks: List[List[int]] = []
+        current: List[int] = []
+        total = overhead
+        for i, cost in enumerate(costs):
+            added = self._prefix_cost(len(current)) + cost
+            if current:
+                added += self._separator()
+            if current and total + added > self.max_tokens:
+                chunks.append(current)
+                current = []
+                total = overhead
+                added = self._prefix_cost(0) + cost
+            current.append(i)
+            total += added
+        if current:
+            chunks.append(current)
+        return chunks
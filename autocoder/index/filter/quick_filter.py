@@ -24,6 +24,7 @@ from loguru import logger
 from byzerllm.utils.client.code_utils import extract_code
 import json
 from autocoder.index.symbols_utils import extract_symbols
+from autocoder.index.filter.chunk_packer import ChunkPacker
 import os.path
 from autocoder.events.event_manager_singleton import get_event_manager
 from autocoder.events import event_content as EventContentCreator
@@ -59,35 +60,50 @@ class QuickFilter():
         self.sources = sources
         self.printer = Printer()
         self.max_tokens = self.args.index_filter_model_max_input_length
+        self._packer: Optional[ChunkPacker] = None
+        self._overheads: Dict[Any, int] = {}
 
-    def big_filter(self, index_items: List[IndexItem],) -> QuickFilterResult:
-        chunks = []
-        current_chunk = []
+    def _get_packer(self) -> ChunkPacker:
+        if self._packer is None:
+            self._packer = ChunkPacker(self.max_tokens)
+        return self._packer
 
-        # 将 index_items 切分成多个 chunks,第一个chunk尽可能接近max_tokens
-        for item in index_items:
-            # 使用 quick_filter_files.prompt 生成文本再统计
-            temp_chunk = current_chunk + [item]
-            prompt_text = self.quick_filter_files.prompt(
-                temp_chunk, self.args.query)
-            temp_size = count_tokens(prompt_text)
-            # 如果当前chunk为空,或者添加item后不超过max_tokens,就添加到当前chunk
-            if not current_chunk or temp_size <= self.max_tokens:
-                current_chunk.append(item)
-            else:
-                # 当前chunk已满,创建新chunk
-                chunks.append(current_chunk)
-                current_chunk = [item]
+    def _item_costs(self, texts: List[str], keys: List[str], kind: str) -> List[int]:
+        """统计条目 token 数，命中索引存储中的缓存时不重新统计"""
+        try:
+            store = self.index_manager.index_store
+        except Exception as e:
+            logger.warning(f"无法打开索引存储，不缓存条目 token 数: {str(e)}")
+            store = None
+        return self._get_packer().item_costs(texts, keys=keys, store=store, kind=kind)
+
+    def _template_overhead(self, kind: str) -> int:
+        """不含任何条目时提示词模板 (含用户查询) 的 token 数"""
+        key = (kind, self.args.query)
+        if key not in self._overheads:
+            template = self.quick_filter_files if kind == "quick_filter" else self.super_big_quick_filter_files
+            self._overheads[key] = count_tokens(template.prompt([], self.args.query))
+        return self._overheads[key]
+
+    def _quick_filter_costs(self, index_items: List[IndexItem]) -> List[int]:
+        return self._item_costs(
+            [f"{item.module_name}\n{item.symbols}" for item in index_items],
+            [item.module_name for item in index_items],
+            "quick_filter"
+        )
 
-        if current_chunk:
-            chunks.append(current_chunk)
+    def big_filter(self, index_items: List[IndexItem], item_costs: Optional[List[int]] = None) -> QuickFilterResult:
+        # 将 index_items 切分成多个 chunks,第一个chunk尽可能接近max_tokens
+        packer = self._get_packer()
+        if item_costs is None:
+            item_costs = self._quick_filter_costs(index_items)
+        overhead = self._template_overhead("quick_filter")
+        chunks = [[index_items[i] for i in chunk] for chunk in packer.pack(item_costs, overhead)]
 
-        tokens_len = count_tokens(
-            self.quick_filter_files.prompt(index_items, self.args.query))
         self.printer.print_in_terminal(
             "quick_filter_too_long",
             style="yellow",
-            tokens_len=tokens_len,
+            tokens_len=packer.estimate_total(item_costs, overhead),
             max_tokens=self.max_tokens,
             split_size=len(chunks)
         )
@@ -416,9 +432,9 @@ class QuickFilter():
         final_file_positions: Dict[str, int] = {}
         start_time = time.monotonic()
 
-        prompt_str = self.quick_filter_files.prompt(index_items, query)
-
-        tokens_len = count_tokens(prompt_str)
+        item_costs = self._quick_filter_costs(index_items)
+        tokens_len = self._get_packer().estimate_total(
+            item_costs, self._template_overhead("quick_filter"))
 
         # 打印当前索引大小
         self.printer.print_in_terminal(
@@ -434,7 +450,7 @@ class QuickFilter():
                 style="yellow",
                 tokens_len=tokens_len
             )
-            return self.big_filter(index_items)
+            return self.big_filter(index_items, item_costs)
         elif tokens_len > 4*self.max_tokens:
             # 打印 super_big_filter 模式的状态
             self.printer.print_in_terminal(
@@ -621,50 +637,21 @@ class QuickFilter():
             }
             compact_items.append(compact_item)
         
-        # 切分compact_items成多个chunks
-        chunks = []
-        current_chunk = []
-        batch_size = 100  # 每100条记录检查一次token数量
-        
-        # 计算总的tokens长度
-        full_prompt = self.super_big_quick_filter_files.prompt(compact_items, self.args.query)
-        tokens_len = count_tokens(full_prompt)
+        # 按预先统计的条目 token 数估算总长度并切分
+        packer = self._get_packer()
+        item_costs = self._item_costs(
+            [f"{item['filename']}\n{item['usage']}" for item in compact_items],
+            [item["full_path"] for item in compact_items],
+            "super_big_filter"
+        )
+        overhead = self._template_overhead("super_big_filter")
+        tokens_len = packer.estimate_total(item_costs, overhead)
         
         # 如果tokens长度不超过max_tokens，直接处理整个列表
         if tokens_len <= self.max_tokens:
             return self._process_compact_items(compact_items, index_items)
         
-        # 否则，将compact_items切分成多个chunks，每100条检查一次
-        for i, item in enumerate(compact_items):
-            current_chunk.append(item)
-            
-            # 每处理batch_size条记录或者到达末尾时检查一次
-            if (i + 1) % batch_size == 0 or i == len(compact_items) - 1:
-                temp_prompt = self.super_big_quick_filter_files.prompt(current_chunk, self.args.query)
-                temp_size = count_tokens(temp_prompt)
-                
-                # 如果当前chunk的token数超过限制，则从当前位置分割
-                if temp_size > self.max_tokens:
-                    # 如果当前chunk为空，添加至少一项
-                    if len(current_chunk) <= batch_size:
-                        # 当前批次是第一批，但已经超过限制，则至少保留一半的记录
-                        split_index = max(1, len(current_chunk) // 2)
-                        chunks.append(current_chunk[:split_index])
-                        current_chunk = current_chunk[split_index:]
-                    else:
-                        # 将前一批次的items作为一个chunk
-                        prev_batch_end = len(current_chunk) - (i % batch_size + 1)
-                        if prev_batch_end > 0:
-                            chunks.append(current_chunk[:prev_batch_end])
-                            current_chunk = current_chunk[prev_batch_end:]
-                        else:
-                            # 极端情况：即使一条记录也超过了限制，则尝试添加单条记录
-                            chunks.append([current_chunk[0]])
-                            current_chunk = current_chunk[1:]
-        
-        # 确保最后的chunk也被添加
-        if current_chunk:
-            chunks.append(current_chunk)
+        chunks = [[compact_items[i] for i in chunk] for chunk in packer.pack(item_costs, overhead)]
         
         # 打印切分信息
         self.printer.print_in_terminal(
@@ -46,7 +46,10 @@ def index_command(args, llm):
     pp.run()
     sources = pp.sources
     index_manager = IndexManager(llm=llm, sources=sources, args=args)
-    index_manager.build_index()
+    try:
+        index_manager.build_index()
+    finally:
+        index_manager.close()
 
 
 def index_query_command(args, llm):
@@ -62,19 +65,22 @@ def index_query_command(args, llm):
     final_files = []
 
     index_manager = IndexManager(llm=llm, sources=sources, args=args)
-    target_files = index_manager.get_target_files_by_query(args.query)
+    try:
+        target_files = index_manager.get_target_files_by_query(args.query)
 
-    if target_files:
-        final_files.extend(target_files.file_list)
+        if target_files:
+            final_files.extend(target_files.file_list)
 
-    if target_files and args.index_filter_level >= 2:
+        if target_files and args.index_filter_level >= 2:
 
-        related_fiels = index_manager.get_related_files(
-            [file.file_path for file in target_files.file_list]
-        )
+            related_fiels = index_manager.get_related_files(
+                [file.file_path for file in target_files.file_list]
+            )
 
-        if related_fiels is not None:
-            final_files.extend(related_fiels.file_list)
+            if related_fiels is not None:
+                final_files.extend(related_fiels.file_list)
+    finally:
+        index_manager.close()
 
     all_results = list({file.file_path: file for file in final_files}.values())
 
@@ -26,17 +26,23 @@ from autocoder.index.types import (
     TargetFile,
     FileList,
 )
+from autocoder.index.store import IndexStore, SqliteIndexStore
 from autocoder.common.global_cancel import global_cancel
 from autocoder.utils.llms import get_llm_names
 from autocoder.common.tokens import count_string_tokens as count_tokens
 from autocoder.common.stream_out_type import IndexStreamOutType
 from autocoder.events.event_manager_singleton import get_event_manager
 from autocoder.events import event_content as EventContentCreator
-from loguru import logger
+
+# 按数据库文件缓存 read_index 结果，写入代数变化时失效
+_index_items_cache = {}
+_index_items_cache_lock = threading.Lock()
+
 
 class IndexManager:
     def __init__(
-        self, llm: Union[byzerllm.ByzerLLM, byzerllm.SimpleByzerLLM], sources: List[SourceCode], args: AutoCoderArgs
+        self, llm: Union[byzerllm.ByzerLLM, byzerllm.SimpleByzerLLM], sources: List[SourceCode], args: AutoCoderArgs,
+        index_store: Optional[IndexStore] = None
     ):
         self.sources = sources
         self.source_dir = args.source_dir
@@ -90,6 +96,24 @@ class IndexManager:
         if not os.path.exists(self.index_dir):
             os.makedirs(self.index_dir)
 
+        self._index_store = index_store
+        # 外部传入的存储由调用方负责关闭
+        self._owns_index_store = index_store is None
+
+    @property
+    def index_store(self) -> IndexStore:
+        """索引存储，首次访问时创建并按需从 index.json 迁移"""
+        if self._index_store is None:
+            self._index_store = SqliteIndexStore(self.index_dir, self.index_file)
+        self._index_store.sync_from_json()
+        return self._index_store
+
+    def close(self) -> None:
+        """关闭自己创建的索引存储，之后再次访问 index_store 会重新打开"""
+        if self._owns_index_store and self._index_store is not None:
+            self._index_store.close()
+            self._index_store = None
+
     def _get_parsed_safe_zone_tokens(self) -> int:
         """
         解析 conversation_prune_safe_zone_tokens 参数，支持多种格式
@@ -502,11 +526,14 @@ class IndexManager:
         return False
 
     def build_index(self):
-        if os.path.exists(self.index_file):
-            with open(self.index_file, "r", encoding="utf-8") as file:
-                index_data = json.load(file)
-        else:
-            index_data = {}
+        """
+        增量构建索引：只为新增或 md5 变化的文件生成符号，并逐批 upsert 到索引存储。
+
+        Returns:
+            Dict[str, str]: 构建完成后的 module_name -> md5 映射
+        """
+        index_store = self.index_store
+        index_data = index_store.get_md5_map()
 
         # 清理已不存在的文件索引
         keys_to_remove = []
@@ -530,16 +557,18 @@ class IndexManager:
             )            
 
         # 删除无效条目并记录日志
-        for key in set(keys_to_remove):
-            if key in index_data:
-                del index_data[key]
-                self.printer.print_in_terminal(
-                    "index_file_removed",
-                    style="yellow",
-                    file_path=key
-                )
+        removed_keys = [key for key in set(keys_to_remove) if key in index_data]
+        index_store.delete_many(removed_keys)
+        for key in removed_keys:
+            del index_data[key]
+            self.printer.print_in_terminal(
+                "index_file_removed",
+                style="yellow",
+                file_path=key
+            )
 
         updated_sources = []
+        pending_records = []
 
         total_input_tokens = 0
         total_output_tokens = 0
@@ -569,10 +598,7 @@ class IndexManager:
                     source_code = "\n".join(new_v)
 
                 md5 = hashlib.md5(source_code.encode("utf-8")).hexdigest()
-                if (
-                    source.module_name not in index_data
-                    or index_data[source.module_name]["md5"] != md5
-                ):
+                if index_data.get(source.module_name) != md5:
                     wait_to_build_files.append(source)
 
             # Remove duplicates based on module_name
@@ -622,18 +648,19 @@ class IndexManager:
                     total_output_tokens += result["generated_tokens_count"]
                     total_input_cost += result["input_tokens_cost"]
                     total_output_cost += result["generated_tokens_cost"]
-                    index_data[module_name] = result
+                    index_data[module_name] = result["md5"]
                     updated_sources.append(module_name)
-                    if len(updated_sources) > 5:
-                        with open(self.index_file, "w", encoding="utf-8") as file:
-                            json.dump(index_data, file,
-                                      ensure_ascii=False, indent=2)
-                        updated_sources = []
+                    pending_records.append(result)
+                    # 每完成几个文件就落盘一次，只写入这几条记录
+                    if len(pending_records) > 5:
+                        index_store.upsert_many(pending_records)
+                        pending_records = []
+
+        index_store.upsert_many(pending_records)
 
-        # 如果 updated_sources 或 keys_to_remove 有值，则保存索引文件
+        # 如果 updated_sources 或 keys_to_remove 有值，则导出兼容的索引文件
         if updated_sources or keys_to_remove:
-            with open(self.index_file, "w", encoding="utf-8") as file:
-                json.dump(index_data, file, ensure_ascii=False, indent=2)
+            index_store.export_json()
 
             print("")
             self.printer.print_in_terminal(
@@ -669,35 +696,43 @@ class IndexManager:
         return index_data
 
     def read_index_as_str(self):
-        if not os.path.exists(self.index_file):
+        index_store = self.index_store
+        if index_store.count() == 0:
             return []
 
-        with open(self.index_file, "r", encoding="utf-8") as file:
-            return file.read()
+        return json.dumps(
+            {record["module_name"]: record for record in index_store.iter_records()},
+            ensure_ascii=False, indent=2
+        )
 
     def read_index(self) -> List[IndexItem]:
-        if not os.path.exists(self.index_file):
-            return []
+        """
+        读取全部索引条目。结果按索引存储的写入代数缓存，索引未变化时直接复用。
+        """
+        index_store = self.index_store
+        cache_key = getattr(index_store, "db_file", id(index_store))
+        generation = index_store.generation()
 
-        with open(self.index_file, "r", encoding="utf-8") as file:
-            index_data = json.load(file)
-
-        index_items = []
-        for module_name, data in index_data.items():
-            try:                                
-                index_item = IndexItem(
-                    module_name=module_name,
-                    symbols=data["symbols"],
-                    last_modified=data["last_modified"],
-                    md5=data["md5"],
-                )
-                index_items.append(index_item)
-            except Exception as e:
-                logger.warning(f"处理索引条目 {module_name} 时出错: {str(e)}")
-                logger.exception(e)
-                continue
+        with _index_items_cache_lock:
+            cached = _index_items_cache.get(cache_key)
+            if cached is not None and cached[0] == generation:
+                return list(cached[1])
 
-        return index_items
+        index_items = list(index_store.iter_items())
+
+        with _index_items_cache_lock:
+            _index_items_cache[cache_key] = (generation, index_items)
+
+        return list(index_items)
+
+    def iter_index(self, with_symbols: bool = True):
+        """
+        流式遍历索引条目，不在内存中保留全部结果
+
+        Args:
+            with_symbols: 为 False 时不加载符号信息
+        """
+        return self.index_store.iter_items(with_symbols=with_symbols)
 
     def _get_meta_str(
         self,
@@ -705,7 +740,11 @@ class IndexManager:
         skip_symbols: bool = False,
         includes: Optional[List[SymbolType]] = None,
     ):
-        index_items = self.read_index()
+        if skip_symbols:
+            # 只需要文件名时不加载符号信息
+            index_items = self.iter_index(with_symbols=False)
+        else:
+            index_items = self.read_index()
         current_chunk = []
         current_size = 0
 
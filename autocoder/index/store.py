@@ -0,0 +1,413 @@
+"""
+索引存储
+
+IndexManager 的索引记录存储层。每个文件一条记录，支持按 module_name 增量
+upsert、流式遍历以及符号信息的延迟加载，避免每次构建/查询都整体读写
+index.json。
+
+默认实现基于 SQLite（.auto-coder/index.db）。index.json 仍作为导出格式保留：
+首次打开或检测到 index.json 被外部修改（例如 import_index）时会自动导入，
+构建结束后再整体导出一次，供依赖该文件的模块读取。
+"""
+
+import os
+import json
+import sqlite3
+import threading
+from abc import ABC, abstractmethod
+from typing import Dict, Iterator, List, Optional, Any, Tuple
+
+from loguru import logger
+
+from autocoder.index.types import IndexItem
+
+
+class IndexStore(ABC):
+    """索引存储的抽象接口"""
+
+    @abstractmethod
+    def upsert(self, record: Dict[str, Any]) -> None:
+        """
+        插入或更新一条索引记录
+
+        Args:
+            record: 索引记录，必须包含 module_name、md5、symbols、last_modified
+        """
+        pass
+
+    @abstractmethod
+    def upsert_many(self, records: List[Dict[str, Any]]) -> None:
+        """批量插入或更新索引记录"""
+        pass
+
+    @abstractmethod
+    def delete_many(self, module_names: List[str]) -> None:
+        """删除指定文件的索引记录"""
+        pass
+
+    @abstractmethod
+    def get_md5_map(self) -> Dict[str, str]:
+        """返回 module_name -> md5 映射，不加载符号信息"""
+        pass
+
+    @abstractmethod
+    def get_symbols(self, module_name: str) -> Optional[str]:
+        """按需加载单个文件的符号信息"""
+        pass
+
+    @abstractmethod
+    def iter_items(self, with_symbols: bool = True) -> Iterator[IndexItem]:
+        """
+        流式遍历索引条目
+
+        Args:
+            with_symbols: 为 False 时不加载符号信息（symbols 为空字符串）
+        """
+        pass
+
+    @abstractmethod
+    def iter_records(self) -> Iterator[Dict[str, Any]]:
+        """流式遍历完整的索引记录（与 index.json 中的条目格式一致）"""
+        pass
+
+    @abstractmethod
+    def count(self) -> int:
+        """返回索引记录数"""
+        pass
+
+    @abstractmethod
+    def generation(self) -> int:
+        """返回写入代数，每次写入后递增，用于上层缓存失效"""
+        pass
+
+    def sync_from_json(self) -> bool:
+        """从兼容的 index.json 导入索引，默认不做任何事"""
+        return False
+
+    def export_json(self) -> None:
+        """导出兼容的 index.json，默认不做任何事"""
+        pass
+
+    def get_token_costs(self, kind: str) -> Dict[str, Tuple[str, int]]:
+        """
+        返回已缓存的条目 token 数，默认没有缓存
+
+        Args:
+            kind: 条目的渲染方式（例如 quick_filter、super_big_filter）
+
+        Returns:
+            module_name -> (条目文本哈希, token 数)
+        """
+        return {}
+
+    def put_token_costs(self, kind: str, costs: Dict[str, Tuple[str, int]]) -> None:
+        """写入条目 token 数缓存，默认不做任何事"""
+        pass
+
+    def close(self) -> None:
+        """释放存储占用的资源，默认不做任何事"""
+        pass
+
+
+class SqliteIndexStore(IndexStore):
+    """基于 SQLite 的索引存储"""
+
+    def __init__(self, index_dir: str, json_file: Optional[str] = None):
+        """
+        初始化索引存储
+
+        Args:
+            index_dir: 索引目录（通常为 <source_dir>/.auto-coder）
+            json_file: 兼容的 index.json 路径，None 表示使用 index_dir 下的 index.json
+        """
+        self.index_dir = index_dir
+        self.db_file = os.path.join(index_dir, "index.db")
+        self.json_file = json_file or os.path.join(index_dir, "index.json")
+        self.lock = threading.RLock()
+
+        os.makedirs(index_dir, exist_ok=True)
+
+        self._conn = sqlite3.connect(self.db_file, check_same_thread=False)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        self._init_db()
+
+    def _init_db(self) -> None:
+        """初始化数据库"""
+        with self.lock:
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS index_items (
+                    module_name TEXT PRIMARY KEY,
+                    md5 TEXT NOT NULL,
+                    last_modified REAL NOT NULL,
+                    symbols TEXT NOT NULL,
+                    data TEXT NOT NULL
+                )
+                """
+            )
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS index_meta (
+                    key TEXT PRIMARY KEY,
+                    value TEXT NOT NULL
+                )
+                """
+            )
+            # 过滤阶段每个索引条目渲染后的 token 数，按文本哈希校验，条目内容变化后自动失效
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS token_costs (
+                    module_name TEXT NOT NULL,
+                    kind TEXT NOT NULL,
+                    text_hash TEXT NOT NULL,
+                    tokens INTEGER NOT NULL,
+                    PRIMARY KEY (module_name, kind)
+                )
+                """
+            )
+            self._conn.commit()
+
+    def _get_meta(self, key: str) -> Optional[str]:
+        row = self._conn.execute(
+            "SELECT value FROM index_meta WHERE key = ?", (key,)
+        ).fetchone()
+        return row[0] if row else None
+
+    def _set_meta(self, key: str, value: str) -> None:
+        self._conn.execute(
+            "INSERT OR REPLACE INTO index_meta (key, value) VALUES (?, ?)",
+            (key, value)
+        )
+
+    def _bump_generation(self) -> None:
+        self._set_meta("generation", str(self.generation() + 1))
+
+    def _json_signature(self) -> Optional[str]:
+        """index.json 的 mtime/size 签名，不存在时返回 None"""
+        try:
+            stat = os.stat(self.json_file)
+        except OSError:
+            return None
+        return f"{stat.st_mtime_ns}:{stat.st_size}"
+
+    def sync_from_json(self) -> bool:
+        """
+        如果 index.json 自上次同步后被修改过（包括首次迁移），将其整体导入
+
+        Returns:
+            bool: 发生导入返回True
+        """
+        with self.lock:
+            signature = self._json_signature()
+            if signature is None or signature == self._get_meta("json_signature"):
+                return False
+
+            try:
+                with open(self.json_file, "r", encoding="utf-8") as f:
+                    index_data = json.load(f)
+            except (OSError, json.JSONDecodeError) as e:
+                logger.warning(f"读取 {self.json_file} 失败，跳过迁移: {str(e)}")
+                return False
+
+            records = []
+            for module_name, data in index_data.items():
+                if not isinstance(data, dict):
+                    continue
+                record = dict(data)
+                record["module_name"] = module_name
+                records.append(record)
+
+            try:
+                self._conn.execute("DELETE FROM index_items")
+                self._conn.execute("DELETE FROM token_costs")
+                self._upsert_rows(records)
+                self._set_meta("json_signature", signature)
+                self._bump_generation()
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+            logger.info(f"已从 {self.json_file} 导入 {len(records)} 条索引记录")
+            return True
+
+    def export_json(self) -> None:
+        """将索引整体导出为 index.json（供仍读取该文件的模块使用）"""
+        with self.lock:
+            temp_file = self.json_file + ".tmp"
+            with open(temp_file, "w", encoding="utf-8") as f:
+                f.write("{")
+                first = True
+                for record in self.iter_records():
+                    if not first:
+                        f.write(",")
+                    first = False
+                    f.write("\n  ")
+                    f.write(json.dumps(record["module_name"], ensure_ascii=False))
+                    f.write(": ")
+                    f.write(json.dumps(record, ensure_ascii=False))
+                f.write("\n}")
+            os.replace(temp_file, self.json_file)
+
+            signature = self._json_signature()
+            if signature:
+                self._set_meta("json_signature", signature)
+                self._conn.commit()
+
+    def _upsert_rows(self, records: List[Dict[str, Any]]) -> None:
+        rows = []
+        for record in records:
+            extra = {
+                k: v for k, v in record.items()
+                if k not in ("module_name", "md5", "last_modified", "symbols")
+            }
+            rows.append((
+                record["module_name"],
+                record.get("md5") or "",
+                record.get("last_modified") or 0.0,
+                record.get("symbols") or "",
+                json.dumps(extra, ensure_ascii=False)
+            ))
+        self._conn.executemany(
+            """
+            INSERT INTO index_items (module_name, md5, last_modified, symbols, data)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT(module_name) DO UPDATE SET
+                md5 = excluded.md5,
+                last_modified = excluded.last_modified,
+                symbols = excluded.symbols,
+                data = excluded.data
+            """,
+            rows
+        )
+
+    def upsert(self, record: Dict[str, Any]) -> None:
+        self.upsert_many([record])
+
+    def upsert_many(self, records: List[Dict[str, Any]]) -> None:
+        if not records:
+            return
+        with self.lock:
+            try:
+                self._upsert_rows(records)
+                self._bump_generation()
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def delete_many(self, module_names: List[str]) -> None:
+        if not module_names:
+            return
+        with self.lock:
+            try:
+                self._conn.executemany(
+                    "DELETE FROM index_items WHERE module_name = ?",
+                    [(name,) for name in module_names]
+                )
+                self._conn.executemany(
+                    "DELETE FROM token_costs WHERE module_name = ?",
+                    [(name,) for name in module_names]
+                )
+                self._bump_generation()
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def get_md5_map(self) -> Dict[str, str]:
+        with self.lock:
+            return {
+                row[0]: row[1]
+                for row in self._conn.execute("SELECT module_name, md5 FROM index_items")
+            }
+
+    def get_symbols(self, module_name: str) -> Optional[str]:
+        with self.lock:
+            row = self._conn.execute(
+                "SELECT symbols FROM index_items WHERE module_name = ?",
+                (module_name,)
+            ).fetchone()
+            return row[0] if row else None
+
+    def _iter_rows(self, sql: str, batch_size: int = 500) -> Iterator[tuple]:
+        """分批读取查询结果，避免长时间持有锁或一次性加载全部数据"""
+        last_key = ""
+        while True:
+            with self.lock:
+                rows = self._conn.execute(
+                    sql + " WHERE module_name > ? ORDER BY module_name LIMIT ?",
+                    (last_key, batch_size)
+                ).fetchall()
+            if not rows:
+                return
+            for row in rows:
+                yield row
+            last_key = rows[-1][0]
+
+    def iter_items(self, with_symbols: bool = True) -> Iterator[IndexItem]:
+        symbols_column = "symbols" if with_symbols else "''"
+        sql = f"SELECT module_name, {symbols_column}, last_modified, md5 FROM index_items"
+        for module_name, symbols, last_modified, md5 in self._iter_rows(sql):
+            try:
+                yield IndexItem(
+                    module_name=module_name,
+                    symbols=symbols,
+                    last_modified=last_modified,
+                    md5=md5,
+                )
+            except Exception as e:
+                logger.warning(f"处理索引条目 {module_name} 时出错: {str(e)}")
+                continue
+
+    def iter_records(self) -> Iterator[Dict[str, Any]]:
+        sql = "SELECT module_name, symbols, last_modified, md5, data FROM index_items"
+        for module_name, symbols, last_modified, md5, data in self._iter_rows(sql):
+            record = {"module_name": module_name, "symbols": symbols}
+            record["last_modified"] = last_modified
+            record["md5"] = md5
+            record.update(json.loads(data))
+            yield record
+
+    def count(self) -> int:
+        with self.lock:
+            return self._conn.execute("SELECT COUNT(*) FROM index_items").fetchone()[0]
+
+    def generation(self) -> int:
+        with self.lock:
+            value = self._get_meta("generation")
+            return int(value) if value else 0
+
+    def get_token_costs(self, kind: str) -> Dict[str, Tuple[str, int]]:
+        with self.lock:
+            return {
+                row[0]: (row[1], row[2])
+                for row in self._conn.execute(
+                    "SELECT module_name, text_hash, tokens FROM token_costs WHERE kind = ?",
+                    (kind,)
+                )
+            }
+
+    def put_token_costs(self, kind: str, costs: Dict[str, Tuple[str, int]]) -> None:
+        # token 数只是缓存，不影响索引内容，因此不递增写入代数
+        if not costs:
+            return
+        with self.lock:
+            try:
+                self._conn.executemany(
+                    "INSERT OR REPLACE INTO token_costs (module_name, kind, text_hash, tokens) "
+                    "VALUES (?, ?, ?, ?)",
+                    [(name, kind, text_hash, tokens) for name, (text_hash, tokens) in costs.items()]
+                )
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def close(self) -> None:
+        """关闭数据库连接，可重复调用"""
+        with self.lock:
+            if self._conn is not None:
+                self._conn.close()
+                self._conn = None
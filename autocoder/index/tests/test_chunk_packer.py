@@ -0,0 +1,153 @@
+import os
+import shutil
+import tempfile
+import time
+
+import pytest
+
+from autocoder.index.filter.chunk_packer import ChunkPacker
+from autocoder.index.store import SqliteIndexStore
+
+HEADER = "<index>\n"
+FOOTER = "\n</index>\n<query>find the parser</query>"
+
+
+def char_count_many(texts):
+    """Character-count tokenizer: token counts are additive, so estimates are exact"""
+    return [len(text) for text in texts]
+
+
+class CountingTokenizer:
+    def __init__(self):
+        self.texts = 0
+
+    def __call__(self, texts):
+        self.texts += len(texts)
+        return char_count_many(texts)
+
+
+def _bodies(n, seed=7):
+    return [f"src/module_{i}.py\n" + "symbol " * ((i * seed) % 40) for i in range(n)]
+
+
+def _render(bodies):
+    return HEADER + "\n".join(f"##[{i}]{body}" for i, body in enumerate(bodies)) + FOOTER
+
+
+def _legacy_chunks(bodies, max_tokens):
+    """The previous big_filter algorithm: re-render and re-count the prompt for every candidate item"""
+    chunks, current = [], []
+    for i, body in enumerate(bodies):
+        candidate = [bodies[j] for j in current] + [body]
+        if not current or len(_render(candidate)) <= max_tokens:
+            current.append(i)
+        else:
+            chunks.append(current)
+            current = [i]
+    if current:
+        chunks.append(current)
+    return chunks
+
+
+@pytest.fixture
+def temp_dir():
+    temp_dir = tempfile.mkdtemp()
+    yield temp_dir
+    shutil.rmtree(temp_dir, ignore_errors=True)
+
+
+class TestChunkPacker:
+    """Tests for token-budget chunk packing"""
+
+    @pytest.mark.parametrize("max_tokens", [60, 300, 1000, 5000])
+    def test_matches_rerender_packing(self, max_tokens):
+        """With an additive tokenizer the O(N) packing equals the re-render-per-item packing"""
+        bodies = _bodies(300)
+        packer = ChunkPacker(max_tokens, count_many=char_count_many)
+        overhead = len(_render([]))
+
+        chunks = packer.pack(packer.item_costs(bodies), overhead)
+
+        assert chunks == _legacy_chunks(bodies, max_tokens)
+
+    def test_estimate_matches_rendered_prompt(self):
+        bodies = _bodies(50)
+        packer = ChunkPacker(10000, count_many=char_count_many)
+        costs = packer.item_costs(bodies)
+
+        assert packer.estimate_total(costs, len(_render([]))) == len(_render(bodies))
+        assert packer.estimate_total([], 42) == 42
+
+    def test_oversized_item_gets_its_own_chunk(self):
+        packer = ChunkPacker(100, count_many=char_count_many)
+
+        chunks = packer.pack([10, 500, 10, 10], overhead=20)
+
+        assert chunks == [[0], [1], [2, 3]]
+
+    def test_costs_are_cached_in_index_store(self, temp_dir):
+        """Unchanged items are not re-counted; changed items are"""
+        store = SqliteIndexStore(temp_dir)
+        keys = [f"src/module_{i}.py" for i in range(20)]
+        bodies = _bodies(20)
+        tokenizer = CountingTokenizer()
+        packer = ChunkPacker(1000, count_many=tokenizer)
+
+        first = packer.item_costs(bodies, keys=keys, store=store, kind="quick_filter")
+        assert tokenizer.texts == 20
+
+        bodies[3] = bodies[3] + " changed"
+        second = packer.item_costs(bodies, keys=keys, store=store, kind="quick_filter")
+        assert tokenizer.texts == 21
+        assert second[3] == first[3] + len(" changed")
+        assert second[:3] == first[:3]
+
+        packer.item_costs(bodies, keys=keys, store=store, kind="super_big_filter")
+        assert tokenizer.texts == 41
+
+    def test_deleted_items_drop_cached_costs(self, temp_dir):
+        store = SqliteIndexStore(temp_dir)
+        store.put_token_costs("quick_filter", {"a.py": ("h1", 3), "b.py": ("h2", 4)})
+
+        store.delete_many(["a.py"])
+
+        assert store.get_token_costs("quick_filter") == {"b.py": ("h2", 4)}
+        assert store.get_token_costs("super_big_filter") == {}
+
+
+def _bench_sizes():
+    return [int(n) for n in os.environ.get("CHUNK_PACKER_BENCH_SIZES", "1000,10000,50000").split(",")]
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_chunk_packing_benchmark(temp_dir):
+    """Benchmark: chunk packing time for 1k-50k index items, cold and with cached costs"""
+    legacy_max = int(os.environ.get("CHUNK_PACKER_BENCH_LEGACY_MAX", "2000"))
+    max_tokens = 32000
+
+    for size in _bench_sizes():
+        bodies = _bodies(size)
+        keys = [f"src/module_{i}.py" for i in range(size)]
+        store = SqliteIndexStore(os.path.join(temp_dir, str(size)))
+        overhead = len(_render([]))
+
+        tokenizer = CountingTokenizer()
+        start = time.perf_counter()
+        packer = ChunkPacker(max_tokens, count_many=tokenizer)
+        chunks = packer.pack(packer.item_costs(bodies, keys=keys, store=store), overhead)
+        cold = time.perf_counter() - start
+
+        start = time.perf_counter()
+        packer = ChunkPacker(max_tokens, count_many=tokenizer)
+        warm_chunks = packer.pack(packer.item_costs(bodies, keys=keys, store=store), overhead)
+        warm = time.perf_counter() - start
+        assert warm_chunks == chunks
+
+        line = f"{size} items -> {len(chunks)} chunks: cold {cold * 1000:.1f} ms, cached {warm * 1000:.1f} ms"
+        if size <= legacy_max:
+            start = time.perf_counter()
+            assert _legacy_chunks(bodies, max_tokens) == chunks
+            line += f", re-render {(time.perf_counter() - start) * 1000:.1f} ms"
+        print(line)
+        store.close()
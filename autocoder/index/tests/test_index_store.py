@@ -0,0 +1,110 @@
+import os
+import json
+import tempfile
+import pytest
+
+from autocoder.index.store import SqliteIndexStore
+from autocoder.index.types import IndexItem
+
+
+@pytest.fixture
+def temp_dir():
+    """Fixture for temporary directory"""
+    temp_dir = tempfile.mkdtemp()
+    yield temp_dir
+    import shutil
+    shutil.rmtree(temp_dir, ignore_errors=True)
+
+
+def _record(module_name, md5="md5", symbols="symbols"):
+    return {
+        "module_name": module_name,
+        "symbols": symbols,
+        "last_modified": 1234567890.0,
+        "md5": md5,
+        "input_tokens_count": 10,
+        "generated_tokens_count": 5,
+        "input_tokens_cost": 0.0,
+        "generated_tokens_cost": 0.0
+    }
+
+
+class TestSqliteIndexStore:
+    """Tests for the SQLite index store"""
+
+    def test_upsert_and_iterate(self, temp_dir):
+        """Upserts replace records by module_name"""
+        store = SqliteIndexStore(temp_dir)
+        store.upsert_many([_record("a.py", md5="1"), _record("b.py", md5="2")])
+        store.upsert(_record("a.py", md5="3", symbols="new symbols"))
+
+        assert store.count() == 2
+        assert store.get_md5_map() == {"a.py": "3", "b.py": "2"}
+        assert store.get_symbols("a.py") == "new symbols"
+        assert store.get_symbols("missing.py") is None
+
+        items = list(store.iter_items())
+        assert all(isinstance(item, IndexItem) for item in items)
+        assert [item.module_name for item in items] == ["a.py", "b.py"]
+
+    def test_iter_items_without_symbols(self, temp_dir):
+        """Symbols are only loaded when requested"""
+        store = SqliteIndexStore(temp_dir)
+        store.upsert(_record("a.py", symbols="heavy symbols"))
+
+        items = list(store.iter_items(with_symbols=False))
+        assert items[0].symbols == ""
+        assert items[0].md5 == "md5"
+
+    def test_delete_and_generation(self, temp_dir):
+        """Every write bumps the generation counter"""
+        store = SqliteIndexStore(temp_dir)
+        generation = store.generation()
+
+        store.upsert(_record("a.py"))
+        assert store.generation() == generation + 1
+
+        store.delete_many(["a.py"])
+        assert store.generation() == generation + 2
+        assert store.count() == 0
+
+    def test_migrates_existing_index_json(self, temp_dir):
+        """An existing index.json is imported once and re-imported when changed"""
+        json_file = os.path.join(temp_dir, "index.json")
+        with open(json_file, "w", encoding="utf-8") as f:
+            json.dump({"a.py": _record("a.py", md5="1")}, f)
+
+        store = SqliteIndexStore(temp_dir)
+        assert store.sync_from_json()
+        assert not store.sync_from_json()
+        assert store.get_md5_map() == {"a.py": "1"}
+
+        with open(json_file, "w", encoding="utf-8") as f:
+            json.dump({"b.py": _record("b.py", md5="22")}, f)
+
+        assert store.sync_from_json()
+        assert store.get_md5_map() == {"b.py": "22"}
+
+    def test_export_json_roundtrip(self, temp_dir):
+        """Exported index.json keeps the legacy layout and is not re-imported"""
+        store = SqliteIndexStore(temp_dir)
+        store.upsert_many([_record("a.py"), _record("b.py")])
+        store.export_json()
+
+        with open(store.json_file, "r", encoding="utf-8") as f:
+            data = json.load(f)
+
+        assert data["a.py"] == _record("a.py")
+        assert set(data) == {"a.py", "b.py"}
+        assert not store.sync_from_json()
+
+    def test_close_releases_connection(self, temp_dir):
+        """close() can be called repeatedly and the data survives reopening"""
+        store = SqliteIndexStore(temp_dir)
+        store.upsert(_record("a.py", md5="1"))
+        store.close()
+        store.close()
+
+        reopened = SqliteIndexStore(temp_dir)
+        assert reopened.get_md5_map() == {"a.py": "1"}
+        reopened.close()
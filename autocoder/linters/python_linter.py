@@ -5,6 +5,7 @@ import subprocess
 import tempfile
 from typing import Dict, List, Any, Optional, Tuple
 
+from autocoder.common.check_workers import get_check_worker_manager
 from autocoder.linters.base_linter import BaseLinter
 from loguru import logger
 
@@ -38,6 +39,12 @@ class PythonLinter(BaseLinter):
         Returns:
             bool: True if all dependencies are available, False otherwise.
         """
+        # Cache positive results process-wide instead of spawning three interpreters per file
+        return get_check_worker_manager().tool_available(
+            (self.__class__.__name__, sys.executable), self._probe_dependencies
+        )
+
+    def _probe_dependencies(self) -> bool:
         try:
             # Check if python is installed
             subprocess.run([sys.executable, "--version"], check=True, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
@@ -145,12 +152,8 @@ class PythonLinter(BaseLinter):
                 target
             ]
             
-            process = subprocess.run(
-                cmd,
-                stdout=subprocess.PIPE,
-                stderr=subprocess.PIPE,
-                text=True
-            )
+            # Served in-process by a warm worker when the tool is importable
+            process = get_check_worker_manager().run_command(cmd)
             
             if process.stdout:
                 try:
@@ -221,12 +224,8 @@ class PythonLinter(BaseLinter):
                 target
             ]
             
-            process = subprocess.run(
-                cmd,
-                stdout=subprocess.PIPE,
-                stderr=subprocess.PIPE,
-                text=True
-            )
+            # Served in-process by a warm worker when the tool is importable
+            process = get_check_worker_manager().run_command(cmd)
             
             if process.stdout:
                 # Parse flake8 output
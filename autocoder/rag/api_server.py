@@ -30,6 +30,7 @@ from byzerllm.utils.client.entrypoints.openai.protocol import (
 )
 from pydantic import BaseModel
 from typing import List,Optional
+from autocoder.rag.async_serving import AdmissionController, AdmissionRejected
 
 # If support dotenv, use it
 if os.path.exists(".env"):
@@ -44,6 +45,8 @@ logger = init_logger(__name__)
 llm_client: ByzerLLM = None
 openai_serving_chat: OpenAIServingChat = None
 openai_serving_completion: OpenAIServingCompletion = None
+# 请求级准入控制，在 serve() 中按参数重新创建，默认不限制
+admission_controller = AdmissionController()
 
 TIMEOUT_KEEP_ALIVE = 5  # seconds
 # timeout in 10 minutes. Streaming can take longer than 3 min
@@ -54,6 +57,25 @@ TIMEOUT = float(os.environ.get("BYZERLLM_APISERVER_HTTP_TIMEOUT", 600))
 router_app = FastAPI()
 
 
+class _AdmittedStreamingResponse(StreamingResponse):
+    """
+    占用准入名额的流式响应
+
+    生成器的 finally 只在开始迭代后才会执行，客户端在首块输出前断开时不会运行，
+    因此响应本身结束 (正常完成、断开或被取消) 时也释放一次名额。
+    """
+
+    def __init__(self, *args, release, **kwargs):
+        super().__init__(*args, **kwargs)
+        self._release = release
+
+    async def __call__(self, scope, receive, send):
+        try:
+            await super().__call__(scope, receive, send)
+        finally:
+            self._release()
+
+
 @router_app.get("/health")
 async def health() -> Response:
     """Health check."""
@@ -71,6 +93,20 @@ async def show_version():
     return JSONResponse(content={"version": version})
 
 
+@router_app.get("/admission/stats")
+async def show_admission_stats():
+    return JSONResponse(content=admission_controller.get_stats())
+
+
+def _busy_response(e: AdmissionRejected) -> JSONResponse:
+    logger.warning(f"Request rejected: {str(e)}")
+    return JSONResponse(
+        content={"error": str(e)},
+        status_code=429,
+        headers={"Retry-After": str(int(max(1, e.retry_after)))}
+    )
+
+
 @router_app.get("/v1/models", response_model=ModelList)
 async def models() -> ModelList:
     """Show available models. Right now we only have one model."""
@@ -89,19 +125,33 @@ async def create_completion(
         body: CompletionRequest,
         request: Request
 ):
-    generator = await openai_serving_completion.create_completion(body, request)
-    if isinstance(generator, ErrorResponse):
-        return JSONResponse(
-            content=generator.model_dump(),
-            status_code=generator.code
-        )
-    if body.stream:
-        return StreamingResponse(
-            content=generator,
-            media_type="text/event-stream"
-        )
-    else:
-        return JSONResponse(content=generator.model_dump())
+    try:
+        await admission_controller.acquire()
+    except AdmissionRejected as e:
+        return _busy_response(e)
+    streaming = False
+    try:
+        generator = await openai_serving_completion.create_completion(body, request)
+        if isinstance(generator, ErrorResponse):
+            return JSONResponse(
+                content=generator.model_dump(),
+                status_code=generator.code
+            )
+        if body.stream:
+            release = admission_controller.releaser()
+            response = _AdmittedStreamingResponse(
+                content=admission_controller.wrap_stream(generator, release),
+                release=release,
+                media_type="text/event-stream"
+            )
+            streaming = True
+            return response
+        else:
+            return JSONResponse(content=generator.model_dump())
+    finally:
+        # 流式响应的名额在响应结束时释放
+        if not streaming:
+            admission_controller.release()
 
 
 @router_app.post("/v1/chat/completions")
@@ -118,26 +168,40 @@ async def create_chat_completion(
         - function_call (Users should implement this by themselves)
         - logit_bias (to be supported by vLLM engine)
     """    
-    generator = await openai_serving_chat.create_chat_completion(body, request)
-    if isinstance(generator, ErrorResponse):
-        return JSONResponse(
-            content=generator.model_dump(),
-            status_code=generator.code
-        )
-    if body.stream:
-        return StreamingResponse(
-            content=generator,
-            media_type="text/event-stream",
-            headers={
-                "Cache-Control": "no-cache, no-transform",
-                "Connection": "keep-alive",
-                "Content-Type": "text/event-stream",
-                "X-Accel-Buffering": "no",
-                "Transfer-Encoding": "chunked",
-            }
-        )
-    else:
-        return JSONResponse(content=generator.model_dump())
+    try:
+        await admission_controller.acquire()
+    except AdmissionRejected as e:
+        return _busy_response(e)
+    streaming = False
+    try:
+        generator = await openai_serving_chat.create_chat_completion(body, request)
+        if isinstance(generator, ErrorResponse):
+            return JSONResponse(
+                content=generator.model_dump(),
+                status_code=generator.code
+            )
+        if body.stream:
+            release = admission_controller.releaser()
+            response = _AdmittedStreamingResponse(
+                content=admission_controller.wrap_stream(generator, release),
+                release=release,
+                media_type="text/event-stream",
+                headers={
+                    "Cache-Control": "no-cache, no-transform",
+                    "Connection": "keep-alive",
+                    "Content-Type": "text/event-stream",
+                    "X-Accel-Buffering": "no",
+                    "Transfer-Encoding": "chunked",
+                }
+            )
+            streaming = True
+            return response
+        else:
+            return JSONResponse(content=generator.model_dump())
+    finally:
+        # 流式响应的名额在响应结束时释放
+        if not streaming:
+            admission_controller.release()
 
 
 @router_app.post("/v1/embeddings")
@@ -259,6 +323,9 @@ class ServerArgs(BaseModel):
     tokenizer_path: Optional[str] = None
     max_static_path_length: int = int(os.environ.get("BYZERLLM_MAX_STATIC_PATH_LENGTH", 3000))  # Maximum length allowed for static file paths (larger value to better support Chinese characters)
     enable_nginx_x_accel: bool = False  # Enable Nginx X-Accel-Redirect for static file serving
+    max_concurrent_requests: int = 0  # Maximum number of chat/completion requests processed at once, 0 means unlimited
+    max_queued_requests: int = 64  # Maximum number of requests waiting for a free slot
+    admission_timeout: float = 30.0  # Seconds a request may wait for a free slot before 429
 
 def serve(llm:ByzerLLM, args: ServerArgs):
     
@@ -354,6 +421,17 @@ def serve(llm:ByzerLLM, args: ServerArgs):
                 )
             return await call_next(request)
 
+    global admission_controller
+    admission_controller = AdmissionController(
+        max_concurrent=args.max_concurrent_requests,
+        max_waiting=args.max_queued_requests,
+        wait_timeout=args.admission_timeout
+    )
+    if admission_controller.enabled:
+        logger.info(
+            f"Admission control enabled: max_concurrent={args.max_concurrent_requests}, "
+            f"max_queued={args.max_queued_requests}, timeout={args.admission_timeout}s")
+
     # Register labels for metrics
     # add_global_metrics_labels(model_name=engine_args.model)
     global llm_client
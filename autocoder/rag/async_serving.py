@@ -0,0 +1,217 @@
+"""
+RAG 服务的异步执行工具
+
+api_server 运行在单个事件循环上，而 RAG 的检索、过滤、分块和生成都是阻塞调用。
+原先的 LLWrapper.async_stream_chat_oai 在事件循环线程里直接迭代同步生成器，
+一个会话在检索或等待模型输出时，同一进程里的其他会话全部停顿。这里提供：
+
+- async_iterate: 在独立线程中驱动同步生成器，通过有界队列把结果交给事件循环
+- run_blocking: 在线程池中执行一次性的阻塞调用
+- AdmissionController: 请求级的准入控制，限制同时处理的会话数和排队数，超出时快速拒绝
+"""
+
+import asyncio
+import threading
+import time
+from contextlib import asynccontextmanager
+from typing import Any, AsyncIterator, Callable, Dict, Iterable, Optional
+
+from loguru import logger
+
+_DONE = object()
+
+
+async def run_blocking(fn: Callable[..., Any], *args: Any, **kwargs: Any) -> Any:
+    """在默认线程池中执行阻塞函数，不占用事件循环"""
+    loop = asyncio.get_running_loop()
+    return await loop.run_in_executor(None, lambda: fn(*args, **kwargs))
+
+
+async def async_iterate(
+    factory: Callable[[], Iterable[Any]], max_buffer: int = 64, name: str = "rag-stream"
+) -> AsyncIterator[Any]:
+    """
+    在独立线程中创建并迭代同步生成器，逐项异步返回
+
+    每个流占用一个线程而不是共享线程池：生成阶段一个会话会持续数十秒，
+    共享线程池会把并发会话数限制在池大小以内。并发会话数由 AdmissionController 限制。
+
+    Args:
+        factory: 返回同步可迭代对象的函数，在工作线程中调用 (创建生成器本身也可能阻塞)
+        max_buffer: 工作线程最多领先消费方的条目数，消费方变慢时生产方随之等待
+        name: 工作线程名
+    """
+    loop = asyncio.get_running_loop()
+    queue: "asyncio.Queue" = asyncio.Queue()
+    slots = threading.Semaphore(max(1, max_buffer))
+    stopped = threading.Event()
+
+    def _put(item: Any) -> None:
+        loop.call_soon_threadsafe(queue.put_nowait, item)
+
+    def _produce() -> None:
+        iterator = None
+        try:
+            iterator = iter(factory())
+            for item in iterator:
+                while not slots.acquire(timeout=0.5):
+                    if stopped.is_set():
+                        return
+                if stopped.is_set():
+                    return
+                _put(item)
+        except BaseException as e:
+            if not stopped.is_set():
+                _put(_Failure(e))
+        finally:
+            close = getattr(iterator, "close", None)
+            if stopped.is_set() and close is not None:
+                try:
+                    close()
+                except Exception as e:
+                    logger.warning(f"关闭生成器失败: {str(e)}")
+            if not loop.is_closed():
+                try:
+                    _put(_DONE)
+                except RuntimeError:
+                    pass
+
+    thread = threading.Thread(target=_produce, name=name, daemon=True)
+    thread.start()
+    try:
+        while True:
+            item = await queue.get()
+            if item is _DONE:
+                break
+            if isinstance(item, _Failure):
+                raise item.error
+            slots.release()
+            yield item
+    finally:
+        # 客户端断开或消费方提前退出时通知工作线程停止
+        stopped.set()
+
+
+class _Failure:
+    def __init__(self, error: BaseException):
+        self.error = error
+
+
+class AdmissionRejected(Exception):
+    """请求未被准入：正在处理的会话已满且排队已满或排队超时"""
+
+    def __init__(self, message: str, retry_after: float):
+        super().__init__(message)
+        self.retry_after = retry_after
+
+
+class AdmissionController:
+    """
+    请求级准入控制
+
+    最多 max_concurrent 个请求同时处理，另有最多 max_waiting 个请求排队等待，
+    排队超过 wait_timeout 秒或队列已满时抛出 AdmissionRejected，由调用方返回 429。
+    max_concurrent 小于等于 0 表示不限制。
+    """
+
+    def __init__(self, max_concurrent: int = 0, max_waiting: int = 64, wait_timeout: float = 30.0):
+        self.max_concurrent = max_concurrent
+        self.max_waiting = max(0, max_waiting)
+        self.wait_timeout = wait_timeout
+        self._semaphore: Optional[asyncio.Semaphore] = None
+        self.active = 0
+        self.waiting = 0
+        self.admitted = 0
+        self.rejected = 0
+        self.total_wait_seconds = 0.0
+
+    @property
+    def enabled(self) -> bool:
+        return self.max_concurrent > 0
+
+    def _get_semaphore(self) -> asyncio.Semaphore:
+        # 延迟创建，保证绑定到服务运行时的事件循环
+        if self._semaphore is None:
+            self._semaphore = asyncio.Semaphore(self.max_concurrent)
+        return self._semaphore
+
+    async def acquire(self) -> None:
+        """获取一个处理名额，失败时抛出 AdmissionRejected"""
+        if not self.enabled:
+            self.active += 1
+            self.admitted += 1
+            return
+        semaphore = self._get_semaphore()
+        if semaphore.locked() and self.waiting >= self.max_waiting:
+            self.rejected += 1
+            raise AdmissionRejected(
+                f"Server busy: {self.active} requests in progress, {self.waiting} waiting",
+                retry_after=self.wait_timeout,
+            )
+        start = time.monotonic()
+        self.waiting += 1
+        try:
+            await asyncio.wait_for(semaphore.acquire(), timeout=self.wait_timeout)
+        except asyncio.TimeoutError:
+            self.rejected += 1
+            raise AdmissionRejected(
+                f"Server busy: waited {self.wait_timeout:.0f}s for a free slot",
+                retry_after=self.wait_timeout,
+            )
+        finally:
+            self.waiting -= 1
+        self.total_wait_seconds += time.monotonic() - start
+        self.active += 1
+        self.admitted += 1
+
+    def release(self) -> None:
+        self.active -= 1
+        if self.enabled:
+            self._get_semaphore().release()
+
+    @asynccontextmanager
+    async def admit(self):
+        await self.acquire()
+        try:
+            yield
+        finally:
+            self.release()
+
+    def releaser(self) -> Callable[[], None]:
+        """
+        返回只生效一次的释放函数
+
+        流式响应有多条结束路径 (输出完毕、客户端断开、响应未开始就被取消)，
+        它们可以都调用同一个释放函数而不会重复释放名额。
+        """
+        released = False
+
+        def _release() -> None:
+            nonlocal released
+            if not released:
+                released = True
+                self.release()
+
+        return _release
+
+    async def wrap_stream(self, stream: AsyncIterator[Any],
+                          release: Optional[Callable[[], None]] = None) -> AsyncIterator[Any]:
+        """流式响应在整个输出期间占用名额，流结束或客户端断开时释放 (需先调用 acquire)"""
+        try:
+            async for item in stream:
+                yield item
+        finally:
+            (release or self.release)()
+
+    def get_stats(self) -> Dict[str, Any]:
+        return {
+            "max_concurrent": self.max_concurrent,
+            "max_waiting": self.max_waiting,
+            "active": self.active,
+            "waiting": self.waiting,
+            "admitted": self.admitted,
+            "rejected": self.rejected,
+            "avg_wait_seconds": round(self.total_wait_seconds / self.admitted, 4)
+            if self.admitted
+            else 0.0,
+        }
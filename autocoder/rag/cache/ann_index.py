@@ -0,0 +1,505 @@
+"""
+向量近似最近邻（ANN）索引
+
+LocalDuckdbStorage 的向量检索默认对整张表计算 list_cosine_similarity 后排序，
+每次查询都是全表扫描。这里提供一个存放在 DuckDB 数据库旁边的 IVF-Flat 索引：
+
+- 训练阶段用球面 k-means 得到 nlist 个聚类中心，每个向量归入最近的聚类
+- 查询时只扫描与查询向量最相近的 nprobe 个聚类中的向量
+- 向量、ID、聚类分配和删除标记都以追加方式写入文件，meta.json 记录已提交的长度，
+  因此崩溃后残留的半截写入会被忽略；批量写入时可以多次追加后再提交一次
+- 数据量低于训练阈值时退化为精确扫描，训练由写入方调用 train() 完成，查询路径不训练
+
+所有向量在写入前都会归一化，因此内积即余弦相似度。
+"""
+
+import os
+import json
+from typing import Dict, Iterable, List, Optional, Sequence, Tuple
+
+import numpy as np
+from loguru import logger
+from readerwriterlock import rwlock
+
+
+class IVFFlatIndex:
+    """基于倒排文件的向量索引，存储在单独的目录中"""
+
+    FORMAT_VERSION = 1
+    # 低于该行数时不训练聚类，直接精确扫描
+    MIN_TRAIN_ROWS = 4096
+    # 数据量增长到训练时的该倍数后重新训练
+    RETRAIN_GROWTH = 4.0
+    # 训练 k-means 时每个聚类最多使用的样本数
+    TRAIN_SAMPLES_PER_LIST = 64
+    KMEANS_ITERATIONS = 10
+    # 删除比例超过该值时压缩数据文件
+    COMPACT_DELETED_RATIO = 0.5
+    _BATCH_ROWS = 65536
+    # 内存中聚类分配和删除标记数组的最小容量，之后按倍数增长
+    _MIN_CAPACITY = 1024
+
+    def __init__(self, index_dir: str, nlist: int = 0, nprobe: int = 16):
+        """
+        初始化索引
+
+        Args:
+            index_dir: 索引目录，不存在时自动创建
+            nlist: 聚类数，0 表示按数据量自动确定（约为行数的平方根）
+            nprobe: 查询时默认扫描的聚类数
+        """
+        self.index_dir = index_dir
+        self.nlist = nlist
+        self.nprobe = nprobe
+        self.rwlock = rwlock.RWLockFair()
+
+        self._vectors_file = os.path.join(index_dir, "vectors.f32")
+        self._ids_file = os.path.join(index_dir, "ids.jsonl")
+        self._assign_file = os.path.join(index_dir, "assign.i32")
+        self._deleted_file = os.path.join(index_dir, "deleted.i64")
+        self._centroids_file = os.path.join(index_dir, "centroids.npy")
+        self._meta_file = os.path.join(index_dir, "meta.json")
+
+        os.makedirs(index_dir, exist_ok=True)
+        self._load()
+
+    # ------------------------------------------------------------------
+    # 持久化
+    # ------------------------------------------------------------------
+
+    def _empty_meta(self) -> Dict:
+        return {
+            "version": self.FORMAT_VERSION,
+            "dim": None,
+            "rows": 0,
+            "ids_size": 0,
+            "deleted": 0,
+            "trained_rows": 0,
+            "nlist": 0,
+        }
+
+    def _meta_signature(self) -> Optional[Tuple[int, int]]:
+        try:
+            stat = os.stat(self._meta_file)
+        except OSError:
+            return None
+        return stat.st_mtime_ns, stat.st_size
+
+    def _load(self) -> None:
+        """从磁盘加载索引，只读取 meta.json 中记录的已提交部分"""
+        meta = self._empty_meta()
+        if os.path.exists(self._meta_file):
+            try:
+                with open(self._meta_file, "r", encoding="utf-8") as f:
+                    meta.update(json.load(f))
+            except (OSError, json.JSONDecodeError) as e:
+                logger.warning(f"读取向量索引元数据失败，将重建索引: {str(e)}")
+                meta = self._empty_meta()
+        if meta.get("version") != self.FORMAT_VERSION:
+            meta = self._empty_meta()
+
+        self._meta = meta
+        self._signature = self._meta_signature()
+        rows = meta["rows"]
+        dim = meta["dim"]
+
+        self._ids: List[str] = []
+        if rows:
+            with open(self._ids_file, "rb") as f:
+                data = f.read(meta["ids_size"])
+            self._ids = [json.loads(line) for line in data.splitlines()][:rows]
+
+        if rows and len(self._ids) == rows:
+            assign = np.fromfile(self._assign_file, dtype=np.int32, count=rows)
+            deleted_rows = np.fromfile(self._deleted_file, dtype=np.int64, count=meta["deleted"]) \
+                if meta["deleted"] else np.zeros(0, dtype=np.int64)
+        else:
+            rows = 0
+            self._meta = self._empty_meta()
+            self._ids = []
+            assign = np.zeros(0, dtype=np.int32)
+            deleted_rows = np.zeros(0, dtype=np.int64)
+
+        # _assign / _deleted 是预留了容量的数组的前 rows 行视图，追加时不必整体复制
+        self._assign_buf = assign
+        self._deleted_buf = np.zeros(len(self._ids), dtype=bool)
+        self._deleted_buf[deleted_rows] = True
+        self._set_row_views(len(self._ids))
+        # 没有分配聚类的行 (训练之前追加的向量)，查询时始终参与扫描
+        self._unassigned: List[int] = np.flatnonzero(assign < 0).tolist()
+        self._pending_commit = False
+
+        self._rows_by_id: Dict[str, List[int]] = {}
+        for row, _id in enumerate(self._ids):
+            if not self._deleted[row]:
+                self._rows_by_id.setdefault(_id, []).append(row)
+
+        self._centroids = None
+        if self._meta["trained_rows"] and os.path.exists(self._centroids_file):
+            self._centroids = np.load(self._centroids_file)
+
+        self._dim = dim if rows else None
+        self._vectors = None
+        # 倒排列表 (按聚类排序的行号, 各聚类的起始位置)，写入后置空，查询时重建
+        self._lists: Optional[Tuple[np.ndarray, np.ndarray]] = None
+
+    def _truncate_to_meta(self) -> None:
+        """截断上次未提交的追加写入"""
+        meta = self._meta
+        dim = self._dim or 0
+        for path, size in (
+            (self._vectors_file, meta["rows"] * dim * 4),
+            (self._ids_file, meta["ids_size"]),
+            (self._assign_file, meta["rows"] * 4),
+            (self._deleted_file, meta["deleted"] * 8),
+        ):
+            if os.path.exists(path) and os.path.getsize(path) != size:
+                with open(path, "r+b") as f:
+                    f.truncate(size)
+
+    def _set_row_views(self, rows: int) -> None:
+        self._assign = self._assign_buf[:rows]
+        self._deleted = self._deleted_buf[:rows]
+
+    def _reserve(self, rows: int) -> None:
+        """保证聚类分配和删除标记数组至少能容纳 rows 行，容量按倍数增长"""
+        capacity = len(self._assign_buf)
+        if capacity >= rows:
+            return
+        capacity = max(rows, capacity * 2, self._MIN_CAPACITY)
+        used = len(self._assign)
+        assign = np.empty(capacity, dtype=np.int32)
+        assign[:used] = self._assign
+        deleted = np.zeros(capacity, dtype=bool)
+        deleted[:used] = self._deleted
+        self._assign_buf = assign
+        self._deleted_buf = deleted
+
+    def _commit_meta(self) -> None:
+        temp_file = self._meta_file + ".tmp"
+        with open(temp_file, "w", encoding="utf-8") as f:
+            json.dump(self._meta, f)
+        os.replace(temp_file, self._meta_file)
+        self._signature = self._meta_signature()
+        self._pending_commit = False
+
+    def commit(self) -> None:
+        """提交 add(commit=False) 追加的向量"""
+        with self.rwlock.gen_wlock():
+            if self._pending_commit:
+                self._commit_meta()
+
+    def _vector_matrix(self) -> np.ndarray:
+        if self._vectors is None:
+            rows = self._meta["rows"]
+            if rows == 0:
+                return np.zeros((0, self._dim or 0), dtype=np.float32)
+            self._vectors = np.memmap(
+                self._vectors_file, dtype=np.float32, mode="r", shape=(rows, self._dim)
+            )
+        return self._vectors
+
+    def refresh(self) -> None:
+        """如果其他进程修改了索引，重新加载"""
+        if self._meta_signature() == self._signature:
+            return
+        with self.rwlock.gen_wlock():
+            if self._meta_signature() != self._signature:
+                self._load()
+
+    # ------------------------------------------------------------------
+    # 写入
+    # ------------------------------------------------------------------
+
+    @staticmethod
+    def _normalize(vectors) -> np.ndarray:
+        matrix = np.asarray(vectors, dtype=np.float32)
+        if matrix.ndim == 1:
+            matrix = matrix.reshape(1, -1)
+        norms = np.linalg.norm(matrix, axis=1, keepdims=True)
+        return matrix / np.maximum(norms, 1e-12)
+
+    def add(self, ids: Sequence[str], vectors: Iterable[Sequence[float]], commit: bool = True) -> None:
+        """
+        追加向量
+
+        Args:
+            ids: 向量对应的文档 ID
+            vectors: 向量列表，维度必须一致
+            commit: 为 False 时只追加数据文件，由调用方写完一批后调用 commit() 提交；
+                提交前崩溃的话，重新加载时这部分写入被丢弃
+        """
+        if not ids:
+            return
+        matrix = self._normalize(vectors)
+        with self.rwlock.gen_wlock():
+            if self._dim is None:
+                self._dim = int(matrix.shape[1])
+                self._meta["dim"] = self._dim
+            elif matrix.shape[1] != self._dim:
+                raise ValueError(
+                    f"Vector dimension {matrix.shape[1]} does not match index dimension {self._dim}"
+                )
+            self._truncate_to_meta()
+
+            if self._centroids is not None:
+                assign = self._assign_rows(matrix, self._centroids)
+            else:
+                assign = np.full(len(ids), -1, dtype=np.int32)
+
+            ids_data = "".join(json.dumps(_id, ensure_ascii=False) + "\n" for _id in ids).encode("utf-8")
+            with open(self._vectors_file, "ab") as f:
+                f.write(matrix.tobytes())
+            with open(self._ids_file, "ab") as f:
+                f.write(ids_data)
+            with open(self._assign_file, "ab") as f:
+                f.write(assign.astype(np.int32).tobytes())
+
+            start = self._meta["rows"]
+            end = start + len(ids)
+            for offset, _id in enumerate(ids):
+                self._rows_by_id.setdefault(_id, []).append(start + offset)
+            self._ids.extend(ids)
+            self._reserve(end)
+            self._assign_buf[start:end] = assign
+            self._deleted_buf[start:end] = False
+            self._set_row_views(end)
+            if self._centroids is None:
+                self._unassigned.extend(range(start, end))
+
+            self._meta["rows"] = end
+            self._meta["ids_size"] += len(ids_data)
+            if commit:
+                self._commit_meta()
+            else:
+                self._pending_commit = True
+
+            self._vectors = None
+            self._lists = None
+
+    def remove(self, ids: Iterable[str]) -> int:
+        """
+        删除指定 ID 的所有向量
+
+        Returns:
+            int: 删除的向量数
+        """
+        with self.rwlock.gen_wlock():
+            rows = []
+            for _id in ids:
+                rows.extend(self._rows_by_id.pop(_id, []))
+            if not rows:
+                return 0
+
+            self._truncate_to_meta()
+            deleted = np.asarray(rows, dtype=np.int64)
+            with open(self._deleted_file, "ab") as f:
+                f.write(deleted.tobytes())
+            self._deleted[deleted] = True
+            self._meta["deleted"] += len(rows)
+            self._commit_meta()
+
+            if self._meta["deleted"] > self._meta["rows"] * self.COMPACT_DELETED_RATIO:
+                self._compact()
+            return len(rows)
+
+    def clear(self) -> None:
+        """清空索引"""
+        with self.rwlock.gen_wlock():
+            for path in (self._vectors_file, self._ids_file, self._assign_file,
+                         self._deleted_file, self._centroids_file):
+                if os.path.exists(path):
+                    os.remove(path)
+            self._meta = self._empty_meta()
+            self._commit_meta()
+            self._load()
+
+    def _compact(self) -> None:
+        """丢弃已删除的向量，重写数据文件（需持有写锁）"""
+        live = np.flatnonzero(~self._deleted)
+        vectors = np.array(self._vector_matrix()[live]) if len(live) else None
+        ids = [self._ids[row] for row in live]
+        assign = self._assign[live]
+        centroids = self._centroids
+        trained_rows = self._meta["trained_rows"]
+
+        self._write_all(ids, vectors, assign, centroids, trained_rows)
+        logger.info(f"向量索引压缩完成，剩余 {len(ids)} 条向量")
+
+    def _write_all(self, ids: List[str], vectors: Optional[np.ndarray], assign: np.ndarray,
+                   centroids: Optional[np.ndarray], trained_rows: int) -> None:
+        """整体重写索引文件（需持有写锁）"""
+        self._vectors = None
+        ids_data = "".join(json.dumps(_id, ensure_ascii=False) + "\n" for _id in ids).encode("utf-8")
+        for path, data in (
+            (self._vectors_file, vectors.tobytes() if vectors is not None else b""),
+            (self._ids_file, ids_data),
+            (self._assign_file, assign.astype(np.int32).tobytes()),
+            (self._deleted_file, b""),
+        ):
+            with open(path + ".tmp", "wb") as f:
+                f.write(data)
+            os.replace(path + ".tmp", path)
+
+        if centroids is not None:
+            np.save(self._centroids_file, centroids)
+        elif os.path.exists(self._centroids_file):
+            os.remove(self._centroids_file)
+
+        self._meta = self._empty_meta()
+        self._meta.update({
+            "dim": self._dim if ids else None,
+            "rows": len(ids),
+            "ids_size": len(ids_data),
+            "trained_rows": trained_rows if centroids is not None else 0,
+            "nlist": len(centroids) if centroids is not None else 0,
+        })
+        self._commit_meta()
+        self._load()
+
+    # ------------------------------------------------------------------
+    # 训练
+    # ------------------------------------------------------------------
+
+    def live_count(self) -> int:
+        """返回未删除的向量数"""
+        return len(self._ids) - int(self._meta["deleted"])
+
+    def needs_training(self) -> bool:
+        live = self.live_count()
+        if live < self.MIN_TRAIN_ROWS:
+            return False
+        if self._centroids is None:
+            return True
+        return live > self._meta["trained_rows"] * self.RETRAIN_GROWTH
+
+    def _target_nlist(self, rows: int) -> int:
+        if self.nlist:
+            return max(1, min(self.nlist, rows))
+        return max(1, min(int(np.sqrt(rows)), 4096))
+
+    @classmethod
+    def _assign_rows(cls, matrix: np.ndarray, centroids: np.ndarray) -> np.ndarray:
+        assign = np.empty(len(matrix), dtype=np.int32)
+        for start in range(0, len(matrix), cls._BATCH_ROWS):
+            batch = np.asarray(matrix[start:start + cls._BATCH_ROWS], dtype=np.float32)
+            assign[start:start + len(batch)] = np.argmax(batch @ centroids.T, axis=1)
+        return assign
+
+    def _kmeans(self, data: np.ndarray, k: int) -> np.ndarray:
+        """球面 k-means，返回归一化的聚类中心"""
+        rng = np.random.default_rng(42)
+        centroids = data[rng.choice(len(data), size=k, replace=False)].copy()
+        for _ in range(self.KMEANS_ITERATIONS):
+            assign = self._assign_rows(data, centroids)
+            order = np.argsort(assign, kind="stable")
+            sorted_assign = assign[order]
+            starts = np.flatnonzero(np.r_[True, sorted_assign[1:] != sorted_assign[:-1]])
+            sums = np.add.reduceat(data[order], starts, axis=0)
+            clusters = sorted_assign[starts]
+            # 空聚类保留原来的中心
+            centroids[clusters] = self._normalize(sums)
+        return centroids
+
+    def train(self, force: bool = False) -> bool:
+        """
+        训练聚类中心并重新分配所有向量
+
+        由写入方在导入数据后调用，search 不会触发训练。
+
+        Args:
+            force: 为 True 时忽略增长阈值，只要数据量足够就重新训练
+
+        Returns:
+            bool: 是否进行了训练
+        """
+        with self.rwlock.gen_wlock():
+            live = self.live_count()
+            if live < self.MIN_TRAIN_ROWS or not (force or self.needs_training()):
+                return False
+
+            live_rows = np.flatnonzero(~self._deleted)
+            matrix = self._vector_matrix()
+            k = self._target_nlist(live)
+            sample_size = min(live, k * self.TRAIN_SAMPLES_PER_LIST)
+            rng = np.random.default_rng(0)
+            sample_rows = np.sort(rng.choice(live_rows, size=sample_size, replace=False))
+            centroids = self._kmeans(np.array(matrix[sample_rows]), k)
+
+            vectors = np.array(matrix[live_rows])
+            assign = self._assign_rows(vectors, centroids)
+            ids = [self._ids[row] for row in live_rows]
+            self._write_all(ids, vectors, assign, centroids, live)
+            logger.info(f"向量索引训练完成: {live} 条向量, {k} 个聚类")
+            return True
+
+    # ------------------------------------------------------------------
+    # 查询
+    # ------------------------------------------------------------------
+
+    def _ensure_lists(self) -> Tuple[np.ndarray, np.ndarray]:
+        """
+        返回倒排列表 (按聚类排序的行号, 各聚类的起始位置)，需持有读锁或写锁
+
+        写入方持有写锁时不会有查询在读，多个查询同时构建时结果相同，
+        整体替换一个元组即可，调用方只使用返回值，不再读取属性
+        """
+        lists = self._lists
+        if lists is None:
+            order = np.argsort(self._assign, kind="stable")
+            offsets = np.searchsorted(self._assign[order], np.arange(len(self._centroids) + 1))
+            lists = self._lists = (order, offsets)
+        return lists
+
+    def search(self, vector: Sequence[float], top_k: int, min_score: Optional[float] = None,
+               nprobe: Optional[int] = None) -> List[Tuple[str, float]]:
+        """
+        近似检索与查询向量最相似的向量
+
+        Args:
+            vector: 查询向量
+            top_k: 返回的最大结果数
+            min_score: 最低余弦相似度，None 表示不过滤
+            nprobe: 扫描的聚类数，None 使用初始化时的配置
+
+        Returns:
+            List[Tuple[str, float]]: (文档 ID, 相似度)，按相似度降序
+        """
+        self.refresh()
+
+        query = self._normalize(vector)[0]
+
+        with self.rwlock.gen_rlock():
+            if self.live_count() == 0 or top_k <= 0:
+                return []
+            if query.shape[0] != self._dim:
+                raise ValueError(
+                    f"Query dimension {query.shape[0]} does not match index dimension {self._dim}"
+                )
+
+            if self._centroids is None:
+                candidates = np.arange(len(self._ids))
+            else:
+                list_order, list_offsets = self._ensure_lists()
+                probe = min(nprobe or self.nprobe, len(self._centroids))
+                centroid_scores = self._centroids @ query
+                probed = np.argpartition(-centroid_scores, probe - 1)[:probe]
+                parts = [list_order[list_offsets[c]:list_offsets[c + 1]] for c in probed]
+                # 训练之前追加、尚未分配聚类的向量始终参与扫描
+                if self._unassigned:
+                    parts.append(np.asarray(self._unassigned, dtype=np.int64))
+                candidates = np.sort(np.concatenate(parts))
+
+            candidates = candidates[~self._deleted[candidates]]
+            if len(candidates) == 0:
+                return []
+
+            scores = np.asarray(self._vector_matrix()[candidates] @ query, dtype=np.float32)
+            if min_score is not None:
+                keep = scores >= min_score
+                candidates, scores = candidates[keep], scores[keep]
+            if len(scores) > top_k:
+                top = np.argpartition(-scores, top_k - 1)[:top_k]
+                candidates, scores = candidates[top], scores[top]
+            order = np.argsort(-scores, kind="stable")
+            return [(self._ids[candidates[i]], float(scores[i])) for i in order]
@@ -0,0 +1,172 @@
+import threading
+import time
+from collections import deque
+from concurrent.futures import FIRST_COMPLETED, ThreadPoolExecutor, wait
+from typing import Any, Callable, Deque, Dict, Iterator, List, Optional, Sequence, Tuple
+
+from loguru import logger
+
+
+class AdaptiveBatchEmbedder:
+    """
+    批量计算 embedding 的调度器
+
+    - 把文本按条数 (batch_size) 和字符预算 (max_batch_chars) 打包成批，一次请求计算一批
+    - 同时最多 max_concurrency 个请求在途，调用方消费结果的速度跟不上时不再提交新请求 (背压)
+    - 按观测到的请求耗时和错误调整批大小：耗时明显低于 target_latency 且批已装满时增大，
+      超过 target_latency 时按比例缩小，请求失败时减半
+    - 失败的批拆成两半重试，单条文本最多重试 max_retries 次，仍失败则抛出异常
+
+    embed_fn 接收一组文本，返回与之一一对应的向量
+    """
+
+    def __init__(
+        self,
+        embed_fn: Callable[[List[str]], Sequence[Any]],
+        max_batch_size: int = 32,
+        min_batch_size: int = 1,
+        initial_batch_size: Optional[int] = None,
+        max_batch_chars: int = 60000,
+        max_concurrency: int = 4,
+        target_latency: float = 5.0,
+        max_retries: int = 3,
+        retry_backoff: float = 1.5,
+    ):
+        self.embed_fn = embed_fn
+        self.max_batch_size = max(1, max_batch_size)
+        self.min_batch_size = max(1, min(min_batch_size, self.max_batch_size))
+        self.batch_size = max(
+            self.min_batch_size,
+            min(initial_batch_size or max(1, self.max_batch_size // 4), self.max_batch_size),
+        )
+        self.max_batch_chars = max(1, max_batch_chars)
+        self.max_concurrency = max(1, max_concurrency)
+        self.target_latency = target_latency
+        self.max_retries = max(1, max_retries)
+        self.retry_backoff = retry_backoff
+        self._lock = threading.Lock()
+        self.requests = 0
+        self.failures = 0
+        self.texts = 0
+        self.request_time = 0.0
+
+    def embed(self, texts: Sequence[str]) -> List[Any]:
+        """返回与 texts 一一对应的向量"""
+        results: List[Any] = [None] * len(texts)
+        for indices, vectors in self.embed_iter(texts):
+            for i, vector in zip(indices, vectors):
+                results[i] = vector
+        return results
+
+    def embed_iter(self, texts: Sequence[str]) -> Iterator[Tuple[List[int], List[Any]]]:
+        """
+        按完成顺序逐批返回 (文本下标列表, 向量列表)，调用方可以边拿结果边写库
+        """
+        if not texts:
+            return
+        pending: Deque[int] = deque(range(len(texts)))
+        # (下标列表, 已失败次数)
+        retries: Deque[Tuple[List[int], int]] = deque()
+        in_flight: Dict[Any, Tuple[List[int], int]] = {}
+
+        executor = ThreadPoolExecutor(
+            max_workers=self.max_concurrency, thread_name_prefix="emb-batch"
+        )
+        try:
+            while pending or retries or in_flight:
+                while len(in_flight) < self.max_concurrency and (pending or retries):
+                    if retries:
+                        indices, attempt = retries.popleft()
+                    else:
+                        indices, attempt = self._take_batch(pending, texts), 0
+                    delay = self.retry_backoff * attempt if attempt else 0.0
+                    future = executor.submit(
+                        self._call, [texts[i] for i in indices], delay
+                    )
+                    in_flight[future] = (indices, attempt)
+
+                done, _ = wait(list(in_flight), return_when=FIRST_COMPLETED)
+                for future in done:
+                    indices, attempt = in_flight.pop(future)
+                    try:
+                        vectors, elapsed = future.result()
+                        if len(vectors) != len(indices):
+                            raise ValueError(
+                                f"embedding 返回 {len(vectors)} 个向量, 期望 {len(indices)} 个"
+                            )
+                    except Exception as e:
+                        self._on_failure(len(indices))
+                        if len(indices) > 1:
+                            middle = len(indices) // 2
+                            retries.appendleft((indices[middle:], attempt))
+                            retries.appendleft((indices[:middle], attempt))
+                            continue
+                        if attempt + 1 >= self.max_retries:
+                            logger.error(
+                                f"Failed to get embedding after {self.max_retries} "
+                                f"attempts: {str(e)}"
+                            )
+                            raise
+                        logger.warning(
+                            f"Embedding API call failed (attempt {attempt + 1}/"
+                            f"{self.max_retries}). Error: {str(e)}. Retrying..."
+                        )
+                        retries.append((indices, attempt + 1))
+                        continue
+                    self._on_success(len(indices), elapsed)
+                    yield indices, list(vectors)
+        finally:
+            for future in in_flight:
+                future.cancel()
+            executor.shutdown(wait=True)
+
+    def get_stats(self) -> Dict[str, Any]:
+        with self._lock:
+            return {
+                "requests": self.requests,
+                "failures": self.failures,
+                "texts": self.texts,
+                "batch_size": self.batch_size,
+                "avg_latency": self.request_time / self.requests if self.requests else 0.0,
+            }
+
+    def _call(self, batch: List[str], delay: float) -> Tuple[Sequence[Any], float]:
+        """在工作线程中执行一次请求，耗时在这里计量，不受调用方消费速度影响"""
+        if delay > 0:
+            time.sleep(delay)
+        start = time.monotonic()
+        vectors = self.embed_fn(batch)
+        return vectors, time.monotonic() - start
+
+    def _take_batch(self, pending: Deque[int], texts: Sequence[str]) -> List[int]:
+        """从队首取出一批，条数不超过 batch_size、总字符数不超过 max_batch_chars (至少取一条)"""
+        with self._lock:
+            batch_size = self.batch_size
+        indices = [pending.popleft()]
+        chars = len(texts[indices[0]])
+        while pending and len(indices) < batch_size:
+            next_chars = len(texts[pending[0]])
+            if chars + next_chars > self.max_batch_chars:
+                break
+            indices.append(pending.popleft())
+            chars += next_chars
+        return indices
+
+    def _on_success(self, size: int, elapsed: float) -> None:
+        with self._lock:
+            self.requests += 1
+            self.texts += size
+            self.request_time += elapsed
+            if elapsed > self.target_latency:
+                scaled = int(size * self.target_latency / max(elapsed, 1e-6))
+                self.batch_size = max(self.min_batch_size, min(self.batch_size, scaled))
+            elif elapsed < self.target_latency / 2 and size >= self.batch_size:
+                self.batch_size = min(
+                    self.max_batch_size, self.batch_size + max(1, self.batch_size // 2)
+                )
+
+    def _on_failure(self, size: int) -> None:
+        with self._lock:
+            self.requests += 1
+            self.failures += 1
+            self.batch_size = max(self.min_batch_size, min(self.batch_size, size) // 2)
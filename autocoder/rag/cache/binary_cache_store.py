@@ -0,0 +1,433 @@
+"""
+RAG 文档缓存的二进制存储格式
+
+文件布局:
+    [header][内容块 ...][偏移表][追加记录 ...]
+
+    header:   magic, 版本, 偏移表位置与长度, 已提交的文件末尾 (committed_end)
+    内容块:   每个条目 JSON 序列化后的字节，紧密排列
+    偏移表:   key -> (offset, length, tag)，在压缩时一次性写入
+    追加记录: 压缩之后的增量写入，每条记录为写入 (put) 或删除标记 (tombstone)
+
+打开时通过 mmap 映射文件，只解析偏移表和追加记录的头部，条目内容在访问时才解码。
+每次 flush 只追加变化的条目并更新 header 中的 committed_end，committed_end 之后的
+残留数据视为未提交而忽略。失效数据超过一定比例时在后台线程中压缩为新文件。
+"""
+
+import json
+import mmap
+import os
+import platform
+import struct
+import threading
+from collections.abc import MutableMapping
+from typing import Any, Callable, Dict, Iterator, NamedTuple, Optional, Tuple
+
+if platform.system() != "Windows":
+    import fcntl
+else:
+    fcntl = None
+
+from loguru import logger
+
+
+_MAGIC = b"ACRB"
+_VERSION = 1
+# magic, version, reserved, index_offset, index_length, committed_end
+_HEADER = struct.Struct("<4sHHQQQ")
+# key_len, tag_len, offset, value_len
+_INDEX_ENTRY = struct.Struct("<IIQI")
+# kind, key_len, tag_len, value_len
+_RECORD = struct.Struct("<BIII")
+_RECORD_PUT = 1
+_RECORD_DELETE = 2
+
+
+class _Entry(NamedTuple):
+    offset: int  # -1 表示尚未 flush 的条目
+    length: int
+    tag: str
+    # 条目在文件中占用的字节数：追加的记录为记录头 + 键 + 标签 + 值，
+    # 压缩后的条目为偏移表项 + 键 + 标签 + 值
+    size: int = 0
+
+
+class BinaryCacheStore(MutableMapping):
+    """
+    基于 mmap 的持久化字典，值为可 JSON 序列化的对象
+
+    写入和删除先缓存在内存中，调用 flush() 后以追加方式落盘。
+    tag_fn 用于从值中提取一个短字符串 (例如文件 md5) 存入偏移表，
+    通过 get_tag() 读取时无需解码整个条目。
+    """
+
+    COMPACT_MIN_BYTES = 1024 * 1024
+    COMPACT_GARBAGE_RATIO = 0.5
+
+    def __init__(self, path: str, tag_fn: Optional[Callable[[Any], str]] = None):
+        self.path = path
+        self.tag_fn = tag_fn
+        self._lock = threading.RLock()
+        self._index: Dict[str, _Entry] = {}
+        self._pending: Dict[str, Optional[Any]] = {}
+        self._decoded: Dict[str, Any] = {}
+        self._live_bytes = 0
+        self._index_offset = _HEADER.size
+        self._index_length = 0
+        self._committed_end = _HEADER.size
+        self._file = None
+        self._file_id: Optional[Tuple[int, int]] = None
+        self._mmap = None
+        self._compact_thread: Optional[threading.Thread] = None
+
+        directory = os.path.dirname(path)
+        if directory:
+            os.makedirs(directory, exist_ok=True)
+        with self._file_lock():
+            self._load()
+
+    # ---------- MutableMapping ----------
+
+    def __getitem__(self, key: str) -> Any:
+        with self._lock:
+            self._ensure_open()
+            entry = self._index[key]
+            if key in self._decoded:
+                return self._decoded[key]
+            value = json.loads(self._read(entry.offset, entry.length))
+            self._decoded[key] = value
+            return value
+
+    def __setitem__(self, key: str, value: Any) -> None:
+        tag = self.tag_fn(value) if self.tag_fn else ""
+        with self._lock:
+            self._forget(key)
+            self._index[key] = _Entry(-1, 0, tag)
+            self._pending[key] = value
+            self._decoded[key] = value
+
+    def __delitem__(self, key: str) -> None:
+        with self._lock:
+            if key not in self._index:
+                raise KeyError(key)
+            self._forget(key)
+            self._pending[key] = None
+
+    def __iter__(self) -> Iterator[str]:
+        with self._lock:
+            keys = list(self._index)
+        return iter(keys)
+
+    def __len__(self) -> int:
+        return len(self._index)
+
+    def __contains__(self, key: object) -> bool:
+        return key in self._index
+
+    def items(self) -> Iterator[Tuple[str, Any]]:
+        """遍历时跳过期间被其他线程删除的条目"""
+        for key in self:
+            try:
+                yield key, self[key]
+            except KeyError:
+                continue
+
+    def values(self) -> Iterator[Any]:
+        for _, value in self.items():
+            yield value
+
+    def get_tag(self, key: str, default: str = "") -> str:
+        """返回写入时由 tag_fn 提取的标签，条目不存在时返回 default"""
+        entry = self._index.get(key)
+        return entry.tag if entry is not None else default
+
+    # ---------- 持久化 ----------
+
+    def flush(self) -> None:
+        """把尚未落盘的写入和删除追加到文件末尾"""
+        with self._lock:
+            if not self._pending:
+                return
+            with self._file_lock():
+                self._reload_if_changed()
+                self._append_pending()
+        self.maybe_compact_async()
+
+    def garbage_ratio(self) -> float:
+        """失效数据占文件头之后全部字节的比例，存活条目按其记录或偏移表项的完整大小计算"""
+        data_bytes = self._committed_end - _HEADER.size
+        if data_bytes <= 0:
+            return 0.0
+        return max(0.0, 1.0 - self._live_bytes / data_bytes)
+
+    def maybe_compact_async(self) -> bool:
+        """失效数据过多时在后台线程中压缩，返回是否启动了压缩"""
+        with self._lock:
+            if self._committed_end < self.COMPACT_MIN_BYTES:
+                return False
+            if self.garbage_ratio() < self.COMPACT_GARBAGE_RATIO:
+                return False
+            if self._compact_thread is not None and self._compact_thread.is_alive():
+                return False
+            self._compact_thread = threading.Thread(
+                target=self._compact_in_background, daemon=True
+            )
+            self._compact_thread.start()
+            return True
+
+    def compact(self) -> None:
+        """把存活条目连续写入新文件并替换旧文件，同时写入新的偏移表"""
+        with self._lock:
+            with self._file_lock():
+                self._reload_if_changed()
+                self._append_pending()
+                self._rewrite()
+
+    def close(self) -> None:
+        thread = self._compact_thread
+        if thread is not None and thread.is_alive():
+            thread.join()
+        with self._lock:
+            self.flush()
+            self._unmap()
+
+    def _compact_in_background(self) -> None:
+        try:
+            self.compact()
+        except Exception as e:
+            logger.error(f"Failed to compact {self.path}: {e}")
+
+    def _append_pending(self) -> None:
+        if not self._pending:
+            return
+        records = []
+        positions = []
+        position = self._committed_end
+        for key, value in self._pending.items():
+            key_bytes = key.encode("utf-8")
+            if value is None:
+                records.append(_RECORD.pack(_RECORD_DELETE, len(key_bytes), 0, 0) + key_bytes)
+                positions.append(None)
+            else:
+                entry = self._index[key]
+                tag_bytes = entry.tag.encode("utf-8")
+                value_bytes = json.dumps(value, ensure_ascii=False).encode("utf-8")
+                value_offset = position + _RECORD.size + len(key_bytes) + len(tag_bytes)
+                records.append(
+                    _RECORD.pack(_RECORD_PUT, len(key_bytes), len(tag_bytes), len(value_bytes))
+                    + key_bytes + tag_bytes + value_bytes
+                )
+                positions.append((key, _Entry(value_offset, len(value_bytes), entry.tag, len(records[-1]))))
+            position += len(records[-1])
+
+        with open(self.path, "r+b") as f:
+            f.seek(self._committed_end)
+            f.write(b"".join(records))
+            f.flush()
+            os.fsync(f.fileno())
+            self._write_header(f, self._index_offset, self._index_length, position)
+
+        self._committed_end = position
+        for item in positions:
+            if item is not None and item[0] in self._index and self._index[item[0]].offset == -1:
+                self._index[item[0]] = item[1]
+                self._live_bytes += item[1].size
+        self._pending.clear()
+
+    def _rewrite(self) -> None:
+        tmp_path = self.path + ".compact"
+        new_index: Dict[str, _Entry] = {}
+        with open(tmp_path, "wb") as f:
+            f.write(b"\x00" * _HEADER.size)
+            position = _HEADER.size
+            for key, entry in self._index.items():
+                f.write(self._read(entry.offset, entry.length))
+                size = _INDEX_ENTRY.size + len(key.encode("utf-8")) + len(entry.tag.encode("utf-8")) + entry.length
+                new_index[key] = _Entry(position, entry.length, entry.tag, size)
+                position += entry.length
+            index_bytes = b"".join(
+                _INDEX_ENTRY.pack(len(k.encode("utf-8")), len(e.tag.encode("utf-8")), e.offset, e.length)
+                + k.encode("utf-8") + e.tag.encode("utf-8")
+                for k, e in new_index.items()
+            )
+            f.write(index_bytes)
+            f.flush()
+            os.fsync(f.fileno())
+            self._write_header(f, position, len(index_bytes), position + len(index_bytes))
+
+        # Windows 下被映射的文件不能替换，先解除映射
+        self._unmap()
+        os.replace(tmp_path, self.path)
+        self._open()
+        self._index = new_index
+        self._index_offset = position
+        self._index_length = len(index_bytes)
+        self._committed_end = position + len(index_bytes)
+        self._live_bytes = self._committed_end - _HEADER.size
+        logger.info(f"Compacted {self.path}: {len(new_index)} entries, {self._committed_end} bytes")
+
+    # ---------- 加载 ----------
+
+    def _load(self) -> None:
+        self._unmap()
+        self._index = {}
+        self._decoded = {}
+        self._live_bytes = 0
+
+        if not os.path.exists(self.path) or os.path.getsize(self.path) < _HEADER.size:
+            self._create_empty()
+            return
+
+        self._open()
+        magic, version, _, index_offset, index_length, committed_end = _HEADER.unpack(
+            self._file.read(_HEADER.size)
+        )
+        if (
+            magic != _MAGIC
+            or version != _VERSION
+            or committed_end > os.fstat(self._file.fileno()).st_size
+            or index_offset + index_length > committed_end
+        ):
+            logger.warning(f"Invalid cache file {self.path}, starting with an empty cache")
+            self._unmap()
+            self._create_empty()
+            return
+
+        self._index_offset = index_offset
+        self._index_length = index_length
+        self._committed_end = committed_end
+
+        view = self._view(committed_end)
+        position = index_offset
+        index_end = index_offset + index_length
+        while position < index_end:
+            key_len, tag_len, offset, length = _INDEX_ENTRY.unpack_from(view, position)
+            position += _INDEX_ENTRY.size
+            key = bytes(view[position:position + key_len]).decode("utf-8")
+            position += key_len
+            tag = bytes(view[position:position + tag_len]).decode("utf-8")
+            position += tag_len
+            size = _INDEX_ENTRY.size + key_len + tag_len + length
+            self._index[key] = _Entry(offset, length, tag, size)
+            self._live_bytes += size
+
+        while position < committed_end:
+            kind, key_len, tag_len, length = _RECORD.unpack_from(view, position)
+            position += _RECORD.size
+            key = bytes(view[position:position + key_len]).decode("utf-8")
+            position += key_len
+            tag = bytes(view[position:position + tag_len]).decode("utf-8")
+            position += tag_len
+            old = self._index.pop(key, None)
+            if old is not None:
+                self._live_bytes -= old.size
+            if kind == _RECORD_PUT:
+                size = _RECORD.size + key_len + tag_len + length
+                self._index[key] = _Entry(position, length, tag, size)
+                self._live_bytes += size
+            position += length
+
+    def _reload_if_changed(self) -> None:
+        """其他进程写入或压缩过文件时重新加载，再把本进程未落盘的修改叠加上去"""
+        with open(self.path, "rb") as f:
+            header = f.read(_HEADER.size)
+            stat = os.fstat(f.fileno())
+        # 压缩会用新文件替换旧文件，偏移表相同也要按文件身份判断
+        if len(header) == _HEADER.size and (stat.st_dev, stat.st_ino) == self._file_id:
+            _, _, index_offset, index_length, committed_end = _HEADER.unpack(header)[1:]
+            if (index_offset, index_length, committed_end) == (
+                self._index_offset, self._index_length, self._committed_end
+            ):
+                if self._file is None:
+                    self._open()
+                return
+        pending = self._pending
+        self._load()
+        self._pending = {}
+        for key, value in pending.items():
+            if value is None:
+                if key in self._index:
+                    self._forget(key)
+                    self._pending[key] = None
+            else:
+                self[key] = value
+
+    def _create_empty(self) -> None:
+        with open(self.path, "wb") as f:
+            self._write_header(f, _HEADER.size, 0, _HEADER.size)
+        self._index_offset = _HEADER.size
+        self._index_length = 0
+        self._committed_end = _HEADER.size
+        self._open()
+
+    # ---------- 底层读写 ----------
+
+    def _forget(self, key: str) -> None:
+        old = self._index.pop(key, None)
+        if old is not None and old.offset >= 0:
+            self._live_bytes -= old.size
+        self._decoded.pop(key, None)
+
+    def _read(self, offset: int, length: int) -> bytes:
+        return bytes(self._view(offset + length)[offset:offset + length])
+
+    def _open(self) -> None:
+        """打开当前路径上的文件并记住其身份，之后的映射都基于这个文件句柄"""
+        self._file = open(self.path, "rb")
+        stat = os.fstat(self._file.fileno())
+        self._file_id = (stat.st_dev, stat.st_ino)
+
+    def _ensure_open(self) -> None:
+        """close() 之后再次读取时重新打开，文件已被替换则先重新加载偏移表"""
+        if self._file is None:
+            with self._file_lock():
+                self._reload_if_changed()
+
+    def _view(self, required: int):
+        """
+        返回覆盖 [0, required) 的只读映射，文件增长后重新映射。
+        映射始终基于 _load() 时打开的句柄，其他进程压缩替换了路径上的文件也不会读到新文件
+        """
+        if self._mmap is None or len(self._mmap) < required:
+            if self._mmap is not None:
+                self._mmap.close()
+            self._mmap = mmap.mmap(self._file.fileno(), 0, access=mmap.ACCESS_READ)
+        return self._mmap
+
+    def _unmap(self) -> None:
+        if self._mmap is not None:
+            self._mmap.close()
+            self._mmap = None
+        if self._file is not None:
+            self._file.close()
+            self._file = None
+
+    @staticmethod
+    def _write_header(f, index_offset: int, index_length: int, committed_end: int) -> None:
+        f.seek(0)
+        f.write(_HEADER.pack(_MAGIC, _VERSION, 0, index_offset, index_length, committed_end))
+        f.flush()
+        os.fsync(f.fileno())
+
+    def _file_lock(self):
+        return _FileLock(self.path + ".lock")
+
+
+class _FileLock:
+    """跨进程的排他锁，Windows 下不加锁"""
+
+    def __init__(self, lock_path: str):
+        self.lock_path = lock_path
+        self._f = None
+
+    def __enter__(self):
+        if fcntl:
+            self._f = open(self.lock_path, "w", encoding="utf-8")
+            fcntl.flock(self._f, fcntl.LOCK_EX)
+        return self
+
+    def __exit__(self, exc_type, exc_val, exc_tb):
+        if self._f is not None:
+            fcntl.flock(self._f, fcntl.LOCK_UN)
+            self._f.close()
+            self._f = None
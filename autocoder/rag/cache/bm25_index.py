@@ -0,0 +1,269 @@
+"""
+BM25 倒排索引
+
+LocalDuckdbStorage 的检索原本只有向量相似度，代码类查询里的标识符 (函数名、类名、配置键)
+往往得不到精确召回。这里在 DuckDB 文件旁边维护一个基于 SQLite 的倒排索引：
+
+- 与向量表使用相同的 chunk (_id)，随 add_docs / delete_by_ids 增量更新
+- 分词面向代码：标识符整体保留，同时按 snake_case / camelCase 拆出子词；
+  连续的中日韩字符按二元组切分，不依赖额外的分词库
+- 文档数、总长度等统计量保存在 meta 表中，查询时不需要全表聚合
+"""
+
+import math
+import os
+import re
+import sqlite3
+import threading
+from collections import Counter
+from typing import Dict, Iterable, List, Optional, Sequence, Tuple
+
+from loguru import logger
+
+_CJK = "\u3040-\u30ff\u3400-\u4dbf\u4e00-\u9fff\uac00-\ud7af"
+_TOKEN_RE = re.compile(r"[A-Za-z_][A-Za-z0-9_]*|\d+|[" + _CJK + "]+")
+_CAMEL_RE = re.compile(r"[A-Z]+(?=[A-Z][a-z]|\d|\b)|[A-Z]?[a-z]+|[A-Z]+|\d+")
+_CJK_RE = re.compile("[" + _CJK + "]")
+
+
+def tokenize(text: str) -> List[str]:
+    """
+    面向代码和中英文混合文本的分词
+
+    getUserName -> getusername, get, user, name
+    MAX_RETRY_COUNT -> max_retry_count, max, retry, count
+    向量检索 -> 向量, 量检, 检索
+    """
+    tokens: List[str] = []
+    for match in _TOKEN_RE.finditer(text):
+        word = match.group(0)
+        if _CJK_RE.match(word):
+            if len(word) == 1:
+                tokens.append(word)
+            else:
+                tokens.extend(word[i : i + 2] for i in range(len(word) - 1))
+            continue
+        lower = word.lower()
+        tokens.append(lower)
+        parts = [p.lower() for piece in word.split("_") for p in _CAMEL_RE.findall(piece)]
+        if len(parts) > 1:
+            tokens.extend(p for p in parts if p != lower)
+    return tokens
+
+
+class BM25Index:
+    """存储在单个 SQLite 文件中的 BM25 倒排索引"""
+
+    def __init__(self, db_file: str, k1: float = 1.2, b: float = 0.75):
+        """
+        Args:
+            db_file: 索引文件路径，":memory:" 表示只保存在内存中
+            k1: 词频饱和参数
+            b: 文档长度归一化参数
+        """
+        self.db_file = db_file
+        self.k1 = k1
+        self.b = b
+        self.lock = threading.RLock()
+        if db_file != ":memory:":
+            os.makedirs(os.path.dirname(os.path.abspath(db_file)), exist_ok=True)
+        self._conn = sqlite3.connect(db_file, check_same_thread=False)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        self._init_db()
+
+    def _init_db(self) -> None:
+        with self.lock:
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS bm25_docs (
+                    doc_id TEXT PRIMARY KEY,
+                    file_path TEXT NOT NULL,
+                    length INTEGER NOT NULL
+                )
+                """
+            )
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS bm25_postings (
+                    term TEXT NOT NULL,
+                    doc_id TEXT NOT NULL,
+                    tf INTEGER NOT NULL,
+                    PRIMARY KEY (term, doc_id)
+                ) WITHOUT ROWID
+                """
+            )
+            self._conn.execute(
+                "CREATE INDEX IF NOT EXISTS bm25_postings_doc ON bm25_postings (doc_id)"
+            )
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS bm25_meta (
+                    key TEXT PRIMARY KEY,
+                    value INTEGER NOT NULL
+                )
+                """
+            )
+            self._conn.commit()
+
+    def _get_meta(self, key: str) -> int:
+        row = self._conn.execute(
+            "SELECT value FROM bm25_meta WHERE key = ?", (key,)
+        ).fetchone()
+        return int(row[0]) if row else 0
+
+    def _add_meta(self, key: str, delta: int) -> None:
+        self._conn.execute(
+            "INSERT INTO bm25_meta (key, value) VALUES (?, ?) "
+            "ON CONFLICT(key) DO UPDATE SET value = value + excluded.value",
+            (key, delta),
+        )
+
+    def add(self, docs: Iterable[Tuple[str, str, str]]) -> None:
+        """
+        写入或替换文档
+
+        Args:
+            docs: (doc_id, file_path, text) 序列
+        """
+        docs = list(docs)
+        if not docs:
+            return
+        with self.lock:
+            try:
+                self._remove_locked([doc_id for doc_id, _, _ in docs])
+                postings = []
+                rows = []
+                total_length = 0
+                for doc_id, file_path, text in docs:
+                    counts = Counter(tokenize(text))
+                    length = sum(counts.values())
+                    total_length += length
+                    rows.append((doc_id, file_path, length))
+                    postings.extend((term, doc_id, tf) for term, tf in counts.items())
+                self._conn.executemany(
+                    "INSERT INTO bm25_docs (doc_id, file_path, length) VALUES (?, ?, ?)", rows
+                )
+                self._conn.executemany(
+                    "INSERT INTO bm25_postings (term, doc_id, tf) VALUES (?, ?, ?)", postings
+                )
+                self._add_meta("doc_count", len(rows))
+                self._add_meta("total_length", total_length)
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def remove(self, doc_ids: Sequence[str]) -> int:
+        """删除文档，返回实际删除的数量"""
+        if not doc_ids:
+            return 0
+        with self.lock:
+            try:
+                removed = self._remove_locked(doc_ids)
+                self._conn.commit()
+                return removed
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def _remove_locked(self, doc_ids: Sequence[str]) -> int:
+        removed = 0
+        removed_length = 0
+        for start in range(0, len(doc_ids), 500):
+            batch = list(doc_ids[start : start + 500])
+            placeholders = ",".join("?" * len(batch))
+            row = self._conn.execute(
+                f"SELECT COUNT(*), COALESCE(SUM(length), 0) FROM bm25_docs "
+                f"WHERE doc_id IN ({placeholders})",
+                batch,
+            ).fetchone()
+            if not row[0]:
+                continue
+            removed += row[0]
+            removed_length += row[1]
+            self._conn.execute(
+                f"DELETE FROM bm25_postings WHERE doc_id IN ({placeholders})", batch
+            )
+            self._conn.execute(
+                f"DELETE FROM bm25_docs WHERE doc_id IN ({placeholders})", batch
+            )
+        if removed:
+            self._add_meta("doc_count", -removed)
+            self._add_meta("total_length", -removed_length)
+        return removed
+
+    def clear(self) -> None:
+        with self.lock:
+            self._conn.execute("DELETE FROM bm25_postings")
+            self._conn.execute("DELETE FROM bm25_docs")
+            self._conn.execute("DELETE FROM bm25_meta")
+            self._conn.commit()
+
+    def count(self) -> int:
+        with self.lock:
+            return self._get_meta("doc_count")
+
+    def search(
+        self, query: str, top_k: int = 100, max_df_ratio: Optional[float] = 0.5
+    ) -> List[Tuple[str, str, float]]:
+        """
+        返回 BM25 得分最高的文档 [(doc_id, file_path, score)]
+
+        Args:
+            query: 查询文本
+            top_k: 返回的最大文档数
+            max_df_ratio: 出现在超过该比例文档中的词不参与召回 (只在查询包含其他词时生效)，
+                避免 self、return 之类的高频词拖慢查询
+        """
+        terms = list(dict.fromkeys(tokenize(query)))
+        if not terms:
+            return []
+        with self.lock:
+            doc_count = self._get_meta("doc_count")
+            if doc_count <= 0:
+                return []
+            avg_length = max(1.0, self._get_meta("total_length") / doc_count)
+            placeholders = ",".join("?" * len(terms))
+            dfs: Dict[str, int] = dict(
+                self._conn.execute(
+                    f"SELECT term, COUNT(*) FROM bm25_postings WHERE term IN ({placeholders}) "
+                    f"GROUP BY term",
+                    terms,
+                ).fetchall()
+            )
+            if not dfs:
+                return []
+            selected = [t for t in terms if t in dfs]
+            if max_df_ratio is not None and len(selected) > 1:
+                rare = [t for t in selected if dfs[t] <= doc_count * max_df_ratio]
+                selected = rare or selected
+
+            placeholders = ",".join("?" * len(selected))
+            rows = self._conn.execute(
+                f"SELECT p.term, p.doc_id, p.tf, d.length, d.file_path "
+                f"FROM bm25_postings p JOIN bm25_docs d ON d.doc_id = p.doc_id "
+                f"WHERE p.term IN ({placeholders})",
+                selected,
+            ).fetchall()
+
+        idf = {
+            term: math.log(1.0 + (doc_count - dfs[term] + 0.5) / (dfs[term] + 0.5))
+            for term in selected
+        }
+        scores: Dict[str, float] = {}
+        paths: Dict[str, str] = {}
+        for term, doc_id, tf, length, file_path in rows:
+            norm = self.k1 * (1.0 - self.b + self.b * length / avg_length)
+            scores[doc_id] = scores.get(doc_id, 0.0) + idf[term] * tf * (self.k1 + 1.0) / (tf + norm)
+            paths[doc_id] = file_path
+
+        ranked = sorted(scores.items(), key=lambda x: x[1], reverse=True)[:top_k]
+        return [(doc_id, paths[doc_id], score) for doc_id, score in ranked]
+
+    def close(self) -> None:
+        with self.lock:
+            try:
+                self._conn.close()
+            except Exception as e:
+                logger.warning(f"关闭 BM25 索引失败: {str(e)}")
@@ -31,6 +31,7 @@ from typing import Union
 from pydantic import BaseModel
 from autocoder.rag.cache.cache_result_merge import CacheResultMerger, MergeStrategy
 from .failed_files_utils import save_failed_files, load_failed_files
+from .chunk_diff import ChunkDiff, diff_chunks
 import time
 from byzerllm import ByzerLLM, SimpleByzerLLM
 from autocoder.utils.llms import get_llm_names
@@ -207,13 +208,16 @@ class ByzerStorageCache(BaseCacheManager):
         logger.info(f"[BUILD CACHE] Starting cache build for path: {self.path}")
 
         files_to_process = []
+        current_files = set()
         for file_info in self.get_all_files():            
+            current_files.add(file_info.file_path)
             if (
                 file_info.file_path not in self.cache                
                 or self.cache[file_info.file_path].md5 != file_info.file_md5
             ):
                 files_to_process.append(file_info)
                 
+        self._remove_deleted_files(current_files)
         logger.info(f"[BUILD CACHE] Found {len(files_to_process)} files to process")
         if not files_to_process:
             logger.info("[BUILD CACHE] No files to process, cache build completed")
@@ -267,10 +271,20 @@ class ByzerStorageCache(BaseCacheManager):
         # Save to local cache
         logger.info("[BUILD CACHE] Saving cache to local file")
         self.write_cache()
+
+        # Only write new or changed chunks; unchanged rows stay in storage
+        diff = self._diff_with_storage(
+            [file_info.file_path for file_info in files_to_process], items
+        )
+        logger.info(f"[BUILD CACHE] Chunk diff: {len(diff.to_insert)} new or changed, "
+                    f"{diff.unchanged} unchanged, {len(diff.stale_ids)} stale")
+        if diff.stale_ids:
+            self.storage.delete_by_ids(diff.stale_ids)
+            if not diff.to_insert:
+                self.storage.commit()
+        items = diff.to_insert
         
         if items:
-            logger.info("[BUILD CACHE] Clearing existing cache from Byzer Storage")
-            self.storage.truncate_table()
             logger.info(f"[BUILD CACHE] Preparing to write to Byzer Storage, total chunks: {len(items)}, total files: {len(files_to_process)}")
             
             # Use a fixed optimal batch size instead of dividing by worker count
@@ -326,6 +340,42 @@ class ByzerStorageCache(BaseCacheManager):
             self.storage.commit()
             logger.info("[BUILD CACHE] Changes committed to Byzer Storage")
 
+    def _remove_deleted_files(self, current_files: set) -> None:
+        """
+        Remove rows and cache entries of files that were deleted since the last build.
+        The table is no longer truncated on rebuild, so they would otherwise stay searchable.
+        Byzer Storage cannot list stored file paths, so the local cache is the source of truth.
+        """
+        deleted_files = [file_path for file_path in self.cache if file_path not in current_files]
+        if not deleted_files:
+            return
+        stale_ids = []
+        for file_path in deleted_files:
+            query = self.storage.query_builder()
+            query.and_filter().add_condition("file_path", file_path).build()
+            stale_ids.extend(result["_id"] for result in (query.execute() or []))
+            del self.cache[file_path]
+        logger.info(f"[BUILD CACHE] Removing {len(deleted_files)} deleted files "
+                    f"({len(stale_ids)} chunks) from Byzer Storage")
+        if stale_ids:
+            self.storage.delete_by_ids(stale_ids)
+            self.storage.commit()
+        self.write_cache()
+
+    def _diff_with_storage(self, file_paths: List[str], items: List[Dict[str, Any]]) -> ChunkDiff:
+        """Compare freshly chunked files with the rows already in Byzer Storage, file by file"""
+        items_by_file: Dict[str, List[Dict[str, Any]]] = {p: [] for p in file_paths}
+        for item in items:
+            items_by_file.setdefault(item["file_path"], []).append(item)
+
+        diff = ChunkDiff()
+        for file_path, file_items in items_by_file.items():
+            query = self.storage.query_builder()
+            query.and_filter().add_condition("file_path", file_path).build()
+            existing = {r["_id"]: r.get("content") for r in (query.execute() or [])}
+            diff.merge(diff_chunks(existing, file_items))
+        return diff
+
     def update_storage(self, file_info: FileInfo, is_delete: bool):
         """
         Updates file content in the Byzer Storage vector database.
@@ -336,13 +386,13 @@ class ByzerStorageCache(BaseCacheManager):
         """
         logger.info(f"[UPDATE STORAGE] Starting update for file: {file_info.file_path}, is delete: {is_delete}")
         
-        query = self.storage.query_builder()
-        query.and_filter().add_condition("file_path", file_info.file_path).build()
-        results = query.execute()
-        if results:
-            logger.info(f"[UPDATE STORAGE] Deleting existing records from Byzer Storage: {len(results)} records")
-            for result in results:
-                self.storage.delete_by_ids([result["_id"]])
+        if is_delete:
+            query = self.storage.query_builder()
+            query.and_filter().add_condition("file_path", file_info.file_path).build()
+            results = query.execute()
+            if results:
+                logger.info(f"[UPDATE STORAGE] Deleting existing records from Byzer Storage: {len(results)} records")
+                self.storage.delete_by_ids([result["_id"] for result in results])
         items = []
 
         if not is_delete:
@@ -367,6 +417,16 @@ class ByzerStorageCache(BaseCacheManager):
                         "mtime": modify_time,
                     }
                     items.append(chunk_item)
+
+            diff = self._diff_with_storage([file_info.file_path], items)
+            logger.info(f"[UPDATE STORAGE] Chunk diff: {len(diff.to_insert)} new or changed, "
+                        f"{diff.unchanged} unchanged, {len(diff.stale_ids)} stale")
+            if diff.stale_ids:
+                self.storage.delete_by_ids(diff.stale_ids)
+                if not diff.to_insert:
+                    self.storage.commit()
+            items = diff.to_insert
+
         if items:
             logger.info(f"[UPDATE STORAGE] Starting to write {len(items)} chunks to Byzer Storage")
             start_time = time.time()
@@ -0,0 +1,48 @@
+from dataclasses import dataclass, field
+from typing import Any, Dict, List
+
+
+@dataclass
+class ChunkDiff:
+    """
+    文件重新切分后与已入库 chunk 的差异
+
+    to_insert: 新增或内容变化的 chunk，需要重新计算 embedding 并写入
+    stale_ids: 已入库但不再存在或内容变化的 chunk id，需要删除
+    unchanged: 内容未变化、保留原有数据行的 chunk 数
+    """
+
+    to_insert: List[Dict[str, Any]] = field(default_factory=list)
+    stale_ids: List[str] = field(default_factory=list)
+    unchanged: int = 0
+
+    def merge(self, other: "ChunkDiff") -> None:
+        self.to_insert.extend(other.to_insert)
+        self.stale_ids.extend(other.stale_ids)
+        self.unchanged += other.unchanged
+
+
+def diff_chunks(existing: Dict[str, str], chunk_items: List[Dict[str, Any]]) -> ChunkDiff:
+    """
+    按 chunk id 和内容比较，找出需要写入和删除的 chunk
+
+    Args:
+        existing: 已入库的 chunk，{_id: content}
+        chunk_items: 重新切分得到的 chunk，每项至少包含 _id 和 content
+
+    Returns:
+        ChunkDiff
+    """
+    diff = ChunkDiff()
+    seen = set()
+    for item in chunk_items:
+        _id = item["_id"]
+        seen.add(_id)
+        if _id in existing and existing[_id] == item["content"]:
+            diff.unchanged += 1
+            continue
+        if _id in existing:
+            diff.stale_ids.append(_id)
+        diff.to_insert.append(item)
+    diff.stale_ids.extend(_id for _id in existing if _id not in seen)
+    return diff
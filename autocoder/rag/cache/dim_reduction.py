@@ -0,0 +1,173 @@
+"""
+embedding 降维
+
+LocalDuckdbStorage 在入库和查询前把 embedding 模型输出的向量降到 rag_duckdb_vector_dim 维。
+投影矩阵只计算一次并保存在 DuckDB 文件旁边，之后对整批向量做一次矩阵乘法：
+
+- random: 固定种子 42 的高斯随机投影，与早期每次调用重新生成的矩阵一致，已有数据无需重建
+- pca: 在语料样本上拟合的 PCA 基（样本均值 + 前 target_dim 个主成分），
+  样本数少于 target_dim 时退化为 random
+"""
+
+import hashlib
+import os
+import threading
+from typing import Dict, Optional, Tuple
+
+import numpy as np
+from loguru import logger
+
+PROJECTION_METHODS = ("random", "pca")
+
+# 同一进程内共享随机投影矩阵，键为 (source_dim, target_dim)
+_random_matrices: Dict[Tuple[int, int], np.ndarray] = {}
+_random_matrices_lock = threading.Lock()
+
+
+def random_projection_matrix(source_dim: int, target_dim: int, seed: int = 42) -> np.ndarray:
+    key = (source_dim, target_dim)
+    with _random_matrices_lock:
+        matrix = _random_matrices.get(key)
+        if matrix is None:
+            matrix = (
+                np.random.RandomState(seed).randn(source_dim, target_dim) / np.sqrt(source_dim)
+            ).astype(np.float32)
+            _random_matrices[key] = matrix
+        return matrix
+
+
+class EmbeddingProjector:
+    """把 (n, source_dim) 的向量矩阵投影到 (n, target_dim)，输出 float32"""
+
+    def __init__(
+        self,
+        target_dim: int,
+        method: str = "random",
+        path: Optional[str] = None,
+        sample_size: Optional[int] = None,
+    ):
+        """
+        Args:
+            target_dim: 降维后的维度
+            method: random 或 pca
+            path: 投影矩阵的保存路径 (.npz)，为 None 时只保存在内存中
+            sample_size: pca 拟合时使用的样本数，默认为 target_dim 的 4 倍
+        """
+        if method not in PROJECTION_METHODS:
+            raise ValueError(f"Unknown projection method: {method}")
+        self.target_dim = target_dim
+        self.method = method
+        self.path = path
+        self.sample_size = sample_size or max(4 * target_dim, 1024)
+        self.kind: Optional[str] = None
+        self.matrix: Optional[np.ndarray] = None
+        self.mean: Optional[np.ndarray] = None
+        self.signature = ""
+        self._lock = threading.Lock()
+        self._load()
+
+    @property
+    def needs_fit(self) -> bool:
+        """pca 模式下尚未拟合时为 True，此时应先调用 fit"""
+        return self.method == "pca" and self.matrix is None
+
+    def fit(self, sample: np.ndarray) -> None:
+        """用语料向量样本拟合 PCA 基，并保存到 path"""
+        sample = np.asarray(sample, dtype=np.float64)
+        with self._lock:
+            if self.matrix is not None:
+                return
+            rows, source_dim = sample.shape
+            if rows < self.target_dim or source_dim < self.target_dim:
+                logger.warning(
+                    f"PCA 样本不足 ({rows} 条, {source_dim} 维), 目标维度 {self.target_dim}, "
+                    f"改用随机投影"
+                )
+                self._set("random", random_projection_matrix(source_dim, self.target_dim), None)
+            else:
+                mean = sample.mean(axis=0)
+                # 右奇异向量即协方差矩阵的特征向量，按方差从大到小排列
+                _, _, vt = np.linalg.svd(sample - mean, full_matrices=False)
+                self._set(
+                    "pca",
+                    vt[: self.target_dim].T.astype(np.float32),
+                    mean.astype(np.float32),
+                )
+                logger.info(f"已在 {rows} 条样本上拟合 PCA 投影 ({source_dim} -> {self.target_dim})")
+            self._save()
+
+    def transform(self, vectors) -> np.ndarray:
+        matrix = np.asarray(vectors, dtype=np.float32)
+        if matrix.ndim == 1:
+            matrix = matrix[None, :]
+        projection, mean = self._projection_for(matrix.shape[1])
+        if mean is not None:
+            matrix = matrix - mean
+        return matrix @ projection
+
+    def _projection_for(self, source_dim: int) -> Tuple[np.ndarray, Optional[np.ndarray]]:
+        with self._lock:
+            if self.matrix is not None and self.matrix.shape[0] == source_dim:
+                return self.matrix, self.mean
+            if self.matrix is not None:
+                logger.warning(
+                    f"投影矩阵的输入维度 {self.matrix.shape[0]} 与 embedding 维度 {source_dim} "
+                    f"不一致, 可能更换了 embedding 模型, 改用随机投影"
+                )
+                return random_projection_matrix(source_dim, self.target_dim), None
+            if self.method == "random":
+                self._set("random", random_projection_matrix(source_dim, self.target_dim), None)
+                self._save()
+                return self.matrix, self.mean
+        # pca 尚未拟合（例如空库上的查询），临时使用随机投影，不保存
+        return random_projection_matrix(source_dim, self.target_dim), None
+
+    def _set(self, kind: str, matrix: np.ndarray, mean: Optional[np.ndarray]) -> None:
+        self.kind = kind
+        self.matrix = matrix
+        self.mean = mean
+        if kind == "random":
+            # 与早期实现相同，embedding 缓存键不需要区分
+            self.signature = ""
+        else:
+            digest = hashlib.sha256(matrix.tobytes())
+            if mean is not None:
+                digest.update(mean.tobytes())
+            self.signature = f"{kind}-{digest.hexdigest()[:12]}"
+
+    def _load(self) -> None:
+        if not self.path or not os.path.exists(self.path):
+            return
+        try:
+            with np.load(self.path) as data:
+                kind = str(data["kind"])
+                matrix = data["matrix"].astype(np.float32)
+                mean = data["mean"].astype(np.float32) if data["mean"].size else None
+        except Exception as e:
+            logger.warning(f"读取投影矩阵失败, 将重新生成: {str(e)}")
+            return
+        if matrix.ndim != 2 or matrix.shape[1] != self.target_dim:
+            logger.warning(f"投影矩阵维度 {matrix.shape} 与目标维度 {self.target_dim} 不一致, 将重新生成")
+            return
+        if kind != self.method:
+            logger.warning(
+                f"{self.path} 中保存的是 {kind} 投影, 已入库的向量依赖它, 继续使用; "
+                f"删除该文件并重建索引后才会改用 {self.method}"
+            )
+        self._set(kind, matrix, mean)
+
+    def _save(self) -> None:
+        if not self.path or self.matrix is None:
+            return
+        tmp_path = f"{self.path}.tmp"
+        try:
+            with open(tmp_path, "wb") as f:
+                np.savez(
+                    f,
+                    kind=np.array(self.kind),
+                    matrix=self.matrix,
+                    mean=self.mean if self.mean is not None else np.zeros(0, dtype=np.float32),
+                )
+            os.replace(tmp_path, self.path)
+        except OSError as e:
+            logger.warning(f"保存投影矩阵失败: {str(e)}")
@@ -0,0 +1,267 @@
+"""
+流式文档入库流水线
+
+build_cache 原先先用 pool.map 解析全部文件，再把所有 chunk 放进一个列表后才开始写库，
+峰值内存随语料规模线性增长。这里把入库拆成三个阶段，阶段之间用有界队列连接：
+
+    parse (进程池 imap_unordered) -> chunk (切分、与已入库数据比对) -> write (embedding + 批量写入)
+
+- 进程池的在途任务数由 BoundedTaskFeeder 限制，下游阻塞时解析也随之暂停
+- 一个文件的全部 chunk 写入后才回调 on_file_done，调用方据此记录检查点，
+  中断后重新构建时已完成的文件会被跳过
+- 定期输出各阶段吞吐、忙碌比例和队列深度，便于定位瓶颈
+"""
+
+import queue
+import threading
+import time
+from typing import Any, Callable, Dict, Iterable, Iterator, List, Optional, Tuple
+
+from loguru import logger
+
+_DONE = object()
+
+
+class StageStats:
+    """单个阶段的计数：处理的文件/chunk 数和实际工作耗时 (不含等待上下游的时间)"""
+
+    def __init__(self, name: str):
+        self.name = name
+        self.items = 0
+        self.busy_seconds = 0.0
+        self._lock = threading.Lock()
+
+    def record(self, items: int, seconds: float) -> None:
+        with self._lock:
+            self.items += items
+            self.busy_seconds += seconds
+
+    def snapshot(self, elapsed: float) -> Dict[str, float]:
+        with self._lock:
+            return {
+                "items": self.items,
+                "busy_seconds": round(self.busy_seconds, 2),
+                "items_per_second": round(self.items / elapsed, 2) if elapsed > 0 else 0.0,
+                "utilization": round(min(1.0, self.busy_seconds / elapsed), 2) if elapsed > 0 else 0.0,
+            }
+
+
+class BoundedTaskFeeder:
+    """
+    包装任务迭代器，最多放出 limit 个尚未被消费的任务
+
+    Pool.imap_unordered 会一次性取走全部任务并缓存所有结果，把它交给 imap_unordered
+    后，每消费一个结果调用一次 release，进程池的在途任务数就不会超过 limit
+    """
+
+    def __init__(self, tasks: Iterable[Any], limit: int):
+        self._tasks = tasks
+        self._semaphore = threading.Semaphore(max(1, limit))
+        self._closed = False
+
+    def __iter__(self) -> Iterator[Any]:
+        for task in self._tasks:
+            self._semaphore.acquire()
+            if self._closed:
+                return
+            yield task
+
+    def release(self) -> None:
+        self._semaphore.release()
+
+    def close(self) -> None:
+        """停止放出新任务，并唤醒可能阻塞在 acquire 上的任务线程"""
+        self._closed = True
+        self._semaphore.release()
+
+
+class StreamingIngestPipeline:
+    """
+    parse -> chunk -> write 三阶段流水线
+
+    Args:
+        chunk_fn: (file, payload) -> 需要写入的 chunk 列表，可以为空 (例如内容未变化)
+        write_fn: 写入一组 chunk (来自一个或多个文件)
+        on_file_done: (file, payload) 在文件的全部 chunk 写入成功后调用
+        checkpoint_fn: 每隔 checkpoint_interval 秒及结束时调用，用于持久化进度
+        queue_size: 每个阶段间队列最多缓存的文件数
+        write_group_size: 攒够多少个 chunk 调用一次 write_fn
+        report_interval: 输出阶段统计的间隔 (秒)
+    """
+
+    def __init__(
+        self,
+        chunk_fn: Callable[[Any, Any], List[Dict[str, Any]]],
+        write_fn: Callable[[List[Dict[str, Any]]], None],
+        on_file_done: Callable[[Any, Any], None],
+        checkpoint_fn: Optional[Callable[[], None]] = None,
+        queue_size: int = 64,
+        write_group_size: int = 512,
+        checkpoint_interval: float = 30.0,
+        report_interval: float = 30.0,
+    ):
+        self.chunk_fn = chunk_fn
+        self.write_fn = write_fn
+        self.on_file_done = on_file_done
+        self.checkpoint_fn = checkpoint_fn
+        self.write_group_size = max(1, write_group_size)
+        self.checkpoint_interval = checkpoint_interval
+        self.report_interval = report_interval
+        self.parsed_queue: "queue.Queue" = queue.Queue(maxsize=max(1, queue_size))
+        self.chunked_queue: "queue.Queue" = queue.Queue(maxsize=max(1, queue_size))
+        self.stages = {
+            "parse": StageStats("parse"),
+            "chunk": StageStats("chunk"),
+            "write": StageStats("write"),
+        }
+        self.chunks_written = 0
+        self.files_done = 0
+        self.files_failed = 0
+        self.max_queue_depth = {"parsed": 0, "chunked": 0}
+        self._errors: List[BaseException] = []
+        self._aborted = threading.Event()
+        self._started = 0.0
+
+    def run(self, parsed: Iterable[Tuple[Any, Any]], on_parsed: Optional[Callable[[], None]] = None) -> Dict[str, Any]:
+        """
+        执行流水线直到 parsed 耗尽，返回统计信息
+
+        Args:
+            parsed: 逐个产出 (file, payload) 的迭代器，通常是进程池 imap_unordered 的结果
+            on_parsed: 每从 parsed 取出一项后调用，用于释放 BoundedTaskFeeder
+        """
+        self._started = time.monotonic()
+        parse_thread = threading.Thread(
+            target=self._parse_stage, args=(parsed, on_parsed), name="ingest-parse", daemon=True
+        )
+        chunk_thread = threading.Thread(target=self._chunk_stage, name="ingest-chunk", daemon=True)
+        parse_thread.start()
+        chunk_thread.start()
+        try:
+            self._write_stage()
+        except BaseException:
+            # 写入阶段异常退出时让上游尽快停止，并排空队列，避免上游阻塞在 put 上
+            self._aborted.set()
+            while self.chunked_queue.get() is not _DONE:
+                pass
+            raise
+        finally:
+            parse_thread.join()
+            chunk_thread.join()
+            if self.checkpoint_fn is not None:
+                self.checkpoint_fn()
+        if self._errors:
+            raise self._errors[0]
+        stats = self.get_stats()
+        logger.info(f"[BUILD CACHE] Pipeline finished: {stats}")
+        return stats
+
+    def get_stats(self) -> Dict[str, Any]:
+        elapsed = time.monotonic() - self._started if self._started else 0.0
+        return {
+            "elapsed_seconds": round(elapsed, 2),
+            "files_done": self.files_done,
+            "files_failed": self.files_failed,
+            "chunks_written": self.chunks_written,
+            "queue_depth": {
+                "parsed": self.parsed_queue.qsize(),
+                "chunked": self.chunked_queue.qsize(),
+            },
+            "max_queue_depth": dict(self.max_queue_depth),
+            "stages": {name: stage.snapshot(elapsed) for name, stage in self.stages.items()},
+        }
+
+    def _put(self, target: "queue.Queue", name: str, item: Any) -> None:
+        target.put(item)
+        self.max_queue_depth[name] = max(self.max_queue_depth[name], target.qsize())
+
+    def _parse_stage(self, parsed: Iterable[Tuple[Any, Any]], on_parsed) -> None:
+        try:
+            iterator = iter(parsed)
+            while True:
+                start = time.monotonic()
+                try:
+                    item = next(iterator)
+                except StopIteration:
+                    break
+                if self._aborted.is_set():
+                    break
+                self.stages["parse"].record(1, time.monotonic() - start)
+                if on_parsed is not None:
+                    on_parsed()
+                self._put(self.parsed_queue, "parsed", item)
+        except BaseException as e:
+            logger.error(f"[BUILD CACHE] Parse stage failed: {str(e)}")
+            self._errors.append(e)
+        finally:
+            self.parsed_queue.put(_DONE)
+
+    def _chunk_stage(self) -> None:
+        try:
+            while True:
+                item = self.parsed_queue.get()
+                if item is _DONE:
+                    break
+                if self._aborted.is_set():
+                    continue
+                file, payload = item
+                start = time.monotonic()
+                try:
+                    chunks = self.chunk_fn(file, payload)
+                except Exception as e:
+                    logger.error(f"[BUILD CACHE] Failed to chunk {file}: {str(e)}")
+                    logger.exception(e)
+                    self.files_failed += 1
+                    continue
+                finally:
+                    self.stages["chunk"].record(1, time.monotonic() - start)
+                self._put(self.chunked_queue, "chunked", (file, payload, chunks))
+        finally:
+            self.chunked_queue.put(_DONE)
+
+    def _write_stage(self) -> None:
+        group: List[Tuple[Any, Any, List[Dict[str, Any]]]] = []
+        group_chunks = 0
+        last_report = last_checkpoint = time.monotonic()
+        done = False
+        while not done:
+            try:
+                item = self.chunked_queue.get(timeout=1.0)
+            except queue.Empty:
+                item = None
+            if item is _DONE:
+                done = True
+            elif item is not None:
+                group.append(item)
+                group_chunks += len(item[2])
+
+            # 攒够一组，或者上游暂时没有数据时，写入当前这一组
+            if group and (done or group_chunks >= self.write_group_size or self.chunked_queue.empty()):
+                self._write_group(group)
+                group, group_chunks = [], 0
+
+            now = time.monotonic()
+            if self.checkpoint_fn is not None and now - last_checkpoint >= self.checkpoint_interval:
+                self.checkpoint_fn()
+                last_checkpoint = now
+            if now - last_report >= self.report_interval:
+                logger.info(f"[BUILD CACHE] Pipeline progress: {self.get_stats()}")
+                last_report = now
+
+    def _write_group(self, group: List[Tuple[Any, Any, List[Dict[str, Any]]]]) -> None:
+        chunks = [chunk for _, _, file_chunks in group for chunk in file_chunks]
+        start = time.monotonic()
+        try:
+            if chunks:
+                self.write_fn(chunks)
+        except Exception as e:
+            logger.error(f"[BUILD CACHE] Error saving {len(chunks)} chunks: {str(e)}")
+            logger.exception(e)
+            self.files_failed += len(group)
+            return
+        finally:
+            self.stages["write"].record(len(chunks), time.monotonic() - start)
+        self.chunks_written += len(chunks)
+        for file, payload, _ in group:
+            self.on_file_done(file, payload)
+            self.files_done += 1
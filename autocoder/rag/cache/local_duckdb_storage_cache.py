@@ -1,3 +1,5 @@
+import atexit
+import contextlib
 import hashlib
 import json
 import os
@@ -7,7 +9,7 @@ import threading
 from multiprocessing import Pool
 import functools
 from concurrent.futures import ThreadPoolExecutor, as_completed
-from typing import List, Dict, Any, Optional, Tuple, Union
+from typing import Callable, List, Dict, Any, Optional, Tuple, Union
 import numpy as np
 from loguru import logger
 from byzerllm import SimpleByzerLLM, ByzerLLM
@@ -36,6 +38,11 @@ from autocoder.rag.utils import (
 )
 from autocoder.rag.variable_holder import VariableHolder
 from .failed_files_utils import save_failed_files
+from .chunk_diff import ChunkDiff, diff_chunks
+from .batch_embedder import AdaptiveBatchEmbedder
+from .dim_reduction import EmbeddingProjector
+from .ingest_pipeline import BoundedTaskFeeder, StreamingIngestPipeline
+from .query_cache import LRUCache
 
 if platform.system() != "Windows":
     import fcntl
@@ -45,6 +52,18 @@ else:
 
 default_ignore_dirs = ["__pycache__", "node_modules", "_images"]
 
+# 批量 embedding 请求抛出这些异常时视为模型不支持列表输入，其余异常按临时错误处理
+_BATCH_EMB_UNSUPPORTED_ERRORS = (ImportError, AttributeError, NotImplementedError, TypeError, ValueError)
+
+
+def _parse_file_for_pipeline(
+    file_info: Tuple[str, str, float, str], llm=None, product_mode="lite"
+) -> Tuple[str, List[SourceCode]]:
+    """进程池中解析单个文件，返回 (file_path, 解析结果)，供 imap_unordered 使用"""
+    return file_info[0], process_file_in_multi_process(
+        file_info, llm=llm, product_mode=product_mode
+    )
+
 
 def generate_file_md5(file_path: str) -> str:
     md5_hash = hashlib.md5()
@@ -54,15 +73,153 @@ def generate_file_md5(file_path: str) -> str:
     return md5_hash.hexdigest()
 
 
+class DuckDBConnectionManager:
+    """
+    共享的 DuckDB 连接
+
+    每个数据库文件只连接一次、加载一次扩展，各线程通过 cursor() 获得自己的游标，
+    避免每次读写都重新连接并重新加载扩展。
+
+    DuckDB 的连接持有数据库文件锁，其他进程在此期间无法打开同一个文件。
+    因此连接只在使用期间保持：构建索引、批量写入时连续的读写共用一个连接，
+    最后一个使用者归还后空闲 IDLE_TIMEOUT 秒即关闭连接、释放文件锁，下次使用时重新连接。
+    """
+
+    IDLE_TIMEOUT = 10.0
+
+    _managers: Dict[str, "DuckDBConnectionManager"] = {}
+    _managers_lock = threading.Lock()
+    # 扩展只需安装一次，之后每次连接只加载
+    _installed_extensions = set()
+
+    def __init__(self, database_path: str, extensions=("json", "fts", "vss")):
+        self.database_path = database_path
+        self._conn = duckdb.connect(database_path)
+        for ext in extensions:
+            if ext not in self._installed_extensions:
+                self._conn.install_extension(ext)
+                self._installed_extensions.add(ext)
+            self._conn.load_extension(ext)
+        self._local = threading.local()
+        self._lock = threading.Lock()
+        self._cursors: List["duckdb.DuckDBPyConnection"] = []
+        self._users = 0
+        self._idle_timer: Optional[threading.Timer] = None
+        self.closed = False
+
+    @classmethod
+    def get(cls, database_path: str) -> "DuckDBConnectionManager":
+        """获取数据库文件对应的连接管理器，不存在或已关闭时新建"""
+        key = os.path.abspath(database_path)
+        with cls._managers_lock:
+            manager = cls._managers.get(key)
+            if manager is None or manager.closed:
+                manager = cls(key)
+                cls._managers[key] = manager
+            return manager
+
+    @classmethod
+    def acquire(cls, database_path: str) -> "DuckDBConnectionManager":
+        """获取连接管理器并登记一个使用者，使用完毕后必须调用 release()"""
+        key = os.path.abspath(database_path)
+        with cls._managers_lock:
+            manager = cls._managers.get(key)
+            if manager is not None:
+                with manager._lock:
+                    if not manager.closed:
+                        manager._users += 1
+                        manager._cancel_idle_timer()
+                        return manager
+            manager = cls(key)
+            manager._users = 1
+            cls._managers[key] = manager
+            return manager
+
+    def release(self) -> None:
+        """归还连接，没有其他使用者时在空闲 IDLE_TIMEOUT 秒后关闭"""
+        with self._lock:
+            self._users -= 1
+            if self._users > 0 or self.closed:
+                return
+            self._cancel_idle_timer()
+            if self.IDLE_TIMEOUT <= 0:
+                self._close_locked()
+                return
+            self._idle_timer = threading.Timer(self.IDLE_TIMEOUT, self._close_if_idle)
+            self._idle_timer.daemon = True
+            self._idle_timer.start()
+
+    def _cancel_idle_timer(self) -> None:
+        if self._idle_timer is not None:
+            self._idle_timer.cancel()
+            self._idle_timer = None
+
+    def _close_if_idle(self) -> None:
+        with self._lock:
+            if self._users == 0:
+                self._close_locked()
+
+    def cursor(self) -> "duckdb.DuckDBPyConnection":
+        """返回当前线程专用的游标，连接关闭时一并关闭"""
+        cursor = getattr(self._local, "cursor", None)
+        if cursor is None:
+            with self._lock:
+                if self.closed:
+                    raise RuntimeError(f"DuckDB connection to {self.database_path} is closed")
+                cursor = self._conn.cursor()
+                self._cursors.append(cursor)
+            self._local.cursor = cursor
+        return cursor
+
+    def _close_locked(self) -> None:
+        if self.closed:
+            return
+        self.closed = True
+        self._cancel_idle_timer()
+        # 游标与连接共享数据库实例，全部关闭后才释放文件锁
+        for cursor in self._cursors:
+            try:
+                cursor.close()
+            except Exception:
+                pass
+        self._cursors = []
+        self._conn.close()
+
+    def close(self) -> None:
+        with self._lock:
+            self._close_locked()
+
+    @classmethod
+    @contextlib.contextmanager
+    def hold(cls, database_path: str):
+        """在 with 块内保持连接，块内多次读写不会因空闲而重新连接"""
+        manager = cls.acquire(database_path)
+        try:
+            yield manager
+        finally:
+            manager.release()
+
+    @classmethod
+    def close_all(cls) -> None:
+        with cls._managers_lock:
+            managers = list(cls._managers.values())
+            cls._managers.clear()
+        for manager in managers:
+            try:
+                manager.close()
+            except Exception as e:
+                logger.warning(f"Failed to close DuckDB connection {manager.database_path}: {str(e)}")
+
+
+atexit.register(DuckDBConnectionManager.close_all)
+
+
 class DuckDBLocalContext:
+    """从共享连接中借用当前线程的游标，退出时归还，连接空闲一段时间后才关闭"""
+
     def __init__(self, database_path: str):
         self.database_path = database_path
-        self._conn = None
-
-    def _install_load_extension(self, ext_list):
-        for ext in ext_list:
-            self._conn.install_extension(ext)
-            self._conn.load_extension(ext)
+        self._manager = None
 
     def __enter__(self) -> "duckdb.DuckDBPyConnection":
         if not os.path.exists(os.path.dirname(self.database_path)):
@@ -71,14 +228,18 @@ class DuckDBLocalContext:
                 f"does not exist."
             )
 
-        self._conn = duckdb.connect(self.database_path)
-        self._install_load_extension(["json", "fts", "vss"])
-
-        return self._conn
+        self._manager = DuckDBConnectionManager.acquire(self.database_path)
+        try:
+            return self._manager.cursor()
+        except BaseException:
+            self._manager.release()
+            raise
 
     def __exit__(self, exc_type, exc_val, exc_tb) -> None:
-        if self._conn:
-            self._conn.close()
+        # 数据库实例失效后丢弃连接，下次使用时重新连接
+        if exc_type is not None and issubclass(exc_type, duckdb.FatalException):
+            self._manager.close()
+        self._manager.release()
 
 
 class LocalDuckdbStorage:
@@ -99,6 +260,11 @@ class LocalDuckdbStorage:
         self.persist_dir = persist_dir
         self.cache_dir = os.path.join(self.persist_dir, ".cache")
         self.args = args
+        # 降维方式和向量列的存储类型，见 dim_reduction 和 _table_row
+        self.projection_method = args.rag_duckdb_projection if args else "random"
+        self.vector_type = args.rag_duckdb_vector_type if args else "float32"
+        self._projectors: Dict[int, EmbeddingProjector] = {}
+        self._projectors_lock = threading.Lock()
         logger.info("正在启动 DuckDBVectorStore.")
 
         if self.database_name != ":memory:":
@@ -116,6 +282,58 @@ class LocalDuckdbStorage:
                     os.makedirs(self.cache_dir)
                 self._initialize()
             self._conn = None
+
+        # 持久化的 embedding 缓存，键为 (embedding 模型, 维度, 文本哈希)
+        self.emb_cache_table = f"{self.table_name}_emb_cache"
+        self.emb_model_name = (get_llm_names(llm) or ["unknown"])[0] if llm else "unknown"
+        self._initialize_embedding_cache()
+        self._detect_vector_type()
+
+        # 文档 embedding 按批请求，批大小按请求耗时自适应
+        self._batch_emb_supported: Optional[bool] = None
+        self.embedder = AdaptiveBatchEmbedder(
+            self._emb_batch,
+            max_batch_size=args.rag_emb_batch_size if args else 32,
+            max_batch_chars=args.rag_emb_batch_max_chars if args else 60000,
+            max_concurrency=args.rag_index_build_workers if args else 4,
+            target_latency=args.rag_emb_target_latency if args else 5.0,
+        )
+
+        # 数据表每次变更 generation 加一，检索结果缓存以此判断是否失效
+        self.generation = 0
+        self._generation_lock = threading.Lock()
+        # 查询 embedding 的 LRU 缓存，键包含投影矩阵签名
+        self.query_embedding_cache = LRUCache(
+            args.rag_query_embedding_cache_size if args else 1024
+        )
+
+        self.ann_index = None
+        self._ann_synced = False
+        self._ann_lock = threading.Lock()
+        if args is not None and args.rag_duckdb_ann_index == "ivf":
+            if self.database_name == ":memory:":
+                logger.warning("内存数据库不支持 ANN 索引, 向量检索将使用全表扫描")
+            else:
+                from .ann_index import IVFFlatIndex
+
+                self.ann_index = IVFFlatIndex(
+                    os.path.join(self.cache_dir, f"{self.database_name}.ivf"),
+                    nlist=args.rag_duckdb_ann_nlist,
+                    nprobe=args.rag_duckdb_ann_nprobe,
+                )
+
+        # 与向量表同步维护的 BM25 倒排索引，用于混合检索
+        self.lexical_index = None
+        self._lexical_synced = False
+        self._lexical_lock = threading.Lock()
+        if args is not None and args.rag_duckdb_lexical_index == "bm25":
+            from .bm25_index import BM25Index
+
+            self.lexical_index = BM25Index(
+                ":memory:"
+                if self.database_name == ":memory:"
+                else os.path.join(self.cache_dir, f"{self.database_name}.bm25.sqlite")
+            )
         logger.info(
             f"DuckDBVectorStore 初始化完成, 存储目录: {self.cache_dir}, "
             f"数据库名称: {self.database_name}, "
@@ -136,21 +354,243 @@ class LocalDuckdbStorage:
             self._conn.install_extension(ext)
             self._conn.load_extension(ext)
 
-    @staticmethod
-    def _apply_pca(embedding, target_dim):
-        # 生成固定随机投影矩阵（避免每次调用重新生成）
-        np.random.seed(42)  # 固定随机种子保证一致性
-        source_dim = len(embedding)
-        projection_matrix = np.random.randn(source_dim, target_dim) / np.sqrt(
-            source_dim
-        )
-
-        # 执行投影
-        reduced = np.dot(embedding, projection_matrix)
-        return reduced
+    def _get_projector(self, target_dim: int) -> EmbeddingProjector:
+        """每个目标维度一个投影器，文件型数据库的投影矩阵保存在数据库文件旁边"""
+        with self._projectors_lock:
+            projector = self._projectors.get(target_dim)
+            if projector is None:
+                path = None
+                if self.database_name != ":memory:":
+                    path = os.path.join(
+                        self.cache_dir,
+                        f"{self.database_name}.{self.table_name}.proj{target_dim}.npz",
+                    )
+                projector = EmbeddingProjector(
+                    target_dim, method=self.projection_method, path=path
+                )
+                self._projectors[target_dim] = projector
+            return projector
 
     def _embedding(
         self, context: str, norm: bool = True, dim: int | None = None
+    ) -> List[float]:
+        return self._embeddings([context], norm=norm, dim=dim)[0]
+
+    def _embeddings(
+        self, contexts: List[str], norm: bool = True, dim: int | None = None
+    ) -> List[List[float]]:
+        """
+        批量获取 embedding，先查持久化缓存，只有缓存中不存在的文本才请求 embedding 模型
+        """
+        results: List[Any] = [None] * len(contexts)
+        for indices, vectors in self._iter_embeddings(contexts, norm=norm, dim=dim):
+            for i, vector in zip(indices, vectors):
+                results[i] = vector
+        return results
+
+    def _iter_embeddings(
+        self, contexts: List[str], norm: bool = True, dim: int | None = None
+    ):
+        """
+        逐批返回 (下标列表, 向量列表)：先返回缓存命中的部分，再按 embedder 完成的顺序
+        返回新计算的部分，新计算的向量同时写入缓存
+        """
+        projector = self._get_projector(dim) if dim else None
+        # PCA 拟合前投影未确定，缓存键也未确定，先攒够样本拟合后再处理
+        fitting = projector is not None and projector.needs_fit
+
+        keys = [self._embedding_cache_key(c, norm, dim) for c in contexts]
+        cached = {} if fitting else self._get_cached_embeddings(list(set(keys)))
+        hit_indices = [i for i, key in enumerate(keys) if key in cached]
+        if hit_indices:
+            yield hit_indices, [cached[keys[i]] for i in hit_indices]
+
+        # 相同内容只请求一次
+        miss_positions: Dict[str, List[int]] = {}
+        for i, key in enumerate(keys):
+            if key not in cached:
+                miss_positions.setdefault(key, []).append(i)
+        if not miss_positions:
+            return
+        miss_keys = list(miss_positions)
+        miss_texts = [contexts[miss_positions[key][0]] for key in miss_keys]
+
+        def finish(batch_indices, raw_vectors):
+            vectors = self._postprocess_embeddings(raw_vectors, norm=norm, dim=dim)
+            self._put_cached_embeddings(
+                {
+                    self._embedding_cache_key(miss_texts[j], norm, dim): vector
+                    for j, vector in zip(batch_indices, vectors)
+                }
+            )
+            indices, out = [], []
+            for j, vector in zip(batch_indices, vectors):
+                for i in miss_positions[miss_keys[j]]:
+                    indices.append(i)
+                    out.append(vector)
+            return indices, out
+
+        held = []
+        for batch in self.embedder.embed_iter(miss_texts):
+            if fitting and projector.needs_fit:
+                held.append(batch)
+                if sum(len(b[0]) for b in held) < projector.sample_size:
+                    continue
+                projector.fit(np.vstack([np.asarray(b[1], dtype=np.float32) for b in held]))
+                for held_batch in held:
+                    yield finish(*held_batch)
+                held = []
+                continue
+            yield finish(*batch)
+        if held:
+            projector.fit(np.vstack([np.asarray(b[1], dtype=np.float32) for b in held]))
+            for held_batch in held:
+                yield finish(*held_batch)
+
+    def _emb_batch(self, texts: List[str]) -> List[Any]:
+        """
+        一次请求计算一组文本的原始 embedding。模型不支持列表输入时退化为逐条调用 emb_query
+
+        只有明确的不支持（缺少批量接口、参数类型错误、返回数量不符）才会永久退化；
+        超时、限流等临时错误先重试一次，仍失败则抛给 AdaptiveBatchEmbedder 走退避重试
+        """
+        if self._batch_emb_supported is not False and len(texts) > 1:
+            try:
+                from byzerllm.utils.client import LLMRequest
+
+                request = LLMRequest(instruction=list(texts))
+                try:
+                    results = self.llm.emb(None, request=request)
+                except _BATCH_EMB_UNSUPPORTED_ERRORS:
+                    raise
+                except Exception as e:
+                    logger.warning(f"批量 embedding 请求失败, 重试一次: {str(e)}")
+                    results = self.llm.emb(None, request=request)
+                if len(results) != len(texts):
+                    raise ValueError(
+                        f"embedding 返回 {len(results)} 个向量, 期望 {len(texts)} 个"
+                    )
+            except _BATCH_EMB_UNSUPPORTED_ERRORS as e:
+                if self._batch_emb_supported:
+                    raise
+                logger.warning(
+                    f"embedding 模型不支持批量请求, 改为逐条调用: {str(e)}"
+                )
+                self._batch_emb_supported = False
+            else:
+                self._batch_emb_supported = True
+                return [r.output for r in results]
+        return [self.llm.emb_query(text)[0].output for text in texts]
+
+    def _postprocess_embeddings(
+        self, embeddings: List[Any], norm: bool = True, dim: int | None = None
+    ) -> List[List[float]]:
+        """对整批原始向量做一次降维和归一化，返回 float32 精度的向量"""
+        matrix = np.asarray(embeddings, dtype=np.float32)
+        if dim:
+            matrix = self._get_projector(dim).transform(matrix)  # 降维后形状 (n, dim)
+        if norm:
+            matrix = matrix / np.maximum(
+                np.linalg.norm(matrix, axis=1, keepdims=True), 1e-12
+            )
+        return matrix.tolist()
+
+    def _embedding_cache_key(self, context: str, norm: bool, dim: int | None) -> str:
+        _hash = hashlib.sha256(context.encode("utf-8", errors="surrogatepass")).hexdigest()
+        signature = self._get_projector(dim).signature if dim else ""
+        _dim = f"{dim}/{signature}" if signature else f"{dim or 0}"
+        return f"{self.emb_model_name}:{_dim}:{int(norm)}:{_hash}"
+
+    def _initialize_embedding_cache(self) -> None:
+        _query = f"""
+            CREATE TABLE IF NOT EXISTS {self.emb_cache_table} (
+                cache_key VARCHAR PRIMARY KEY,
+                vector FLOAT[]
+            );
+        """
+        if self.database_name == ":memory:":
+            self._conn.execute(_query)
+        elif self.database_path is not None:
+            with DuckDBLocalContext(self.database_path) as _conn:
+                _conn.execute(_query)
+
+    def _detect_vector_type(self) -> None:
+        """已有数据表的向量列类型优先于配置，避免写入与表结构不一致的数据"""
+        _query = """
+            SELECT data_type FROM information_schema.columns
+            WHERE table_name = ? AND column_name = 'vector';
+        """
+        try:
+            if self.database_name == ":memory:":
+                row = self._conn.execute(_query, [self.table_name]).fetchone()
+            else:
+                with DuckDBLocalContext(self.database_path) as _conn:
+                    row = _conn.execute(_query, [self.table_name]).fetchone()
+        except Exception as e:
+            logger.warning(f"读取向量列类型失败: {str(e)}")
+            return
+        if row is None:
+            return
+        actual = "int8" if row[0].upper().startswith("TINYINT") else "float32"
+        if actual != self.vector_type:
+            logger.warning(
+                f"数据表 {self.table_name} 的向量列类型为 {row[0]}, "
+                f"与配置的 {self.vector_type} 不一致, 按 {actual} 写入; 删除数据库后重建索引才会生效"
+            )
+            self.vector_type = actual
+
+    def _get_cached_embeddings(self, keys: List[str]) -> Dict[str, List[float]]:
+        if not keys:
+            return {}
+        _query = f"""
+            SELECT cache_key, vector FROM {self.emb_cache_table}
+            WHERE cache_key IN (SELECT UNNEST(?::VARCHAR[]));
+        """
+        try:
+            if self.database_name == ":memory:":
+                rows = self._conn.execute(_query, [keys]).fetchall()
+            else:
+                with DuckDBLocalContext(self.database_path) as _conn:
+                    rows = _conn.execute(_query, [keys]).fetchall()
+        except Exception as e:
+            logger.warning(f"读取 embedding 缓存失败: {str(e)}")
+            return {}
+        return {key: vector for key, vector in rows}
+
+    def _put_cached_embeddings(self, embeddings: Dict[str, List[float]]) -> None:
+        _query = f"""INSERT OR IGNORE INTO {self.emb_cache_table} VALUES (?, ?)"""
+        rows = list(embeddings.items())
+        try:
+            if self.database_name == ":memory:":
+                self._conn.executemany(_query, rows)
+            else:
+                with DuckDBLocalContext(self.database_path) as _conn:
+                    _conn.executemany(_query, rows)
+        except Exception as e:
+            # 并发写入同一个键时可能冲突，缓存写入失败不影响结果
+            logger.warning(f"写入 embedding 缓存失败: {str(e)}")
+
+    def _bump_generation(self) -> None:
+        with self._generation_lock:
+            self.generation += 1
+
+    def _query_embedding(self, query: str, dim: int | None = None) -> List[float]:
+        """
+        查询文本的 embedding，使用进程内 LRU 缓存。
+
+        查询 embedding 与数据表内容无关，只取决于文本和投影矩阵，因此不随 generation 失效；
+        PCA 投影矩阵重新拟合后签名变化，旧的缓存项不再命中
+        """
+        signature = self._get_projector(dim).signature if dim else ""
+        key = (query, dim, signature)
+        vector = self.query_embedding_cache.get(key)
+        if vector is None:
+            vector = self._compute_embedding(query, norm=True, dim=dim)
+            self.query_embedding_cache.put(key, vector)
+        return vector
+
+    def _compute_embedding(
+        self, context: str, norm: bool = True, dim: int | None = None
     ) -> List[float]:
         max_retries = 3
         retry_count = 0
@@ -158,16 +598,7 @@ class LocalDuckdbStorage:
         while retry_count < max_retries:
             try:
                 embedding = self.llm.emb_query(context)[0].output
-
-                if dim:
-                    embedding = self._apply_pca(
-                        embedding, target_dim=dim
-                    )  # 降维后形状 (1024,)
-
-                if norm:
-                    embedding = embedding / np.linalg.norm(embedding)
-
-                return embedding.tolist()
+                return self._postprocess_embeddings([embedding], norm=norm, dim=dim)[0]
             except Exception as e:
                 retry_count += 1
                 if retry_count >= max_retries:
@@ -187,28 +618,18 @@ class LocalDuckdbStorage:
                 time.sleep(sleep_time)
 
     def _initialize(self) -> None:
-        if self.embed_dim is None:
-            _query = f"""
-                CREATE TABLE IF NOT EXISTS {self.table_name} (
-                    _id VARCHAR,
-                    file_path VARCHAR,
-                    content TEXT,
-                    raw_content TEXT,
-                    vector FLOAT[],
-                    mtime FLOAT
-                );
-            """
-        else:
-            _query = f"""
-                CREATE TABLE IF NOT EXISTS {self.table_name} (
-                    _id VARCHAR,
-                    file_path VARCHAR,
-                    content TEXT,
-                    raw_content TEXT,
-                    vector FLOAT[],
-                    mtime FLOAT
-                );
-            """
+        # int8 时每个分量按向量自身的最大绝对值缩放到 [-127, 127]，余弦相似度不受缩放影响
+        _vector_type = "TINYINT[]" if self.vector_type == "int8" else "FLOAT[]"
+        _query = f"""
+            CREATE TABLE IF NOT EXISTS {self.table_name} (
+                _id VARCHAR,
+                file_path VARCHAR,
+                content TEXT,
+                raw_content TEXT,
+                vector {_vector_type},
+                mtime FLOAT
+            );
+        """
 
         if self.database_name == ":memory:":
             self._conn.execute(_query)
@@ -223,6 +644,12 @@ class LocalDuckdbStorage:
         elif self.database_path is not None:
             with DuckDBLocalContext(self.database_path) as _conn:
                 _conn.execute(_truncate_query)
+        if self.ann_index is not None:
+            self.ann_index.clear()
+        if self.lexical_index is not None:
+            self.lexical_index.clear()
+        self.query_embedding_cache.clear()
+        self._bump_generation()
 
     def query_by_path(self, file_path: str):
         _exists_query = f"""SELECT _id FROM {self.table_name} WHERE file_path = ?"""
@@ -235,35 +662,102 @@ class LocalDuckdbStorage:
                 _final_results = _conn.execute(_exists_query, query_params).fetchall()
         return _final_results
 
+    def ids_not_in_paths(self, file_paths) -> List[str]:
+        """返回 file_path 不在给定集合中的所有 chunk _id，用于清理已删除文件的数据"""
+        _query = f"""
+            SELECT _id FROM {self.table_name}
+            WHERE file_path NOT IN (SELECT UNNEST(?::VARCHAR[]));
+        """
+        params = [list(file_paths)]
+        if self.database_name == ":memory:":
+            rows = self._conn.execute(_query, params).fetchall()
+        else:
+            with DuckDBLocalContext(self.database_path) as _conn:
+                rows = _conn.execute(_query, params).fetchall()
+        return [row[0] for row in rows]
+
     def delete_by_ids(self, _ids: List[str]):
-        _delete_query = f"""DELETE FROM {self.table_name} WHERE _id IN (?);"""
-        query_params = [",".join(_ids)]
+        if not _ids:
+            return []
+        _delete_query = f"""DELETE FROM {self.table_name} WHERE _id IN (SELECT UNNEST(?::VARCHAR[]));"""
+        query_params = [list(_ids)]
         if self.database_name == ":memory:":
             _final_results = self._conn.execute(_delete_query, query_params).fetchall()
         elif self.database_path is not None:
             with DuckDBLocalContext(self.database_path) as _conn:
                 _final_results = _conn.execute(_delete_query, query_params).fetchall()
+        if self.ann_index is not None:
+            self.ann_index.remove(_ids)
+        if self.lexical_index is not None:
+            self.lexical_index.remove(list(_ids))
+        self._bump_generation()
         return _final_results
 
     def _node_to_table_row(
         self, context_chunk: Dict[str, str | float], dim: int | None = None
     ) -> Any:
-        
-        if not context_chunk["raw_content"]:
-            context_chunk["raw_content"] = "empty"        
-        context_chunk["raw_content"] = context_chunk["raw_content"][
-            : self.args.rag_emb_text_size
+        return self._nodes_to_table_rows([context_chunk], dim=dim)[0]
+
+    def _nodes_to_table_rows(
+        self, context_chunks: List[Dict[str, str | float]], dim: int | None = None
+    ) -> List[Any]:
+        self._prepare_chunks(context_chunks)
+        vectors = self._embeddings(
+            [c["raw_content"] for c in context_chunks], norm=True, dim=dim
+        )
+        return [
+            self._table_row(context_chunk, vector)
+            for context_chunk, vector in zip(context_chunks, vectors)
         ]
-            
+
+    @staticmethod
+    def _quantize_int8(vector: List[float]) -> List[int]:
+        _vector = np.asarray(vector, dtype=np.float32)
+        scale = float(np.max(np.abs(_vector))) if _vector.size else 0.0
+        if scale == 0.0:
+            return [0] * len(vector)
+        return np.rint(_vector * (127.0 / scale)).astype(np.int8).tolist()
+
+    def _prepare_chunks(self, context_chunks: List[Dict[str, str | float]]) -> None:
+        for context_chunk in context_chunks:
+            if not context_chunk["raw_content"]:
+                context_chunk["raw_content"] = "empty"
+            context_chunk["raw_content"] = context_chunk["raw_content"][
+                : self.args.rag_emb_text_size
+            ]
+
+    def _table_row(self, context_chunk: Dict[str, str | float], vector: List[float]) -> Tuple:
+        if self.vector_type == "int8":
+            vector = self._quantize_int8(vector)
         return (
             context_chunk["_id"],
             context_chunk["file_path"],
             context_chunk["content"],
             context_chunk["raw_content"],
-            self._embedding(context_chunk["raw_content"], norm=True, dim=dim),
+            vector,
             context_chunk["mtime"],
         )
 
+    def query_chunks_by_paths(self, file_paths: List[str]) -> Dict[str, Dict[str, str]]:
+        """
+        返回每个文件已入库的 chunk: {file_path: {_id: content}}
+        """
+        if not file_paths:
+            return {}
+        _query = f"""
+            SELECT file_path, _id, content FROM {self.table_name}
+            WHERE file_path IN (SELECT UNNEST(?::VARCHAR[]));
+        """
+        if self.database_name == ":memory:":
+            rows = self._conn.execute(_query, [list(file_paths)]).fetchall()
+        else:
+            with DuckDBLocalContext(self.database_path) as _conn:
+                rows = _conn.execute(_query, [list(file_paths)]).fetchall()
+        result: Dict[str, Dict[str, str]] = {}
+        for file_path, _id, content in rows:
+            result.setdefault(file_path, {})[_id] = content
+        return result
+
     def add_doc(self, context_chunk: Dict[str, str | float], dim: int | None = None):
         """
         {
@@ -275,15 +769,198 @@ class LocalDuckdbStorage:
             "mtime": file_info.modify_time,
         }
         """
+        self.add_docs([context_chunk], dim=dim)
+
+    def add_docs(
+        self,
+        context_chunks: List[Dict[str, str | float]],
+        dim: int | None = None,
+        insert_batch_size: int = 100,
+        progress_callback: Optional[Callable[[int, int], None]] = None,
+    ) -> None:
+        """
+        批量写入 chunk，chunk 结构同 add_doc
+
+        embedding 由 self.embedder 按批并发请求，每完成一批就把对应的数据行放入缓冲区，
+        缓冲区攒够 insert_batch_size 行后通过一次 executemany 写入。
+        progress_callback(已写入行数, 总行数) 在每次写入后调用
+        """
+        if not context_chunks:
+            return
+        self._prepare_chunks(context_chunks)
+        insert_batch_size = max(1, insert_batch_size)
+        total = len(context_chunks)
+        written = 0
+        buffer: List[Tuple] = []
+        try:
+            for indices, vectors in self._iter_embeddings(
+                [c["raw_content"] for c in context_chunks], norm=True, dim=dim
+            ):
+                buffer.extend(
+                    self._table_row(context_chunks[i], vector)
+                    for i, vector in zip(indices, vectors)
+                )
+                while len(buffer) >= insert_batch_size:
+                    self._insert_rows(buffer[:insert_batch_size])
+                    written += insert_batch_size
+                    buffer = buffer[insert_batch_size:]
+                    if progress_callback is not None:
+                        progress_callback(written, total)
+            if buffer:
+                self._insert_rows(buffer)
+                written += len(buffer)
+                if progress_callback is not None:
+                    progress_callback(written, total)
+        finally:
+            # ANN 索引在每次写入时只追加数据文件，整批写完后提交一次
+            if self.ann_index is not None:
+                self.ann_index.commit()
+
+    def _insert_rows(self, _rows: List[Tuple]) -> None:
+        _insert_query = f"""INSERT INTO {self.table_name} VALUES (?, ?, ?, ?, ?, ?)"""
         if self.database_name == ":memory:":
-            _table = self._conn.table(self.table_name)
-            _row = self._node_to_table_row(context_chunk, dim=dim)
-            _table.insert(_row)
+            self._conn.executemany(_insert_query, _rows)
         elif self.database_path is not None:
             with DuckDBLocalContext(self.database_path) as _conn:
-                _table = _conn.table(self.table_name)
-                _row = self._node_to_table_row(context_chunk, dim=dim)
-                _table.insert(_row)
+                _conn.executemany(_insert_query, _rows)
+            if self.ann_index is not None:
+                self.ann_index.add([r[0] for r in _rows], [r[4] for r in _rows], commit=False)
+        if self.lexical_index is not None:
+            self.lexical_index.add((r[0], r[1], r[2]) for r in _rows)
+        self._bump_generation()
+
+    def connection_scope(self):
+        """批量操作期间保持数据库连接，内存数据库无需处理"""
+        if self.database_name == ":memory:":
+            return contextlib.nullcontext()
+        return DuckDBConnectionManager.hold(self.database_path)
+
+    def sync_lexical_index(self, force: bool = False) -> None:
+        """
+        确保 BM25 索引与数据表一致，索引缺失或文档数不一致时从数据表重建
+
+        Args:
+            force: 为 True 时无条件从数据表重建
+        """
+        if self.lexical_index is None:
+            return
+        with self._lexical_lock:
+            if self._lexical_synced and not force:
+                return
+            _count_query = f"SELECT COUNT(*) FROM {self.table_name}"
+            _select_query = f"SELECT _id, file_path, content FROM {self.table_name}"
+            if self.database_name == ":memory:":
+                _conn = self._conn
+                self._rebuild_lexical_index(_conn, _count_query, _select_query, force)
+            else:
+                with DuckDBLocalContext(self.database_path) as _conn:
+                    self._rebuild_lexical_index(_conn, _count_query, _select_query, force)
+            self._lexical_synced = True
+
+    def _rebuild_lexical_index(self, _conn, _count_query, _select_query, force) -> None:
+        table_count = _conn.execute(_count_query).fetchone()[0]
+        if not force and table_count == self.lexical_index.count():
+            return
+        logger.info(
+            f"BM25 索引与数据表不一致 (索引 {self.lexical_index.count()} 条, "
+            f"数据表 {table_count} 条), 正在重建"
+        )
+        self.lexical_index.clear()
+        cursor = _conn.execute(_select_query)
+        while True:
+            rows = cursor.fetchmany(10000)
+            if not rows:
+                break
+            self.lexical_index.add(rows)
+
+    def lexical_search(self, query: str, top_k: int = 100):
+        """
+        BM25 检索，返回值与 vector_search 一致: [(_id, file_path, mtime, score)]
+        """
+        if self.lexical_index is None:
+            return []
+        self.sync_lexical_index()
+        hits = self.lexical_index.search(query, top_k=top_k)
+        if not hits:
+            return []
+        _db_query = f"""
+            SELECT _id, mtime FROM {self.table_name}
+            WHERE _id IN (SELECT UNNEST(?::VARCHAR[]));
+        """
+        params = [[_id for _id, _, _ in hits]]
+        if self.database_name == ":memory:":
+            rows = self._conn.execute(_db_query, params).fetchall()
+        else:
+            with DuckDBLocalContext(self.database_path) as _conn:
+                rows = _conn.execute(_db_query, params).fetchall()
+        mtimes = dict(rows)
+        return [
+            (_id, file_path, mtimes[_id], score)
+            for _id, file_path, score in hits
+            if _id in mtimes
+        ]
+
+    def sync_ann_index(self, force: bool = False, train: bool = True) -> None:
+        """
+        确保 ANN 索引与数据表一致
+
+        索引缺失或行数与数据表不一致时（例如索引启用前已经构建过数据），
+        从数据表中重新导入全部向量；数据量足够时训练聚类。
+
+        Args:
+            force: 为 True 时无条件从数据表重建
+            train: 是否在需要时训练聚类，查询路径传 False，训练只在构建和更新缓存时进行
+        """
+        if self.ann_index is None:
+            return
+        with self._ann_lock:
+            if force or not self._ann_synced:
+                with DuckDBLocalContext(self.database_path) as _conn:
+                    table_count = _conn.execute(
+                        f"SELECT COUNT(*) FROM {self.table_name} WHERE vector IS NOT NULL"
+                    ).fetchone()[0]
+                    if force or table_count != self.ann_index.live_count():
+                        logger.info(
+                            f"ANN 索引与数据表不一致 (索引 {self.ann_index.live_count()} 条, "
+                            f"数据表 {table_count} 条), 正在重建"
+                        )
+                        self.ann_index.clear()
+                        cursor = _conn.execute(
+                            f"SELECT _id, vector FROM {self.table_name} WHERE vector IS NOT NULL"
+                        )
+                        while True:
+                            rows = cursor.fetchmany(10000)
+                            if not rows:
+                                break
+                            self.ann_index.add([r[0] for r in rows], [r[1] for r in rows], commit=False)
+                        self.ann_index.commit()
+                self._ann_synced = True
+            if train:
+                self.ann_index.train()
+
+    def _ann_vector_search(
+        self, query_vector: List[float], similarity_value: float, similarity_top_k: int
+    ):
+        self.sync_ann_index(train=False)
+        hits = self.ann_index.search(
+            query_vector, top_k=similarity_top_k, min_score=similarity_value
+        )
+        if not hits:
+            return []
+
+        _db_query = f"""
+            SELECT _id, file_path, mtime
+            FROM {self.table_name}
+            WHERE _id IN (SELECT UNNEST(?::VARCHAR[]));
+        """
+        with DuckDBLocalContext(self.database_path) as _conn:
+            rows = _conn.execute(_db_query, [[_id for _id, _ in hits]]).fetchall()
+        row_by_id = {_id: (file_path, mtime) for _id, file_path, mtime in rows}
+        return [
+            (_id, *row_by_id[_id], score)
+            for _id, score in hits
+            if _id in row_by_id
+        ]
 
     def vector_search(
         self,
@@ -296,11 +973,25 @@ class LocalDuckdbStorage:
         list_cosine_similarity: 计算两个列表之间的余弦相似度
         list_cosine_distance: 计算两个列表之间的余弦距离
         list_dot_product: 计算两个大小相同的数字列表的点积
+
+        启用 ANN 索引时只扫描最相近的若干聚类, 索引不可用时回退到全表扫描。
         """
+        # 查询文本不写入持久化缓存，避免缓存随查询无限增长，只保存在进程内的 LRU 中
+        query_vector = self._query_embedding(query, dim=query_dim)
+
+        if self.ann_index is not None:
+            try:
+                return self._ann_vector_search(
+                    query_vector, similarity_value, similarity_top_k
+                )
+            except Exception as e:
+                logger.warning(f"ANN 索引检索失败, 回退到全表扫描: {str(e)}")
+                logger.exception(e)
+
         _db_query = f"""
             SELECT _id, file_path, mtime, score
             FROM (
-                SELECT *, list_cosine_similarity(vector, ?) AS score
+                SELECT *, list_cosine_similarity(vector::FLOAT[], ?::FLOAT[]) AS score
                 FROM {self.table_name}
             ) sq
             WHERE score IS NOT NULL
@@ -308,7 +999,7 @@ class LocalDuckdbStorage:
             ORDER BY score DESC LIMIT ?;
         """
         query_params = [
-            self._embedding(query, norm=True, dim=query_dim),
+            query_vector,
             similarity_value,
             similarity_top_k,
         ]
@@ -355,6 +1046,8 @@ class LocalDuckDBStorageCache(BaseCacheManager):
         self.max_output_tokens = (
             extra_params.hybrid_index_max_output_tokens
         )
+        # 单条查询的检索结果缓存，键为 (查询, 选项, 数据表 generation)
+        self.search_result_cache = LRUCache(extra_params.rag_search_result_cache_size)
 
         # 设置缓存文件路径
         self.cache_dir = os.path.join(self.path, ".cache")
@@ -455,6 +1148,26 @@ class LocalDuckDBStorageCache(BaseCacheManager):
                     # 释放文件锁
                     fcntl.flock(lockf, fcntl.LOCK_UN)
 
+    def _append_cache_items(self, cache_items: List[CacheItem]) -> None:
+        """
+        以追加方式写入缓存记录，作为 build_cache 的检查点。
+        _load_cache 中同一文件的后一条记录会覆盖前一条
+        """
+        lock_file = self.cache_file + ".lock"
+        with open(lock_file, "w", encoding="utf-8") as lockf:
+            if fcntl:
+                fcntl.flock(lockf, fcntl.LOCK_EX)
+            try:
+                with open(self.cache_file, "a", encoding="utf-8") as f:
+                    for cache_item in cache_items:
+                        json.dump(cache_item.model_dump(), f, ensure_ascii=False)
+                        f.write("\n")
+            except IOError as e:
+                logger.warning(f"Error writing cache checkpoint: {str(e)}")
+            finally:
+                if fcntl:
+                    fcntl.flock(lockf, fcntl.LOCK_UN)
+
     @staticmethod
     def fileinfo_to_tuple(file_info: FileInfo) -> Tuple[str, str, float, str]:
         return (
@@ -465,159 +1178,184 @@ class LocalDuckDBStorageCache(BaseCacheManager):
         )
 
     def build_cache(self):
-        """Build the cache by reading files and storing in DuckDBVectorStore"""
+        """
+        Build the cache by reading files and storing in DuckDBVectorStore
+
+        以流水线方式入库 (见 ingest_pipeline)：文件边解析、边切分、边写入，
+        每个文件的 chunk 全部写入后才记入检查点，中断后重新构建会跳过已完成的文件
+        """
         logger.info(f"Building cache for path: {self.path}")
 
         files_to_process = []
+        current_files = set()
         for file_info in self.get_all_files():
+            current_files.add(file_info.file_path)
             if (
                 file_info.file_path not in self.cache
                 or self.cache[file_info.file_path].md5 != file_info.file_md5
             ):
                 files_to_process.append(file_info)
 
+        self._remove_deleted_files(current_files)
         if not files_to_process:
             return
 
+        # 构建期间一直持有数据库连接，结束后空闲超时即释放文件锁
+        with self.storage.connection_scope():
+            self._build_files(files_to_process)
+
+    def _remove_deleted_files(self, current_files: set) -> None:
+        """
+        删除已不存在的文件在数据表和本地缓存中的数据
+
+        构建时不再清空数据表，上次构建之后被删除的文件需要在这里清理
+        """
+        stale_ids = self.storage.ids_not_in_paths(current_files)
+        deleted_files = [file_path for file_path in self.cache if file_path not in current_files]
+        if not stale_ids and not deleted_files:
+            return
+        logger.info(
+            f"[BUILD CACHE] Removing {len(deleted_files)} deleted files "
+            f"({len(stale_ids)} chunks) from storage"
+        )
+        self.storage.delete_by_ids(stale_ids)
+        for file_path in deleted_files:
+            del self.cache[file_path]
+        self.write_cache()
+
+    def _build_files(self, files_to_process: List[FileInfo]) -> None:
         from autocoder.rag.token_counter import initialize_tokenizer
 
-        llm_name = get_llm_names(self.llm)[0] if self.llm else None
-        product_mode = self.args.product_mode
-        with Pool(
-            processes=os.cpu_count(),
-            initializer=initialize_tokenizer,
-            initargs=(VariableHolder.TOKENIZER_PATH,),
-        ) as pool:
-            target_files_to_process = []
-            for file_info in files_to_process:
-                target_files_to_process.append(self.fileinfo_to_tuple(file_info))
-            worker_func = functools.partial(
-                process_file_in_multi_process, llm=llm_name, product_mode=product_mode
+        logger.info(f"[BUILD CACHE] Files to process: {len(files_to_process)}")
+        file_infos = {file_info.file_path: file_info for file_info in files_to_process}
+        insert_batch_size = max(1, self.extra_params.rag_duckdb_insert_batch_size)
+        diff_totals = ChunkDiff()
+        checkpoint_items: List[CacheItem] = []
+
+        def chunk_file(file_path: str, content: List[SourceCode]) -> List[Dict[str, Any]]:
+            file_info = file_infos[file_path]
+            items = self._file_chunk_items(file_path, content, file_info.modify_time)
+            # 只写入新增或内容变化的 chunk，未变化的数据行保留在表中
+            diff = self._diff_with_storage([file_path], items)
+            if diff.stale_ids:
+                self.storage.delete_by_ids(diff.stale_ids)
+            diff_totals.merge(ChunkDiff(stale_ids=diff.stale_ids, unchanged=diff.unchanged))
+            return diff.to_insert
+
+        def write_chunks(items: List[Dict[str, Any]]) -> None:
+            self.storage.add_docs(
+                items,
+                dim=self.extra_params.rag_duckdb_vector_dim,
+                insert_batch_size=insert_batch_size,
             )
-            results = pool.map(worker_func, target_files_to_process)
 
-        items = []
-        for file_info, result in zip(files_to_process, results):
-            content: List[SourceCode] = result
-            self.cache[file_info.file_path] = CacheItem(
+        def file_done(file_path: str, content: List[SourceCode]) -> None:
+            file_info = file_infos[file_path]
+            cache_item = CacheItem(
                 file_path=file_info.file_path,
                 relative_path=file_info.relative_path,
                 content=[c.model_dump() for c in content],
                 modify_time=file_info.modify_time,
                 md5=file_info.file_md5,
             )
+            with self.lock:
+                self.cache[file_path] = cache_item
+                checkpoint_items.append(cache_item)
 
-            for doc in content:
-                logger.info(f"Processing file: {doc.module_name}")
-                chunks = self._chunk_text(doc.source_code, self.chunk_size)
-                for chunk_idx, chunk in enumerate(chunks):
-                    chunk_item = {
-                        "_id": f"{doc.module_name}_{chunk_idx}",
-                        "file_path": file_info.file_path,
-                        "content": chunk,
-                        "raw_content": chunk,
-                        "vector": "",
-                        "mtime": file_info.modify_time,
-                    }
-                    items.append(chunk_item)
-
-        # Save to local cache
-        logger.info("Saving cache to local file")
-        self.write_cache()
-
-        if items:
-            logger.info("[BUILD CACHE] Clearing DuckDB Storage cache")
-            self.storage.truncate_table()
-            logger.info(f"[BUILD CACHE] Preparing to write to DuckDB Storage.")
-            logger.info(
-                f"[BUILD CACHE] Total chunks: {len(items)}, "
-                f"Total files: {len(files_to_process)}"
-            )
-
-            # Use a fixed optimal batch size instead of dividing by worker count
-            batch_size = 100  # Optimal batch size for Byzer Storage
-            item_batches = [
-                items[i : i + batch_size] for i in range(0, len(items), batch_size)
-            ]
-
-            total_batches = len(item_batches)
-            completed_batches = 0
-
-            logger.info(f"[BUILD CACHE] Writing to DuckDB Storage.")
-            logger.info(
-                f"[BUILD CACHE] Batch size: {batch_size}, "
-                f"Total batches: {total_batches}"
-            )
-            start_time = time.time()
+        def checkpoint() -> None:
+            with self.lock:
+                items = checkpoint_items[:]
+                checkpoint_items.clear()
+            if items:
+                self._append_cache_items(items)
+
+        pipeline = StreamingIngestPipeline(
+            chunk_fn=chunk_file,
+            write_fn=write_chunks,
+            on_file_done=file_done,
+            checkpoint_fn=checkpoint,
+            queue_size=self.extra_params.rag_build_queue_size,
+            write_group_size=max(
+                insert_batch_size,
+                self.storage.embedder.max_batch_size * self.storage.embedder.max_concurrency * 2,
+            ),
+            checkpoint_interval=self.extra_params.rag_build_checkpoint_interval,
+        )
 
-            # Use more workers to process the smaller batches efficiently
-            max_workers = min(
-                self.extra_params.rag_index_build_workers, total_batches
-            )  # Cap at 10 workers or total batch count
-            logger.info(
-                f"[BUILD CACHE] Using {max_workers} parallel workers for processing"
-            )
+        llm_name = get_llm_names(self.llm)[0] if self.llm else None
+        product_mode = self.args.product_mode
+        feeder = BoundedTaskFeeder(
+            [self.fileinfo_to_tuple(file_info) for file_info in files_to_process],
+            limit=self.extra_params.rag_build_queue_size,
+        )
+        worker_func = functools.partial(
+            _parse_file_for_pipeline, llm=llm_name, product_mode=product_mode
+        )
+        with Pool(
+            processes=os.cpu_count(),
+            initializer=initialize_tokenizer,
+            initargs=(VariableHolder.TOKENIZER_PATH,),
+        ) as pool:
+            try:
+                stats = pipeline.run(
+                    pool.imap_unordered(worker_func, feeder), on_parsed=feeder.release
+                )
+            finally:
+                feeder.close()
 
-            def batch_add_doc(_batch):
-                for b in _batch:
-                    self.storage.add_doc(b, dim=self.extra_params.rag_duckdb_vector_dim)
+        logger.info(
+            f"[BUILD CACHE] Chunk diff: {stats['chunks_written']} new or changed, "
+            f"{diff_totals.unchanged} unchanged, {len(diff_totals.stale_ids)} stale"
+        )
+        logger.info(f"[BUILD CACHE] Embedding stats: {self.storage.embedder.get_stats()}")
 
-            with ThreadPoolExecutor(max_workers=max_workers) as executor:
-                futures = []
-                # Submit all batches to the executor upfront (non-blocking)
-                for batch in item_batches:
-                    futures.append(executor.submit(batch_add_doc, batch))
+        # 检查点以追加方式写入，最后整体重写一次去掉重复记录
+        logger.info("Saving cache to local file")
+        self.write_cache()
 
-                # Wait for futures to complete
-                for future in as_completed(futures):
-                    try:
-                        future.result()
-                        completed_batches += 1
-                        elapsed = time.time() - start_time
-                        estimated_total = (
-                            elapsed / completed_batches * total_batches
-                            if completed_batches > 0
-                            else 0
-                        )
-                        remaining = estimated_total - elapsed
-
-                        # Only log progress at reasonable intervals to reduce log spam
-                        if (
-                            (completed_batches == 1)
-                            or (completed_batches == total_batches)
-                            or (completed_batches % max(1, total_batches // 10) == 0)
-                        ):
-                            progress_percent = (
-                                completed_batches / total_batches * 100
-                                if total_batches > 0
-                                else 0
-                            )
-                            logger.info(
-                                f"[BUILD CACHE] Progress: {completed_batches}/"
-                                f"{total_batches} ({progress_percent:.1f}%). "
-                                f"ETA: {remaining:.1f}s"
-                            )
-                    except Exception as e:
-                        logger.error(f"[BUILD CACHE] Error saving batch: {str(e)}")
-                        # Add more detailed error information
-                        batch_len_info = (
-                            len(batch) if "batch" in locals() else "unknown"
-                        )
-                        logger.error(
-                            f"[BUILD CACHE] Error details: batch size: {batch_len_info}"
-                        )
-                        logger.exception(e)
+        if self.storage.ann_index is not None:
+            logger.info("[BUILD CACHE] Building ANN index")
+            self.storage.sync_ann_index()
+        self.storage.sync_lexical_index()
 
-            total_time = time.time() - start_time
-            logger.info(
-                f"[BUILD CACHE] All chunks written, total time: {total_time:.2f}s"
-            )
+    def _file_chunk_items(
+        self, file_path: str, content: List[SourceCode], modify_time: float
+    ) -> List[Dict[str, Any]]:
+        items = []
+        for doc in content:
+            logger.info(f"Processing file: {doc.module_name}")
+            chunks = self._chunk_text(doc.source_code, self.chunk_size)
+            for chunk_idx, chunk in enumerate(chunks):
+                items.append(
+                    {
+                        "_id": f"{doc.module_name}_{chunk_idx}",
+                        "file_path": file_path,
+                        "content": chunk,
+                        "raw_content": chunk,
+                        "vector": "",
+                        "mtime": modify_time,
+                    }
+                )
+        return items
+
+    def _diff_with_storage(
+        self, file_paths: List[str], items: List[Dict[str, Any]]
+    ) -> ChunkDiff:
+        """按文件对比新切分的 chunk 与已入库的数据行"""
+        items_by_file: Dict[str, List[Dict[str, Any]]] = {p: [] for p in file_paths}
+        for item in items:
+            items_by_file.setdefault(item["file_path"], []).append(item)
+        existing = self.storage.query_chunks_by_paths(list(items_by_file))
+        diff = ChunkDiff()
+        for file_path, file_items in items_by_file.items():
+            diff.merge(diff_chunks(existing.get(file_path, {}), file_items))
+        return diff
 
     def update_storage(self, file_info: FileInfo, is_delete: bool):
-        results = self.storage.query_by_path(file_info.file_path)
-        if results:  # [('_id',)]
-            for result in results:
-                self.storage.delete_by_ids([result[0]])
+        if is_delete:
+            results = self.storage.query_by_path(file_info.file_path)
+            if results:  # [('_id',)]
+                self.storage.delete_by_ids([result[0] for result in results])
 
         items = []
         if not is_delete:
@@ -639,18 +1377,35 @@ class LocalDuckDBStorageCache(BaseCacheManager):
                         "mtime": modify_time,
                     }
                     items.append(chunk_item)
+
+            diff = self._diff_with_storage([file_info.file_path], items)
+            logger.info(
+                f"{file_info.file_path}: {len(diff.to_insert)} chunks new or changed, "
+                f"{diff.unchanged} unchanged, {len(diff.stale_ids)} stale"
+            )
+            if diff.stale_ids:
+                self.storage.delete_by_ids(diff.stale_ids)
+            items = diff.to_insert
+
         if items:
-            for _chunk in items:
-                try:
-                    self.storage.add_doc(
-                        _chunk, dim=self.extra_params.rag_duckdb_vector_dim
-                    )
-                    time.sleep(self.extra_params.anti_quota_limit)
-                except Exception as err:
-                    logger.error(f"Error in saving chunk: {str(err)}")
-                    logger.exception(err)
+            try:
+                self.storage.add_docs(
+                    items,
+                    dim=self.extra_params.rag_duckdb_vector_dim,
+                    insert_batch_size=self.extra_params.rag_duckdb_insert_batch_size,
+                    progress_callback=self._anti_quota_pause,
+                )
+            except Exception as err:
+                logger.error(f"Error in saving chunk: {str(err)}")
+                logger.exception(err)
+
+    def _anti_quota_pause(self, written: int, total: int) -> None:
+        """增量更新时每写入一批 chunk 暂停 anti_quota_limit 秒，避免持续占满 embedding 配额"""
+        if self.extra_params.anti_quota_limit > 0:
+            time.sleep(self.extra_params.anti_quota_limit)
 
     def process_queue(self):
+        updated = bool(self.queue)
         while self.queue:
             file_list = self.queue.pop(0)
             if isinstance(file_list, DeleteEvent):
@@ -705,6 +1460,10 @@ class LocalDuckDBStorageCache(BaseCacheManager):
 
             self.write_cache()
 
+        # 增量更新后数据量增长到阈值时在这里重新训练，查询路径不训练
+        if updated and self.storage.ann_index is not None:
+            self.storage.sync_ann_index()
+
     def trigger_update(self):
         logger.info("检查文件是否有更新.....")
         files_to_process = []
@@ -787,7 +1546,19 @@ class LocalDuckDBStorageCache(BaseCacheManager):
         返回:
             包含文档信息的字典列表，每个字典包含_id、file_path、mtime和score字段
         """
-        logger.info(f"正在使用向量搜索检索数据, 你的问题: {query}")
+        options_key = json.dumps(
+            {k: v for k, v in options.items() if k != "queries"},
+            sort_keys=True,
+            ensure_ascii=False,
+            default=str,
+        )
+        cache_key = (query, options_key, self.storage.generation)
+        cached = self.search_result_cache.get(cache_key)
+        if cached is not None:
+            logger.info(f"查询 '{query}' 命中检索结果缓存, 共 {len(cached)} 条记录")
+            return [dict(r) for r in cached]
+
+        logger.info(f"正在检索数据, 你的问题: {query}")
         results = []
 
         # Add vector search if enabled
@@ -806,9 +1577,65 @@ class LocalDuckDBStorageCache(BaseCacheManager):
                     {"_id": _id, "file_path": file_path, "mtime": mtime, "score": score}
                 )
 
+        # BM25 检索，与向量检索结果按 CacheResultMerger 的策略融合
+        if (
+            options.get("enable_text_search", True)
+            and self.storage.lexical_index is not None
+        ):
+            lexical_results = [
+                {"_id": _id, "file_path": file_path, "mtime": mtime, "score": score}
+                for _id, file_path, mtime, score in self.storage.lexical_search(
+                    query, top_k=self.extra_params.rag_duckdb_lexical_top_k
+                )
+            ]
+            logger.info(f"查询 '{query}' BM25 检索返回 {len(lexical_results)} 条记录")
+            if results and lexical_results:
+                results = self._merge_hybrid_results(
+                    query, results, lexical_results, options
+                )
+            else:
+                results = results or lexical_results
+
         logger.info(f"查询 '{query}' 返回 {len(results)} 条记录")
+        self.search_result_cache.put(cache_key, [dict(r) for r in results])
         return results
 
+    def get_cache_stats(self) -> Dict[str, Any]:
+        """查询 embedding 缓存和检索结果缓存的命中统计，用于监控"""
+        return {
+            "generation": self.storage.generation,
+            "query_embedding_cache": self.storage.query_embedding_cache.get_stats(),
+            "search_result_cache": self.search_result_cache.get_stats(),
+        }
+
+    def _merge_hybrid_results(
+        self,
+        query: str,
+        vector_results: List[Dict[str, Any]],
+        lexical_results: List[Dict[str, Any]],
+        options: Dict[str, Any],
+    ) -> List[Dict[str, Any]]:
+        from autocoder.rag.cache.cache_result_merge import (
+            CacheResultMerger,
+            MergeStrategy,
+        )
+
+        strategy_name = options.get(
+            "hybrid_merge_strategy",
+            self.extra_params.rag_duckdb_hybrid_merge_strategy,
+        )
+        try:
+            strategy = MergeStrategy(strategy_name)
+        except ValueError:
+            logger.warning(
+                f"未知的合并策略: {strategy_name}, 使用默认策略 WEIGHTED_RANK"
+            )
+            strategy = MergeStrategy.WEIGHTED_RANK
+        return CacheResultMerger().merge(
+            [(f"vector:{query}", vector_results), (f"bm25:{query}", lexical_results)],
+            strategy=strategy,
+        )
+
     def _process_search_results(self, results: List[Dict[str, Any]]) -> Dict[str, Dict]:
         """
         处理搜索结果，提取文件路径并构建结果字典
@@ -867,6 +1694,8 @@ class LocalDuckDBStorageCache(BaseCacheManager):
             options: 包含查询参数的字典，可以包含以下键：
                 - queries: 查询列表，可以是单个查询或多个查询
                 - enable_vector_search: 是否启用向量搜索，默认为True
+                - enable_text_search: 启用 BM25 索引时是否同时做 BM25 检索，默认为True
+                - hybrid_merge_strategy: 向量与 BM25 结果的合并策略，默认取 rag_duckdb_hybrid_merge_strategy
                 - merge_strategy: 多查询时的合并策略，默认为WEIGHTED_RANK
                 - max_results: 最大结果数，默认为None表示不限制
 
@@ -940,6 +1769,7 @@ class LocalDuckDBStorageCache(BaseCacheManager):
         # 使用策略合并结果
         merged_results = merger.merge(query_results, strategy=merge_strategy)
         logger.info(f"合并后的结果共 {len(merged_results)} 条记录")
+        logger.info(f"检索缓存统计: {self.get_cache_stats()}")
 
         # 处理合并后的结果
         return self._process_search_results(merged_results)
@@ -0,0 +1,67 @@
+"""
+检索查询的进程内缓存
+
+一次对话会把问题扩展成多条查询，每条查询都要请求 embedding 模型再扫描向量表；
+追问和重试时相同的查询会重复出现。LRUCache 用于缓存查询 embedding 和检索结果，
+调用方把数据表的版本号 (generation) 放进键里，数据表变化后旧结果自然不再命中。
+"""
+
+import threading
+from collections import OrderedDict
+from typing import Any, Dict, Hashable, Optional
+
+
+class LRUCache:
+    """线程安全、容量有限的 LRU 缓存，记录命中和未命中次数"""
+
+    def __init__(self, max_size: int = 256):
+        """
+        Args:
+            max_size: 最多缓存的条目数，小于等于 0 表示不缓存
+        """
+        self.max_size = max_size
+        self._data: "OrderedDict[Hashable, Any]" = OrderedDict()
+        self._lock = threading.Lock()
+        self.hits = 0
+        self.misses = 0
+        self.evictions = 0
+
+    def get(self, key: Hashable) -> Optional[Any]:
+        """返回缓存的值，不存在时返回 None"""
+        with self._lock:
+            if key in self._data:
+                self._data.move_to_end(key)
+                self.hits += 1
+                return self._data[key]
+            self.misses += 1
+            return None
+
+    def put(self, key: Hashable, value: Any) -> None:
+        if self.max_size <= 0:
+            return
+        with self._lock:
+            self._data[key] = value
+            self._data.move_to_end(key)
+            while len(self._data) > self.max_size:
+                self._data.popitem(last=False)
+                self.evictions += 1
+
+    def clear(self) -> None:
+        with self._lock:
+            self._data.clear()
+
+    def __len__(self) -> int:
+        with self._lock:
+            return len(self._data)
+
+    def get_stats(self) -> Dict[str, Any]:
+        with self._lock:
+            total = self.hits + self.misses
+            return {
+                "size": len(self._data),
+                "max_size": self.max_size,
+                "hits": self.hits,
+                "misses": self.misses,
+                "evictions": self.evictions,
+                "hit_rate": round(self.hits / total, 4) if total else 0.0,
+            }
@@ -10,17 +10,13 @@ from typing import Dict, List, Tuple, Any, Optional, Union
 import os
 import threading
 import json
-import platform
-if platform.system() != "Windows":
-    import fcntl
-else:
-    fcntl = None
 import time
 from loguru import logger
 from autocoder.rag.utils import process_file_in_multi_process, process_file_local
 from autocoder.rag.variable_holder import VariableHolder
 import hashlib
 from .failed_files_utils import load_failed_files, save_failed_files
+from .binary_cache_store import BinaryCacheStore
 from autocoder.common import AutoCoderArgs
 from byzerllm import SimpleByzerLLM, ByzerLLM
 from autocoder.utils.llms import get_llm_names
@@ -76,8 +72,9 @@ class AutoCoderRAGAsyncUpdateQueue(BaseCacheManager):
                 ...
             }
 
-            这个缓存保存在项目根目录的 .cache/cache.jsonl 文件中，采用 JSONL 格式存储。
-            每次启动时从磁盘加载，并在文件变更时异步更新。
+            这个缓存保存在项目根目录的 .cache/cache.bin 文件中 (见 BinaryCacheStore)，
+            启动时通过 mmap 打开，条目在访问时才解码；文件变更时只追加变化的条目。
+            旧版本的 .cache/cache.jsonl 会在首次打开时自动迁移。
 
         源代码处理函数:
             在缓存更新过程中使用了两个关键函数:
@@ -191,7 +188,7 @@ class AutoCoderRAGAsyncUpdateQueue(BaseCacheManager):
                 file_path, _, modify_time, file_md5 = file_info
                 if (
                     file_path not in self.cache
-                    or self.cache[file_path].get("md5", "") != file_md5
+                    or self.cache.get_tag(file_path) != file_md5
                 ):
                     files_to_process.append(file_info)
             if not files_to_process:
@@ -234,7 +231,7 @@ class AutoCoderRAGAsyncUpdateQueue(BaseCacheManager):
             # 变更检测            
             if (
                 file_path not in self.cache
-                or self.cache[file_path].get("md5", "") != file_md5
+                or self.cache.get_tag(file_path) != file_md5
             ):
                 files_to_process.append(
                     (file_path, relative_path, modify_time, file_md5))            
@@ -301,55 +298,44 @@ class AutoCoderRAGAsyncUpdateQueue(BaseCacheManager):
 
             self.write_cache()
 
-    def read_cache(self) -> Dict[str, Dict]:
+    def read_cache(self) -> BinaryCacheStore:
         cache_dir = os.path.join(self.path, ".cache")
-        cache_file = os.path.join(cache_dir, "cache.jsonl")
+        cache_file = os.path.join(cache_dir, "cache.bin")
+        legacy_cache_file = os.path.join(cache_dir, "cache.jsonl")
 
         if not os.path.exists(cache_dir):
             os.makedirs(cache_dir)
 
-        cache = {}
-        if os.path.exists(cache_file):
-            with open(cache_file, "r", encoding="utf-8") as f:
-                for line in f:
-                    data = json.loads(line)
-                    cache[data["file_path"]] = data
-        else:
-            self.load_first()            
+        is_new = not os.path.exists(cache_file)
+        cache = BinaryCacheStore(
+            cache_file, tag_fn=lambda data: data.get("md5", ""))
+        if is_new and os.path.exists(legacy_cache_file):
+            self._migrate_legacy_cache(legacy_cache_file, cache)
+            is_new = False
+
+        self.cache = cache
+        if is_new:
+            self.load_first()
         return cache
 
-    def write_cache(self):
-        cache_dir = os.path.join(self.path, ".cache")
-        cache_file = os.path.join(cache_dir, "cache.jsonl")
+    def _migrate_legacy_cache(self, legacy_cache_file: str, cache: BinaryCacheStore):
+        """把旧版本的 cache.jsonl 导入二进制缓存，导入后重命名旧文件"""
+        logger.info(f"Migrating {legacy_cache_file} to binary cache format")
+        with open(legacy_cache_file, "r", encoding="utf-8") as f:
+            for line in f:
+                if not line.strip():
+                    continue
+                data = json.loads(line)
+                cache[data["file_path"]] = data
+        cache.flush()
+        os.replace(legacy_cache_file, legacy_cache_file + ".migrated")
 
-        if not fcntl:
-            with open(cache_file, "w", encoding="utf-8") as f:
-                for data in self.cache.values():
-                    try:
-                        json.dump(data, f, ensure_ascii=False)
-                        f.write("\n")
-                    except Exception as e:
-                        logger.error(
-                            f"Failed to write {data['file_path']} to .cache/cache.jsonl: {e}")
-        else:
-            lock_file = cache_file + ".lock"
-            with open(lock_file, "w", encoding="utf-8") as lockf:
-                try:
-                    # 获取文件锁
-                    fcntl.flock(lockf, fcntl.LOCK_EX | fcntl.LOCK_NB)
-                    # 写入缓存文件
-                    with open(cache_file, "w", encoding="utf-8") as f:
-                        for data in self.cache.values():
-                            try:
-                                json.dump(data, f, ensure_ascii=False)
-                                f.write("\n")
-                            except Exception as e:
-                                logger.error(
-                                    f"Failed to write {data['file_path']} to .cache/cache.jsonl: {e}")
-
-                finally:
-                    # 释放文件锁
-                    fcntl.flock(lockf, fcntl.LOCK_UN)
+    def write_cache(self):
+        # 只追加自上次写入以来变化的条目，压缩在后台进行
+        try:
+            self.cache.flush()
+        except Exception as e:
+            logger.error(f"Failed to write .cache/cache.bin: {e}")
 
     def update_cache(
         self, file_info: Tuple[str, str, float, str], content: List[SourceCode]
@@ -0,0 +1,279 @@
+import os
+import threading
+import time
+from types import SimpleNamespace
+
+import numpy as np
+import pytest
+
+from autocoder.rag.cache.ann_index import IVFFlatIndex
+
+
+def _centers(clusters=50, dim=32, seed=0):
+    return np.random.default_rng(seed).standard_normal((clusters, dim)).astype(np.float32)
+
+
+def _clustered_vectors(n, centers=None, seed=0):
+    """生成带聚类结构的归一化向量，近似真实 embedding 的分布"""
+    if centers is None:
+        centers = _centers()
+    rng = np.random.default_rng(seed + 1)
+    dim = centers.shape[1]
+    labels = rng.integers(0, len(centers), size=n)
+    vectors = centers[labels] + 0.3 * rng.standard_normal((n, dim)).astype(np.float32)
+    return vectors / np.linalg.norm(vectors, axis=1, keepdims=True)
+
+
+def _exact_top_k(vectors, query, k):
+    scores = vectors @ (query / np.linalg.norm(query))
+    return [int(i) for i in np.argsort(-scores)[:k]]
+
+
+@pytest.fixture
+def small_train_threshold(monkeypatch):
+    monkeypatch.setattr(IVFFlatIndex, "MIN_TRAIN_ROWS", 256)
+
+
+class TestIVFFlatIndex:
+    """IVFFlatIndex 的单元测试"""
+
+    def test_exact_search_below_train_threshold(self, tmp_path):
+        """测试数据量较少时精确扫描"""
+        vectors = _clustered_vectors(100)
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add([f"doc_{i}" for i in range(100)], vectors)
+
+        hits = index.search(vectors[7], top_k=5)
+
+        assert hits[0][0] == "doc_7"
+        assert hits[0][1] == pytest.approx(1.0, abs=1e-5)
+        assert [h[0] for h in hits] == [f"doc_{i}" for i in _exact_top_k(vectors, vectors[7], 5)]
+        assert index.search(vectors[7], top_k=5, min_score=1.5) == []
+
+    def test_remove_and_reload(self, tmp_path):
+        """测试删除后的结果在重新加载后保持一致"""
+        vectors = _clustered_vectors(20)
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add([f"doc_{i}" for i in range(20)], vectors)
+
+        assert index.remove(["doc_3", "missing"]) == 1
+        assert "doc_3" not in [h[0] for h in index.search(vectors[3], top_k=20)]
+
+        reloaded = IVFFlatIndex(str(tmp_path / "ivf"))
+        assert reloaded.live_count() == 19
+        assert "doc_3" not in [h[0] for h in reloaded.search(vectors[3], top_k=20)]
+
+    def test_uncommitted_tail_is_ignored(self, tmp_path):
+        """测试未提交的追加写入在加载时被忽略"""
+        vectors = _clustered_vectors(10)
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add([f"doc_{i}" for i in range(10)], vectors)
+        with open(index._vectors_file, "ab") as f:
+            f.write(b"\x00" * 7)
+        with open(index._ids_file, "ab") as f:
+            f.write(b'"partial')
+
+        reloaded = IVFFlatIndex(str(tmp_path / "ivf"))
+        assert reloaded.live_count() == 10
+
+        reloaded.add(["doc_10"], vectors[:1])
+        assert IVFFlatIndex(str(tmp_path / "ivf")).live_count() == 11
+
+    def test_uncommitted_batches_are_visible_in_process(self, tmp_path):
+        """测试 commit=False 追加的向量在本进程可查，提交后才对重新加载可见"""
+        vectors = _clustered_vectors(3000)
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add([f"doc_{i}" for i in range(10)], vectors[:10])
+        for start in range(10, 3000, 500):
+            end = min(start + 500, 3000)
+            index.add([f"doc_{i}" for i in range(start, end)], vectors[start:end], commit=False)
+
+        assert index.live_count() == 3000
+        assert index.search(vectors[2500], top_k=1)[0][0] == "doc_2500"
+        assert index.remove(["doc_2999"]) == 1
+        assert IVFFlatIndex(str(tmp_path / "ivf")).live_count() == 2999
+
+        index.add(["late"], vectors[:1], commit=False)
+        assert IVFFlatIndex(str(tmp_path / "ivf")).live_count() == 2999
+        index.commit()
+        assert IVFFlatIndex(str(tmp_path / "ivf")).live_count() == 3000
+
+    def test_search_does_not_train(self, tmp_path, small_train_threshold):
+        """测试查询不触发训练，未训练时精确扫描"""
+        vectors = _clustered_vectors(500)
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add([str(i) for i in range(500)], vectors)
+
+        assert index.search(vectors[42], top_k=1)[0][0] == "42"
+        assert index.needs_training()
+        assert index._centroids is None
+
+    def test_dimension_mismatch_raises(self, tmp_path):
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add(["a"], [[1.0, 0.0]])
+        with pytest.raises(ValueError):
+            index.add(["b"], [[1.0, 0.0, 0.0]])
+        with pytest.raises(ValueError):
+            index.search([1.0, 0.0, 0.0], top_k=1)
+
+    def test_training_keeps_recall(self, tmp_path, small_train_threshold):
+        """测试训练后近似检索的召回率"""
+        vectors = _clustered_vectors(2000)
+        index = IVFFlatIndex(str(tmp_path / "ivf"), nprobe=8)
+        index.add([str(i) for i in range(2000)], vectors)
+
+        assert index.needs_training()
+        assert index.train()
+        assert not index.needs_training()
+
+        queries = _clustered_vectors(20, seed=1000)
+        recalls = []
+        for query in queries:
+            expected = {str(i) for i in _exact_top_k(vectors, query, 10)}
+            actual = {h[0] for h in index.search(query, top_k=10)}
+            recalls.append(len(expected & actual) / 10)
+        assert np.mean(recalls) >= 0.9
+
+    def test_incremental_updates_after_training(self, tmp_path, small_train_threshold):
+        """测试训练后新增的向量直接分配聚类，删除过半时自动压缩"""
+        vectors = _clustered_vectors(600)
+        index = IVFFlatIndex(str(tmp_path / "ivf"), nprobe=4)
+        index.add([str(i) for i in range(500)], vectors[:500])
+        index.train()
+
+        index.add(["new"], vectors[500:501])
+        assert index.search(vectors[500], top_k=1)[0][0] == "new"
+
+        index.remove([str(i) for i in range(300)])
+        assert index._meta["deleted"] == 0
+        assert index.live_count() == 201
+        assert IVFFlatIndex(str(tmp_path / "ivf")).search(vectors[500], top_k=1)[0][0] == "new"
+
+    def test_concurrent_add_and_search(self, tmp_path, small_train_threshold):
+        """测试训练后一边追加一边查询：查询不会读到写入方置空的倒排列表"""
+        vectors = _clustered_vectors(3000)
+        index = IVFFlatIndex(str(tmp_path / "ivf"), nprobe=4)
+        index.add([str(i) for i in range(1000)], vectors[:1000])
+        assert index.train()
+
+        errors = []
+        done = threading.Event()
+
+        def writer():
+            try:
+                for start in range(1000, 3000, 20):
+                    index.add([str(i) for i in range(start, start + 20)], vectors[start:start + 20])
+            except Exception as e:
+                errors.append(e)
+            finally:
+                done.set()
+
+        def reader(seed):
+            try:
+                i = seed
+                while not done.is_set():
+                    index.search(vectors[i % 1000], top_k=5)
+                    i += 7
+            except Exception as e:
+                errors.append(e)
+
+        threads = [threading.Thread(target=writer)] + [
+            threading.Thread(target=reader, args=(seed,)) for seed in range(4)
+        ]
+        for thread in threads:
+            thread.start()
+        for thread in threads:
+            thread.join()
+
+        assert errors == []
+        assert index.live_count() == 3000
+        assert index.search(vectors[2999], top_k=1)[0][0] == "2999"
+
+    def test_clear(self, tmp_path):
+        index = IVFFlatIndex(str(tmp_path / "ivf"))
+        index.add(["a"], [[1.0, 0.0]])
+        index.clear()
+
+        assert index.live_count() == 0
+        assert index.search([1.0, 0.0], top_k=1) == []
+        index.add(["b"], [[0.0, 1.0, 0.0]])
+        assert index.search([0.0, 1.0, 0.0], top_k=1)[0][0] == "b"
+
+
+class _VectorLLM:
+    """把查询字符串当作向量编号返回 embedding，用于绕开真实的 embedding 模型"""
+
+    def __init__(self, queries):
+        self.queries = queries
+
+    def emb_query(self, text):
+        return [SimpleNamespace(output=np.asarray(self.queries[int(text)], dtype=np.float64))]
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_ann_recall_and_latency_benchmark(tmp_path):
+    """基准测试：ANN 索引与全表扫描在 10 万 / 100 万 chunk 下的召回率与延迟"""
+    pd = pytest.importorskip("pandas")
+    pytest.importorskip("duckdb")
+    from autocoder.common import AutoCoderArgs
+    from autocoder.rag.cache.local_duckdb_storage_cache import (
+        LocalDuckdbStorage,
+        DuckDBLocalContext,
+    )
+
+    sizes = [int(s) for s in os.environ.get("ANN_BENCH_SIZES", "100000,1000000").split(",")]
+    dim = int(os.environ.get("ANN_BENCH_DIM", "128"))
+    centers = _centers(clusters=200, dim=dim)
+    queries = _clustered_vectors(30, centers, seed=-1)
+    llm = _VectorLLM(queries)
+
+    for size in sizes:
+        persist_dir = str(tmp_path / f"bench_{size}")
+        brute = LocalDuckdbStorage(
+            llm=llm, database_name="bench.db", table_name="rag_duckdb",
+            persist_dir=persist_dir, args=AutoCoderArgs(rag_duckdb_ann_index="none"),
+        )
+        with DuckDBLocalContext(brute.database_path) as conn:
+            for start in range(0, size, 50000):
+                count = min(50000, size - start)
+                vectors = _clustered_vectors(count, centers, seed=start)
+                frame = pd.DataFrame({
+                    "_id": [f"doc_{i}" for i in range(start, start + count)],
+                    "file_path": [f"file_{i // 10}" for i in range(start, start + count)],
+                    "content": "",
+                    "raw_content": "",
+                    "vector": vectors.tolist(),
+                    "mtime": 0.0,
+                })
+                conn.register("frame", frame)
+                conn.execute("INSERT INTO rag_duckdb SELECT * FROM frame")
+                conn.unregister("frame")
+
+        ann = LocalDuckdbStorage(
+            llm=llm, database_name="bench.db", table_name="rag_duckdb",
+            persist_dir=persist_dir, args=AutoCoderArgs(rag_duckdb_ann_index="ivf"),
+        )
+        start = time.perf_counter()
+        ann.sync_ann_index()
+        build_time = time.perf_counter() - start
+
+        brute_times, ann_times, recalls = [], [], []
+        for i in range(len(queries)):
+            start = time.perf_counter()
+            expected = brute.vector_search(str(i), similarity_value=-1.0, similarity_top_k=10)
+            brute_times.append(time.perf_counter() - start)
+
+            start = time.perf_counter()
+            actual = ann.vector_search(str(i), similarity_value=-1.0, similarity_top_k=10)
+            ann_times.append(time.perf_counter() - start)
+
+            recalls.append(len({r[0] for r in expected} & {r[0] for r in actual}) / 10)
+
+        recall = float(np.mean(recalls))
+        print(f"{size} chunks (dim {dim}): index build {build_time:.1f}s, "
+              f"brute-force p50 {np.median(brute_times) * 1000:.1f} ms, "
+              f"ivf p50 {np.median(ann_times) * 1000:.1f} ms, recall@10 {recall:.3f}")
+
+        assert recall >= 0.9
+        assert np.median(ann_times) < np.median(brute_times)
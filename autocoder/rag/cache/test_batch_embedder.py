@@ -0,0 +1,189 @@
+import json
+import os
+import threading
+import time
+import urllib.request
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+import pytest
+
+from autocoder.rag.cache.batch_embedder import AdaptiveBatchEmbedder
+
+
+class _FakeEmbedding:
+    """把文本长度当作向量的假 embedding 函数，记录每次请求的批次和并发数"""
+
+    def __init__(self, latency=0.0, fail_on=None):
+        self.latency = latency
+        self.fail_on = fail_on
+        self.batches = []
+        self.active = 0
+        self.max_active = 0
+        self._lock = threading.Lock()
+
+    def __call__(self, texts):
+        with self._lock:
+            self.batches.append(list(texts))
+            self.active += 1
+            self.max_active = max(self.max_active, self.active)
+        try:
+            if self.latency:
+                time.sleep(self.latency)
+            if self.fail_on is not None and self.fail_on in texts:
+                raise RuntimeError("bad input")
+            return [[float(len(t))] for t in texts]
+        finally:
+            with self._lock:
+                self.active -= 1
+
+
+class TestAdaptiveBatchEmbedder:
+    """AdaptiveBatchEmbedder 的单元测试"""
+
+    def test_results_keep_input_order(self):
+        fake = _FakeEmbedding()
+        embedder = AdaptiveBatchEmbedder(fake, max_batch_size=4, initial_batch_size=4)
+        texts = ["x" * i for i in range(1, 11)]
+
+        assert embedder.embed(texts) == [[float(i)] for i in range(1, 11)]
+        assert all(len(batch) <= 4 for batch in fake.batches)
+
+    def test_batches_respect_char_budget(self):
+        fake = _FakeEmbedding()
+        embedder = AdaptiveBatchEmbedder(
+            fake, max_batch_size=10, initial_batch_size=10, max_batch_chars=10
+        )
+        embedder.embed(["aaaa", "bbbb", "cccc", "d" * 20, "e"])
+
+        for batch in fake.batches:
+            assert len(batch) == 1 or sum(len(t) for t in batch) <= 10
+        assert ["d" * 20] in fake.batches
+
+    def test_batch_size_grows_when_fast(self):
+        embedder = AdaptiveBatchEmbedder(
+            _FakeEmbedding(), max_batch_size=32, initial_batch_size=2, max_concurrency=1
+        )
+        embedder.embed(["t"] * 200)
+
+        assert embedder.get_stats()["batch_size"] == 32
+
+    def test_batch_size_shrinks_when_slow(self):
+        embedder = AdaptiveBatchEmbedder(
+            _FakeEmbedding(latency=0.05),
+            max_batch_size=16,
+            initial_batch_size=16,
+            target_latency=0.01,
+            max_concurrency=1,
+        )
+        embedder.embed(["t"] * 16)
+
+        assert embedder.get_stats()["batch_size"] < 16
+
+    def test_failed_batch_is_split_and_retried(self):
+        fake = _FakeEmbedding(fail_on="bad")
+        embedder = AdaptiveBatchEmbedder(
+            fake, max_batch_size=8, initial_batch_size=8, max_retries=2, retry_backoff=0
+        )
+
+        with pytest.raises(RuntimeError):
+            embedder.embed(["a", "b", "c", "bad", "d", "e", "f", "g"])
+
+        assert fake.batches.count(["bad"]) == 2
+        assert embedder.get_stats()["batch_size"] < 8
+
+    def test_transient_failure_recovers(self):
+        calls = {"n": 0}
+
+        def flaky(texts):
+            calls["n"] += 1
+            if calls["n"] == 1:
+                raise RuntimeError("timeout")
+            return [[1.0] for _ in texts]
+
+        embedder = AdaptiveBatchEmbedder(flaky, max_batch_size=4, retry_backoff=0)
+
+        assert embedder.embed(["a", "b", "c"]) == [[1.0]] * 3
+        assert embedder.get_stats()["failures"] == 1
+
+    def test_concurrency_is_bounded_while_consumer_is_slow(self):
+        fake = _FakeEmbedding(latency=0.01)
+        embedder = AdaptiveBatchEmbedder(
+            fake, max_batch_size=1, initial_batch_size=1, max_concurrency=3
+        )
+
+        seen = 0
+        for indices, _ in embedder.embed_iter(["t"] * 20):
+            seen += len(indices)
+            time.sleep(0.005)
+
+        assert seen == 20
+        assert 1 < fake.max_active <= 3
+
+
+class _FakeEmbeddingHandler(BaseHTTPRequestHandler):
+    """OpenAI 风格的 /v1/embeddings，每次请求有固定开销，每条文本有少量额外耗时"""
+
+    request_latency = 0.02
+    per_item_latency = 0.0005
+
+    def do_POST(self):
+        body = json.loads(self.rfile.read(int(self.headers["Content-Length"])))
+        inputs = body["input"] if isinstance(body["input"], list) else [body["input"]]
+        time.sleep(self.request_latency + self.per_item_latency * len(inputs))
+        payload = json.dumps(
+            {"data": [{"embedding": [float(len(t))] * 8, "index": i} for i, t in enumerate(inputs)]}
+        ).encode("utf-8")
+        self.send_response(200)
+        self.send_header("Content-Type", "application/json")
+        self.send_header("Content-Length", str(len(payload)))
+        self.end_headers()
+        self.wfile.write(payload)
+
+    def log_message(self, format, *args):
+        pass
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_batched_embedding_benchmark():
+    """基准测试：本地假 embedding 服务上，逐条请求与不同并发度下批量请求的吞吐对比"""
+    server = ThreadingHTTPServer(("127.0.0.1", 0), _FakeEmbeddingHandler)
+    threading.Thread(target=server.serve_forever, daemon=True).start()
+    url = f"http://127.0.0.1:{server.server_address[1]}/v1/embeddings"
+
+    def embed_fn(texts):
+        request = urllib.request.Request(
+            url,
+            data=json.dumps({"input": texts}).encode("utf-8"),
+            headers={"Content-Type": "application/json"},
+        )
+        with urllib.request.urlopen(request) as response:
+            return [d["embedding"] for d in json.loads(response.read())["data"]]
+
+    count = int(os.environ.get("EMB_BENCH_CHUNKS", "2000"))
+    texts = [f"chunk {i} " + "x" * 500 for i in range(count)]
+
+    try:
+        serial_count = min(count, 200)
+        start = time.perf_counter()
+        for text in texts[:serial_count]:
+            embed_fn([text])
+        serial_rate = serial_count / (time.perf_counter() - start)
+        print(f"one chunk per request: {serial_rate:.0f} chunks/s")
+
+        rates = {}
+        for concurrency in (1, 2, 4, 8):
+            embedder = AdaptiveBatchEmbedder(
+                embed_fn, max_batch_size=64, max_concurrency=concurrency, target_latency=0.2
+            )
+            start = time.perf_counter()
+            vectors = embedder.embed(texts)
+            rates[concurrency] = count / (time.perf_counter() - start)
+            assert len(vectors) == count
+            print(f"concurrency {concurrency}: {rates[concurrency]:.0f} chunks/s, "
+                  f"stats {embedder.get_stats()}")
+    finally:
+        server.shutdown()
+
+    assert rates[1] > serial_rate
+    assert rates[4] > rates[1]
@@ -0,0 +1,228 @@
+import json
+import os
+import time
+
+import pytest
+
+from autocoder.rag.cache.binary_cache_store import BinaryCacheStore
+
+
+def _entry(i, md5="m"):
+    return {
+        "file_path": f"/repo/file_{i}.py",
+        "relative_path": f"file_{i}.py",
+        "content": [{"module_name": f"file_{i}.py", "source_code": "x = 1\n" * 10}],
+        "modify_time": float(i),
+        "md5": f"{md5}{i}",
+    }
+
+
+def _open(path):
+    return BinaryCacheStore(str(path), tag_fn=lambda data: data.get("md5", ""))
+
+
+class TestBinaryCacheStore:
+    """BinaryCacheStore 的单元测试"""
+
+    def test_roundtrip_and_lazy_decode(self, tmp_path):
+        store = _open(tmp_path / "cache.bin")
+        for i in range(5):
+            store[f"k{i}"] = _entry(i)
+        store.flush()
+
+        reopened = _open(tmp_path / "cache.bin")
+
+        assert list(reopened) == [f"k{i}" for i in range(5)]
+        assert reopened._decoded == {}
+        assert reopened.get_tag("k3") == "m3"
+        assert reopened._decoded == {}
+        assert reopened["k3"] == _entry(3)
+        assert list(reopened._decoded) == ["k3"]
+
+    def test_update_and_delete_append_delta(self, tmp_path):
+        path = tmp_path / "cache.bin"
+        store = _open(path)
+        for i in range(5):
+            store[f"k{i}"] = _entry(i)
+        store.flush()
+        size = os.path.getsize(path)
+
+        store["k1"] = _entry(1, md5="new")
+        del store["k2"]
+        store.flush()
+
+        assert os.path.getsize(path) < size * 2
+        reopened = _open(path)
+        assert "k2" not in reopened
+        assert reopened.get_tag("k1") == "new1"
+        assert reopened["k1"] == _entry(1, md5="new")
+        assert len(reopened) == 4
+
+    def test_unflushed_changes_are_not_persisted(self, tmp_path):
+        store = _open(tmp_path / "cache.bin")
+        store["a"] = _entry(0)
+        store.flush()
+        store["b"] = _entry(1)
+        del store["a"]
+
+        assert list(store) == ["b"]
+        assert list(_open(tmp_path / "cache.bin")) == ["a"]
+
+    def test_uncommitted_tail_is_ignored(self, tmp_path):
+        path = tmp_path / "cache.bin"
+        store = _open(path)
+        store["a"] = _entry(0)
+        store.flush()
+        with open(path, "ab") as f:
+            f.write(b"\x01garbage")
+
+        reopened = _open(path)
+        assert list(reopened) == ["a"]
+        reopened["b"] = _entry(1)
+        reopened.flush()
+        assert sorted(_open(path)) == ["a", "b"]
+
+    def test_compaction(self, tmp_path):
+        path = tmp_path / "cache.bin"
+        store = _open(path)
+        for round_ in range(4):
+            for i in range(20):
+                store[f"k{i}"] = _entry(i, md5=f"r{round_}_")
+            store.flush()
+        del store["k0"]
+        store.flush()
+        assert store.garbage_ratio() > 0.5
+
+        store.compact()
+
+        assert store.garbage_ratio() == pytest.approx(0.0)
+        reopened = _open(path)
+        assert len(reopened) == 19
+        assert reopened["k5"] == _entry(5, md5="r3_")
+        assert reopened.get_tag("k19") == "r3_19"
+        reopened["k0"] = _entry(0)
+        reopened.flush()
+        assert _open(path)["k0"] == _entry(0)
+
+    def test_garbage_ratio_counts_whole_records(self, tmp_path):
+        """测试存活条目按记录头、键、标签和值的完整大小计算，与文件大小口径一致"""
+        path = tmp_path / "cache.bin"
+        store = _open(path)
+        keys = [f"/a/long/path/to/some/module_{i}.py" for i in range(50)]
+        for i, key in enumerate(keys):
+            store[key] = _entry(i)
+        store.flush()
+        assert store.garbage_ratio() == pytest.approx(0.0)
+        assert _open(path).garbage_ratio() == pytest.approx(0.0)
+
+        # 每个条目重写一次，相同大小的旧记录全部失效
+        for i, key in enumerate(keys):
+            store[key] = _entry(i)
+        store.flush()
+        assert store.garbage_ratio() == pytest.approx(0.5)
+        assert _open(path).garbage_ratio() == pytest.approx(0.5)
+
+        store.compact()
+        store[keys[0]] = _entry(0)
+        store.flush()
+        assert 0.0 < store.garbage_ratio() < 0.05
+        assert _open(path).garbage_ratio() == pytest.approx(store.garbage_ratio())
+
+    def test_background_compaction(self, tmp_path, monkeypatch):
+        monkeypatch.setattr(BinaryCacheStore, "COMPACT_MIN_BYTES", 0)
+        path = tmp_path / "cache.bin"
+        store = _open(path)
+        store["a"] = _entry(0)
+        store.flush()
+        store["a"] = _entry(1)
+        store.flush()
+
+        store._compact_thread.join()
+
+        assert store.garbage_ratio() == pytest.approx(0.0)
+        assert _open(path)["a"] == _entry(1)
+
+    def test_concurrent_writer_is_merged(self, tmp_path):
+        """测试另一个实例写入后 flush 会先重新加载再追加"""
+        path = tmp_path / "cache.bin"
+        first = _open(path)
+        second = _open(path)
+        first["a"] = _entry(0)
+        first.flush()
+        second["b"] = _entry(1)
+        second.flush()
+
+        assert sorted(second) == ["a", "b"]
+        assert sorted(_open(path)) == ["a", "b"]
+
+    def test_read_after_other_instance_compacts(self, tmp_path):
+        """测试另一个实例压缩替换文件后，旧实例不会按过期偏移读取新文件"""
+        path = tmp_path / "cache.bin"
+        writer = _open(path)
+        for round_ in range(3):
+            for i in range(10):
+                writer[f"k{i}"] = _entry(i, md5=f"r{round_}_")
+            writer.flush()
+
+        reader = _open(path)
+        assert reader["k1"] == _entry(1, md5="r2_")
+        writer.compact()
+
+        # 仍持有旧文件句柄的映射读到的是旧文件中的数据
+        assert reader["k2"] == _entry(2, md5="r2_")
+
+        # 解除映射后再次读取会发现文件已被替换并重新加载偏移表
+        reader.close()
+        reader._decoded.clear()
+        assert reader["k3"] == _entry(3, md5="r2_")
+        reader["k0"] = _entry(0)
+        reader.flush()
+        assert _open(path)["k0"] == _entry(0)
+        assert _open(path)["k9"] == _entry(9, md5="r2_")
+
+    def test_invalid_file_starts_empty(self, tmp_path):
+        path = tmp_path / "cache.bin"
+        path.write_bytes(b"not a cache file at all, just some bytes")
+
+        assert len(_open(path)) == 0
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_open_and_update_benchmark(tmp_path):
+    """基准测试：与 cache.jsonl 全量读写相比的启动与增量更新耗时"""
+    count = int(os.environ.get("BINARY_CACHE_BENCH_ENTRIES", "30000"))
+    entries = {f"/repo/file_{i}.py": _entry(i) for i in range(count)}
+
+    jsonl = tmp_path / "cache.jsonl"
+    with open(jsonl, "w", encoding="utf-8") as f:
+        for data in entries.values():
+            f.write(json.dumps(data, ensure_ascii=False) + "\n")
+    store = _open(tmp_path / "cache.bin")
+    for key, data in entries.items():
+        store[key] = data
+    store.flush()
+
+    start = time.perf_counter()
+    cache = {}
+    with open(jsonl, "r", encoding="utf-8") as f:
+        for line in f:
+            data = json.loads(line)
+            cache[data["file_path"]] = data
+    with open(jsonl, "w", encoding="utf-8") as f:
+        for data in cache.values():
+            f.write(json.dumps(data, ensure_ascii=False) + "\n")
+    jsonl_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    reopened = _open(tmp_path / "cache.bin")
+    stale = [k for k in reopened if reopened.get_tag(k) != entries[k]["md5"]]
+    reopened["/repo/file_0.py"] = _entry(0, md5="new")
+    reopened.flush()
+    binary_time = time.perf_counter() - start
+
+    print(f"{count} entries: jsonl read+write {jsonl_time * 1000:.0f} ms, "
+          f"binary open+update {binary_time * 1000:.0f} ms")
+
+    assert stale == []
+    assert binary_time < jsonl_time
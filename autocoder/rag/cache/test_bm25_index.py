@@ -0,0 +1,98 @@
+import os
+import time
+
+import pytest
+
+from autocoder.rag.cache.bm25_index import BM25Index, tokenize
+
+
+def test_tokenize_code_and_cjk():
+    assert tokenize("getUserName") == ["getusername", "get", "user", "name"]
+    assert tokenize("MAX_RETRY_COUNT") == ["max_retry_count", "max", "retry", "count"]
+    assert tokenize("HTTPServer") == ["httpserver", "http", "server"]
+    assert tokenize("向量检索") == ["向量", "量检", "检索"]
+
+
+class TestBM25Index:
+    """BM25Index 的单元测试"""
+
+    def setup_method(self):
+        self.index = BM25Index(":memory:")
+        self.index.add(
+            [
+                ("a.py_0", "a.py", "def load_config(path):\n    return read_yaml(path)"),
+                ("b.py_0", "b.py", "class UserRepository:\n    def find_user(self, user_id): ..."),
+                ("c.md_0", "c.md", "配置文件使用 YAML 格式，启动时加载配置"),
+                ("d.py_0", "d.py", "def helper(path):\n    return path"),
+            ]
+        )
+
+    def test_identifier_query_finds_definition(self):
+        hits = self.index.search("where is load_config defined?")
+
+        assert hits[0][:2] == ("a.py_0", "a.py")
+
+    def test_camel_case_parts_match_words(self):
+        hits = self.index.search("user repository")
+
+        assert hits[0][0] == "b.py_0"
+
+    def test_cjk_query(self):
+        hits = self.index.search("加载配置")
+
+        assert hits[0][0] == "c.md_0"
+
+    def test_replace_and_remove_are_incremental(self):
+        self.index.add([("a.py_0", "a.py", "def save_config(path): ...")])
+
+        assert self.index.count() == 4
+        assert not self.index.search("load")
+        assert self.index.search("save_config")[0][0] == "a.py_0"
+
+        assert self.index.remove(["a.py_0", "missing"]) == 1
+        assert self.index.count() == 3
+        assert not self.index.search("save_config")
+
+    def test_common_terms_do_not_dominate(self):
+        self.index.add([(f"e{i}.py_0", f"e{i}.py", "path = os.path.join(root, name)") for i in range(4)])
+
+        hits = self.index.search("path load_config")
+
+        assert hits[0][0] == "a.py_0"
+        assert "d.py_0" not in [doc_id for doc_id, _, _ in hits]
+
+    def test_persisted_across_reopen(self, tmp_path):
+        db_file = str(tmp_path / "index.bm25.sqlite")
+        index = BM25Index(db_file)
+        index.add([("x_0", "x.py", "def parse_args(): ...")])
+        index.close()
+
+        reopened = BM25Index(db_file)
+        assert reopened.count() == 1
+        assert reopened.search("parse_args")[0][0] == "x_0"
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_bm25_search_benchmark():
+    """基准测试：构建 BM25 索引并统计标识符查询的延迟"""
+    count = int(os.environ.get("BM25_BENCH_CHUNKS", "20000"))
+    index = BM25Index(":memory:")
+    docs = [
+        (f"f{i}.py_0", f"f{i}.py",
+         f"def handler_{i}(request):\n    value = compute_{i % 100}(request.data)\n    return value")
+        for i in range(count)
+    ]
+
+    start = time.perf_counter()
+    for i in range(0, count, 1000):
+        index.add(docs[i : i + 1000])
+    build_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    for i in range(100):
+        hits = index.search(f"handler_{i * 7} compute")
+        assert hits[0][0] == f"f{i * 7}.py_0"
+    query_time = (time.perf_counter() - start) / 100
+
+    print(f"{count} chunks: build {build_time:.2f}s, query {query_time * 1000:.2f}ms")
@@ -0,0 +1,45 @@
+from autocoder.rag.cache.chunk_diff import ChunkDiff, diff_chunks
+
+
+def _item(_id, content):
+    return {"_id": _id, "file_path": "a.py", "content": content}
+
+
+class TestDiffChunks:
+    """diff_chunks 的单元测试"""
+
+    def test_unchanged_chunks_are_kept(self):
+        diff = diff_chunks({"a.py_0": "x", "a.py_1": "y"}, [_item("a.py_0", "x"), _item("a.py_1", "y")])
+
+        assert diff.to_insert == []
+        assert diff.stale_ids == []
+        assert diff.unchanged == 2
+
+    def test_changed_chunk_is_replaced(self):
+        diff = diff_chunks({"a.py_0": "x", "a.py_1": "y"}, [_item("a.py_0", "x"), _item("a.py_1", "z")])
+
+        assert [item["_id"] for item in diff.to_insert] == ["a.py_1"]
+        assert diff.stale_ids == ["a.py_1"]
+        assert diff.unchanged == 1
+
+    def test_new_and_removed_chunks(self):
+        diff = diff_chunks({"a.py_0": "x", "a.py_1": "y"}, [_item("a.py_0", "x"), _item("a.py_2", "w")])
+
+        assert [item["_id"] for item in diff.to_insert] == ["a.py_2"]
+        assert diff.stale_ids == ["a.py_1"]
+
+    def test_new_file_inserts_everything(self):
+        diff = diff_chunks({}, [_item("a.py_0", "x"), _item("a.py_1", "y")])
+
+        assert len(diff.to_insert) == 2
+        assert diff.stale_ids == []
+        assert diff.unchanged == 0
+
+    def test_merge(self):
+        total = ChunkDiff()
+        total.merge(diff_chunks({"a.py_0": "x"}, [_item("a.py_0", "x")]))
+        total.merge(diff_chunks({"b.py_0": "old"}, [_item("b.py_0", "new")]))
+
+        assert total.unchanged == 1
+        assert total.stale_ids == ["b.py_0"]
+        assert [item["content"] for item in total.to_insert] == ["new"]
@@ -0,0 +1,94 @@
+import os
+import time
+
+import pytest
+
+np = pytest.importorskip("numpy")
+
+from autocoder.rag.cache.dim_reduction import EmbeddingProjector
+
+
+def _legacy_projection(embedding, target_dim):
+    """早期实现：每次调用重新设置种子并生成投影矩阵"""
+    np.random.seed(42)
+    source_dim = len(embedding)
+    projection_matrix = np.random.randn(source_dim, target_dim) / np.sqrt(source_dim)
+    return np.dot(embedding, projection_matrix)
+
+
+class TestEmbeddingProjector:
+    """EmbeddingProjector 的单元测试"""
+
+    def test_random_projection_matches_legacy(self):
+        rng = np.random.default_rng(0)
+        vectors = rng.standard_normal((5, 64))
+        projector = EmbeddingProjector(16)
+
+        reduced = projector.transform(vectors)
+
+        assert reduced.dtype == np.float32
+        assert reduced.shape == (5, 16)
+        for row, vector in zip(reduced, vectors):
+            assert np.allclose(row, _legacy_projection(vector, 16), atol=1e-4)
+
+    def test_projection_is_persisted(self, tmp_path):
+        path = str(tmp_path / "proj.npz")
+        vectors = np.random.default_rng(1).standard_normal((3, 32))
+
+        first = EmbeddingProjector(8, path=path).transform(vectors)
+        assert os.path.exists(path)
+
+        second = EmbeddingProjector(8, path=path).transform(vectors)
+        assert np.array_equal(first, second)
+
+    def test_pca_fit_preserves_low_rank_geometry(self, tmp_path):
+        rng = np.random.default_rng(2)
+        basis = rng.standard_normal((4, 64))
+        sample = rng.standard_normal((200, 4)) @ basis
+        path = str(tmp_path / "pca.npz")
+        projector = EmbeddingProjector(8, method="pca", path=path)
+
+        assert projector.needs_fit
+        projector.fit(sample)
+        assert not projector.needs_fit
+        assert projector.kind == "pca"
+        assert projector.signature.startswith("pca-")
+
+        reduced = projector.transform(sample)
+        centered = sample - sample.mean(axis=0)
+        original = np.linalg.norm(centered[0] - centered[1])
+        assert abs(np.linalg.norm(reduced[0] - reduced[1]) - original) < 1e-3 * max(1.0, original)
+
+        reloaded = EmbeddingProjector(8, method="pca", path=path)
+        assert reloaded.signature == projector.signature
+        assert np.allclose(reloaded.transform(sample[:3]), reduced[:3])
+
+    def test_pca_with_too_few_samples_falls_back_to_random(self):
+        projector = EmbeddingProjector(16, method="pca")
+        projector.fit(np.random.default_rng(3).standard_normal((4, 32)))
+
+        assert projector.kind == "random"
+        assert projector.signature == ""
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_projection_benchmark():
+    """基准测试：逐条重新生成投影矩阵与复用矩阵批量投影的耗时对比"""
+    count = int(os.environ.get("PROJECTION_BENCH_VECTORS", "200"))
+    vectors = np.random.default_rng(4).standard_normal((count, 1536))
+
+    start = time.perf_counter()
+    for vector in vectors:
+        _legacy_projection(vector, 1024)
+    legacy_time = time.perf_counter() - start
+
+    projector = EmbeddingProjector(1024)
+    projector.transform(vectors[:1])
+    start = time.perf_counter()
+    projector.transform(vectors)
+    batch_time = time.perf_counter() - start
+
+    print(f"{count} vectors: per-call matrix {legacy_time:.2f}s, cached batch {batch_time:.4f}s")
+
+    assert batch_time < legacy_time
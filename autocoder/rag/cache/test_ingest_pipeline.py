@@ -0,0 +1,171 @@
+import threading
+import time
+from multiprocessing import Pool
+
+import pytest
+
+from autocoder.rag.cache.ingest_pipeline import BoundedTaskFeeder, StreamingIngestPipeline
+
+
+def _parse(name):
+    return name, f"content of {name}"
+
+
+def _chunks(file, payload):
+    return [{"_id": f"{file}_{i}", "content": payload} for i in range(3)]
+
+
+class _Recorder:
+    def __init__(self):
+        self.written = []
+        self.done = []
+        self.checkpoints = []
+        self._lock = threading.Lock()
+
+    def write(self, chunks):
+        with self._lock:
+            self.written.append(list(chunks))
+
+    def file_done(self, file, payload):
+        with self._lock:
+            self.done.append(file)
+
+    def checkpoint(self):
+        with self._lock:
+            self.checkpoints.append(list(self.done))
+
+
+def _pipeline(recorder, **kwargs):
+    params = dict(
+        chunk_fn=_chunks,
+        write_fn=recorder.write,
+        on_file_done=recorder.file_done,
+        checkpoint_fn=recorder.checkpoint,
+        queue_size=4,
+        write_group_size=6,
+        report_interval=0.0,
+    )
+    params.update(kwargs)
+    return StreamingIngestPipeline(**params)
+
+
+class TestStreamingIngestPipeline:
+    """StreamingIngestPipeline 的单元测试"""
+
+    def test_all_files_written_and_marked_done(self):
+        recorder = _Recorder()
+        files = [f"f{i}" for i in range(20)]
+
+        stats = _pipeline(recorder).run(_parse(f) for f in files)
+
+        assert sorted(recorder.done) == sorted(files)
+        assert sum(len(group) for group in recorder.written) == 60
+        assert all(len(group) <= 6 + 3 for group in recorder.written)
+        assert stats["files_done"] == 20
+        assert stats["chunks_written"] == 60
+        assert set(stats["stages"]) == {"parse", "chunk", "write"}
+        assert recorder.checkpoints[-1] == recorder.done
+
+    def test_files_without_new_chunks_are_still_done(self):
+        recorder = _Recorder()
+
+        _pipeline(recorder, chunk_fn=lambda file, payload: []).run(_parse(f) for f in ["a", "b"])
+
+        assert sorted(recorder.done) == ["a", "b"]
+        assert recorder.written == []
+
+    def test_failed_write_does_not_mark_files_done(self):
+        recorder = _Recorder()
+
+        def write(chunks):
+            if any(c["_id"].startswith("bad") for c in chunks):
+                raise RuntimeError("insert failed")
+            recorder.write(chunks)
+
+        stats = _pipeline(recorder, write_fn=write, write_group_size=1).run(
+            _parse(f) for f in ["a", "bad", "c"]
+        )
+
+        assert sorted(recorder.done) == ["a", "c"]
+        assert stats["files_failed"] == 1
+
+    def test_chunk_error_skips_file(self):
+        recorder = _Recorder()
+
+        def chunk(file, payload):
+            if file == "broken":
+                raise ValueError("cannot chunk")
+            return _chunks(file, payload)
+
+        _pipeline(recorder, chunk_fn=chunk).run(_parse(f) for f in ["a", "broken", "c"])
+
+        assert sorted(recorder.done) == ["a", "c"]
+
+    def test_parse_error_is_raised(self):
+        recorder = _Recorder()
+
+        def parsed():
+            yield _parse("a")
+            raise OSError("worker died")
+
+        with pytest.raises(OSError):
+            _pipeline(recorder).run(parsed())
+
+        assert recorder.done == ["a"]
+
+    def test_interrupted_write_stops_upstream_and_checkpoints(self):
+        recorder = _Recorder()
+        calls = {"n": 0}
+
+        def done(file, payload):
+            calls["n"] += 1
+            if calls["n"] > 3:
+                raise KeyboardInterrupt()
+            recorder.file_done(file, payload)
+
+        with pytest.raises(KeyboardInterrupt):
+            _pipeline(recorder, on_file_done=done, write_group_size=1).run(
+                _parse(f"f{i}") for i in range(100)
+            )
+
+        assert recorder.done == recorder.checkpoints[-1]
+        assert len(recorder.done) == 3
+
+    def test_memory_is_bounded_by_queues(self):
+        recorder = _Recorder()
+        produced = {"n": 0, "max_ahead": 0}
+        lock = threading.Lock()
+
+        def parsed():
+            for i in range(200):
+                with lock:
+                    produced["n"] += 1
+                    produced["max_ahead"] = max(
+                        produced["max_ahead"], produced["n"] - len(recorder.done)
+                    )
+                yield _parse(f"f{i}")
+
+        def slow_write(chunks):
+            time.sleep(0.001)
+            recorder.write(chunks)
+
+        _pipeline(recorder, write_fn=slow_write, queue_size=2, write_group_size=3).run(parsed())
+
+        assert len(recorder.done) == 200
+        # 两个队列各 2 个文件，加上各阶段手中正在处理的文件
+        assert produced["max_ahead"] <= 2 + 2 + 4
+
+
+def test_feeder_bounds_pool_imap_unordered():
+    """BoundedTaskFeeder 限制 imap_unordered 的在途任务数，全部任务都能完成"""
+    recorder = _Recorder()
+    names = [f"f{i}" for i in range(50)]
+    feeder = BoundedTaskFeeder(names, limit=4)
+
+    with Pool(processes=2) as pool:
+        try:
+            _pipeline(recorder).run(pool.imap_unordered(_parse, feeder), on_parsed=feeder.release)
+        finally:
+            feeder.close()
+
+    assert sorted(recorder.done) == sorted(names)
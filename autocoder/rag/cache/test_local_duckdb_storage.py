@@ -0,0 +1,350 @@
+import os
+import subprocess
+import sys
+import threading
+import time
+from types import SimpleNamespace
+
+import pytest
+
+np = pytest.importorskip("numpy")
+pytest.importorskip("duckdb")
+
+from autocoder.common import AutoCoderArgs
+from autocoder.rag.cache.local_duckdb_storage_cache import (
+    DuckDBConnectionManager,
+    DuckDBLocalContext,
+    LocalDuckDBStorageCache,
+    LocalDuckdbStorage,
+)
+from autocoder.rag.cache.query_cache import LRUCache
+
+
+class _HashLLM:
+    """根据文本哈希生成确定性向量，用于绕开真实的 embedding 模型"""
+
+    def __init__(self):
+        self.queries = []
+
+    def emb_query(self, text):
+        self.queries.append(text)
+        rng = np.random.default_rng(abs(hash(text)) % (2 ** 32))
+        return [SimpleNamespace(output=rng.standard_normal(16))]
+
+
+def _chunks(count, file_path="a.py"):
+    return [
+        {
+            "_id": f"{file_path}_{i}",
+            "file_path": file_path,
+            "content": f"chunk {i}",
+            "raw_content": f"chunk {i}",
+            "vector": f"chunk {i}",
+            "mtime": 1.0,
+        }
+        for i in range(count)
+    ]
+
+
+@pytest.fixture
+def storage(tmp_path):
+    yield LocalDuckdbStorage(
+        llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+        persist_dir=str(tmp_path), args=AutoCoderArgs(),
+    )
+    DuckDBConnectionManager.close_all()
+
+
+class TestDuckDBConnectionManager:
+    """DuckDBConnectionManager 的单元测试"""
+
+    def test_connection_is_shared(self, storage):
+        """测试同一数据库文件只连接一次，同一线程复用游标"""
+        manager = DuckDBConnectionManager.get(storage.database_path)
+        with DuckDBLocalContext(storage.database_path) as first:
+            pass
+        with DuckDBLocalContext(storage.database_path) as second:
+            pass
+
+        assert DuckDBConnectionManager.get(storage.database_path) is manager
+        assert first is second
+
+    def test_cursor_per_thread(self, storage):
+        """测试不同线程拿到各自的游标，写入对其他线程可见"""
+        cursors = []
+
+        def worker(i):
+            with DuckDBLocalContext(storage.database_path) as conn:
+                cursors.append(conn)
+            storage.add_docs(_chunks(5, file_path=f"f{i}.py"))
+
+        threads = [threading.Thread(target=worker, args=(i,)) for i in range(4)]
+        for t in threads:
+            t.start()
+        for t in threads:
+            t.join()
+
+        assert len({id(c) for c in cursors}) == 4
+        with DuckDBLocalContext(storage.database_path) as conn:
+            assert conn.execute("SELECT count(*) FROM rag_duckdb").fetchone()[0] == 20
+
+    def test_connection_is_released_when_idle(self, storage, monkeypatch):
+        """测试最后一个使用者归还后连接空闲超时关闭，其他进程可以打开数据库文件"""
+        monkeypatch.setattr(DuckDBConnectionManager, "IDLE_TIMEOUT", 0.05)
+        with DuckDBLocalContext(storage.database_path):
+            manager = DuckDBConnectionManager.get(storage.database_path)
+            time.sleep(0.2)
+            assert not manager.closed
+
+        deadline = time.monotonic() + 5
+        while not manager.closed and time.monotonic() < deadline:
+            time.sleep(0.01)
+        assert manager.closed
+        subprocess.run(
+            [sys.executable, "-c", f"import duckdb; duckdb.connect({storage.database_path!r}).close()"],
+            check=True,
+        )
+
+    def test_hold_keeps_connection_for_the_whole_scope(self, storage, monkeypatch):
+        monkeypatch.setattr(DuckDBConnectionManager, "IDLE_TIMEOUT", 0)
+        with storage.connection_scope() as manager:
+            storage.add_docs(_chunks(3))
+            assert len(storage.query_by_path("a.py")) == 3
+            assert not manager.closed
+        assert manager.closed
+
+    def test_reconnect_after_close(self, storage):
+        storage.add_docs(_chunks(3))
+        DuckDBConnectionManager.close_all()
+
+        assert len(storage.query_by_path("a.py")) == 3
+
+
+class TestBatchedWrites:
+    """批量写入与删除的单元测试"""
+
+    def test_add_docs_and_delete_many_ids(self, storage):
+        storage.add_docs(_chunks(10))
+        storage.add_doc(_chunks(1, file_path="b.py")[0])
+
+        assert len(storage.query_by_path("a.py")) == 10
+
+        storage.delete_by_ids(["a.py_0", "a.py_1", "a.py_2"])
+
+        assert sorted(r[0] for r in storage.query_by_path("a.py")) == [
+            f"a.py_{i}" for i in range(3, 10)
+        ]
+        assert len(storage.query_by_path("b.py")) == 1
+
+    def test_ids_of_deleted_files(self, storage):
+        """测试按当前文件集合找出已删除文件的 chunk，供构建时清理"""
+        storage.add_docs(_chunks(3) + _chunks(2, file_path="gone.py"))
+
+        assert sorted(storage.ids_not_in_paths({"a.py", "new.py"})) == ["gone.py_0", "gone.py_1"]
+        assert len(storage.ids_not_in_paths(set())) == 5
+
+    def test_add_docs_empty_batch(self, storage):
+        storage.add_docs([])
+        assert storage.delete_by_ids([]) == []
+
+
+
+class TestReducedVectors:
+    """降维与 int8 向量列的单元测试"""
+
+    @pytest.mark.parametrize("vector_type", ["float32", "int8"])
+    def test_search_with_projection(self, tmp_path, vector_type):
+        storage = LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(rag_duckdb_vector_type=vector_type),
+        )
+        try:
+            storage.add_docs(_chunks(20), dim=8)
+
+            results = storage.vector_search("chunk 3", similarity_value=0.0, query_dim=8)
+
+            assert results[0][0] == "a.py_3"
+            assert results[0][3] > 0.99
+            assert os.path.exists(
+                os.path.join(storage.cache_dir, "test.db.rag_duckdb.proj8.npz")
+            )
+        finally:
+            DuckDBConnectionManager.close_all()
+
+    def test_existing_table_type_wins(self, tmp_path):
+        LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(rag_duckdb_vector_type="int8"),
+        )
+        reopened = LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(),
+        )
+        try:
+            assert reopened.vector_type == "int8"
+        finally:
+            DuckDBConnectionManager.close_all()
+
+
+
+class TestLexicalIndex:
+    """BM25 索引与数据表同步的单元测试"""
+
+    def test_lexical_index_follows_writes_and_deletes(self, tmp_path):
+        storage = LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(rag_duckdb_lexical_index="bm25"),
+        )
+        try:
+            chunks = _chunks(5)
+            chunks[2]["content"] = "def load_config(path): ..."
+            storage.add_docs(chunks)
+
+            assert storage.lexical_search("load_config")[0][:2] == ("a.py_2", "a.py")
+
+            storage.delete_by_ids(["a.py_2"])
+            assert storage.lexical_search("load_config") == []
+        finally:
+            DuckDBConnectionManager.close_all()
+
+    def test_lexical_index_rebuilt_for_existing_table(self, tmp_path):
+        LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(),
+        ).add_docs(_chunks(5))
+        storage = LocalDuckdbStorage(
+            llm=_HashLLM(), database_name="test.db", table_name="rag_duckdb",
+            persist_dir=str(tmp_path), args=AutoCoderArgs(rag_duckdb_lexical_index="bm25"),
+        )
+        try:
+            storage.sync_lexical_index()
+            assert storage.lexical_index.count() == 5
+        finally:
+            DuckDBConnectionManager.close_all()
+
+
+class TestQueryCaches:
+    """查询 embedding 缓存与检索结果缓存的单元测试"""
+
+    def test_repeated_query_is_embedded_once(self, storage):
+        storage.add_docs(_chunks(5))
+        storage.llm.queries.clear()
+
+        first = storage.vector_search("chunk 2", similarity_value=0.0)
+        second = storage.vector_search("chunk 2", similarity_value=0.0)
+
+        assert first == second
+        assert storage.llm.queries == ["chunk 2"]
+        assert storage.query_embedding_cache.get_stats()["hits"] == 1
+
+    def test_table_changes_bump_generation(self, storage):
+        generation = storage.generation
+        storage.add_docs(_chunks(3))
+        assert storage.generation > generation
+
+        generation = storage.generation
+        storage.delete_by_ids(["a.py_0"])
+        assert storage.generation > generation
+
+        generation = storage.generation
+        storage.truncate_table()
+        assert storage.generation > generation
+        assert len(storage.query_embedding_cache) == 0
+
+    def test_search_results_follow_generation(self, storage):
+        storage.add_docs(_chunks(5))
+        manager = LocalDuckDBStorageCache.__new__(LocalDuckDBStorageCache)
+        manager.storage = storage
+        manager.extra_params = AutoCoderArgs(rag_duckdb_query_similarity=-1.0)
+        manager.search_result_cache = LRUCache(16)
+        calls = []
+        search = storage.vector_search
+        storage.vector_search = lambda *a, **kw: calls.append(a[0]) or search(*a, **kw)
+
+        first = manager._get_single_cache("chunk 1", {"queries": ["chunk 1"]})
+        again = manager._get_single_cache("chunk 1", {"queries": ["chunk 1", "other"]})
+        assert again == first
+        assert calls == ["chunk 1"]
+
+        # 不同的选项不共享结果
+        manager._get_single_cache("chunk 1", {"enable_text_search": False})
+        assert len(calls) == 2
+
+        storage.add_docs(_chunks(2, file_path="b.py"))
+        refreshed = manager._get_single_cache("chunk 1", {"queries": ["chunk 1"]})
+        assert len(calls) == 3
+        assert len(refreshed) == len(first) + 2
+
+        stats = manager.get_cache_stats()
+        assert stats["search_result_cache"]["hits"] == 1
+        assert stats["generation"] == storage.generation
+
+
+class _BatchLLM(_HashLLM):
+    """支持列表输入的 embedding 模型，可按顺序注入失败"""
+
+    def __init__(self, failures=()):
+        super().__init__()
+        self.failures = list(failures)
+        self.batch_calls = 0
+
+    def emb(self, model, request):
+        self.batch_calls += 1
+        if self.failures:
+            raise self.failures.pop(0)
+        return [self.emb_query(text)[0] for text in request.instruction]
+
+
+class TestBatchEmbedding:
+    """批量 embedding 与逐条退化的单元测试"""
+
+    @pytest.fixture(autouse=True)
+    def _require_byzerllm(self):
+        pytest.importorskip("byzerllm")
+
+    def test_transient_error_keeps_batch_mode(self, storage):
+        storage.llm = _BatchLLM(failures=[TimeoutError("timeout")])
+        assert len(storage._emb_batch(["a", "b"])) == 2
+        assert storage._batch_emb_supported is True
+        assert storage.llm.batch_calls == 2
+
+    def test_repeated_transient_error_is_raised(self, storage):
+        storage.llm = _BatchLLM(failures=[TimeoutError("a"), TimeoutError("b")])
+        with pytest.raises(TimeoutError):
+            storage._emb_batch(["a", "b"])
+        assert storage._batch_emb_supported is None
+
+        assert len(storage._emb_batch(["a", "b"])) == 2
+        assert storage._batch_emb_supported is True
+
+    def test_unsupported_request_falls_back(self, storage):
+        storage.llm = _BatchLLM(failures=[TypeError("list input")])
+        assert len(storage._emb_batch(["a", "b"])) == 2
+        assert storage._batch_emb_supported is False
+        assert storage.llm.batch_calls == 1
+
+        storage._emb_batch(["c", "d"])
+        assert storage.llm.batch_calls == 1
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_batched_insert_benchmark(storage):
+    """基准测试：逐条 add_doc 与批量 add_docs 的写入耗时对比"""
+    count = int(os.environ.get("DUCKDB_INSERT_BENCH_CHUNKS", "5000"))
+
+    start = time.perf_counter()
+    for chunk in _chunks(count, file_path="single.py"):
+        storage.add_doc(chunk)
+    single_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    chunks = _chunks(count, file_path="batched.py")
+    for i in range(0, count, 100):
+        storage.add_docs(chunks[i : i + 100])
+    batched_time = time.perf_counter() - start
+
+    print(f"{count} chunks: add_doc {single_time:.2f}s, add_docs {batched_time:.2f}s")
+
+    assert len(storage.query_by_path("batched.py")) == count
+    assert batched_time < single_time
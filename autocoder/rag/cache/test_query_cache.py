@@ -0,0 +1,55 @@
+import threading
+
+from autocoder.rag.cache.query_cache import LRUCache
+
+
+class TestLRUCache:
+    """LRUCache 的单元测试"""
+
+    def test_evicts_least_recently_used(self):
+        cache = LRUCache(max_size=2)
+        cache.put("a", 1)
+        cache.put("b", 2)
+        assert cache.get("a") == 1
+
+        cache.put("c", 3)
+
+        assert cache.get("b") is None
+        assert cache.get("a") == 1
+        assert cache.get("c") == 3
+        assert cache.get_stats()["evictions"] == 1
+
+    def test_counts_hits_and_misses(self):
+        cache = LRUCache(max_size=4)
+        cache.put(("q", 1), [])
+
+        assert cache.get(("q", 1)) == []
+        assert cache.get(("q", 2)) is None
+
+        stats = cache.get_stats()
+        assert (stats["hits"], stats["misses"], stats["hit_rate"]) == (1, 1, 0.5)
+
+    def test_zero_size_disables_cache(self):
+        cache = LRUCache(max_size=0)
+        cache.put("a", 1)
+
+        assert cache.get("a") is None
+        assert len(cache) == 0
+
+    def test_concurrent_access(self):
+        cache = LRUCache(max_size=50)
+
+        def worker(offset):
+            for i in range(1000):
+                cache.put((offset, i % 80), i)
+                cache.get((offset, (i * 7) % 80))
+
+        threads = [threading.Thread(target=worker, args=(n,)) for n in range(4)]
+        for t in threads:
+            t.start()
+        for t in threads:
+            t.join()
+
+        stats = cache.get_stats()
+        assert stats["size"] == 50
+        assert stats["hits"] + stats["misses"] == 4000
@@ -1,11 +1,16 @@
+import asyncio
+import os
+import threading
 import time
-from typing import List, Dict, Optional, Generator, Tuple
+from dataclasses import dataclass
+from typing import Any, AsyncIterator, List, Dict, NamedTuple, Optional, Generator, Tuple
 from loguru import logger
-from concurrent.futures import ThreadPoolExecutor, as_completed
+from concurrent.futures import Future, ThreadPoolExecutor, as_completed
 from autocoder.rag.lang import get_message_with_format_and_newline
 
 from autocoder.rag.relevant_utils import (
     parse_relevance,
+    DocRelevance,
     FilterDoc,
     TaskTiming,
     DocFilterResult,
@@ -14,6 +19,13 @@ from autocoder.rag.relevant_utils import (
 
 from autocoder.common import SourceCode, AutoCoderArgs
 from autocoder.rag.rag_config import RagConfigManager
+from autocoder.rag.relevance_cache import (
+    CascadeStats,
+    RelevanceCache,
+    conversation_hash,
+    cosine_similarity,
+    hash_text,
+)
 from byzerllm import ByzerLLM
 import byzerllm
 
@@ -52,6 +64,37 @@ def _check_relevance_with_conversation(
     """
 
 
+class _Judgement(NamedTuple):
+    relevance: Optional[DocRelevance]
+    response: Optional[str]
+    start_time: float
+    end_time: float
+    input_tokens_count: int
+    generated_tokens_count: int
+    stage: str
+
+
+@dataclass
+class _FilterRun:
+    """一次过滤请求的状态"""
+    start_time: float
+    conversations: List[Dict[str, str]]
+    documents: List[SourceCode]
+    doc_texts: List[str]
+    doc_hashes: List[str]
+    model_name: str
+    filter_config: Optional[str]
+    conv_hash: str
+    cached: Dict[str, DocRelevance]
+    small_results: Dict[str, DocRelevance]
+    query_embedding: Optional[List[float]]
+    stats: CascadeStats
+    result: DocFilterResult
+    submitted_tasks: int = 0
+    completed_tasks: int = 0
+    relevant_count: int = 0
+
+
 class DocFilter:
     def __init__(
         self,
@@ -71,6 +114,195 @@ class DocFilter:
         self.on_ray = on_ray
         self.path = path
 
+        # 分级过滤：embedding 相似度和小模型能给出明确结论的文档不再调用召回模型
+        self.small_llm = self.llm.get_sub_client("recall_small_model") or None
+        self.emb_llm = self.llm.get_sub_client("emb_model") or None
+        self.emb_reject_threshold = self.args.rag_relevance_emb_reject_threshold
+        self.emb_accept_threshold = self.args.rag_relevance_emb_accept_threshold
+
+        self.relevance_cache = None
+        if not self.args.disable_rag_relevance_cache:
+            db_file = (
+                os.path.join(self.path, ".cache", "relevance_cache.sqlite")
+                if self.path
+                else ":memory:"
+            )
+            try:
+                self.relevance_cache = RelevanceCache(
+                    db_file, ttl_seconds=self.args.rag_relevance_cache_ttl
+                )
+            except Exception as e:
+                logger.warning(f"相关性缓存初始化失败, 将不使用缓存: {str(e)}")
+
+        # 异步过滤时所有请求共享的线程池和并发名额
+        self._async_lock = threading.Lock()
+        self._async_executor: Optional[ThreadPoolExecutor] = None
+        self._async_semaphore: Optional[asyncio.Semaphore] = None
+        self._async_semaphore_loop = None
+
+    def _emb_stage_enabled(self) -> bool:
+        return self.emb_llm is not None and (
+            self.emb_reject_threshold > 0 or self.emb_accept_threshold > 0
+        )
+
+    def _stages(self, model_name: str) -> List[Tuple[str, str]]:
+        stages = []
+        if self.relevance_cache is not None:
+            stages.append(("cache", ""))
+        if self._emb_stage_enabled():
+            stages.append(("embedding", self.emb_llm.default_model_name or "unknown"))
+        if self.small_llm is not None:
+            stages.append(("small_model", self.small_llm.default_model_name or "unknown"))
+        stages.append(("model", model_name))
+        return stages
+
+    def _ask_model(self, llm, conversations: List[Dict[str, str]], doc_text: str,
+                   filter_config: Optional[str]) -> Tuple[Optional[str], Any]:
+        """调用模型判断单个文档的相关性，返回 (模型回复, meta)"""
+        meta_holder = byzerllm.MetaHolder()
+        v = (
+            _check_relevance_with_conversation.with_llm(
+                llm).with_meta(meta_holder)
+            .options({"llm_config": {"max_length": 10}})
+            .run(
+                conversations=conversations,
+                documents=[doc_text],
+                filter_config=filter_config,
+            )
+        )
+        return v, meta_holder.get_meta_model()
+
+    def _embed(self, text: str) -> List[float]:
+        return list(self.emb_llm.emb_query(text[: self.args.rag_emb_text_size])[0].output)
+
+    def _decide_by_similarity(self, similarity: float) -> Optional[DocRelevance]:
+        if self.emb_reject_threshold > 0 and similarity < self.emb_reject_threshold:
+            return DocRelevance(is_relevant=False, relevant_score=0)
+        if self.emb_accept_threshold > 0 and similarity >= self.emb_accept_threshold:
+            return DocRelevance(
+                is_relevant=True,
+                relevant_score=max(self.relevant_score or 0, min(10, round(similarity * 10))),
+            )
+        return None
+
+    def _is_decisive(self, relevance: Optional[DocRelevance]) -> bool:
+        """小模型的打分足够低或足够高时直接采用，处于中间的交给召回模型"""
+        return relevance is not None and (
+            relevance.relevant_score <= self.args.rag_relevance_small_model_low
+            or relevance.relevant_score >= self.args.rag_relevance_small_model_high
+        )
+
+    def _cache_put(self, doc_hash: str, conv_hash: str, model: str,
+                   relevance: Optional[DocRelevance]) -> None:
+        if self.relevance_cache is None or relevance is None:
+            return
+        try:
+            self.relevance_cache.put(
+                doc_hash, conv_hash, model, relevance.is_relevant, relevance.relevant_score
+            )
+        except Exception as e:
+            logger.warning(f"写入相关性缓存失败: {str(e)}")
+
+    def _lookup_cache(self, doc_hashes: List[str], conv_hash: str, model_name: str):
+        """
+        批量查询缓存，返回 (命中结果, 小模型给出过中间分数的结果)
+
+        召回模型的结果直接采用；小模型的结果只有分数足够明确时才算命中，
+        其余的交给工作线程，跳过小模型直接进入召回模型
+        """
+        if self.relevance_cache is None:
+            return {}, {}
+        try:
+            hits = {
+                h: DocRelevance(is_relevant=r, relevant_score=s)
+                for h, (r, s) in self.relevance_cache.get_many(doc_hashes, conv_hash, model_name).items()
+            }
+            borderline = {}
+            if self.small_llm is not None:
+                small_model = self.small_llm.default_model_name or "unknown"
+                missing = [h for h in doc_hashes if h not in hits]
+                for h, (r, s) in self.relevance_cache.get_many(missing, conv_hash, small_model).items():
+                    relevance = DocRelevance(is_relevant=r, relevant_score=s)
+                    if self._is_decisive(relevance):
+                        hits[h] = relevance
+                    else:
+                        borderline[h] = relevance
+            return hits, borderline
+        except Exception as e:
+            logger.warning(f"读取相关性缓存失败: {str(e)}")
+            return {}, {}
+
+    def _run_cascade(
+        self,
+        conversations: List[Dict[str, str]],
+        doc_text: str,
+        doc_hash: str,
+        conv_hash: str,
+        filter_config: Optional[str],
+        query_embedding: Optional[List[float]],
+        small_result: Optional[DocRelevance],
+        model_name: str,
+        stats: CascadeStats,
+    ) -> "_Judgement":
+        start = time.time()
+        input_tokens = generated_tokens = 0
+
+        if query_embedding is not None:
+            stage_start = time.time()
+            relevance = None
+            try:
+                similarity = cosine_similarity(query_embedding, self._embed(doc_text))
+                relevance = self._decide_by_similarity(similarity)
+            except Exception as e:
+                logger.warning(f"计算文档 embedding 失败, 跳过相似度过滤: {str(e)}")
+            stats.record("embedding", relevance is not None, time.time() - stage_start)
+            if relevance is not None:
+                return _Judgement(relevance, f"similarity={similarity:.3f}", start, time.time(),
+                                  0, 0, "embedding")
+
+        if self.small_llm is not None and small_result is None:
+            stage_start = time.time()
+            small_model = self.small_llm.default_model_name or "unknown"
+            v = None
+            try:
+                v, meta = self._ask_model(self.small_llm, conversations, doc_text, filter_config)
+                if meta:
+                    input_tokens += meta.input_tokens_count
+                    generated_tokens += meta.generated_tokens_count
+            except Exception as e:
+                logger.warning(f"小模型相关性判断失败, 交给召回模型: {str(e)}")
+            small_result = parse_relevance(v)
+            self._cache_put(doc_hash, conv_hash, small_model, small_result)
+            decided = self._is_decisive(small_result)
+            stats.record("small_model", decided, time.time() - stage_start,
+                         input_tokens, generated_tokens)
+            if decided:
+                return _Judgement(small_result, v, start, time.time(),
+                                  input_tokens, generated_tokens, "small_model")
+        elif small_result is not None:
+            # 缓存中小模型的打分处于中间区间，直接进入召回模型
+            stats.record("small_model", False)
+
+        stage_start = time.time()
+        v = None
+        model_input_tokens = model_generated_tokens = 0
+        try:
+            v, meta = self._ask_model(self.recall_llm, conversations, doc_text, filter_config)
+            if meta:
+                model_input_tokens = meta.input_tokens_count
+                model_generated_tokens = meta.generated_tokens_count
+        except Exception as e:
+            logger.error(
+                f"Error in _check_relevance_with_conversation: {str(e)}"
+            )
+        relevance = parse_relevance(v)
+        self._cache_put(doc_hash, conv_hash, model_name, relevance)
+        stats.record("model", True, time.time() - stage_start,
+                     model_input_tokens, model_generated_tokens)
+        return _Judgement(relevance, v, start, time.time(),
+                          input_tokens + model_input_tokens,
+                          generated_tokens + model_generated_tokens, "model")
+
     def filter_docs(
         self, conversations: List[Dict[str, str]], documents: List[SourceCode]
     ) -> DocFilterResult:
@@ -80,6 +312,130 @@ class DocFilter:
         self, conversations: List[Dict[str, str]], documents: List[SourceCode]
     ) -> Generator[Tuple[ProgressUpdate, Optional[DocFilterResult]], None, DocFilterResult]:
         """使用线程过滤文档，同时产生进度更新"""
+        run = self._start_run(conversations, documents)
+
+        with ThreadPoolExecutor(
+            max_workers=self.args.index_filter_workers or 5
+        ) as executor:
+            future_to_doc = {}
+
+            # 提交所有任务，缓存命中的文档不进入线程池
+            for doc, doc_text, doc_hash in zip(run.documents, run.doc_texts, run.doc_hashes):
+                submit_time = time.time()
+                run.submitted_tasks += 1
+
+                if doc_hash in run.cached:
+                    m = Future()
+                    m.set_result(self._cached_judgement(run, doc_hash, submit_time))
+                    future_to_doc[m] = (doc, submit_time)
+                    continue
+
+                m = executor.submit(self._run_cascade_for, run, doc_text, doc_hash)
+                future_to_doc[m] = (doc, submit_time)
+
+            logger.info(
+                f"Submitted {run.submitted_tasks} document filtering tasks to thread pool")
+
+            # 发送初始进度更新
+            yield (self._start_progress(run), None)
+
+            # 处理完成的任务
+            for future in as_completed(list(future_to_doc.keys())):
+                doc, submit_time = future_to_doc[future]
+                try:
+                    judgement = future.result()
+                except Exception as exc:
+                    yield (self._record_error(run, doc, submit_time, exc), None)
+                    continue
+                yield (self._record_judgement(run, doc, submit_time, judgement), None)
+
+        # 返回最终结果
+        yield (self._finish_run(run), run.result)
+
+    async def async_filter_docs_with_progress(
+        self, conversations: List[Dict[str, str]], documents: List[SourceCode]
+    ) -> AsyncIterator[Tuple[ProgressUpdate, Optional[DocFilterResult]]]:
+        """
+        filter_docs_with_progress 的异步版本，供异步服务路径使用
+
+        判断仍然是阻塞的模型调用，放在 DocFilter 共享的线程池中执行；所有请求共用
+        rag_filter_max_concurrency 个并发名额，而不是每个请求各开一个线程池。
+        客户端断开时取消尚未开始的判断。
+        """
+        loop = asyncio.get_running_loop()
+        run = await loop.run_in_executor(
+            None, self._start_run, conversations, documents
+        )
+        executor = self._get_async_executor()
+        semaphore = self._get_async_semaphore()
+
+        async def _judge(doc_text: str, doc_hash: str) -> _Judgement:
+            async with semaphore:
+                return await loop.run_in_executor(
+                    executor, self._run_cascade_for, run, doc_text, doc_hash
+                )
+
+        task_to_doc = {}
+        for doc, doc_text, doc_hash in zip(run.documents, run.doc_texts, run.doc_hashes):
+            submit_time = time.time()
+            run.submitted_tasks += 1
+            if doc_hash in run.cached:
+                task = loop.create_future()
+                task.set_result(self._cached_judgement(run, doc_hash, submit_time))
+            else:
+                task = asyncio.ensure_future(_judge(doc_text, doc_hash))
+            task_to_doc[task] = (doc, submit_time)
+
+        logger.info(
+            f"Submitted {run.submitted_tasks} document filtering tasks "
+            f"(async, max concurrency {self.args.rag_filter_max_concurrency})")
+        yield (self._start_progress(run), None)
+
+        pending = set(task_to_doc)
+        try:
+            while pending:
+                done, pending = await asyncio.wait(
+                    pending, return_when=asyncio.FIRST_COMPLETED
+                )
+                for task in done:
+                    doc, submit_time = task_to_doc[task]
+                    try:
+                        judgement = task.result()
+                    except Exception as exc:
+                        yield (self._record_error(run, doc, submit_time, exc), None)
+                        continue
+                    yield (self._record_judgement(run, doc, submit_time, judgement), None)
+        finally:
+            for task in pending:
+                task.cancel()
+
+        yield (self._finish_run(run), run.result)
+
+    def _get_async_executor(self) -> ThreadPoolExecutor:
+        with self._async_lock:
+            if self._async_executor is None:
+                self._async_executor = ThreadPoolExecutor(
+                    max_workers=max(1, self.args.rag_filter_max_concurrency),
+                    thread_name_prefix="doc-filter",
+                )
+            return self._async_executor
+
+    def _get_async_semaphore(self) -> asyncio.Semaphore:
+        # 信号量绑定到创建它的事件循环，服务进程中只有一个事件循环
+        loop = asyncio.get_running_loop()
+        with self._async_lock:
+            if self._async_semaphore is None or self._async_semaphore_loop is not loop:
+                self._async_semaphore = asyncio.Semaphore(
+                    max(1, self.args.rag_filter_max_concurrency)
+                )
+                self._async_semaphore_loop = loop
+            return self._async_semaphore
+
+    def _start_run(
+        self, conversations: List[Dict[str, str]], documents: List[SourceCode]
+    ) -> "_FilterRun":
+        """读取配置、查询缓存并计算问题 embedding，同步和异步两种过滤方式共用"""
+        # 过滤耗时包含缓存查询和计算 embedding 的时间
         start_time = time.time()
         logger.info(f"=== DocFilter Starting ===")
         logger.info(
@@ -91,210 +447,217 @@ class DocFilter:
         documents = list(documents)
         logger.info(f"Filtering {len(documents)} documents...")
 
-        submitted_tasks = 0
-        completed_tasks = 0
-        relevant_count = 0
         model_name = self.recall_llm.default_model_name or "unknown"
+        filter_config = rag_config.filter_config
+        conv_hash = conversation_hash(conversations, filter_config)
+        doc_texts = [f"##File: {doc.module_name}\n{doc.source_code}" for doc in documents]
+        doc_hashes = [hash_text(text) for text in doc_texts]
+        cached, small_results = self._lookup_cache(doc_hashes, conv_hash, model_name)
+
+        query_embedding = None
+        if self._emb_stage_enabled() and len(documents) > len(cached):
+            try:
+                question = next(
+                    (msg["content"] for msg in reversed(conversations) if msg.get("role") == "user"),
+                    "",
+                )
+                query_embedding = self._embed(question)
+            except Exception as e:
+                logger.warning(f"计算问题 embedding 失败, 跳过相似度过滤: {str(e)}")
+
+        return _FilterRun(
+            start_time=start_time,
+            conversations=conversations,
+            documents=documents,
+            doc_texts=doc_texts,
+            doc_hashes=doc_hashes,
+            model_name=model_name,
+            filter_config=filter_config,
+            conv_hash=conv_hash,
+            cached=cached,
+            small_results=small_results,
+            query_embedding=query_embedding,
+            stats=CascadeStats(self._stages(model_name)),
+            result=DocFilterResult(
+                docs=[],
+                raw_docs=[],
+                input_tokens_counts=[],
+                generated_tokens_counts=[],
+                durations=[],
+                model_name=model_name
+            ),
+        )
 
-        doc_filter_result = DocFilterResult(
-            docs=[],
-            raw_docs=[],
-            input_tokens_counts=[],
-            generated_tokens_counts=[],
-            durations=[],
-            model_name=model_name
+    def _cached_judgement(self, run: "_FilterRun", doc_hash: str, submit_time: float) -> _Judgement:
+        run.stats.record("cache", True)
+        return _Judgement(run.cached[doc_hash], "cached", submit_time, submit_time, 0, 0, "cache")
+
+    def _run_cascade_for(self, run: "_FilterRun", doc_text: str, doc_hash: str) -> _Judgement:
+        if self.relevance_cache is not None:
+            run.stats.record("cache", False)
+        return self._run_cascade(
+            run.conversations,
+            doc_text,
+            doc_hash,
+            run.conv_hash,
+            run.filter_config,
+            run.query_embedding,
+            run.small_results.get(doc_hash),
+            run.model_name,
+            run.stats,
         )
-        relevant_docs = doc_filter_result.docs
 
-        with ThreadPoolExecutor(
-            max_workers=self.args.index_filter_workers or 5
-        ) as executor:
-            future_to_doc = {}
+    def _start_progress(self, run: "_FilterRun") -> ProgressUpdate:
+        return ProgressUpdate(
+            phase="doc_filter",
+            completed=0,
+            total=len(run.documents),
+            relevant_count=0,
+            message=get_message_with_format_and_newline(
+                "doc_filter_start",
+                total=len(run.documents)
+            )
+        )
 
-            # 提交所有任务
-            for doc in documents:
-                submit_time = time.time()
-                submitted_tasks += 1
+    def _record_judgement(
+        self, run: "_FilterRun", doc: SourceCode, submit_time: float, judgement: _Judgement
+    ) -> ProgressUpdate:
+        """记录单个文档的判断结果，返回进度更新"""
+        end_time = time.time()
+        run.completed_tasks += 1
+        total = len(run.documents)
+        progress_percent = (run.completed_tasks / total) * 100
+        model_name = run.model_name
+
+        v = judgement.response
+        task_timing = TaskTiming(
+            submit_time=submit_time,
+            end_time=end_time,
+            duration=end_time - submit_time,
+            real_start_time=judgement.start_time,
+            real_end_time=judgement.end_time,
+            real_duration=judgement.end_time - judgement.start_time,
+        )
 
-                def _run(conversations, docs):
-                    submit_time_1 = time.time()
-                    meta = None
-                    try:
-                        llm = self.recall_llm
-                        meta_holder = byzerllm.MetaHolder()
-
-                        v = (
-                            _check_relevance_with_conversation.with_llm(
-                                llm).with_meta(meta_holder)
-                            .options({"llm_config": {"max_length": 10}})
-                            .run(
-                                conversations=conversations,
-                                documents=docs,
-                                filter_config=rag_config.filter_config,
-                            )
-                        )
-
-                        meta = meta_holder.get_meta_model()
-                    except Exception as e:
-                        logger.error(
-                            f"Error in _check_relevance_with_conversation: {str(e)}"
-                        )
-                        return (None, submit_time_1, time.time(), meta)
-
-                    end_time_2 = time.time()
-                    return (v, submit_time_1, end_time_2, meta)
-
-                m = executor.submit(
-                    _run,
-                    conversations,
-                    [f"##File: {doc.module_name}\n{doc.source_code}"],
-                )
-                future_to_doc[m] = (doc, submit_time)
+        relevance = judgement.relevance
+        is_relevant = relevance and relevance.relevant_score >= self.relevant_score
 
-            logger.info(
-                f"Submitted {submitted_tasks} document filtering tasks to thread pool")
+        if is_relevant:
+            run.relevant_count += 1
+            status_text = f"RELEVANT (Score: {relevance.relevant_score:.1f})"
+        else:
+            score_text = f"{relevance.relevant_score:.1f}" if relevance else "N/A"
+            status_text = f"NOT RELEVANT (Score: {score_text})"
 
-            # 发送初始进度更新
-            yield (ProgressUpdate(
-                phase="doc_filter",
-                completed=0,
-                total=len(documents),
-                relevant_count=0,
-                message=get_message_with_format_and_newline(
-                    "doc_filter_start",
-                    total=len(documents)
+        queue_time = task_timing.real_start_time - task_timing.submit_time
+
+        input_tokens_count = judgement.input_tokens_count
+        generated_tokens_count = judgement.generated_tokens_count
+
+        logger.info(
+            f"Document filtering [{progress_percent:.1f}%] - {run.completed_tasks}/{total}:"
+            f"\n  - File: {doc.module_name}"
+            f"\n  - Status: {status_text}"
+            f"\n  - Model: {model_name}"
+            f"\n  - Stage: {judgement.stage}"
+            f"\n  - Threshold: {self.relevant_score}"
+            f"\n  - Input tokens: {input_tokens_count}"
+            f"\n  - Generated tokens: {generated_tokens_count}"
+            f"\n  - Timing: Duration={task_timing.duration:.2f}s, Processing={task_timing.real_duration:.2f}s, Queue={queue_time:.2f}s"
+            f"\n  - Response: {v}"
+        )
+
+        if "rag" not in doc.metadata:
+            doc.metadata["rag"] = {}
+        doc.metadata["rag"]["recall"] = {
+            "input_tokens_count": input_tokens_count,
+            "generated_tokens_count": generated_tokens_count,
+            "recall_model": model_name,
+            "relevance_stage": judgement.stage,
+            "duration": task_timing.real_duration
+        }
+
+        doc_filter_result = run.result
+        doc_filter_result.input_tokens_counts.append(
+            input_tokens_count)
+        doc_filter_result.generated_tokens_counts.append(
+            generated_tokens_count)
+        doc_filter_result.durations.append(
+            task_timing.real_duration)
+
+        new_filter_doc = FilterDoc(
+            source_code=doc,
+            relevance=relevance,
+            task_timing=task_timing,
+        )
+
+        doc_filter_result.raw_docs.append(new_filter_doc)
+
+        if is_relevant:
+            doc_filter_result.docs.append(
+                new_filter_doc
+            )
+
+        # 产生进度更新
+        return ProgressUpdate(
+            phase="doc_filter",
+            completed=run.completed_tasks,
+            total=total,
+            relevant_count=run.relevant_count,
+            message=get_message_with_format_and_newline(
+                "doc_filter_progress",
+                progress_percent=progress_percent,
+                relevant_count=run.relevant_count,
+                total=total
+            )
+        )
+
+    def _record_error(
+        self, run: "_FilterRun", doc: SourceCode, submit_time: float, exc: BaseException
+    ) -> ProgressUpdate:
+        try:
+            run.completed_tasks += 1
+            progress_percent = (
+                run.completed_tasks / len(run.documents)) * 100
+            logger.error(
+                f"Document filtering [{progress_percent:.1f}%] - {run.completed_tasks}/{len(run.documents)}:"
+                f"\n  - File: {doc.module_name}"
+                f"\n  - Error: {exc}"
+                f"\n  - Duration: {time.time() - submit_time:.2f}s"
+            )
+            run.result.raw_docs.append(
+                FilterDoc(
+                    source_code=doc,
+                    relevance=None,
+                    task_timing=TaskTiming(),
                 )
-            ), None)
+            )
+        except Exception as e:
+            logger.error(
+                f"Document filtering error in task tracking: {exc}"
+            )
 
-            # 处理完成的任务
-            for future in as_completed(list(future_to_doc.keys())):
-                try:
-                    doc, submit_time = future_to_doc[future]
-                    end_time = time.time()
-                    completed_tasks += 1
-                    progress_percent = (completed_tasks / len(documents)) * 100
-
-                    v, submit_time_1, end_time_2, meta = future.result()
-                    task_timing = TaskTiming(
-                        submit_time=submit_time,
-                        end_time=end_time,
-                        duration=end_time - submit_time,
-                        real_start_time=submit_time_1,
-                        real_end_time=end_time_2,
-                        real_duration=end_time_2 - submit_time_1,
-                    )
-
-                    relevance = parse_relevance(v)
-                    is_relevant = relevance and relevance.relevant_score >= self.relevant_score
-
-                    if is_relevant:
-                        relevant_count += 1
-                        status_text = f"RELEVANT (Score: {relevance.relevant_score:.1f})"
-                    else:
-                        score_text = f"{relevance.relevant_score:.1f}" if relevance else "N/A"
-                        status_text = f"NOT RELEVANT (Score: {score_text})"
-
-                    queue_time = task_timing.real_start_time - task_timing.submit_time
-
-                    input_tokens_count = meta.input_tokens_count if meta else 0
-                    generated_tokens_count = meta.generated_tokens_count if meta else 0
-
-                    logger.info(
-                        f"Document filtering [{progress_percent:.1f}%] - {completed_tasks}/{len(documents)}:"
-                        f"\n  - File: {doc.module_name}"
-                        f"\n  - Status: {status_text}"
-                        f"\n  - Model: {model_name}"
-                        f"\n  - Threshold: {self.relevant_score}"
-                        f"\n  - Input tokens: {input_tokens_count}"
-                        f"\n  - Generated tokens: {generated_tokens_count}"
-                        f"\n  - Timing: Duration={task_timing.duration:.2f}s, Processing={task_timing.real_duration:.2f}s, Queue={queue_time:.2f}s"
-                        f"\n  - Response: {v}"
-                    )
-
-                    if "rag" not in doc.metadata:
-                        doc.metadata["rag"] = {}
-                    doc.metadata["rag"]["recall"] = {
-                        "input_tokens_count": input_tokens_count,
-                        "generated_tokens_count": generated_tokens_count,
-                        "recall_model": model_name,
-                        "duration": task_timing.real_duration
-                    }
-
-                    doc_filter_result.input_tokens_counts.append(
-                        input_tokens_count)
-                    doc_filter_result.generated_tokens_counts.append(
-                        generated_tokens_count)
-                    doc_filter_result.durations.append(
-                        task_timing.real_duration)
-
-                    new_filter_doc = FilterDoc(
-                        source_code=doc,
-                        relevance=relevance,
-                        task_timing=task_timing,
-                    )
-
-                    doc_filter_result.raw_docs.append(new_filter_doc)
-
-                    if is_relevant:
-                        relevant_docs.append(
-                            new_filter_doc
-                        )
-
-                    # 产生进度更新
-                    yield (ProgressUpdate(
-                        phase="doc_filter",
-                        completed=completed_tasks,
-                        total=len(documents),
-                        relevant_count=relevant_count,
-                        message=get_message_with_format_and_newline(
-                            "doc_filter_progress",
-                            progress_percent=progress_percent,
-                            relevant_count=relevant_count,
-                            total=len(documents)
-                        )
-                    ), None)
+        # 报告错误进度
+        return ProgressUpdate(
+            phase="doc_filter",
+            completed=run.completed_tasks,
+            total=len(run.documents),
+            relevant_count=run.relevant_count,
+            message=get_message_with_format_and_newline(
+                "doc_filter_error",
+                error=str(exc)
+            )
+        )
 
-                except Exception as exc:
-                    try:
-                        doc, submit_time = future_to_doc[future]
-                        completed_tasks += 1
-                        progress_percent = (
-                            completed_tasks / len(documents)) * 100
-                        logger.error(
-                            f"Document filtering [{progress_percent:.1f}%] - {completed_tasks}/{len(documents)}:"
-                            f"\n  - File: {doc.module_name}"
-                            f"\n  - Error: {exc}"
-                            f"\n  - Duration: {time.time() - submit_time:.2f}s"
-                        )
-                        doc_filter_result.raw_docs.append(
-                            FilterDoc(
-                                source_code=doc,
-                                relevance=None,
-                                task_timing=TaskTiming(),
-                            )
-                        )
-                    except Exception as e:
-                        logger.error(
-                            f"Document filtering error in task tracking: {exc}"
-                        )
-
-                    # 报告错误进度
-                    yield (ProgressUpdate(
-                        phase="doc_filter",
-                        completed=completed_tasks,
-                        total=len(documents),
-                        relevant_count=relevant_count,
-                        message=get_message_with_format_and_newline(
-                            "doc_filter_error",
-                            error=str(exc)
-                        )
-                    ), None)
+    def _finish_run(self, run: "_FilterRun") -> ProgressUpdate:
+        doc_filter_result = run.result
+        relevant_docs = doc_filter_result.docs
 
         # Sort relevant_docs by relevance score in descending order
         relevant_docs.sort(
             key=lambda x: x.relevance.relevant_score, reverse=True)
 
-        total_time = time.time() - start_time
+        total_time = time.time() - run.start_time
 
         avg_processing_time = sum(
             doc.task_timing.real_duration for doc in relevant_docs) / len(relevant_docs) if relevant_docs else 0
@@ -303,16 +666,22 @@ class DocFilter:
 
         total_input_tokens = sum(doc_filter_result.input_tokens_counts)
         total_generated_tokens = sum(doc_filter_result.generated_tokens_counts)
+        doc_filter_result.stage_stats = run.stats.to_list()
 
         logger.info(
             f"=== DocFilter Complete ==="
             f"\n  * Total time: {total_time:.2f}s"
-            f"\n  * Documents processed: {completed_tasks}/{len(documents)}"
-            f"\n  * Relevant documents: {relevant_count} (threshold: {self.relevant_score})"
+            f"\n  * Documents processed: {run.completed_tasks}/{len(run.documents)}"
+            f"\n  * Relevant documents: {run.relevant_count} (threshold: {self.relevant_score})"
             f"\n  * Average processing time: {avg_processing_time:.2f}s"
             f"\n  * Average queue time: {avg_queue_time:.2f}s"
             f"\n  * Total input tokens: {total_input_tokens}"
             f"\n  * Total generated tokens: {total_generated_tokens}"
+            + "".join(
+                f"\n  * Stage {stat.stage}: decided {stat.decided}/{stat.evaluated}"
+                f" (hit rate {stat.hit_rate:.0%}), avg latency {stat.avg_latency:.2f}s"
+                for stat in doc_filter_result.stage_stats
+            )
         )
 
         if relevant_docs:
@@ -324,18 +693,17 @@ class DocFilter:
         else:
             logger.warning("No relevant documents found!")
 
-        # 返回最终结果
-        yield (ProgressUpdate(
+        return ProgressUpdate(
             phase="doc_filter",
-            completed=len(documents),
-            total=len(documents),
-            relevant_count=relevant_count,
+            completed=len(run.documents),
+            total=len(run.documents),
+            relevant_count=run.relevant_count,
             message=get_message_with_format_and_newline(
                 "doc_filter_complete",
                 total_time=total_time,
-                relevant_count=relevant_count
+                relevant_count=run.relevant_count
             )
-        ), doc_filter_result)
+        )
 
     def filter_docs_with_threads(
         self, conversations: List[Dict[str, str]], documents: List[SourceCode]
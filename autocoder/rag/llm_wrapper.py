@@ -9,7 +9,7 @@ from byzerllm.utils.client import LLMResponse
 from byzerllm.utils.types import SingleOutputMeta
 from autocoder.rag.long_context_rag import LongContextRAG
 from loguru import logger
-from byzerllm.utils.langutil import asyncfy_with_semaphore
+from autocoder.rag.async_serving import async_iterate, run_blocking
 
 
 class LLWrapper:
@@ -81,9 +81,15 @@ class LLWrapper:
                                     llm_config: Dict[str, Any] = {},
                                     extra_request_params: Dict[str, Any] = {}
                                     ):
-        res, contexts = await asyncfy_with_semaphore(lambda: self.rag.stream_chat_oai(conversations, llm_config=llm_config, extra_request_params=extra_request_params))()
-        # res,contexts = await self.llm.async_stream_chat_oai(conversations,llm_config=llm_config)
-        for t in res:
+        # 检索、过滤和生成都不能在事件循环线程中阻塞，否则同一进程的其他会话会一起停顿
+        rag_async_stream = getattr(self.rag, "async_stream_chat_oai", None)
+        if rag_async_stream is not None:
+            async for t in rag_async_stream(conversations, llm_config=llm_config, extra_request_params=extra_request_params):
+                yield t
+            return
+
+        res, contexts = await run_blocking(lambda: self.rag.stream_chat_oai(conversations, llm_config=llm_config, extra_request_params=extra_request_params))
+        async for t in async_iterate(lambda: res):
             yield t
 
     def __getattr__(self, name):
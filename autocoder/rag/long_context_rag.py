@@ -1,7 +1,7 @@
 import json
 import os
 import time
-from typing import Any, Dict, Generator, List, Optional, Tuple
+from typing import Any, AsyncIterator, Dict, Generator, List, Optional, Tuple
 
 import pathspec
 from byzerllm import ByzerLLM
@@ -11,10 +11,11 @@ import statistics
 import traceback
 
 from autocoder.common import AutoCoderArgs, SourceCode
+from autocoder.rag.async_serving import async_iterate, run_blocking
 from autocoder.rag.doc_filter import DocFilter
 from autocoder.rag.document_retriever import LocalDocumentRetriever
 from autocoder.rag.relevant_utils import DocFilterResult
-from autocoder.rag.token_counter import RemoteTokenCounter, TokenCounter,count_tokens
+from autocoder.rag.token_counter import RemoteTokenCounter, TokenCounter, count_tokens_many
 from autocoder.rag.token_limiter import TokenLimiter
 from tokenizers import Tokenizer
 from autocoder.rag.variable_holder import VariableHolder
@@ -203,7 +204,12 @@ class LongContextRAG:
     def count_tokens(self, text: str) -> int:
         if self.tokenizer is None:
             return -1
-        return self.tokenizer.count_tokens(text)    
+        return self.tokenizer.count_tokens(text)
+
+    def count_tokens_many(self, texts: List[str]) -> List[int]:
+        if self.tokenizer is None:
+            return [-1] * len(texts)
+        return self.tokenizer.count_many(texts)
 
     def _get_document_retriever_class(self):
         """Get the document retriever class based on configuration."""
@@ -346,7 +352,8 @@ class LongContextRAG:
         model: Optional[str] = None,
         role_mapping=None,
         llm_config: Dict[str, Any] = {},
-        extra_request_params: Dict[str, Any] = {}
+        extra_request_params: Dict[str, Any] = {},
+        async_mode: bool = False
     ):
         if not llm_config:
             llm_config = {}
@@ -463,7 +470,9 @@ class LongContextRAG:
 
         context = []        
 
-        return self._generate_sream(
+        # 异步模式下返回异步生成器，由 async_stream_chat_oai 在事件循环中消费
+        generate = self._async_generate_stream if async_mode else self._generate_sream
+        return generate(
             conversations=conversations,
             query=query,
             only_contexts=only_contexts,
@@ -515,189 +524,231 @@ class LongContextRAG:
                 # 正常的生成器项，包含yield内容和元数据
                 yield item
             elif isinstance(item, dict) and "result" in item:
-                # 如果是只返回上下文的情况
-                if only_contexts:
-                    try:
-                        searcher = SearchableResults()
-                        result = searcher.reorder(docs=item["result"])
-                        yield (json.dumps(result.model_dump(), ensure_ascii=False), SingleOutputMeta(
-                            input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
-                            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                        ))
-                        return
-                    except Exception as e:
-                        yield (str(e), SingleOutputMeta(
-                            input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
-                            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                        ))
-                        return
-                
-                # 如果没有找到相关文档
-                if not item["result"]:
-                    yield ("没有找到可以回答你问题的相关文档", SingleOutputMeta(
-                        input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
-                        generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                    ))
-                    return
-                
-                # 更新上下文
-                context.extend([doc.source_code.module_name for doc in item["result"]])
-                
-                # 输出上下文文档名称
-                yield ("", SingleOutputMeta(
+                yield from self._stream_from_relevant_docs(
+                    relevant_filter_docs=item["result"],
+                    conversations=conversations,
+                    query=query,
+                    only_contexts=only_contexts,
+                    start_time=start_time,
+                    rag_stat=rag_stat,
+                    context=context,
+                    target_llm=target_llm,
+                    model=model,
+                    role_mapping=role_mapping,
+                    llm_config=llm_config,
+                    extra_request_params=extra_request_params
+                )
+                return
+
+    def _stream_from_relevant_docs(
+        self,
+        relevant_filter_docs,
+        conversations,
+        query,
+        only_contexts,
+        start_time,
+        rag_stat,
+        context,
+        target_llm,
+        model=None,
+        role_mapping=None,
+        llm_config=None,
+        extra_request_params=None
+    ):
+        """文档过滤之后的处理：只返回上下文，或者分块重排序后交给大模型生成回答"""
+        # 如果是只返回上下文的情况
+        if only_contexts:
+            try:
+                searcher = SearchableResults()
+                result = searcher.reorder(docs=relevant_filter_docs)
+                yield (json.dumps(result.model_dump(), ensure_ascii=False), SingleOutputMeta(
                     input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
                     generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                    reasoning_content=get_message_with_format_and_newline(
-                        "context_docs_names",
-                        context_docs_names="*****"
-                    )
                 ))
+                return
+            except Exception as e:
+                yield (str(e), SingleOutputMeta(
+                    input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
+                    generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
+                ))
+                return
+        
+        # 如果没有找到相关文档
+        if not relevant_filter_docs:
+            yield ("没有找到可以回答你问题的相关文档", SingleOutputMeta(
+                input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
+                generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
+            ))
+            return
+        
+        # 更新上下文
+        context.extend([doc.source_code.module_name for doc in relevant_filter_docs])
+        
+        # 输出上下文文档名称
+        yield ("", SingleOutputMeta(
+            input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
+            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
+            reasoning_content=get_message_with_format_and_newline(
+                "context_docs_names",
+                context_docs_names="*****"
+            )
+        ))
+        
+        # 记录信息到日志
+        logger.info(f"=== RAG Search Results ===")
+        logger.info(f"Query: {query}")
+        relevant_docs = [doc.source_code for doc in relevant_filter_docs]
+        logger.info(f"Found relevant docs: {len(relevant_docs)}")
+        
+        # 记录相关文档信息
+        relevant_docs_info = []
+        for i, doc in enumerate(relevant_docs):
+            doc_path = doc.module_name.replace(self.path, '', 1)
+            info = f"{i+1}. {doc_path}"
+            if "original_docs" in doc.metadata:
+                original_docs = ", ".join(
+                    [
+                        doc.replace(self.path, "", 1)
+                        for doc in doc.metadata["original_docs"]
+                    ]
+                )
+                info += f" (Original docs: {original_docs})"
+            relevant_docs_info.append(info)
+
+        if relevant_docs_info:
+            logger.info(
+                f"Relevant documents list:"
+                + "".join([f"\n  * {info}" for info in relevant_docs_info])
+            )
+        
+        # 第二阶段：文档分块与重排序
+        doc_chunking_generator = self._process_document_chunking(
+            relevant_docs=relevant_docs,
+            conversations=conversations,
+            rag_stat=rag_stat,
+            filter_time=(time.time() - start_time)
+        )
+        
+        for chunking_item in doc_chunking_generator:
+            if isinstance(chunking_item, tuple) and len(chunking_item) == 2:
+                # 正常的生成器项
+                yield chunking_item
+            elif isinstance(chunking_item, dict) and "result" in chunking_item:
+                processed_docs = chunking_item["result"]
+                filter_time = chunking_item.get("filter_time", 0)
+                first_round_full_docs = chunking_item.get("first_round_full_docs", [])
+                second_round_extracted_docs = chunking_item.get("second_round_extracted_docs", [])
+                sencond_round_time = chunking_item.get("sencond_round_time", 0)
                 
-                # 记录信息到日志
-                logger.info(f"=== RAG Search Results ===")
-                logger.info(f"Query: {query}")
-                relevant_docs = [doc.source_code for doc in item["result"]]
-                logger.info(f"Found relevant docs: {len(relevant_docs)}")
-                
-                # 记录相关文档信息
-                relevant_docs_info = []
-                for i, doc in enumerate(relevant_docs):
+                # 记录最终选择的文档详情
+                final_relevant_docs_info = []
+                for i, doc in enumerate(processed_docs):
                     doc_path = doc.module_name.replace(self.path, '', 1)
                     info = f"{i+1}. {doc_path}"
+
+                    metadata_info = []
                     if "original_docs" in doc.metadata:
                         original_docs = ", ".join(
                             [
-                                doc.replace(self.path, "", 1)
-                                for doc in doc.metadata["original_docs"]
+                                od.replace(self.path, "", 1)
+                                for od in doc.metadata["original_docs"]
                             ]
                         )
-                        info += f" (Original docs: {original_docs})"
-                    relevant_docs_info.append(info)
+                        metadata_info.append(f"Original docs: {original_docs}")
+
+                    if "chunk_ranges" in doc.metadata:
+                        chunk_ranges = json.dumps(
+                            doc.metadata["chunk_ranges"], ensure_ascii=False
+                        )
+                        metadata_info.append(f"Chunk ranges: {chunk_ranges}")
+
+                    if "processing_time" in doc.metadata:
+                        metadata_info.append(
+                            f"Processing time: {doc.metadata['processing_time']:.2f}s")
+
+                    if metadata_info:
+                        info += f" ({'; '.join(metadata_info)})"
 
-                if relevant_docs_info:
+                    final_relevant_docs_info.append(info)
+
+                if final_relevant_docs_info:
                     logger.info(
-                        f"Relevant documents list:"
-                        + "".join([f"\n  * {info}" for info in relevant_docs_info])
+                        f"Final documents to be sent to model:"
+                        + "".join([f"\n  * {info}" for info in final_relevant_docs_info])
                     )
+
+                # 记录令牌统计
+                request_tokens = sum(count_tokens_many([doc.source_code for doc in processed_docs]))
+                target_model = target_llm.default_model_name
+                logger.info(
+                    f"=== LLM Request ===\n"
+                    f"  * Target model: {target_model}\n"
+                    f"  * Total tokens: {request_tokens}"
+                )
+
+                logger.info(
+                    f"Start to send to model {target_model} with {request_tokens} tokens")
+
+                yield ("", SingleOutputMeta(
+                    input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
+                    generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
+                    reasoning_content=get_message_with_format_and_newline(
+                        "send_to_model",
+                        model=target_model,
+                        tokens=request_tokens
+                    )
+                ))
+
+                yield ("", SingleOutputMeta(
+                    input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
+                    generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
+                    reasoning_content="qa_model_thinking"
+                ))
                 
-                # 第二阶段：文档分块与重排序
-                doc_chunking_generator = self._process_document_chunking(
-                    relevant_docs=relevant_docs,
+                # 第三阶段：大模型问答生成
+                qa_generation_generator = self._process_qa_generation(
+                    relevant_docs=processed_docs,
                     conversations=conversations,
+                    target_llm=target_llm,
                     rag_stat=rag_stat,
-                    filter_time=(time.time() - start_time)
+                    model=model,
+                    role_mapping=role_mapping,
+                    llm_config=llm_config,
+                    extra_request_params=extra_request_params
                 )
                 
-                for chunking_item in doc_chunking_generator:
-                    if isinstance(chunking_item, tuple) and len(chunking_item) == 2:
-                        # 正常的生成器项
-                        yield chunking_item
-                    elif isinstance(chunking_item, dict) and "result" in chunking_item:
-                        processed_docs = chunking_item["result"]
-                        filter_time = chunking_item.get("filter_time", 0)
-                        first_round_full_docs = chunking_item.get("first_round_full_docs", [])
-                        second_round_extracted_docs = chunking_item.get("second_round_extracted_docs", [])
-                        sencond_round_time = chunking_item.get("sencond_round_time", 0)
-                        
-                        # 记录最终选择的文档详情
-                        final_relevant_docs_info = []
-                        for i, doc in enumerate(processed_docs):
-                            doc_path = doc.module_name.replace(self.path, '', 1)
-                            info = f"{i+1}. {doc_path}"
-
-                            metadata_info = []
-                            if "original_docs" in doc.metadata:
-                                original_docs = ", ".join(
-                                    [
-                                        od.replace(self.path, "", 1)
-                                        for od in doc.metadata["original_docs"]
-                                    ]
-                                )
-                                metadata_info.append(f"Original docs: {original_docs}")
-
-                            if "chunk_ranges" in doc.metadata:
-                                chunk_ranges = json.dumps(
-                                    doc.metadata["chunk_ranges"], ensure_ascii=False
-                                )
-                                metadata_info.append(f"Chunk ranges: {chunk_ranges}")
-
-                            if "processing_time" in doc.metadata:
-                                metadata_info.append(
-                                    f"Processing time: {doc.metadata['processing_time']:.2f}s")
-
-                            if metadata_info:
-                                info += f" ({'; '.join(metadata_info)})"
-
-                            final_relevant_docs_info.append(info)
-
-                        if final_relevant_docs_info:
-                            logger.info(
-                                f"Final documents to be sent to model:"
-                                + "".join([f"\n  * {info}" for info in final_relevant_docs_info])
-                            )
-
-                        # 记录令牌统计
-                        request_tokens = sum([count_tokens(doc.source_code) for doc in processed_docs])
-                        target_model = target_llm.default_model_name
-                        logger.info(
-                            f"=== LLM Request ===\n"
-                            f"  * Target model: {target_model}\n"
-                            f"  * Total tokens: {request_tokens}"
-                        )
-
-                        logger.info(
-                            f"Start to send to model {target_model} with {request_tokens} tokens")
-
-                        yield ("", SingleOutputMeta(
-                            input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
-                            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                            reasoning_content=get_message_with_format_and_newline(
-                                "send_to_model",
-                                model=target_model,
-                                tokens=request_tokens
-                            )
-                        ))
-
-                        yield ("", SingleOutputMeta(
-                            input_tokens_count=rag_stat.recall_stat.total_input_tokens + rag_stat.chunk_stat.total_input_tokens,
-                            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens + rag_stat.chunk_stat.total_generated_tokens,
-                            reasoning_content="qa_model_thinking"
-                        ))
-                        
-                        # 第三阶段：大模型问答生成
-                        qa_generation_generator = self._process_qa_generation(
-                            relevant_docs=processed_docs,
-                            conversations=conversations,
-                            target_llm=target_llm,
-                            rag_stat=rag_stat,
-                            model=model,
-                            role_mapping=role_mapping,
-                            llm_config=llm_config,
-                            extra_request_params=extra_request_params
-                        )
-                        
-                        for gen_item in qa_generation_generator:
-                            yield gen_item
-                        
-                        # 打印最终的统计信息
-                        self._print_rag_stats(rag_stat, conversations)
-                        return
+                for gen_item in qa_generation_generator:
+                    yield gen_item
+                
+                # 打印最终的统计信息
+                self._print_rag_stats(rag_stat, conversations)
+                return
 
     def _process_document_retrieval(self, conversations, 
                                     query, rag_stat):
         """第一阶段：文档召回和过滤"""
         recall_start_time = time.time()  # 记录召回阶段开始时间        
         
-        yield ("", SingleOutputMeta(
-            input_tokens_count=0,
-            generated_tokens_count=0,
-            reasoning_content=get_message_with_format_and_newline(
-                "rag_searching_docs",
-                model=rag_stat.recall_stat.model_name
-            )
-        ))
+        yield self._retrieval_start_meta(rag_stat)
 
-        doc_filter_result = DocFilterResult(
+        doc_filter_result = self._empty_filter_result(rag_stat)
+        
+        # 提取查询并检索候选文档
+        documents = self._recall_candidates(conversations, query, rag_stat)
+
+        # 使用带进度报告的过滤方法
+        for progress_update, result in self.doc_filter.filter_docs_with_progress(conversations, documents):
+            if result is not None:
+                doc_filter_result = result
+            else:
+                # 生成进度更新
+                yield self._filter_progress_meta(progress_update, rag_stat)
+
+        yield from self._finish_document_retrieval(doc_filter_result, rag_stat, recall_start_time)
+
+    def _empty_filter_result(self, rag_stat):
+        """过滤没有给出结果时使用的空结果"""
+        return DocFilterResult(
             docs=[],
             raw_docs=[],
             input_tokens_counts=[],
@@ -705,30 +756,37 @@ class LongContextRAG:
             durations=[],
             model_name=rag_stat.recall_stat.model_name
         )
-        
-        # 提取查询并检索候选文档
+
+    def _retrieval_start_meta(self, rag_stat):
+        return ("", SingleOutputMeta(
+            input_tokens_count=0,
+            generated_tokens_count=0,
+            reasoning_content=get_message_with_format_and_newline(
+                "rag_searching_docs",
+                model=rag_stat.recall_stat.model_name
+            )
+        ))
+
+    def _recall_candidates(self, conversations, query, rag_stat):
         queries = extract_search_queries(
             conversations=conversations, args=self.args, llm=self.llm, max_queries=self.args.rag_recall_max_queries,rag_stat=rag_stat)
-        documents = self._retrieve_documents(
+        return self._retrieve_documents(
             options={"queries": [query] + [query.query for query in queries]})
 
-        # 使用带进度报告的过滤方法
-        for progress_update, result in self.doc_filter.filter_docs_with_progress(conversations, documents):
-            if result is not None:
-                doc_filter_result = result
-            else:
-                # 生成进度更新
-                yield ("", SingleOutputMeta(
-                    input_tokens_count=rag_stat.recall_stat.total_input_tokens,
-                    generated_tokens_count=rag_stat.recall_stat.total_generated_tokens,
-                    reasoning_content=f"{progress_update.message} ({progress_update.completed}/{progress_update.total})"
-                ))
+    def _filter_progress_meta(self, progress_update, rag_stat):
+        return ("", SingleOutputMeta(
+            input_tokens_count=rag_stat.recall_stat.total_input_tokens,
+            generated_tokens_count=rag_stat.recall_stat.total_generated_tokens,
+            reasoning_content=f"{progress_update.message} ({progress_update.completed}/{progress_update.total})"
+        ))
 
+    def _finish_document_retrieval(self, doc_filter_result, rag_stat, recall_start_time):
         # 更新统计信息
         rag_stat.recall_stat.total_input_tokens += sum(doc_filter_result.input_tokens_counts)
         rag_stat.recall_stat.total_generated_tokens += sum(doc_filter_result.generated_tokens_counts)
         rag_stat.recall_stat.model_name = doc_filter_result.model_name
         rag_stat.recall_stat.duration = time.time() - recall_start_time  # 记录召回阶段耗时
+        rag_stat.relevance_stages = doc_filter_result.stage_stats
 
         relevant_docs = doc_filter_result.docs
         
@@ -754,6 +812,109 @@ class LongContextRAG:
         # 返回结果
         yield {"result": relevant_docs}
 
+    async def async_stream_chat_oai(
+        self,
+        conversations,
+        model: Optional[str] = None,
+        role_mapping=None,
+        llm_config: Dict[str, Any] = {},
+        extra_request_params: Dict[str, Any] = {}
+    ) -> AsyncIterator[Any]:
+        """
+        stream_chat_oai 的异步版本，供 api_server 使用
+
+        检索在线程池中执行，文档过滤使用 DocFilter 的异步接口并受全局并发数限制，
+        分块和问答生成在独立线程中运行并逐块交给事件循环，整个过程不阻塞事件循环。
+        """
+        try:
+            res, context = await run_blocking(
+                self._stream_chat_oai,
+                conversations,
+                model=model,
+                role_mapping=role_mapping,
+                llm_config=llm_config,
+                extra_request_params=extra_request_params,
+                async_mode=True
+            )
+        except Exception as e:
+            logger.error(f"Error in async_stream_chat_oai: {str(e)}")
+            traceback.print_exc()
+            res = ["出现错误，请稍后再试。"]
+
+        if hasattr(res, "__aiter__"):
+            async for item in res:
+                yield item
+        else:
+            async for item in async_iterate(lambda: res):
+                yield item
+
+    async def _async_generate_stream(
+        self,
+        conversations,
+        query,
+        only_contexts,
+        start_time,
+        rag_stat,
+        context,
+        target_llm,
+        model=None,
+        role_mapping=None,
+        llm_config=None,
+        extra_request_params=None
+    ):
+        """_generate_sream 的异步版本，三个阶段与同步版本相同"""
+        yield ("", SingleOutputMeta(
+            input_tokens_count=0,
+            generated_tokens_count=0,
+            reasoning_content=get_message_with_format_and_newline(
+                "rag_processing"
+            )
+        ))
+
+        # 第一阶段：文档召回和过滤
+        recall_start_time = time.time()
+        yield self._retrieval_start_meta(rag_stat)
+
+        documents = await run_blocking(
+            lambda: list(self._recall_candidates(conversations, query, rag_stat)))
+
+        doc_filter_result = self._empty_filter_result(rag_stat)
+        async_filter = getattr(self.doc_filter, "async_filter_docs_with_progress", None)
+        if async_filter is not None:
+            progress = async_filter(conversations, documents)
+        else:
+            progress = async_iterate(
+                lambda: self.doc_filter.filter_docs_with_progress(conversations, documents))
+        async for progress_update, result in progress:
+            if result is not None:
+                doc_filter_result = result
+            else:
+                yield self._filter_progress_meta(progress_update, rag_stat)
+
+        relevant_filter_docs = []
+        for item in self._finish_document_retrieval(doc_filter_result, rag_stat, recall_start_time):
+            if isinstance(item, dict):
+                relevant_filter_docs = item["result"]
+            else:
+                yield item
+
+        # 第二、三阶段：分块与问答生成
+        async for item in async_iterate(lambda: self._stream_from_relevant_docs(
+            relevant_filter_docs=relevant_filter_docs,
+            conversations=conversations,
+            query=query,
+            only_contexts=only_contexts,
+            start_time=start_time,
+            rag_stat=rag_stat,
+            context=context,
+            target_llm=target_llm,
+            model=model,
+            role_mapping=role_mapping,
+            llm_config=llm_config,
+            extra_request_params=extra_request_params
+        ), name="rag-generate"):
+            yield item
+
     def _process_document_chunking(self, relevant_docs, conversations, rag_stat, filter_time):
         """第二阶段：文档分块与重排序"""
         chunk_start_time = time.time()  # 记录分块阶段开始时间
@@ -774,6 +935,7 @@ class LongContextRAG:
         if self.tokenizer is not None:
             token_limiter = TokenLimiter(
                 count_tokens=self.count_tokens,
+                count_tokens_many=self.count_tokens_many,
                 full_text_limit=self.full_text_limit,
                 segment_limit=self.segment_limit,
                 buff_limit=self.buff_limit,
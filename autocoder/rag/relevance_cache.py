@@ -0,0 +1,209 @@
+"""
+文档相关性判断缓存与分级过滤统计
+
+DocFilter 对每个候选文档都要调用一次召回模型判断相关性，同一文档与同一问题的组合
+在短时间内重复出现时 (重复提问、相近的问题、多轮对话重试) 也会重新调用。这里提供：
+
+- RelevanceCache: 持久化在 SQLite 中的判断结果，键为 (文档内容哈希, 归一化后的对话哈希, 模型名)
+- CascadeStats: 分级过滤 (缓存 -> embedding 相似度 -> 小模型 -> 召回模型) 各阶段的计数和耗时
+"""
+
+import hashlib
+import math
+import os
+import re
+import sqlite3
+import threading
+import time
+from typing import Dict, Iterable, List, Optional, Sequence, Tuple
+
+from loguru import logger
+
+from autocoder.rag.types import RelevanceStageStat
+
+_WHITESPACE_RE = re.compile(r"\s+")
+_TRAILING_PUNCT_RE = re.compile(r"[\s?？!！.。,，;；:：~～]+$")
+
+
+def hash_text(text: str) -> str:
+    return hashlib.sha256(text.encode("utf-8", errors="ignore")).hexdigest()
+
+
+def normalize_question(text: str) -> str:
+    """统一大小写、空白和结尾标点，使只在这些细节上不同的问题得到相同的哈希"""
+    text = _WHITESPACE_RE.sub(" ", text or "").strip().casefold()
+    return _TRAILING_PUNCT_RE.sub("", text)
+
+
+def conversation_hash(
+    conversations: Sequence[Dict[str, str]], filter_config: Optional[str] = None
+) -> str:
+    """
+    计算对话的归一化哈希
+
+    只使用用户消息：助手的历史回答每次生成都不相同，纳入哈希会让多轮对话几乎无法命中缓存，
+    而相关性判断取决于用户在问什么。filter_config 会改变判断标准，因此也计入哈希。
+    """
+    parts = [
+        normalize_question(str(msg.get("content", "")))
+        for msg in conversations
+        if msg.get("role") == "user"
+    ]
+    parts.append(filter_config or "")
+    return hash_text("\x1e".join(parts))
+
+
+def cosine_similarity(a: Sequence[float], b: Sequence[float]) -> float:
+    dot = sum(x * y for x, y in zip(a, b))
+    norm = math.sqrt(sum(x * x for x in a)) * math.sqrt(sum(y * y for y in b))
+    return dot / norm if norm > 0 else 0.0
+
+
+class RelevanceCache:
+    """存储在单个 SQLite 文件中的相关性判断缓存"""
+
+    def __init__(self, db_file: str, ttl_seconds: int = 7 * 24 * 3600):
+        """
+        Args:
+            db_file: 缓存文件路径，":memory:" 表示只保存在内存中
+            ttl_seconds: 判断结果的有效期 (秒)，小于等于 0 表示永不过期
+        """
+        self.db_file = db_file
+        self.ttl_seconds = ttl_seconds
+        self.lock = threading.RLock()
+        if db_file != ":memory:":
+            os.makedirs(os.path.dirname(os.path.abspath(db_file)), exist_ok=True)
+        self._conn = sqlite3.connect(db_file, check_same_thread=False)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        with self.lock:
+            self._conn.execute(
+                """
+                CREATE TABLE IF NOT EXISTS relevance_cache (
+                    doc_hash TEXT NOT NULL,
+                    conv_hash TEXT NOT NULL,
+                    model TEXT NOT NULL,
+                    is_relevant INTEGER NOT NULL,
+                    score INTEGER NOT NULL,
+                    created_at REAL NOT NULL,
+                    PRIMARY KEY (doc_hash, conv_hash, model)
+                ) WITHOUT ROWID
+                """
+            )
+            self._conn.commit()
+        self.prune()
+
+    def get_many(
+        self, doc_hashes: Iterable[str], conv_hash: str, model: str
+    ) -> Dict[str, Tuple[bool, int]]:
+        """返回命中的 {doc_hash: (is_relevant, score)}"""
+        doc_hashes = list(dict.fromkeys(doc_hashes))
+        found: Dict[str, Tuple[bool, int]] = {}
+        min_created = time.time() - self.ttl_seconds if self.ttl_seconds > 0 else 0.0
+        with self.lock:
+            for start in range(0, len(doc_hashes), 500):
+                batch = doc_hashes[start : start + 500]
+                placeholders = ",".join("?" * len(batch))
+                rows = self._conn.execute(
+                    f"SELECT doc_hash, is_relevant, score FROM relevance_cache "
+                    f"WHERE conv_hash = ? AND model = ? AND created_at >= ? "
+                    f"AND doc_hash IN ({placeholders})",
+                    [conv_hash, model, min_created, *batch],
+                ).fetchall()
+                for doc_hash, is_relevant, score in rows:
+                    found[doc_hash] = (bool(is_relevant), int(score))
+        return found
+
+    def put(self, doc_hash: str, conv_hash: str, model: str, is_relevant: bool, score: int) -> None:
+        with self.lock:
+            try:
+                self._conn.execute(
+                    "INSERT OR REPLACE INTO relevance_cache "
+                    "(doc_hash, conv_hash, model, is_relevant, score, created_at) "
+                    "VALUES (?, ?, ?, ?, ?, ?)",
+                    (doc_hash, conv_hash, model, int(bool(is_relevant)), int(score), time.time()),
+                )
+                self._conn.commit()
+            except Exception:
+                self._conn.rollback()
+                raise
+
+    def prune(self) -> int:
+        """删除过期的判断结果，返回删除的条数"""
+        if self.ttl_seconds <= 0:
+            return 0
+        with self.lock:
+            cursor = self._conn.execute(
+                "DELETE FROM relevance_cache WHERE created_at < ?",
+                (time.time() - self.ttl_seconds,),
+            )
+            self._conn.commit()
+            return cursor.rowcount
+
+    def count(self) -> int:
+        with self.lock:
+            return self._conn.execute("SELECT COUNT(*) FROM relevance_cache").fetchone()[0]
+
+    def close(self) -> None:
+        with self.lock:
+            try:
+                self._conn.close()
+            except Exception as e:
+                logger.warning(f"关闭相关性缓存失败: {str(e)}")
+
+
+class CascadeStats:
+    """
+    分级过滤的阶段统计，线程安全
+
+    evaluated 为进入该阶段的文档数，decided 为在该阶段得出结论、不再进入下一阶段的文档数
+    """
+
+    def __init__(self, stages: Sequence[Tuple[str, str]]):
+        """
+        Args:
+            stages: 按执行顺序排列的 (阶段名, 模型名)
+        """
+        self._lock = threading.Lock()
+        self._models = dict(stages)
+        self._counters = {
+            name: {
+                "evaluated": 0,
+                "decided": 0,
+                "duration": 0.0,
+                "total_input_tokens": 0,
+                "total_generated_tokens": 0,
+            }
+            for name, _ in stages
+        }
+
+    def record(
+        self,
+        stage: str,
+        decided: bool,
+        duration: float = 0.0,
+        input_tokens: int = 0,
+        generated_tokens: int = 0,
+        count: int = 1,
+    ) -> None:
+        with self._lock:
+            counter = self._counters[stage]
+            counter["evaluated"] += count
+            if decided:
+                counter["decided"] += count
+            counter["duration"] += duration
+            counter["total_input_tokens"] += input_tokens
+            counter["total_generated_tokens"] += generated_tokens
+
+    def to_list(self) -> List[RelevanceStageStat]:
+        with self._lock:
+            return [
+                RelevanceStageStat(
+                    stage=name,
+                    model_name=self._models[name],
+                    hit_rate=c["decided"] / c["evaluated"] if c["evaluated"] else 0.0,
+                    avg_latency=c["duration"] / c["evaluated"] if c["evaluated"] else 0.0,
+                    **c,
+                )
+                for name, c in self._counters.items()
+            ]
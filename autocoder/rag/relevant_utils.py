@@ -1,4 +1,5 @@
 from autocoder.common import AutoCoderArgs, SourceCode
+from autocoder.rag.types import RelevanceStageStat
 from pydantic import BaseModel
 import re
 from typing import Optional, List
@@ -32,6 +33,8 @@ class DocFilterResult(BaseModel):
     generated_tokens_counts: List[int]
     durations: List[float] 
     model_name: str = "unknown"
+    # 分级过滤各阶段的命中率和耗时
+    stage_stats: List[RelevanceStageStat] = []
     
 
 class ProgressUpdate:
@@ -0,0 +1,398 @@
+import asyncio
+import os
+import threading
+import time
+
+import pytest
+
+from autocoder.common import AutoCoderArgs, SourceCode
+from autocoder.rag.async_serving import AdmissionController, AdmissionRejected, async_iterate
+from autocoder.rag.doc_filter import DocFilter
+from autocoder.rag.llm_wrapper import LLWrapper
+from autocoder.rag.long_context_rag import LongContextRAG, RAGStat, RecallStat, ChunkStat, AnswerStat
+from autocoder.rag.relevant_utils import DocFilterResult, DocRelevance, FilterDoc, TaskTiming
+
+
+async def _collect(stream):
+    return [item async for item in stream]
+
+
+class TestAsyncIterate:
+    """async_iterate 的单元测试"""
+
+    def test_yields_all_items_in_order(self):
+        assert asyncio.run(_collect(async_iterate(lambda: iter(range(100)), max_buffer=4))) == list(range(100))
+
+    def test_exception_is_raised_in_consumer(self):
+        def _broken():
+            yield 1
+            raise ValueError("boom")
+
+        async def _run():
+            items = []
+            with pytest.raises(ValueError):
+                async for item in async_iterate(_broken):
+                    items.append(item)
+            return items
+
+        assert asyncio.run(_run()) == [1]
+
+    def test_early_exit_stops_producer(self):
+        closed = threading.Event()
+
+        def _endless():
+            try:
+                i = 0
+                while True:
+                    yield i
+                    i += 1
+            finally:
+                closed.set()
+
+        async def _run():
+            stream = async_iterate(_endless, max_buffer=2)
+            async for item in stream:
+                if item == 3:
+                    break
+            await stream.aclose()
+
+        asyncio.run(_run())
+        assert closed.wait(5)
+
+    def test_blocking_producer_does_not_block_loop(self):
+        def _slow():
+            for i in range(3):
+                time.sleep(0.1)
+                yield i
+
+        async def _run():
+            ticks = 0
+
+            async def _ticker():
+                nonlocal ticks
+                while True:
+                    await asyncio.sleep(0.01)
+                    ticks += 1
+
+            ticker = asyncio.ensure_future(_ticker())
+            items = await _collect(async_iterate(_slow))
+            ticker.cancel()
+            return items, ticks
+
+        items, ticks = asyncio.run(_run())
+        assert items == [0, 1, 2]
+        assert ticks >= 10
+
+
+class TestAdmissionController:
+    """AdmissionController 的单元测试"""
+
+    def test_unlimited_by_default(self):
+        async def _run():
+            controller = AdmissionController()
+            for _ in range(100):
+                await controller.acquire()
+            return controller.get_stats()
+
+        stats = asyncio.run(_run())
+        assert stats["active"] == 100
+        assert stats["rejected"] == 0
+
+    def test_rejects_when_queue_is_full(self):
+        async def _run():
+            controller = AdmissionController(max_concurrent=1, max_waiting=1, wait_timeout=5)
+            await controller.acquire()
+            waiter = asyncio.ensure_future(controller.acquire())
+            await asyncio.sleep(0)
+            with pytest.raises(AdmissionRejected):
+                await controller.acquire()
+            controller.release()
+            await waiter
+            return controller.get_stats()
+
+        stats = asyncio.run(_run())
+        assert stats["admitted"] == 2
+        assert stats["rejected"] == 1
+        assert stats["active"] == 1
+
+    def test_rejects_after_timeout(self):
+        async def _run():
+            controller = AdmissionController(max_concurrent=1, max_waiting=8, wait_timeout=0.05)
+            await controller.acquire()
+            with pytest.raises(AdmissionRejected) as e:
+                await controller.acquire()
+            return e.value.retry_after, controller.get_stats()
+
+        retry_after, stats = asyncio.run(_run())
+        assert retry_after == 0.05
+        assert stats["waiting"] == 0
+
+    def test_stream_holds_slot_until_finished(self):
+        async def _stream():
+            for i in range(3):
+                await asyncio.sleep(0)
+                yield i
+
+        async def _run():
+            controller = AdmissionController(max_concurrent=1, max_waiting=0, wait_timeout=1)
+            await controller.acquire()
+            stream = controller.wrap_stream(_stream())
+            assert await stream.__anext__() == 0
+            assert controller.get_stats()["active"] == 1
+            await stream.aclose()
+            return controller.get_stats()
+
+        assert asyncio.run(_run())["active"] == 0
+
+    def test_releaser_releases_once_across_end_paths(self):
+        async def _stream():
+            yield 0
+
+        async def _run():
+            controller = AdmissionController(max_concurrent=1, max_waiting=0, wait_timeout=1)
+            # 客户端在首块输出前断开：流没有开始迭代，只有响应的结束路径释放
+            await controller.acquire()
+            release = controller.releaser()
+            unstarted = controller.wrap_stream(_stream(), release)
+            release()
+            await unstarted.aclose()
+            assert controller.get_stats()["active"] == 0
+
+            # 正常输出完毕：流和响应都调用释放函数，名额只释放一次
+            await controller.acquire()
+            release = controller.releaser()
+            assert [item async for item in controller.wrap_stream(_stream(), release)] == [0]
+            release()
+            await controller.acquire()
+            return controller.get_stats()
+
+        stats = asyncio.run(_run())
+        assert stats["active"] == 1
+        assert stats["admitted"] == 3
+
+
+class _SlowFilter(DocFilter):
+    """模型判断固定耗时，并记录同时进行的判断数"""
+
+    def __init__(self, llm, args, path, latency):
+        super().__init__(llm, args, path=path)
+        self.latency = latency
+        self.running = 0
+        self.max_running = 0
+        self._lock = threading.Lock()
+
+    def _ask_model(self, llm, conversations, doc_text, filter_config):
+        with self._lock:
+            self.running += 1
+            self.max_running = max(self.max_running, self.running)
+        time.sleep(self.latency)
+        with self._lock:
+            self.running -= 1
+        return "yes/8", None
+
+
+class _FakeLLM:
+    default_model_name = "big"
+
+    def get_sub_client(self, name):
+        return None
+
+
+def test_async_filter_respects_concurrency_limit(tmp_path):
+    args = AutoCoderArgs(
+        rag_doc_filter_relevance=5, rag_filter_max_concurrency=2, disable_rag_relevance_cache=True
+    )
+    doc_filter = _SlowFilter(_FakeLLM(), args, str(tmp_path), latency=0.02)
+    docs = [SourceCode(module_name=f"doc{i}.md", source_code=f"content {i}") for i in range(6)]
+
+    async def _run():
+        return [item async for item in doc_filter.async_filter_docs_with_progress([{"role": "user", "content": "q"}], docs)]
+
+    updates = asyncio.run(_run())
+    result = updates[-1][1]
+
+    assert len(result.docs) == 6
+    assert doc_filter.max_running == 2
+    assert [update.completed for update, _ in updates[1:-1]] == list(range(1, 7))
+
+
+class _StubDocFilter:
+    """返回固定过滤结果的文档过滤器，result 为 None 时模拟没有给出结果的过滤"""
+
+    def __init__(self, result):
+        self.result = result
+
+    def filter_docs_with_progress(self, conversations, documents):
+        if self.result is not None:
+            yield None, self.result
+
+
+class _RecordingLLM:
+    """记录问答请求并按块返回固定回答"""
+
+    default_model_name = "qa"
+
+    def __init__(self):
+        self.conversations = None
+
+    def stream_chat_oai(self, conversations, **kwargs):
+        self.conversations = conversations
+        for piece in ["an", "swer"]:
+            yield (piece, None)
+
+
+def _stub_rag(tmp_path, filter_result):
+    rag = LongContextRAG.__new__(LongContextRAG)
+    rag.args = AutoCoderArgs(source_dir=str(tmp_path), disable_inference_enhance=True, index_filter_file_num=3)
+    rag.path = str(tmp_path)
+    rag.tokenizer = None
+    rag.doc_filter = _StubDocFilter(filter_result)
+    rag._recall_candidates = lambda conversations, query, rag_stat: []
+    rag._estimate_token_cost = lambda rag_stat: 0.0
+    rag.qa_docs = None
+    process_qa_generation = rag._process_qa_generation
+
+    def _record_qa_docs(relevant_docs, *args, **kwargs):
+        rag.qa_docs = [doc.module_name for doc in relevant_docs]
+        return process_qa_generation(relevant_docs, *args, **kwargs)
+
+    rag._process_qa_generation = _record_qa_docs
+    return rag
+
+
+def _rag_stat():
+    return RAGStat(
+        recall_stat=RecallStat(total_input_tokens=0, total_generated_tokens=0, model_name="recall"),
+        chunk_stat=ChunkStat(total_input_tokens=0, total_generated_tokens=0, model_name="chunk"),
+        answer_stat=AnswerStat(total_input_tokens=0, total_generated_tokens=0, model_name="qa"),
+    )
+
+
+def _filter_result(docs):
+    filter_docs = [
+        FilterDoc(source_code=doc, relevance=DocRelevance(is_relevant=True, relevant_score=8), task_timing=TaskTiming())
+        for doc in docs
+    ]
+    return DocFilterResult(docs=filter_docs, raw_docs=filter_docs, input_tokens_counts=[1],
+                           generated_tokens_counts=[1], durations=[0.0], model_name="recall")
+
+
+def _stream_kwargs(llm):
+    return dict(conversations=[{"role": "user", "content": "q"}], query="q", only_contexts=False,
+                start_time=time.time(), rag_stat=_rag_stat(), context=[], target_llm=llm)
+
+
+class TestRAGStream:
+    """检索、分块到问答生成的完整流程，同步和异步两个入口结果一致"""
+
+    def test_sync_stream_answers_from_filtered_docs(self, tmp_path):
+        doc = SourceCode(module_name=str(tmp_path / "guide.md"), source_code="the guide")
+        llm = _RecordingLLM()
+        kwargs = _stream_kwargs(llm)
+
+        rag = _stub_rag(tmp_path, _filter_result([doc]))
+        items = list(rag._generate_sream(**kwargs))
+
+        assert "".join(content for content, _ in items) == "answer"
+        assert kwargs["context"] == [doc.module_name]
+        assert rag.qa_docs == [doc.module_name]
+        assert llm.conversations is not None
+
+    def test_async_stream_answers_from_filtered_docs(self, tmp_path):
+        doc = SourceCode(module_name=str(tmp_path / "guide.md"), source_code="the guide")
+        llm = _RecordingLLM()
+        kwargs = _stream_kwargs(llm)
+
+        rag = _stub_rag(tmp_path, _filter_result([doc]))
+        items = asyncio.run(_collect(rag._async_generate_stream(**kwargs)))
+
+        assert "".join(content for content, _ in items) == "answer"
+        assert kwargs["context"] == [doc.module_name]
+        assert rag.qa_docs == [doc.module_name]
+
+    def test_async_stream_without_filter_result(self, tmp_path):
+        llm = _RecordingLLM()
+
+        items = asyncio.run(_collect(_stub_rag(tmp_path, None)._async_generate_stream(**_stream_kwargs(llm))))
+
+        assert items[-1][0] == "没有找到可以回答你问题的相关文档"
+        assert llm.conversations is None
+
+
+class _BlockingRAG:
+    """检索和生成都是阻塞调用的 RAG"""
+
+    def __init__(self, retrieval_latency, chunk_latency, chunks):
+        self.retrieval_latency = retrieval_latency
+        self.chunk_latency = chunk_latency
+        self.chunks = chunks
+
+    def stream_chat_oai(self, conversations, llm_config=None, extra_request_params=None):
+        time.sleep(self.retrieval_latency)
+
+        def _generate():
+            for i in range(self.chunks):
+                time.sleep(self.chunk_latency)
+                yield (f"chunk{i}", None)
+
+        return _generate(), []
+
+
+async def _legacy_stream(rag, conversations):
+    """改造前 LLWrapper.async_stream_chat_oai 的行为：在事件循环中直接迭代同步生成器"""
+    res, _ = await asyncio.get_running_loop().run_in_executor(None, lambda: rag.stream_chat_oai(conversations))
+    for t in res:
+        yield t
+
+
+async def _load_test(stream_factory, sessions):
+    first_token = []
+
+    async def _session(i):
+        start = time.perf_counter()
+        seen_first = False
+        async for _ in stream_factory([{"role": "user", "content": f"q{i}"}]):
+            if not seen_first:
+                first_token.append(time.perf_counter() - start)
+                seen_first = True
+
+    start = time.perf_counter()
+    await asyncio.gather(*[_session(i) for i in range(sessions)])
+    return time.perf_counter() - start, sorted(first_token)
+
+
+def test_wrapper_streams_concurrently():
+    rag = _BlockingRAG(retrieval_latency=0.05, chunk_latency=0.02, chunks=5)
+    wrapper = LLWrapper(llm=None, rag=rag)
+
+    total, _ = asyncio.run(_load_test(wrapper.async_stream_chat_oai, sessions=8))
+
+    # 串行时至少需要 8 * 5 * 0.02 = 0.8 秒
+    assert total < 0.6
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_async_serving_load_benchmark():
+    """基准测试：多个并发会话下，对比在事件循环中迭代与线程桥接两种方式的总耗时和首 token 延迟"""
+    sessions = int(os.environ.get("ASYNC_SERVING_BENCH_SESSIONS", "32"))
+    chunks = int(os.environ.get("ASYNC_SERVING_BENCH_CHUNKS", "20"))
+    chunk_latency = float(os.environ.get("ASYNC_SERVING_BENCH_CHUNK_LATENCY", "0.01"))
+    rag = _BlockingRAG(retrieval_latency=0.1, chunk_latency=chunk_latency, chunks=chunks)
+    wrapper = LLWrapper(llm=None, rag=rag)
+
+    legacy_total, legacy_first = asyncio.run(
+        _load_test(lambda conversations: _legacy_stream(rag, conversations), sessions)
+    )
+    async_total, async_first = asyncio.run(_load_test(wrapper.async_stream_chat_oai, sessions))
+
+    def _p95(values):
+        return values[int(len(values) * 0.95) - 1] if values else 0.0
+
+    print(
+        f"{sessions} sessions x {chunks} chunks: "
+        f"legacy total {legacy_total:.2f}s p95 first token {_p95(legacy_first):.2f}s, "
+        f"async total {async_total:.2f}s p95 first token {_p95(async_first):.2f}s"
+    )
+
+    assert async_total < legacy_total
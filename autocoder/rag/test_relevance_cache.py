@@ -0,0 +1,227 @@
+import os
+import threading
+import time
+
+import pytest
+
+from autocoder.common import AutoCoderArgs, SourceCode
+from autocoder.rag.doc_filter import DocFilter
+from autocoder.rag.relevance_cache import RelevanceCache, conversation_hash
+
+
+class _FakeEmbedding:
+    def __init__(self, output):
+        self.output = output
+
+
+class _FakeLLM:
+    """只提供 DocFilter 用到的接口：模型名、子模型和 emb_query"""
+
+    def __init__(self, name, sub_clients=None, embeddings=None):
+        self.default_model_name = name
+        self.sub_clients = sub_clients or {}
+        self.embeddings = embeddings or {}
+
+    def get_sub_client(self, name):
+        return self.sub_clients.get(name)
+
+    def emb_query(self, text):
+        for keyword, vector in self.embeddings.items():
+            if keyword in text:
+                return [_FakeEmbedding(vector)]
+        return [_FakeEmbedding([0.0, 0.0, 1.0])]
+
+
+class _ScriptedFilter(DocFilter):
+    """按 {模型名: {文件名: 回复}} 给出模型回复，并记录每次调用"""
+
+    def __init__(self, llm, args, path, answers):
+        super().__init__(llm, args, path=path)
+        self.answers = answers
+        self.calls = []
+        self._lock = threading.Lock()
+
+    def _ask_model(self, llm, conversations, doc_text, filter_config):
+        name = doc_text.split("\n", 1)[0].replace("##File: ", "")
+        with self._lock:
+            self.calls.append((llm.default_model_name, name))
+        return self.answers[llm.default_model_name][name], None
+
+
+def _docs(*names):
+    return [SourceCode(module_name=name, source_code=f"content of {name}") for name in names]
+
+
+def _args(**kwargs):
+    params = dict(rag_doc_filter_relevance=5, index_filter_workers=2)
+    params.update(kwargs)
+    return AutoCoderArgs(**params)
+
+
+def _question(text):
+    return [{"role": "user", "content": text}]
+
+
+def _stage(result, name):
+    return next(stat for stat in result.stage_stats if stat.stage == name)
+
+
+def test_conversation_hash_normalizes_question():
+    assert conversation_hash(_question("How do I  configure DocFilter?")) == conversation_hash(
+        _question("how do i configure docfilter")
+    )
+    assert conversation_hash(_question("如何配置？")) == conversation_hash(_question("如何配置"))
+    assert conversation_hash(_question("a")) != conversation_hash(_question("a"), "only python files")
+    # 助手回答不参与哈希
+    assert conversation_hash(
+        [{"role": "user", "content": "q"}, {"role": "assistant", "content": "x"}, {"role": "user", "content": "r"}]
+    ) == conversation_hash(
+        [{"role": "user", "content": "q"}, {"role": "assistant", "content": "y"}, {"role": "user", "content": "r"}]
+    )
+
+
+class TestRelevanceCache:
+    """RelevanceCache 的单元测试"""
+
+    def test_keys_include_model(self):
+        cache = RelevanceCache(":memory:")
+        cache.put("d1", "c1", "big", True, 8)
+
+        assert cache.get_many(["d1", "d2"], "c1", "big") == {"d1": (True, 8)}
+        assert cache.get_many(["d1"], "c1", "small") == {}
+        assert cache.get_many(["d1"], "c2", "big") == {}
+
+    def test_expired_entries_are_ignored_and_pruned(self):
+        cache = RelevanceCache(":memory:", ttl_seconds=60)
+        cache.put("d1", "c1", "big", True, 8)
+        cache._conn.execute("UPDATE relevance_cache SET created_at = ?", (time.time() - 120,))
+
+        assert cache.get_many(["d1"], "c1", "big") == {}
+        assert cache.prune() == 1
+        assert cache.count() == 0
+
+    def test_persisted_across_reopen(self, tmp_path):
+        db_file = str(tmp_path / "relevance_cache.sqlite")
+        RelevanceCache(db_file).put("d1", "c1", "big", False, 1)
+
+        assert RelevanceCache(db_file).get_many(["d1"], "c1", "big") == {"d1": (False, 1)}
+
+
+class TestDocFilterCascade:
+    """DocFilter 分级过滤与缓存"""
+
+    def test_repeat_question_is_served_from_cache(self, tmp_path):
+        doc_filter = _ScriptedFilter(
+            _FakeLLM("big"), _args(), str(tmp_path), {"big": {"a.md": "yes/8", "b.md": "no/1"}}
+        )
+
+        first = doc_filter.filter_docs(_question("How to build?"), _docs("a.md", "b.md"))
+        second = doc_filter.filter_docs(_question("how to build"), _docs("a.md", "b.md"))
+
+        assert len(doc_filter.calls) == 2
+        assert [d.source_code.module_name for d in first.docs] == ["a.md"]
+        assert [d.source_code.module_name for d in second.docs] == ["a.md"]
+        assert _stage(second, "cache").decided == 2
+        assert _stage(second, "cache").hit_rate == 1.0
+        assert _stage(second, "model").evaluated == 0
+        assert os.path.exists(os.path.join(str(tmp_path), ".cache", "relevance_cache.sqlite"))
+
+    def test_changed_document_is_judged_again(self, tmp_path):
+        doc_filter = _ScriptedFilter(
+            _FakeLLM("big"), _args(), str(tmp_path), {"big": {"a.md": "yes/8"}}
+        )
+        doc_filter.filter_docs(_question("q"), _docs("a.md"))
+
+        changed = [SourceCode(module_name="a.md", source_code="new content")]
+        doc_filter.filter_docs(_question("q"), changed)
+
+        assert len(doc_filter.calls) == 2
+
+    def test_small_model_decides_clear_cases(self, tmp_path):
+        small = _FakeLLM("small")
+        doc_filter = _ScriptedFilter(
+            _FakeLLM("big", {"recall_small_model": small}),
+            _args(),
+            str(tmp_path),
+            {
+                "small": {"clear_yes.md": "yes/9", "clear_no.md": "no/0", "unsure.md": "yes/5"},
+                "big": {"unsure.md": "yes/7"},
+            },
+        )
+
+        result = doc_filter.filter_docs(_question("q"), _docs("clear_yes.md", "clear_no.md", "unsure.md"))
+
+        assert ("big", "unsure.md") in doc_filter.calls
+        assert [c for c in doc_filter.calls if c[0] == "big"] == [("big", "unsure.md")]
+        assert [d.source_code.module_name for d in result.docs] == ["clear_yes.md", "unsure.md"]
+        assert _stage(result, "small_model").evaluated == 3
+        assert _stage(result, "small_model").decided == 2
+        assert _stage(result, "model").evaluated == 1
+
+        # 重复提问时，中间分数的文档直接交给召回模型的缓存，不再调用任何模型
+        doc_filter.calls.clear()
+        again = doc_filter.filter_docs(_question("q"), _docs("clear_yes.md", "clear_no.md", "unsure.md"))
+        assert doc_filter.calls == []
+        assert _stage(again, "cache").decided == 3
+
+    def test_embedding_similarity_rejects_unrelated_documents(self, tmp_path):
+        emb = _FakeLLM(
+            "emb",
+            embeddings={"build": [1.0, 0.0, 0.0], "near": [0.9, 0.1, 0.0], "far": [0.0, 1.0, 0.0]},
+        )
+        doc_filter = _ScriptedFilter(
+            _FakeLLM("big", {"emb_model": emb}),
+            _args(rag_relevance_emb_reject_threshold=0.2, disable_rag_relevance_cache=True),
+            str(tmp_path),
+            {"big": {"near.md": "yes/8"}},
+        )
+
+        result = doc_filter.filter_docs(_question("build"), _docs("near.md", "far.md"))
+
+        assert doc_filter.calls == [("big", "near.md")]
+        assert [d.source_code.module_name for d in result.docs] == ["near.md"]
+        assert _stage(result, "embedding").decided == 1
+        assert "cache" not in [stat.stage for stat in result.stage_stats]
+        far = next(d for d in result.raw_docs if d.source_code.module_name == "far.md")
+        assert far.source_code.metadata["rag"]["recall"]["relevance_stage"] == "embedding"
+
+    def test_model_errors_are_not_cached(self, tmp_path):
+        doc_filter = _ScriptedFilter(_FakeLLM("big"), _args(), str(tmp_path), {"big": {"a.md": "maybe"}})
+
+        doc_filter.filter_docs(_question("q"), _docs("a.md"))
+        doc_filter.filter_docs(_question("q"), _docs("a.md"))
+
+        assert len(doc_filter.calls) == 2
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_relevance_cache_benchmark(tmp_path):
+    """基准测试：模拟召回模型延迟，对比首次提问和重复提问的过滤耗时"""
+    count = int(os.environ.get("RELEVANCE_BENCH_DOCS", "200"))
+    latency = float(os.environ.get("RELEVANCE_BENCH_LATENCY", "0.02"))
+    names = [f"doc{i}.md" for i in range(count)]
+
+    class _SlowFilter(_ScriptedFilter):
+        def _ask_model(self, llm, conversations, doc_text, filter_config):
+            time.sleep(latency)
+            return super()._ask_model(llm, conversations, doc_text, filter_config)
+
+    doc_filter = _SlowFilter(
+        _FakeLLM("big"),
+        _args(index_filter_workers=8),
+        str(tmp_path),
+        {"big": {name: f"yes/{i % 11}" for i, name in enumerate(names)}},
+    )
+
+    start = time.perf_counter()
+    doc_filter.filter_docs(_question("q"), _docs(*names))
+    cold = time.perf_counter() - start
+
+    start = time.perf_counter()
+    doc_filter.filter_docs(_question("Q?"), _docs(*names))
+    warm = time.perf_counter() - start
+
+    print(f"{count} docs: cold {cold:.2f}s, repeat question {warm:.3f}s")
+
+    assert warm < cold
@@ -0,0 +1,125 @@
+import os
+import time
+from types import SimpleNamespace
+
+import pytest
+
+pytest.importorskip("tokenizers")
+
+from autocoder.rag.token_counter import CHAT_MESSAGE_TEMPLATE, TokenCountingService
+
+
+class _WhitespaceTokenizer:
+    """按空白切分的假 tokenizer，记录每次调用以便断言批量与缓存行为"""
+
+    def __init__(self):
+        self.encode_calls = 0
+        self.batch_calls = []
+
+    def encode(self, text):
+        self.encode_calls += 1
+        return SimpleNamespace(ids=text.split())
+
+    def encode_batch(self, texts):
+        self.batch_calls.append(list(texts))
+        return [SimpleNamespace(ids=text.split()) for text in texts]
+
+
+class _RecordingPool:
+    _processes = 2
+
+    def __init__(self, tokenizer):
+        self.tokenizer = tokenizer
+        self.parts = None
+
+    def map(self, func, parts):
+        self.parts = parts
+        return [[len(self.tokenizer.encode(t).ids) for t in part] for part in parts]
+
+
+class TestTokenCountingService:
+    """TokenCountingService 的单元测试"""
+
+    def test_count_many_batches_misses_and_caches(self):
+        tokenizer = _WhitespaceTokenizer()
+        service = TokenCountingService(tokenizer)
+
+        assert service.count_many(["a b", "c", "a b"]) == [2, 1, 2]
+        assert tokenizer.batch_calls == [["a b", "c"]]
+
+        assert service.count_many(["c", "d e f"]) == [1, 3]
+        assert tokenizer.batch_calls[-1] == ["d e f"]
+        assert service.cache_info() == {"hits": 1, "misses": 4, "size": 3}
+
+    def test_chat_message_overhead(self):
+        tokenizer = _WhitespaceTokenizer()
+        service = TokenCountingService(tokenizer, chat_message=True)
+        overhead = len(CHAT_MESSAGE_TEMPLATE.split())
+
+        assert service.count("a b c") == 3 + overhead
+
+    def test_lru_eviction(self):
+        tokenizer = _WhitespaceTokenizer()
+        service = TokenCountingService(tokenizer, cache_size=2)
+        service.count_many(["a", "b"])
+        service.count("a")
+        service.count("c")
+
+        tokenizer.batch_calls.clear()
+        service.count_many(["a", "b"])
+
+        assert tokenizer.batch_calls == [["b"]]
+
+    def test_large_batches_go_to_pool(self):
+        tokenizer = _WhitespaceTokenizer()
+        pool = _RecordingPool(tokenizer)
+        service = TokenCountingService(tokenizer, pool=pool, pool_threshold_chars=10)
+
+        assert service.count_many(["x"]) == [1]
+        assert pool.parts is None
+
+        texts = ["a b c", "d e", "f g h i", "j"]
+        assert service.count_many(texts) == [3, 2, 4, 1]
+        assert [t for part in pool.parts for t in part] == texts
+        assert len(pool.parts) == 2
+
+    def test_worker_errors_are_not_cached(self):
+        tokenizer = _WhitespaceTokenizer()
+        pool = SimpleNamespace(_processes=1, map=lambda func, parts: [[-1] * len(p) for p in parts])
+        service = TokenCountingService(tokenizer, pool=pool, pool_threshold_chars=1, chat_message=True)
+
+        assert service.count_many(["a", "b"]) == [-1, -1]
+        assert service.cache_info()["size"] == 0
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_count_many_benchmark():
+    """基准测试：真实 tokenizer 下逐条 encode 与 count_many 的耗时对比"""
+    from importlib import resources
+    from tokenizers import Tokenizer
+
+    tokenizer = Tokenizer.from_file(str(resources.files("autocoder") / "data" / "tokenizer.json"))
+    count = int(os.environ.get("TOKEN_COUNT_BENCH_TEXTS", "5000"))
+    texts = [f"def function_{i}(x):\n    return x * {i}  # 注释 {i}\n" * 20 for i in range(count)]
+
+    start = time.perf_counter()
+    expected = [len(tokenizer.encode('{"role":"user","content":"' + t + '"}').ids) for t in texts]
+    serial_time = time.perf_counter() - start
+
+    service = TokenCountingService(tokenizer, chat_message=True)
+    start = time.perf_counter()
+    actual = service.count_many(texts)
+    batch_time = time.perf_counter() - start
+
+    start = time.perf_counter()
+    service.count_many(texts)
+    cached_time = time.perf_counter() - start
+
+    mismatches = sum(1 for a, b in zip(actual, expected) if abs(a - b) > 2)
+    print(f"{count} texts: encode {serial_time:.2f}s, count_many {batch_time:.2f}s, "
+          f"cached {cached_time:.3f}s, mismatches {mismatches}")
+
+    assert mismatches == 0
+    assert batch_time < serial_time
+    assert cached_time < batch_time
@@ -1,9 +1,17 @@
+import hashlib
+import threading
 import time
+from collections import OrderedDict
+from typing import Dict, List, Optional, Sequence
 from loguru import logger
 from tokenizers import Tokenizer
-from multiprocessing import Pool, cpu_count
+from multiprocessing import cpu_count, get_context
 from autocoder.rag.variable_holder import VariableHolder
 
+# 历史上按 '{"role":"user","content":"' + text + '"}' 计数，这里只计算一次包装部分的 token 数，
+# 再加到正文的 token 数上，避免每次拼接一个临时字符串
+CHAT_MESSAGE_TEMPLATE = '{"role":"user","content":""}'
+
 
 class RemoteTokenCounter:
     def __init__(self, tokenizer) -> None:
@@ -19,30 +27,159 @@ class RemoteTokenCounter:
             logger.error(f"Error counting tokens: {str(e)}")
             return -1
 
+    def count_many(self, texts: Sequence[str]) -> List[int]:
+        return [self.count_tokens(text) for text in texts]
+
 
 def initialize_tokenizer(tokenizer_path):
-    global tokenizer_model    
+    global tokenizer_model
     tokenizer_model = Tokenizer.from_file(tokenizer_path)
 
 
-def count_tokens(text: str) -> int:       
+class TokenCountingService:
+    """
+    批量 token 计数服务
+
+    - count_many 先查 LRU 缓存 (以内容哈希为键)，未命中的文本一次性交给 tokenizer.encode_batch，
+      由 tokenizers 在 Rust 侧并行编码
+    - 未命中文本的总字符数超过 pool_threshold_chars 且提供了进程池时，分片交给进程池编码，
+      否则在当前进程内完成，避免小文本的进程间通信开销
+    - chat_message=True 时返回值包含 CHAT_MESSAGE_TEMPLATE 的 token 数，与历史计数口径一致
+    """
+
+    DEFAULT_CACHE_SIZE = 20000
+    DEFAULT_POOL_THRESHOLD_CHARS = 4 * 1024 * 1024
+
+    def __init__(
+        self,
+        tokenizer,
+        cache_size: int = DEFAULT_CACHE_SIZE,
+        pool=None,
+        pool_threshold_chars: int = DEFAULT_POOL_THRESHOLD_CHARS,
+        chat_message: bool = False,
+    ):
+        self.tokenizer = tokenizer
+        self.cache_size = cache_size
+        self.pool = pool
+        self.pool_threshold_chars = pool_threshold_chars
+        self.chat_message = chat_message
+        self._cache: "OrderedDict[bytes, int]" = OrderedDict()
+        self._lock = threading.Lock()
+        self._overhead = (
+            len(tokenizer.encode(CHAT_MESSAGE_TEMPLATE).ids) if chat_message else 0
+        )
+        self.hits = 0
+        self.misses = 0
+
+    def count(self, text: str) -> int:
+        return self.count_many([text])[0]
+
+    def count_many(self, texts: Sequence[str]) -> List[int]:
+        """返回与 texts 一一对应的 token 数"""
+        results: List[Optional[int]] = [None] * len(texts)
+        keys = [self._key(text) for text in texts]
+        missing = {}
+        with self._lock:
+            for i, key in enumerate(keys):
+                cached = self._cache.get(key)
+                if cached is not None:
+                    self._cache.move_to_end(key)
+                    results[i] = cached
+                    self.hits += 1
+                else:
+                    missing.setdefault(key, []).append(i)
+                    self.misses += 1
+
+        if missing:
+            miss_keys = list(missing)
+            miss_texts = [texts[missing[key][0]] for key in miss_keys]
+            counts = self._encode(miss_texts)
+            with self._lock:
+                for key, count in zip(miss_keys, counts):
+                    if count >= 0:
+                        count += self._overhead
+                        self._cache[key] = count
+                    for i in missing[key]:
+                        results[i] = count
+                while len(self._cache) > self.cache_size:
+                    self._cache.popitem(last=False)
+        return results
+
+    def cache_info(self) -> dict:
+        return {"hits": self.hits, "misses": self.misses, "size": len(self._cache)}
+
+    def _encode(self, texts: List[str]) -> List[int]:
+        total_chars = sum(len(text) for text in texts)
+        if self.pool is not None and len(texts) > 1 and total_chars >= self.pool_threshold_chars:
+            parts = self._split_by_chars(texts, getattr(self.pool, "_processes", cpu_count()))
+            counts = []
+            for part_counts in self.pool.map(count_tokens_batch_worker, parts):
+                counts.extend(part_counts)
+            return counts
+        return [len(encoding.ids) for encoding in self.tokenizer.encode_batch(texts)]
+
+    @staticmethod
+    def _split_by_chars(texts: List[str], parts: int) -> List[List[str]]:
+        """按字符数把文本切成大致均匀的连续分片，保持原有顺序"""
+        target = max(1, sum(len(text) for text in texts) // max(1, parts))
+        chunks, current, size = [], [], 0
+        for text in texts:
+            current.append(text)
+            size += len(text)
+            if size >= target:
+                chunks.append(current)
+                current, size = [], 0
+        if current:
+            chunks.append(current)
+        return chunks
+
+    @staticmethod
+    def _key(text: str) -> bytes:
+        return hashlib.blake2b(
+            text.encode("utf-8", errors="surrogatepass"), digest_size=16
+        ).digest()
+
+
+_default_services: Dict[bool, TokenCountingService] = {}
+_default_services_lock = threading.Lock()
+
+
+def get_token_counting_service(chat_message: bool = True) -> TokenCountingService:
+    """
+    返回基于 VariableHolder.TOKENIZER_MODEL 的进程内计数服务，tokenizer 变化时重建
+
+    chat_message=True 时按对话消息计数 (与 count_tokens 一致)，否则只计算正文
+    """
+    with _default_services_lock:
+        service = _default_services.get(chat_message)
+        if service is None or service.tokenizer is not VariableHolder.TOKENIZER_MODEL:
+            service = TokenCountingService(
+                VariableHolder.TOKENIZER_MODEL, chat_message=chat_message
+            )
+            _default_services[chat_message] = service
+        return service
+
+
+def count_tokens(text: str) -> int:
     try:
-        # start_time = time.time_ns()
-        encoded = VariableHolder.TOKENIZER_MODEL.encode('{"role":"user","content":"' + text + '"}')
-        v = len(encoded.ids)
-        # elapsed_time = time.time_ns() - start_time
-        # logger.info(f"Token counting took {elapsed_time/1000000} ms")
-        return v
-    except Exception as e:        
+        return get_token_counting_service().count(text)
+    except Exception as e:
         logger.error(f"Error counting tokens: {str(e)}")
         return -1
 
 
+def count_tokens_many(texts: Sequence[str]) -> List[int]:
+    try:
+        return get_token_counting_service().count_many(texts)
+    except Exception as e:
+        logger.error(f"Error counting tokens: {str(e)}")
+        return [-1] * len(texts)
+
+
 def count_tokens_worker(text: str) -> int:
     try:
         # start_time = time.time_ns()
-        encoded = tokenizer_model.encode('{"role":"user","content":"' + text + '"}')
-        v = len(encoded.ids)
+        v = len(tokenizer_model.encode(text).ids) + _worker_overhead()
         # elapsed_time = time.time_ns() - start_time
         # logger.info(f"Token counting took {elapsed_time/1000000} ms")
         return v
@@ -51,15 +188,60 @@ def count_tokens_worker(text: str) -> int:
         return -1
 
 
+def count_tokens_batch_worker(texts: List[str]) -> List[int]:
+    """进程池中批量计数，返回正文的 token 数 (不含包装部分)"""
+    try:
+        return [len(encoding.ids) for encoding in tokenizer_model.encode_batch(texts)]
+    except Exception as e:
+        logger.error(f"Error counting tokens: {str(e)}")
+        return [-1] * len(texts)
+
+
+_worker_chat_overhead: Optional[int] = None
+
+
+def _worker_overhead() -> int:
+    global _worker_chat_overhead
+    if _worker_chat_overhead is None:
+        _worker_chat_overhead = len(tokenizer_model.encode(CHAT_MESSAGE_TEMPLATE).ids)
+    return _worker_chat_overhead
+
+
 class TokenCounter:
     def __init__(self, tokenizer_path: str):
         self.tokenizer_path = tokenizer_path
         self.num_processes = cpu_count() - 1 if cpu_count() > 1 else 1
-        self.pool = Pool(
-            processes=self.num_processes,
-            initializer=initialize_tokenizer,
-            initargs=(self.tokenizer_path,),
+        self._pool = None
+        self._pool_lock = threading.Lock()
+        self.service = TokenCountingService(
+            Tokenizer.from_file(tokenizer_path), pool=_LazyPool(self), chat_message=True
         )
 
+    @property
+    def pool(self):
+        """只有遇到超大批量时才创建进程池"""
+        with self._pool_lock:
+            if self._pool is None:
+                self._pool = get_context("spawn").Pool(
+                    processes=self.num_processes,
+                    initializer=initialize_tokenizer,
+                    initargs=(self.tokenizer_path,),
+                )
+            return self._pool
+
     def count_tokens(self, text: str) -> int:
-        return self.pool.apply(count_tokens_worker, (text,))
+        return self.service.count(text)
+
+    def count_many(self, texts: Sequence[str]) -> List[int]:
+        return self.service.count_many(texts)
+
+
+class _LazyPool:
+    """把进程池的创建推迟到 TokenCountingService 第一次需要时"""
+
+    def __init__(self, counter: TokenCounter):
+        self._counter = counter
+        self._processes = counter.num_processes
+
+    def map(self, func, iterable):
+        return self._counter.pool.map(func, iterable)
@@ -1,7 +1,7 @@
 import json
 import time
 from concurrent.futures import ThreadPoolExecutor, as_completed
-from typing import List, Callable, Dict
+from typing import List, Callable, Dict, Optional
 from loguru import logger
 from autocoder.common import SourceCode
 from byzerllm.utils.client.code_utils import extract_code
@@ -21,8 +21,10 @@ class TokenLimiter:
         buff_limit: int,
         llm:ByzerLLM,
         disable_segment_reorder: bool,
+        count_tokens_many: Optional[Callable[[List[str]], List[int]]] = None,
     ):
         self.count_tokens = count_tokens
+        self.count_tokens_many = count_tokens_many
         self.full_text_limit = full_text_limit
         self.segment_limit = segment_limit
         self.buff_limit = buff_limit
@@ -92,6 +94,12 @@ class TokenLimiter:
             返回：[]
         """
 
+    def _count_docs_tokens(self, docs: List[SourceCode]) -> List[int]:
+        texts = [doc.source_code for doc in docs]
+        if self.count_tokens_many is not None:
+            return self.count_tokens_many(texts)
+        return [self.count_tokens(text) for text in texts]
+
     def limit_tokens(
         self,
         relevant_docs: List[SourceCode],
@@ -158,9 +166,11 @@ class TokenLimiter:
 
         logger.info(f"After reordering: {len(reorder_relevant_docs)} documents to process")
 
+        ## 一次性批量统计所有文档的 token 数，两轮装填共用
+        doc_token_counts = self._count_docs_tokens(reorder_relevant_docs)
+
         ## 非窗口分区实现
-        for doc in reorder_relevant_docs:
-            doc_tokens = self.count_tokens(doc.source_code)
+        for doc, doc_tokens in zip(reorder_relevant_docs, doc_token_counts):
             doc_num_count += 1
             if token_count + doc_tokens <= self.full_text_limit + self.segment_limit:
                 final_relevant_docs.append(doc)
@@ -179,8 +189,7 @@ class TokenLimiter:
             doc_num_count = 0
             first_round_start_time = time.time()
             
-            for doc in reorder_relevant_docs:
-                doc_tokens = self.count_tokens(doc.source_code)
+            for doc, doc_tokens in zip(reorder_relevant_docs, doc_token_counts):
                 doc_num_count += 1
                 if token_count + doc_tokens <= new_token_limit:
                     self.first_round_full_docs.append(doc)
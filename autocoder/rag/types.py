@@ -55,11 +55,25 @@ class ChunkMetadata(BaseModel):
     chunk_model: str
 
 
+class RelevanceStageStat(BaseModel):
+    """文档相关性分级过滤中单个阶段的统计"""
+    stage: str  # cache | embedding | small_model | model
+    model_name: str = ""
+    evaluated: int = 0  # 进入该阶段的文档数
+    decided: int = 0  # 在该阶段得出结论的文档数
+    hit_rate: float = 0.0  # decided / evaluated
+    total_input_tokens: int = 0
+    total_generated_tokens: int = 0
+    duration: float = 0.0  # 该阶段累计耗时(秒)
+    avg_latency: float = 0.0  # 每个文档在该阶段的平均耗时(秒)
+
+
 class RAGStat(BaseModel):
     recall_stat: RecallStat
     chunk_stat: ChunkStat
     answer_stat: AnswerStat
     other_stats: List[OtherStat] = []
+    relevance_stages: List[RelevanceStageStat] = []
     cost:float = 0.0
 
 class RAGServiceInfo(pydantic.BaseModel):
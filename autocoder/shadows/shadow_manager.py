@@ -1,7 +1,12 @@
 import os
+import json
 import shutil
 import platform
 
+# 链接项目中不镜像的目录
+_IGNORED_NAMES = ('.auto-coder', '.git')
+_OVERLAY_MANIFEST_VERSION = 1
+
 class ShadowManager:
     """
     管理项目文件/目录与其影子等效项之间的映射。
@@ -9,9 +14,14 @@ class ShadowManager:
     并镜像原始项目的结构。
     
     如果提供了event_file_id，则影子文件存储在<source_dir>/.auto-coder/shadows/<event_file_id>/中。
+    
+    增量链接模式（默认）下，链接项目只在包含影子文件的目录（及其祖先目录）中创建真实目录，
+    其余目录直接软链到源目录。已创建的链接结构记录在清单文件中：save_file/update_file/delete_file
+    只更新受影响目录中的链接，create_link_project 按清单和目录 mtime 只同步发生变化的目录，
+    不再每次清空并重建整个链接项目。
     """
     
-    def __init__(self, source_dir, event_file_id=None, ignore_clean_shadows=False):
+    def __init__(self, source_dir, event_file_id=None, ignore_clean_shadows=False, incremental_links=True):
         """
         使用项目根目录初始化。
         
@@ -19,9 +29,11 @@ class ShadowManager:
             source_dir (str): 项目根目录的绝对路径。
             event_file_id (str, optional): 事件文件ID，用于创建特定的影子目录。
             ignore_clean_shadows (bool, optional): 是否忽略清理影子目录。
+            incremental_links (bool, optional): 是否增量维护链接项目，为False时每次完整重建。
         """
         self.source_dir = os.path.abspath(source_dir)
         self.ignore_clean_shadows = ignore_clean_shadows
+        self.incremental_links = incremental_links
         self.event_file_id = None        
         # # 根据是否提供了event_file_id来确定shadows_dir的路径
         # if event_file_id:       
@@ -49,6 +61,8 @@ class ShadowManager:
             self.link_projects_dir = os.path.join(link_projects_dir, source_basename) 
 
         os.makedirs(self.link_projects_dir, exist_ok=True)                
+        # 增量链接模式的清单文件，与链接项目目录相邻
+        self.link_manifest_path = self.link_projects_dir + '.overlay.json'
         
 
     def get_event_file_id_from_path(self, path):
@@ -173,6 +187,8 @@ class ShadowManager:
         # 将内容写入影子文件
         with open(shadow_path, 'w', encoding='utf-8') as f:
             f.write(content)
+        
+        self._update_link_overlay(file_path)
             
         return shadow_path
     
@@ -225,6 +241,7 @@ class ShadowManager:
         
         if os.path.exists(shadow_path):
             os.remove(shadow_path)
+            self._update_link_overlay(file_path)
             return True
         
         return False 
@@ -256,14 +273,34 @@ class ShadowManager:
             print(f"清理影子目录时出错: {str(e)}")
             return False 
 
-    def create_link_project(self):
+    def create_link_project(self, full_rebuild=False):
         """
         创建链接项目，该项目是源目录的一个特殊副本，
         其中优先使用影子目录中的文件，如果影子目录中不存在则使用源目录中的文件。
         
+        增量链接模式下，如果已有有效的清单，只同步影子文件集合或源目录内容发生变化的目录。
+        
+        参数:
+            full_rebuild (bool): 是否忽略清单，清空后完整重建
+        
         返回:
             str: 链接项目的路径
         """      
+        if self.incremental_links:
+            overlay = None if full_rebuild else self._load_link_overlay()
+            if overlay is None:
+                self._clean_link_project_dir()
+                overlay = {'shadowed': {}, 'materialized': {}}
+                source_changed = set()
+            else:
+                # 真实目录中的链接需要与源目录保持一致，目录 mtime 变化说明其中有文件被添加、删除或重命名
+                source_changed = {
+                    rel_dir for rel_dir, mtime in overlay['materialized'].items()
+                    if self._source_dir_mtime(rel_dir) != mtime
+                }
+            self._apply_link_overlay(overlay, self._scan_shadowed_files(), source_changed)
+            return self.link_projects_dir
+
         # 清理链接项目目录
         self._clean_link_project_dir()
         # 创建链接项目
@@ -408,6 +445,215 @@ class ShadowManager:
                 else:
                     self._create_symlink_safe(source_item_path, link_item_path)
                     
+    def _is_linkable(self, rel_path):
+        """
+        判断相对路径对应的源文件是否会出现在链接项目中（与 _create_links 的遍历规则一致）。
+        """
+        parts = rel_path.split(os.sep)
+        if any(part in _IGNORED_NAMES for part in parts[:-1]):
+            return False
+        if len(parts) == 1 and parts[0] in _IGNORED_NAMES:
+            return False
+        return os.path.isfile(os.path.join(self.source_dir, rel_path))
+
+    def _scan_shadowed_files(self):
+        """
+        扫描影子目录，返回会在链接项目中替换源文件的影子文件。
+
+        只进入源目录中也存在的子目录，其他事件的影子目录和链接项目目录不会被遍历。
+
+        返回:
+            dict: 相对路径 -> 影子文件的 mtime_ns
+        """
+        shadowed = {}
+        for root, dirs, files in os.walk(self.shadows_dir):
+            rel_root = os.path.relpath(root, self.shadows_dir)
+            rel_root = '' if rel_root == '.' else rel_root
+            dirs[:] = [
+                d for d in dirs
+                if d not in _IGNORED_NAMES and os.path.isdir(os.path.join(self.source_dir, rel_root, d))
+            ]
+            for file_name in files:
+                rel_path = os.path.join(rel_root, file_name) if rel_root else file_name
+                if self._is_linkable(rel_path):
+                    try:
+                        shadowed[rel_path] = os.stat(os.path.join(root, file_name)).st_mtime_ns
+                    except FileNotFoundError:
+                        continue
+        return shadowed
+
+    @staticmethod
+    def _materialized_dirs(shadowed):
+        """链接项目中需要创建为真实目录的目录：根目录和所有影子文件的祖先目录"""
+        materialized = {''}
+        for rel_path in shadowed:
+            rel_dir = os.path.dirname(rel_path)
+            while rel_dir not in materialized:
+                materialized.add(rel_dir)
+                rel_dir = os.path.dirname(rel_dir)
+        return materialized
+
+    def _source_dir_mtime(self, rel_dir):
+        try:
+            return os.stat(os.path.join(self.source_dir, rel_dir) if rel_dir else self.source_dir).st_mtime_ns
+        except OSError:
+            return None
+
+    def _load_link_overlay(self):
+        """
+        读取增量链接模式的清单。清单不存在、不匹配或链接项目已被外部修改时返回None。
+        """
+        try:
+            with open(self.link_manifest_path, 'r', encoding='utf-8') as f:
+                overlay = json.load(f)
+        except (OSError, ValueError):
+            return None
+
+        if (not isinstance(overlay, dict)
+                or overlay.get('version') != _OVERLAY_MANIFEST_VERSION
+                or overlay.get('source_dir') != self.source_dir
+                or overlay.get('shadows_dir') != self.shadows_dir
+                or not isinstance(overlay.get('shadowed'), dict)
+                or not isinstance(overlay.get('materialized'), dict)):
+            return None
+
+        # 清单记录的真实目录必须仍然存在
+        for rel_dir in overlay['materialized']:
+            link_path = os.path.join(self.link_projects_dir, rel_dir) if rel_dir else self.link_projects_dir
+            if os.path.islink(link_path) or not os.path.isdir(link_path):
+                return None
+        return overlay
+
+    def _save_link_overlay(self, shadowed, materialized):
+        overlay = {
+            'version': _OVERLAY_MANIFEST_VERSION,
+            'source_dir': self.source_dir,
+            'shadows_dir': self.shadows_dir,
+            'shadowed': shadowed,
+            'materialized': materialized,
+        }
+        tmp_path = self.link_manifest_path + '.tmp'
+        with open(tmp_path, 'w', encoding='utf-8') as f:
+            json.dump(overlay, f)
+        os.replace(tmp_path, self.link_manifest_path)
+
+    def _remove_link_entry(self, path):
+        if os.path.islink(path) or os.path.isfile(path):
+            os.unlink(path)
+        elif os.path.isdir(path):
+            shutil.rmtree(path)
+
+    def _sync_link_dir(self, rel_dir, shadowed, materialized):
+        """
+        使链接项目中的一个真实目录与源目录一致：子目录为软链接（或需要展开的真实目录），
+        文件软链到影子文件（存在时）或源文件。已经正确的链接保持不变。
+
+        返回:
+            int: 同步前读取的源目录 mtime_ns
+        """
+        source_path = os.path.join(self.source_dir, rel_dir) if rel_dir else self.source_dir
+        link_path = os.path.join(self.link_projects_dir, rel_dir) if rel_dir else self.link_projects_dir
+        mtime = self._source_dir_mtime(rel_dir)
+
+        if os.path.islink(link_path) or not os.path.isdir(link_path):
+            if os.path.lexists(link_path):
+                self._remove_link_entry(link_path)
+            os.makedirs(link_path, exist_ok=True)
+
+        # 期望的链接目标，None 表示真实目录
+        desired = {}
+        with os.scandir(source_path) as entries:
+            for entry in entries:
+                item_rel_path = os.path.join(rel_dir, entry.name) if rel_dir else entry.name
+                if entry.is_dir():
+                    if entry.name in _IGNORED_NAMES:
+                        continue
+                    desired[entry.name] = None if item_rel_path in materialized else entry.path
+                elif entry.is_file():
+                    if not rel_dir and entry.name in _IGNORED_NAMES:
+                        continue
+                    if item_rel_path in shadowed:
+                        desired[entry.name] = os.path.join(self.shadows_dir, item_rel_path)
+                    else:
+                        desired[entry.name] = entry.path
+
+        for name in os.listdir(link_path):
+            if name not in desired:
+                self._remove_link_entry(os.path.join(link_path, name))
+
+        for name, target in desired.items():
+            link_item_path = os.path.join(link_path, name)
+            if target is None:
+                if os.path.islink(link_item_path) or (os.path.lexists(link_item_path) and not os.path.isdir(link_item_path)):
+                    self._remove_link_entry(link_item_path)
+                os.makedirs(link_item_path, exist_ok=True)
+                continue
+            if os.path.islink(link_item_path):
+                if os.readlink(link_item_path) == target:
+                    continue
+                os.unlink(link_item_path)
+            elif os.path.lexists(link_item_path):
+                # 复制降级（Windows）产生的文件或目录，重新创建
+                self._remove_link_entry(link_item_path)
+            self._create_symlink_safe(target, link_item_path)
+
+        return mtime
+
+    def _apply_link_overlay(self, overlay, shadowed, source_changed=()):
+        """
+        把链接项目从清单记录的状态更新为 shadowed 对应的状态，只同步受影响的目录。
+
+        参数:
+            overlay: 清单记录的状态（shadowed、materialized）
+            shadowed: 新的影子文件集合（相对路径 -> mtime_ns）
+            source_changed: 源目录内容发生变化的真实目录
+        """
+        old_shadowed = overlay['shadowed']
+        old_materialized = overlay['materialized']
+        materialized = self._materialized_dirs(shadowed)
+
+        dirty = set(source_changed)
+        # 新展开的目录需要填充；展开或收起的目录由父目录切换为真实目录或软链接
+        dirty.update(materialized.difference(old_materialized))
+        for rel_dir in materialized.symmetric_difference(old_materialized):
+            if rel_dir:
+                dirty.add(os.path.dirname(rel_dir))
+        # 影子文件新增、删除或更新（复制降级时需要重新复制）的目录
+        for rel_path in set(old_shadowed).symmetric_difference(shadowed):
+            dirty.add(os.path.dirname(rel_path))
+        for rel_path, mtime in shadowed.items():
+            if old_shadowed.get(rel_path, mtime) != mtime:
+                dirty.add(os.path.dirname(rel_path))
+        dirty.intersection_update(materialized)
+
+        materialized_mtimes = {rel_dir: old_materialized.get(rel_dir) for rel_dir in materialized}
+        # 父目录先于子目录同步，子目录被收起时其真实目录随父目录的同步一起删除
+        for rel_dir in sorted(dirty, key=lambda d: (d.count(os.sep) if d else -1, d)):
+            materialized_mtimes[rel_dir] = self._sync_link_dir(rel_dir, shadowed, materialized)
+
+        self._save_link_overlay(shadowed, materialized_mtimes)
+
+    def _update_link_overlay(self, file_path):
+        """
+        影子文件被保存或删除后，更新已建立的链接项目中对应的链接。
+
+        链接项目尚未建立时不做任何事，下次 create_link_project 会按当前影子文件建立。
+        """
+        if not self.incremental_links:
+            return
+        overlay = self._load_link_overlay()
+        if overlay is None:
+            return
+
+        rel_path = os.path.relpath(os.path.abspath(file_path), self.source_dir)
+        shadow_path = os.path.join(self.shadows_dir, rel_path)
+        shadowed = dict(overlay['shadowed'])
+        if os.path.isfile(shadow_path) and self._is_linkable(rel_path):
+            shadowed[rel_path] = os.stat(shadow_path).st_mtime_ns
+        elif shadowed.pop(rel_path, None) is None:
+            return
+        self._apply_link_overlay(overlay, shadowed)
+
     def compare_directories(self):
         """
         比较源目录和链接项目目录之间的差异，并打印出来。
@@ -507,6 +753,9 @@ class ShadowManager:
                 type_description = f"{item_rel_path} (源: {'目录' if source_is_dir else '文件'}, 链接: {'目录' if link_is_dir else '文件'})"
                 type_diff.append(type_description)
             elif source_is_dir and link_is_dir:
+                # 软链到源目录的目录与源目录内容相同，无需再遍历
+                if os.path.islink(link_item_path) and os.path.realpath(link_item_path) == os.path.realpath(source_item_path):
+                    continue
                 # 如果都是目录，递归比较
                 self._compare_dir_recursive(
                     source_item_path, 
@@ -0,0 +1,202 @@
+import os
+import time
+
+import pytest
+
+from autocoder.shadows.shadow_manager import ShadowManager
+
+
+def _write(path, content="x"):
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w", encoding="utf-8") as f:
+        f.write(content)
+
+
+def _snapshot(root, shadows_dir=None):
+    """
+    链接项目中可见的文件树：相对路径 -> 'dir' 或文件解析后的真实路径
+
+    影子目录所在位置替换为 <shadows>，便于比较不同事件的链接项目；
+    目录是真实目录还是软链接不影响结果。
+    """
+    shadows_real = os.path.realpath(shadows_dir) if shadows_dir else None
+    result = {}
+    for current, dirs, files in os.walk(root, followlinks=True):
+        for name in dirs:
+            result[os.path.relpath(os.path.join(current, name), root)] = "dir"
+        for name in files:
+            path = os.path.join(current, name)
+            target = os.path.realpath(path)
+            if shadows_real and target.startswith(shadows_real + os.sep):
+                target = "<shadows>" + target[len(shadows_real):]
+            result[os.path.relpath(path, root)] = target
+    return result
+
+
+def _read_link_project(link_dir, rel_path):
+    with open(os.path.join(link_dir, rel_path), encoding="utf-8") as f:
+        return f.read()
+
+
+@pytest.fixture
+def project(tmp_path):
+    source = tmp_path / "project"
+    for rel in ["README.md", "src/app/main.py", "src/app/util.py", "src/lib/core.py",
+                "src/lib/deep/inner.py", "docs/guide.md", ".git/HEAD"]:
+        _write(str(source / rel), rel)
+    return str(source)
+
+
+def _full_snapshot(source, event_file_id):
+    """非增量模式完整重建得到的链接项目，建在单独的目录中，不影响被测的链接项目"""
+    manager = ShadowManager(source, event_file_id, incremental_links=False)
+    manager.link_projects_dir += "_reference"
+    os.makedirs(manager.link_projects_dir, exist_ok=True)
+    return _snapshot(manager.create_link_project())
+
+
+class TestIncrementalLinks:
+    """增量链接模式与完整重建的结果一致，并且只更新受影响的链接"""
+
+    def test_initial_build_matches_full_rebuild(self, project):
+        manager = ShadowManager(project, "evt1")
+        manager.save_file(os.path.join(project, "src/lib/deep/inner.py"), "shadowed")
+        manager.save_file(os.path.join(project, "README.md"), "shadowed readme")
+
+        link_dir = manager.create_link_project()
+
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+        assert _read_link_project(link_dir, "src/lib/deep/inner.py") == "shadowed"
+        assert _read_link_project(link_dir, "src/app/main.py") == "src/app/main.py"
+        assert manager.compare_directories() == ([], [], [])
+
+    def test_save_and_delete_update_links_immediately(self, project):
+        manager = ShadowManager(project, "evt1")
+        link_dir = manager.create_link_project()
+        # 没有影子文件时，src 直接软链到源目录
+        assert os.path.islink(os.path.join(link_dir, "src"))
+
+        manager.save_file(os.path.join(project, "src/app/main.py"), "edited")
+        assert _read_link_project(link_dir, "src/app/main.py") == "edited"
+        assert os.path.islink(os.path.join(link_dir, "src/lib"))
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+
+        manager.delete_file(os.path.join(project, "src/app/main.py"))
+        assert _read_link_project(link_dir, "src/app/main.py") == "src/app/main.py"
+        assert os.path.islink(os.path.join(link_dir, "src"))
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+
+    def test_unaffected_links_are_not_recreated(self, project):
+        manager = ShadowManager(project, "evt1")
+        manager.save_file(os.path.join(project, "src/app/main.py"), "edited")
+        link_dir = manager.create_link_project()
+        untouched = os.path.join(link_dir, "docs")
+        before = os.lstat(untouched).st_ino
+
+        manager.update_file(os.path.join(project, "src/app/util.py"), "edited too")
+        manager.create_link_project()
+
+        assert os.lstat(untouched).st_ino == before
+        assert _read_link_project(link_dir, "src/app/util.py") == "edited too"
+
+    def test_restart_reconciles_source_changes(self, project):
+        manager = ShadowManager(project, "evt1")
+        manager.save_file(os.path.join(project, "src/app/main.py"), "edited")
+        manager.create_link_project()
+
+        # 另一个进程中的 ShadowManager 看到的是源目录和影子目录的最新状态
+        time.sleep(0.01)
+        _write(os.path.join(project, "src/app/added.py"), "added")
+        os.remove(os.path.join(project, "src/app/util.py"))
+        _write(os.path.join(project, "src/lib/new_module.py"), "new")
+        _write(os.path.join(manager.shadows_dir, "src/lib/core.py"), "shadow written elsewhere")
+
+        restarted = ShadowManager(project, "evt1")
+        link_dir = restarted.create_link_project()
+
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+        assert _read_link_project(link_dir, "src/app/added.py") == "added"
+        assert _read_link_project(link_dir, "src/lib/core.py") == "shadow written elsewhere"
+        assert not os.path.lexists(os.path.join(link_dir, "src/app/util.py"))
+
+    def test_cleaned_shadows_are_unlinked_on_next_build(self, project):
+        manager = ShadowManager(project, "evt1")
+        manager.save_file(os.path.join(project, "src/lib/deep/inner.py"), "shadowed")
+        link_dir = manager.create_link_project()
+
+        manager.clean_shadows()
+        manager.create_link_project()
+
+        assert os.path.islink(os.path.join(link_dir, "src"))
+        assert _read_link_project(link_dir, "src/lib/deep/inner.py") == "src/lib/deep/inner.py"
+
+    def test_invalid_manifest_falls_back_to_full_rebuild(self, project):
+        manager = ShadowManager(project, "evt1")
+        manager.save_file(os.path.join(project, "src/app/main.py"), "edited")
+        link_dir = manager.create_link_project()
+
+        with open(manager.link_manifest_path, "w", encoding="utf-8") as f:
+            f.write("{broken")
+        _write(os.path.join(link_dir, "stray.txt"), "left over")
+        manager.create_link_project()
+
+        assert not os.path.exists(os.path.join(link_dir, "stray.txt"))
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+
+    def test_shadow_for_missing_source_file_is_not_linked(self, project):
+        """与完整重建一致：链接项目只镜像源目录中存在的文件"""
+        manager = ShadowManager(project, "evt1")
+        link_dir = manager.create_link_project()
+
+        manager.save_file(os.path.join(project, "src/app/brand_new.py"), "new")
+
+        assert not os.path.lexists(os.path.join(link_dir, "src/app/brand_new.py"))
+        assert _snapshot(link_dir) == _full_snapshot(project, "evt1")
+
+
+def _make_tree(root, dirs, files_per_dir):
+    for d in range(dirs):
+        for f in range(files_per_dir):
+            _write(os.path.join(root, f"pkg_{d % 10}", f"mod_{d}", f"file_{f}.py"), "pass\n")
+
+
+@pytest.mark.performance
+@pytest.mark.slow
+def test_link_project_benchmark(tmp_path):
+    """基准测试：大项目中修改少量文件后刷新链接项目的耗时，对比完整重建"""
+    dirs = int(os.environ.get("SHADOW_BENCH_DIRS", "2000"))
+    files_per_dir = int(os.environ.get("SHADOW_BENCH_FILES_PER_DIR", "10"))
+    edits = int(os.environ.get("SHADOW_BENCH_EDITS", "20"))
+    source = str(tmp_path / "project")
+    _make_tree(source, dirs, files_per_dir)
+    edited = [os.path.join(source, f"pkg_{d % 10}", f"mod_{d}", "file_0.py") for d in range(0, dirs, max(1, dirs // edits))]
+
+    full = ShadowManager(source, "full", incremental_links=False)
+    for path in edited:
+        full.save_file(path, "edited\n")
+    start = time.perf_counter()
+    full.create_link_project()
+    full.compare_directories()
+    full_elapsed = time.perf_counter() - start
+
+    incremental = ShadowManager(source, "incremental")
+    start = time.perf_counter()
+    incremental.create_link_project()
+    first_elapsed = time.perf_counter() - start
+
+    start = time.perf_counter()
+    for path in edited:
+        incremental.save_file(path, "edited\n")
+    save_elapsed = time.perf_counter() - start
+
+    start = time.perf_counter()
+    link_dir = incremental.create_link_project()
+    incremental.compare_directories()
+    refresh_elapsed = time.perf_counter() - start
+
+    assert _snapshot(link_dir, incremental.shadows_dir) == _snapshot(full.link_projects_dir, full.shadows_dir)
+    print(
+        f"{dirs * files_per_dir} files, {len(edited)} shadowed: full rebuild + compare {full_elapsed * 1000:.0f} ms, "
+        f"incremental first build {first_elapsed * 1000:.0f} ms, {len(edited)} saves with link updates "
+        f"{save_elapsed * 1000:.0f} ms, refresh + compare {refresh_elapsed * 1000:.0f} ms"
+    )
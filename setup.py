@@ -68,6 +68,7 @@ setup(
             'data/rules/*.md',
             'data/rules/*.json',
             'data/*.json',
+            'common/check_workers/*.java',
         ]
     },
 